@@ -52,8 +52,16 @@ public abstract class BaseTestCase
             ejbMockFactory.resetMockContextFactory();
             ejbMockFactory = null;
         }
-        webMockFactory = null;
-        actionMockFactory = null;
+        if(null != webMockFactory)
+        {
+            webMockFactory.deactivateJspFactory();
+            webMockFactory = null;
+        }
+        if(null != actionMockFactory)
+        {
+            actionMockFactory.deactivateJspFactory();
+            actionMockFactory = null;
+        }
         jmsMockFactory  = null;
         connectorMockFactory = null;
     }
@@ -2,6 +2,8 @@ package com.mockrunner.base;
 
 import java.io.BufferedReader;
 
+import com.mockrunner.util.web.HTMLQuery;
+
 /**
  * Delegator for {@link HTMLOutputModule}. The corresponding
  * adapters extend this class. This class is used for the standard
@@ -100,4 +102,20 @@ public abstract class HTMLOutputTestCase extends WebTestCase
     {
         getHTMLOutputModule().verifyOutputRegularExpression(expression);
     }
+    
+    /**
+     * Delegates to {@link HTMLOutputModule#queryOutput}
+     */
+    protected void queryOutput(HTMLQuery query)
+    {
+        getHTMLOutputModule().queryOutput(query);
+    }
+    
+    /**
+     * Delegates to {@link HTMLOutputModule#verifyOutputMatches}
+     */
+    protected void verifyOutputMatches(HTMLQuery query)
+    {
+        getHTMLOutputModule().verifyOutputMatches(query);
+    }
 }
@@ -42,6 +42,10 @@ public abstract class BasicTagTestCaseAdapter extends BasicHTMLOutputTestCase
     @After
     public void tearDown() throws Exception
     {
+        if(null != webMockObjectFactory)
+        {
+            webMockObjectFactory.deactivateJspFactory();
+        }
         tagTestModule = null;
         webMockObjectFactory = null;
     }
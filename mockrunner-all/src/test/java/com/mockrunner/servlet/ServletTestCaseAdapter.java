@@ -215,6 +215,14 @@ public abstract class ServletTestCaseAdapter extends HTMLOutputTestCase
         servletTestModule.doFilter();
     }
 
+    /**
+     * Delegates to {@link com.mockrunner.servlet.ServletTestModule#createLoadDriver}
+     */
+    protected ServletLoadDriver createLoadDriver()
+    {
+        return servletTestModule.createLoadDriver();
+    }
+
     /**
      * Delegates to {@link com.mockrunner.servlet.ServletTestModule#getFilteredRequest}
      */
@@ -231,6 +239,14 @@ public abstract class ServletTestCaseAdapter extends HTMLOutputTestCase
         return servletTestModule.getFilteredResponse();
     }
 
+    /**
+     * Delegates to {@link com.mockrunner.servlet.ServletTestModule#getOutputLength}
+     */
+    protected long getOutputLength()
+    {
+        return servletTestModule.getOutputLength();
+    }
+
     /**
      * Delegates to {@link com.mockrunner.servlet.ServletTestModule#clearOutput}
      */
@@ -1,7 +1,12 @@
 package com.mockrunner.test.web;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
@@ -30,6 +35,7 @@ import com.mockrunner.servlet.ServletTestModule;
 import com.mockrunner.struts.ActionTestModule;
 import com.mockrunner.tag.TagTestModule;
 import com.mockrunner.util.common.StreamUtil;
+import com.mockrunner.util.web.HTMLQuery;
 
 public class HTMLOutputModuleTest
 {
@@ -76,6 +82,61 @@ public class HTMLOutputModuleTest
         doTestVerifyOutputRegularExpression(module);
     }
     
+    @Test
+    public void testServletTestModuleCachedDocuments() throws Exception
+    {
+        ServletTestModule module = new ServletTestModule(actionWebFactory);
+        module.createServlet(TestOutputServlet.class);
+        module.doGet();
+        org.w3c.dom.Document w3cDocument = module.getOutputAsW3CDocument();
+        org.jdom.Document jdomDocument = module.getOutputAsJDOMDocument();
+        assertNotSame(w3cDocument, module.getOutputAsW3CDocument());
+        assertNotSame(jdomDocument, module.getOutputAsJDOMDocument());
+        assertSame(module.getOutputAsWellformedXML(), module.getOutputAsWellformedXML());
+        w3cDocument.getDocumentElement().appendChild(w3cDocument.createElement("w3cchanged"));
+        jdomDocument.getRootElement().addContent(new Element("jdomchanged"));
+        assertEquals(0, module.getOutputAsW3CDocument().getElementsByTagName("w3cchanged").getLength());
+        assertNull(module.getOutputAsJDOMDocument().getRootElement().getChild("jdomchanged"));
+        assertFalse(module.getOutputAsWellformedXML().contains("changed"));
+        actionWebFactory.getMockResponse().getWriter().write("<p>more</p>");
+        assertNotSame(jdomDocument, module.getOutputAsJDOMDocument());
+        jdomDocument = module.getOutputAsJDOMDocument();
+        assertTrue(module.getOutputAsWellformedXML().contains("more"));
+        module.clearOutput();
+        actionWebFactory.getMockResponse().resetAll();
+        actionWebFactory.getMockResponse().getWriter().write(testHTML);
+        assertNotSame(jdomDocument, module.getOutputAsJDOMDocument());
+    }
+    
+    @Test
+    public void testServletTestModuleQueryOutput()
+    {
+        ServletTestModule module = new ServletTestModule(actionWebFactory);
+        module.createServlet(TestOutputServlet.class);
+        module.doGet();
+        HTMLQuery query = new HTMLQuery();
+        HTMLQuery.ElementMatcher tag = query.addElementMatcher("tag");
+        module.verifyOutputMatches(query);
+        assertEquals(1, tag.getMatchCount());
+        query.addElementMatcher("table");
+        try
+        {
+            module.verifyOutputMatches(query);
+            fail();
+        } 
+        catch(VerifyFailedException exc)
+        {
+            //should throw exception
+        }
+        TagTestModule tagModule = new TagTestModule(actionWebFactory);
+        tagModule.createTag(TestOutputTag.class);
+        tagModule.doStartTag();
+        HTMLQuery tagQuery = new HTMLQuery();
+        HTMLQuery.ElementMatcher body = tagQuery.addElementMatcher("BODY");
+        tagModule.queryOutput(tagQuery);
+        assertEquals(1, body.getMatchCount());
+    }
+    
     @Test
     public void testServletTestModuleAttributes()
     {
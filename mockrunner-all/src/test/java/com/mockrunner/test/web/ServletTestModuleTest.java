@@ -8,6 +8,7 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -28,6 +29,11 @@ import org.junit.Test;
 import com.mockrunner.base.BaseTestCase;
 import com.mockrunner.base.VerifyFailedException;
 import com.mockrunner.mock.web.MockFilterChain;
+import com.mockrunner.mock.web.MockHttpServletRequest;
+import com.mockrunner.mock.web.MockHttpServletResponse;
+import com.mockrunner.mock.web.OutputCapturePolicy;
+import com.mockrunner.servlet.ServletLoadDriver;
+import com.mockrunner.servlet.ServletLoadResult;
 import com.mockrunner.servlet.ServletTestModule;
 
 public class ServletTestModuleTest extends BaseTestCase
@@ -235,6 +241,58 @@ public class ServletTestModuleTest extends BaseTestCase
         assertSame(responseWrapper, getWebMockObjectFactory().getMockFilterChain().getLastResponse());
     }
     
+    @Test
+    public void testVerifyOutputContainsSpilled() throws Exception
+    {
+        MockHttpServletResponse response = getWebMockObjectFactory().getMockResponse();
+        response.setOutputCapturePolicy(OutputCapturePolicy.spillToFile(4096));
+        for(int ii = 0; ii < 50000; ii++)
+        {
+            response.getWriter().println("<tr><td>" + ii + "</td></tr>");
+        }
+        assertTrue(module.getOutputLength() > 500000);
+        module.verifyOutputContains("<td>49999</td>");
+        try
+        {
+            module.verifyOutputContains("<td>50000</td>");
+            fail();
+        }
+        catch(VerifyFailedException exc)
+        {
+            assertTrue(exc.getMessage().indexOf("bytes does not contain") > 0);
+        }
+        module.clearOutput();
+        assertEquals(0, module.getOutputLength());
+    }
+    
+    @Test
+    public void testLoadDriver()
+    {
+        CountingServlet servlet = module.createServlet(CountingServlet.class);
+        TestFilter filter = module.createFilter(TestFilter.class);
+        module.setDoChain(true);
+        ServletLoadDriver driver = module.createLoadDriver();
+        driver.setNumberThreads(4);
+        driver.setNumberWarmupRequests(10);
+        ServletLoadResult result = driver.run(1000, new ServletLoadDriver.RequestGenerator()
+        {
+            public void prepare(MockHttpServletRequest request, int requestNumber)
+            {
+                request.setupAddParameter("number", String.valueOf(requestNumber));
+            }
+        });
+        assertEquals(1010, servlet.getNumberCalls());
+        assertTrue(filter.wasDoFilterCalled());
+        assertEquals(1000, result.getNumberRequests());
+        assertEquals(100, result.getNumberErrors());
+        assertEquals(4, result.getNumberThreads());
+        assertTrue(result.getThroughput() > 0);
+        assertTrue(result.getLatency(50) <= result.getLatency(99));
+        assertTrue(result.getLatency(99) <= result.getLatency(99.9));
+        assertTrue(result.getLatency(99.9) <= result.getLatencyHistogram().getMax());
+        assertFalse(getWebMockObjectFactory().getMockFilterChain().getRequestList().size() > 0);
+    }
+    
     @Test
     public void testDoFilterReset()
     {
@@ -336,6 +394,26 @@ public class ServletTestModuleTest extends BaseTestCase
         }
     }
     
+    public static class CountingServlet extends HttpServlet
+    {
+        private AtomicInteger numberCalls = new AtomicInteger();
+        
+        protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+        {
+            numberCalls.incrementAndGet();
+            if(request.getParameter("number").endsWith("7"))
+            {
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+            response.getWriter().write("ok");
+        }
+        
+        public int getNumberCalls()
+        {
+            return numberCalls.get();
+        }
+    }
+    
     public static class TestServlet extends HttpServlet
     {
         private boolean initCalled = false;
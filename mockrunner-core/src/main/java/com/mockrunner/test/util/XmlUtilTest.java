@@ -1,6 +1,7 @@
 package com.mockrunner.test.util;
 
 import java.io.FileInputStream;
+import java.io.StringReader;
 import java.util.List;
 
 import junit.framework.TestCase;
@@ -8,6 +9,7 @@ import junit.framework.TestCase;
 import org.jdom.Document;
 import org.jdom.Element;
 
+import com.mockrunner.util.web.HTMLQuery;
 import com.mockrunner.util.web.XmlUtil;
 
 public class XmlUtilTest extends TestCase
@@ -81,4 +83,38 @@ public class XmlUtilTest extends TestCase
         Element table = XmlUtil.getBodyFragmentFromJDOMDocument(document);
         assertEquals("table", table.getName());
     }
+    
+    public void testParseHTMLReusesParser() throws Exception
+    {
+        prepareHTML();
+        org.w3c.dom.Document document1 = XmlUtil.parseHTML(source);
+        org.w3c.dom.Document document2 = XmlUtil.parseHTML("<html><body><p>second</p></body></html>");
+        assertNotSame(document1, document2);
+        assertEquals("h3", XmlUtil.getBodyFragmentFromJDOMDocument(XmlUtil.createJDOMDocument(document1)).getName());
+        assertEquals("p", XmlUtil.getBodyFragmentFromJDOMDocument(XmlUtil.createJDOMDocument(document2)).getName());
+    }
+    
+    public void testParseHTMLWithQuery() throws Exception
+    {
+        prepareHTML();
+        HTMLQuery query = new HTMLQuery();
+        HTMLQuery.ElementMatcher link = query.addElementMatcher("a").withAttribute("href", "http://www.mockrunner.com");
+        HTMLQuery.ElementMatcher meta = query.addElementMatcher("META").withAttribute("http-equiv", null);
+        HTMLQuery.ElementMatcher heading = query.addElementMatcher("h3").withText("redirected to http://www");
+        HTMLQuery.ElementMatcher wrongLink = query.addElementMatcher("a").withAttribute("href", "http://www.mockrunner.org");
+        HTMLQuery.TextMatcher text = query.addTextMatcher("You will be");
+        HTMLQuery.TextMatcher spanningText = query.addTextMatcher("to http");
+        XmlUtil.parseHTML(new StringReader(source), query);
+        assertEquals(1, link.getMatchCount());
+        assertEquals(1, meta.getMatchCount());
+        assertEquals(1, heading.getMatchCount());
+        assertEquals(0, wrongLink.getMatchCount());
+        assertEquals(1, text.getMatchCount());
+        assertEquals(0, spanningText.getMatchCount());
+        assertFalse(query.isMatched());
+        assertEquals(2, query.getUnmatchedMatchers().size());
+        XmlUtil.parseHTML(new StringReader("<html><body><a href=\"http://www.mockrunner.org\">x</a></body></html>"), query);
+        assertEquals(0, link.getMatchCount());
+        assertEquals(1, wrongLink.getMatchCount());
+    }
 }
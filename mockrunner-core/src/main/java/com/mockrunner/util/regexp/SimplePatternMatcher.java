@@ -21,6 +21,21 @@ public class SimplePatternMatcher extends PatternMatcher.Base {
       return "equals";
    }
 
+   /**
+    * @return True if this matcher compares case sensitive.
+    */
+   public boolean isCaseSensitive() {
+      return caseSensitive;
+   }
+
+   /**
+    * @return True if the whole string must be equal to the pattern, false if
+    *         the string only has to contain the pattern.
+    */
+   public boolean isExactMatch() {
+      return exactMatch;
+   }
+
    public boolean matches(String string) {
       if (exactMatch) {
          if (caseSensitive) {
@@ -0,0 +1,355 @@
+package com.mockrunner.util.web;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Streaming query for HTML documents. A query consists of
+ * matchers that are checked while the document is parsed with
+ * {@link XmlUtil#parseHTML(java.io.Reader, org.xml.sax.ContentHandler)},
+ * so large documents can be checked without building a DOM.
+ * Example:
+ * <pre>
+ * HTMLQuery query = new HTMLQuery();
+ * HTMLQuery.ElementMatcher link = query.addElementMatcher("a").withAttribute("href", "/next");
+ * HTMLQuery.ElementMatcher title = query.addElementMatcher("h1").withText("Report");
+ * HTMLQuery.TextMatcher total = query.addTextMatcher("Total: 42");
+ * XmlUtil.parseHTML(reader, query);
+ * assertEquals(1, link.getMatchCount());
+ * </pre>
+ * Element and attribute names are compared case insensitive,
+ * attribute values and text are compared case sensitive.
+ * The match counts are reset when the next document is parsed.
+ */
+public class HTMLQuery extends DefaultHandler
+{
+    private List matchers;
+    private List elementMatchers;
+    private List textMatchers;
+    private List openElements;
+    private StringBuilder text;
+    private int depth;
+
+    public HTMLQuery()
+    {
+        matchers = new ArrayList();
+        elementMatchers = new ArrayList();
+        textMatchers = new ArrayList();
+        openElements = new ArrayList();
+        text = new StringBuilder();
+    }
+
+    /**
+     * Adds a matcher for elements with the specified name.
+     * The matcher can be restricted with
+     * {@link ElementMatcher#withAttribute} and
+     * {@link ElementMatcher#withText}.
+     * @param name the element name
+     * @return the matcher
+     */
+    public ElementMatcher addElementMatcher(String name)
+    {
+        ElementMatcher matcher = new ElementMatcher(name);
+        matchers.add(matcher);
+        elementMatchers.add(matcher);
+        return matcher;
+    }
+
+    /**
+     * Adds a matcher for text nodes that contain the specified text.
+     * The text must be contained in one text node, i.e. it must not
+     * span tags.
+     * @param text the text
+     * @return the matcher
+     */
+    public TextMatcher addTextMatcher(String text)
+    {
+        TextMatcher matcher = new TextMatcher(text);
+        matchers.add(matcher);
+        textMatchers.add(matcher);
+        return matcher;
+    }
+
+    /**
+     * Returns all matchers of this query.
+     * @return the <code>List</code> of {@link Matcher} objects
+     */
+    public List getMatchers()
+    {
+        return Collections.unmodifiableList(matchers);
+    }
+
+    /**
+     * Returns the matchers without a match in the last parsed document.
+     * @return the <code>List</code> of {@link Matcher} objects
+     */
+    public List getUnmatchedMatchers()
+    {
+        List unmatched = new ArrayList();
+        for(int ii = 0; ii < matchers.size(); ii++)
+        {
+            Matcher matcher = (Matcher)matchers.get(ii);
+            if(!matcher.isMatched()) unmatched.add(matcher);
+        }
+        return unmatched;
+    }
+
+    /**
+     * Returns if all matchers had at least one match
+     * in the last parsed document.
+     * @return <code>true</code> if all matchers matched
+     */
+    public boolean isMatched()
+    {
+        return getUnmatchedMatchers().isEmpty();
+    }
+
+    public void startDocument()
+    {
+        for(int ii = 0; ii < matchers.size(); ii++)
+        {
+            ((Matcher)matchers.get(ii)).matchCount = 0;
+        }
+        openElements.clear();
+        text.setLength(0);
+        depth = 0;
+    }
+
+    public void startElement(String uri, String localName, String qName, Attributes attributes)
+    {
+        checkText();
+        depth++;
+        String name = getName(localName, qName);
+        for(int ii = 0; ii < elementMatchers.size(); ii++)
+        {
+            ElementMatcher matcher = (ElementMatcher)elementMatchers.get(ii);
+            if(matcher.matchesStart(name, attributes))
+            {
+                if(null == matcher.text)
+                {
+                    addMatch(matcher);
+                }
+                else
+                {
+                    openElements.add(new OpenElement(matcher, depth));
+                }
+            }
+        }
+    }
+
+    public void characters(char[] data, int start, int length)
+    {
+        if(!textMatchers.isEmpty())
+        {
+            text.append(data, start, length);
+        }
+        for(int ii = 0; ii < openElements.size(); ii++)
+        {
+            ((OpenElement)openElements.get(ii)).text.append(data, start, length);
+        }
+    }
+
+    public void endElement(String uri, String localName, String qName)
+    {
+        checkText();
+        while(!openElements.isEmpty())
+        {
+            OpenElement element = (OpenElement)openElements.get(openElements.size() - 1);
+            if(element.depth < depth) break;
+            openElements.remove(openElements.size() - 1);
+            if(element.text.indexOf(element.matcher.text) >= 0)
+            {
+                addMatch(element.matcher);
+            }
+        }
+        depth--;
+    }
+
+    public void endDocument()
+    {
+        checkText();
+        openElements.clear();
+    }
+
+    private void checkText()
+    {
+        if(0 == text.length()) return;
+        for(int ii = 0; ii < textMatchers.size(); ii++)
+        {
+            TextMatcher matcher = (TextMatcher)textMatchers.get(ii);
+            if(text.indexOf(matcher.text) >= 0)
+            {
+                addMatch(matcher);
+            }
+        }
+        text.setLength(0);
+    }
+
+    private static void addMatch(Matcher matcher)
+    {
+        matcher.matchCount++;
+    }
+
+    private String getName(String localName, String qName)
+    {
+        if(null != qName && qName.length() > 0) return qName;
+        return localName;
+    }
+
+    /**
+     * Base class of the matchers of a {@link HTMLQuery}.
+     */
+    public static abstract class Matcher
+    {
+        private int matchCount;
+
+        /**
+         * Returns the number of matches in the last parsed document.
+         * @return the number of matches
+         */
+        public int getMatchCount()
+        {
+            return matchCount;
+        }
+
+        /**
+         * Returns if there was at least one match in the
+         * last parsed document.
+         * @return <code>true</code> if there was a match
+         */
+        public boolean isMatched()
+        {
+            return matchCount > 0;
+        }
+    }
+
+    /**
+     * Matches elements by name and, optionally, by attributes
+     * and contained text.
+     */
+    public static class ElementMatcher extends Matcher
+    {
+        private String name;
+        private List attributeNames;
+        private List attributeValues;
+        private String text;
+
+        private ElementMatcher(String name)
+        {
+            this.name = name;
+            attributeNames = new ArrayList();
+            attributeValues = new ArrayList();
+        }
+
+        /**
+         * Restricts the matcher to elements with the specified attribute.
+         * @param name the attribute name
+         * @param value the attribute value, <code>null</code> matches
+         *        any value
+         * @return this matcher
+         */
+        public ElementMatcher withAttribute(String name, String value)
+        {
+            attributeNames.add(name);
+            attributeValues.add(value);
+            return this;
+        }
+
+        /**
+         * Restricts the matcher to elements whose text content,
+         * including the text of nested elements, contains the
+         * specified text.
+         * @param text the text
+         * @return this matcher
+         */
+        public ElementMatcher withText(String text)
+        {
+            this.text = text;
+            return this;
+        }
+
+        private boolean matchesStart(String elementName, Attributes attributes)
+        {
+            if(!name.equalsIgnoreCase(elementName)) return false;
+            for(int ii = 0; ii < attributeNames.size(); ii++)
+            {
+                String expectedValue = (String)attributeValues.get(ii);
+                String actualValue = getAttributeValue(attributes, (String)attributeNames.get(ii));
+                if(null == actualValue) return false;
+                if(null != expectedValue && !expectedValue.equals(actualValue)) return false;
+            }
+            return true;
+        }
+
+        private String getAttributeValue(Attributes attributes, String attributeName)
+        {
+            for(int ii = 0; ii < attributes.getLength(); ii++)
+            {
+                String currentName = attributes.getQName(ii);
+                if(null == currentName || 0 == currentName.length())
+                {
+                    currentName = attributes.getLocalName(ii);
+                }
+                if(attributeName.equalsIgnoreCase(currentName))
+                {
+                    return attributes.getValue(ii);
+                }
+            }
+            return null;
+        }
+
+        public String toString()
+        {
+            StringBuilder buffer = new StringBuilder("element " + name);
+            for(int ii = 0; ii < attributeNames.size(); ii++)
+            {
+                buffer.append(" with attribute ").append(attributeNames.get(ii));
+                if(null != attributeValues.get(ii))
+                {
+                    buffer.append("=\"").append(attributeValues.get(ii)).append("\"");
+                }
+            }
+            if(null != text)
+            {
+                buffer.append(" with text \"").append(text).append("\"");
+            }
+            return buffer.toString();
+        }
+    }
+
+    /**
+     * Matches text nodes that contain a text.
+     */
+    public static class TextMatcher extends Matcher
+    {
+        private String text;
+
+        private TextMatcher(String text)
+        {
+            this.text = text;
+        }
+
+        public String toString()
+        {
+            return "text \"" + text + "\"";
+        }
+    }
+
+    private static class OpenElement
+    {
+        private ElementMatcher matcher;
+        private int depth;
+        private StringBuilder text;
+
+        public OpenElement(ElementMatcher matcher, int depth)
+        {
+            this.matcher = matcher;
+            this.depth = depth;
+            text = new StringBuilder();
+        }
+    }
+}
@@ -1,13 +1,16 @@
 package com.mockrunner.util.web;
 
+import java.io.Reader;
 import java.io.StringReader;
 import java.util.List;
 
 import org.apache.xerces.parsers.DOMParser;
 import org.cyberneko.html.HTMLConfiguration;
+import org.cyberneko.html.parsers.SAXParser;
 import org.jdom.Element;
 import org.jdom.input.DOMBuilder;
 import org.jdom.output.XMLOutputter;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
 
 import com.mockrunner.base.NestedApplicationException;
@@ -17,6 +20,9 @@ import com.mockrunner.base.NestedApplicationException;
  */
 public class XmlUtil
 { 
+    private final static ThreadLocal htmlParsers = new ThreadLocal();
+    private final static ThreadLocal htmlSAXParsers = new ThreadLocal();
+    
     /**
      * Convinience method for HTML fragments. Returns the body
      * as JDOM <code>Element</code>.
@@ -94,7 +100,8 @@ public class XmlUtil
      * Returns a parser suitable for parsing HTML documents.
      * The NekoHTML parser is used with some settings to
      * preserve case of tag names and disable namespace processing. 
-     * This method is used by {@link #parseHTML}.
+     * {@link #parseHTML} uses parsers created by this method
+     * and keeps one parser per thread for reuse.
      * @return instance of <code>org.apache.xerces.parsers.DOMParser</code>
      *         with Neko configuration
      */
@@ -118,15 +125,57 @@ public class XmlUtil
      * Parses the specified HTML with the NekoHTML parser.
      * If you want to use another HTML parser or configure
      * the NekoHTML parser with special features, you can use
-     * the <code>parse</code> method.
+     * the <code>parse</code> method. The parser is created
+     * with {@link #getHTMLParser} and reused by later calls
+     * of the same thread.
      * @param source the HTML as String
      * @return the parsed document as org.w3c.dom.Document
      */
     public static org.w3c.dom.Document parseHTML(String source)
     {
+        DOMParser parser = (DOMParser)htmlParsers.get();
+        htmlParsers.set(null);
+        if(null == parser)
+        {
+            parser = getHTMLParser();
+        }
+        try
+        {
+            org.w3c.dom.Document document = parse(parser, source);
+            parser.dropDocumentReferences();
+            htmlParsers.set(parser);
+            return document;
+        }
+        catch(Exception exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+    }
+    
+    /**
+     * Parses the specified HTML with the NekoHTML SAX parser and
+     * passes the events to the specified handler. No document is
+     * built, so this method is suitable for large HTML documents,
+     * e.g. with a {@link HTMLQuery}. The parser uses the same
+     * settings as {@link #getHTMLParser} and is reused by later
+     * calls of the same thread.
+     * @param source the HTML
+     * @param handler the handler
+     */
+    public static void parseHTML(Reader source, ContentHandler handler)
+    {
+        SAXParser parser = (SAXParser)htmlSAXParsers.get();
+        htmlSAXParsers.set(null);
         try
         {
-            return parse(getHTMLParser(), source);
+            if(null == parser)
+            {
+                parser = getHTMLSAXParser();
+            }
+            parser.setContentHandler(handler);
+            parser.parse(new InputSource(source));
+            parser.setContentHandler(null);
+            htmlSAXParsers.set(parser);
         }
         catch(Exception exc)
         {
@@ -158,4 +207,12 @@ public class XmlUtil
             throw new NestedApplicationException(exc);
         }
     }
+    
+    private static SAXParser getHTMLSAXParser() throws Exception
+    {
+        SAXParser parser = new SAXParser();
+        parser.setProperty("http://cyberneko.org/html/properties/names/elems", "match");
+        parser.setProperty("http://cyberneko.org/html/properties/names/attrs", "no-change");
+        return parser;
+    }
 }
@@ -4,7 +4,6 @@ import com.mockrunner.mock.jdbc.MockParameterMap;
 import com.mockrunner.util.regexp.PatternMatcher;
 
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -18,10 +17,10 @@ public abstract class AbstractOutParameterResultSetHandler extends AbstractParam
     private boolean mustRegisterOutParameters = false;
     private MockParameterMap globalOutParameter = null;
     private final Map<String, MockParameterMap> outParameterForStatement = new TreeMap<String, MockParameterMap>();
-    private final Map<PatternMatcher, MockParameterMap> outParameterForStatementCompiled = new TreeMap<PatternMatcher, MockParameterMap>();
+    private final Map<PatternMatcher, MockParameterMap> outParameterForStatementCompiled = new SQLStatementIndex<MockParameterMap>();
     private final Map<String, List<ParameterWrapper<MockParameterMap>>> outParameterForStatementParameters = new TreeMap<String, List<ParameterWrapper<MockParameterMap>>>();
     private final Map<PatternMatcher, List<ParameterWrapper<MockParameterMap>>> outParameterForStatementParametersCompiled
-          = new HashMap<PatternMatcher, List<ParameterWrapper<MockParameterMap>>>();
+          = new SQLStatementIndex<List<ParameterWrapper<MockParameterMap>>>();
 
     @Override
     protected void onPatternMatcherFactoryChanged() {
@@ -4,10 +4,10 @@ import com.mockrunner.mock.jdbc.MockParameterMap;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.mockrunner.mock.jdbc.MockResultSet;
 import com.mockrunner.util.regexp.PatternMatcher;
@@ -29,6 +29,8 @@ import com.mockrunner.util.regexp.PatternMatcher;
  */
 public abstract class AbstractResultSetHandler
 {
+    private static final AtomicLong resultSetSequence = new AtomicLong();
+    
     private ResultSetFactory resultSetFactory = ResultSetFactory.Default.INSTANCE;
     private boolean caseSensitive = false;
     private boolean exactMatch = false;
@@ -38,28 +40,37 @@ public abstract class AbstractResultSetHandler
     private MockResultSet[] globalResultSets;
     private Integer[] globalUpdateCounts;
     private final Map<String, Boolean> returnsResultSetMap = new TreeMap<String, Boolean>();
-    private final Map<PatternMatcher, Boolean> returnsResultSetMapCompiled = new HashMap<PatternMatcher, Boolean>();
+    private final Map<PatternMatcher, Boolean> returnsResultSetMapCompiled = new SQLStatementIndex<Boolean>();
     private MockResultSet globalGeneratedKeys;
     private final List<String> executedStatements = new ArrayList<String>();
     private final List<MockResultSet[]> returnedResultSets = new ArrayList<MockResultSet[]>();
     
     private final Map<String, List<ParameterWrapper<MockResultSet[]>>> resultSetsForStatement = new TreeMap<String, List<ParameterWrapper<MockResultSet[]>>>();
-    private final Map<PatternMatcher, List<ParameterWrapper<MockResultSet[]>>> resultSetsForStatementCompiled = new HashMap<PatternMatcher, List<ParameterWrapper<MockResultSet[]>>>();
+    private final Map<PatternMatcher, List<ParameterWrapper<MockResultSet[]>>> resultSetsForStatementCompiled = new SQLStatementIndex<List<ParameterWrapper<MockResultSet[]>>>();
     private final Map<String, List<ParameterWrapper<Integer[]>>> updateCountForStatement = new TreeMap<String, List<ParameterWrapper<Integer[]>>>();
-    private final Map<PatternMatcher, List<ParameterWrapper<Integer[]>>> updateCountForStatementCompiled = new HashMap<PatternMatcher, List<ParameterWrapper<Integer[]>>>();
+    private final Map<PatternMatcher, List<ParameterWrapper<Integer[]>>> updateCountForStatementCompiled = new SQLStatementIndex<List<ParameterWrapper<Integer[]>>>();
     private final Map<String, List<ParameterWrapper<SQLException>>> throwsSQLException = new TreeMap<String, List<ParameterWrapper<SQLException>>>();
-    private final Map<PatternMatcher, List<ParameterWrapper<SQLException>>> throwsSQLExceptionCompiled = new HashMap<PatternMatcher, List<ParameterWrapper<SQLException>>>();
+    private final Map<PatternMatcher, List<ParameterWrapper<SQLException>>> throwsSQLExceptionCompiled = new SQLStatementIndex<List<ParameterWrapper<SQLException>>>();
     private final Map<String, List<ParameterWrapper<MockResultSet>>> generatedKeysForStatement = new TreeMap<String, List<ParameterWrapper<MockResultSet>>>();
-    private final Map<PatternMatcher, List<ParameterWrapper<MockResultSet>>> generatedKeysForStatementCompiled = new HashMap<PatternMatcher, List<ParameterWrapper<MockResultSet>>>();
+    private final Map<PatternMatcher, List<ParameterWrapper<MockResultSet>>> generatedKeysForStatementCompiled = new SQLStatementIndex<List<ParameterWrapper<MockResultSet>>>();
 
+    /**
+     * Creates a unique id for a <code>ResultSet</code>.
+     * @return the id
+     */
+    public static String createResultSetId()
+    {
+        return "ResultSet-" + resultSetSequence.incrementAndGet();
+    }
+    
     /**
      * Creates a new <code>ResultSet</code> with a
-     * random id.
+     * unique id.
      * @return the new <code>ResultSet</code>
      */
     public MockResultSet createResultSet()
     {
-        return resultSetFactory.create(String.valueOf(Math.random()));
+        return resultSetFactory.create(createResultSetId());
     }
     
     /**
@@ -74,13 +85,13 @@ public abstract class AbstractResultSetHandler
     
     /**
      * Returns a new <code>ResultSet</code> created by the specified factory.
-     * Creates a random id.
+     * Creates a unique id.
      * @param factory the {@link ResultSetFactory}
      * @return the new <code>ResultSet</code>
      */
     public MockResultSet createResultSet(ResultSetFactory factory)
     {
-        return factory.create(String.valueOf(Math.random()));
+        return factory.create(createResultSetId());
     }
     
     /**
@@ -1030,8 +1041,13 @@ public abstract class AbstractResultSetHandler
         removeMatchingParameterWrapper(sql, parameters, generatedKeysForStatement, exactMatchParameter);
     }
 
+    @SuppressWarnings("unchecked")
     protected <T> List<T> getMatchingObjects(Map<PatternMatcher, ? extends T> dataMap, String query)
     {
+        if(dataMap instanceof SQLStatementIndex)
+        {
+            return ((SQLStatementIndex<T>)dataMap).getMatchingObjects(query);
+        }
         if(null == query) query = "";
         List<T> resultList = new ArrayList<T>();
 
@@ -0,0 +1,486 @@
+package com.mockrunner.jdbc;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.mockrunner.util.regexp.PatternMatcher;
+import com.mockrunner.util.regexp.SimplePatternMatcher;
+
+/**
+ * A <code>Map</code> of compiled SQL patterns that can find all patterns
+ * matching an SQL string without testing every single pattern.
+ * Used by the <code>ResultSet</code> handlers to resolve prepared
+ * results for executed statements.
+ * <br>
+ * The patterns are distributed to different buckets depending on their type:
+ * <br>
+ * Exact matches (see {@link SimplePatternMatcher#isExactMatch}) are
+ * stored in hash tables keyed by the (case folded) pattern.
+ * <br>
+ * Substring matches of a {@link SimplePatternMatcher} are compiled to
+ * an Aho-Corasick automaton, so all contained patterns are found with
+ * one pass over the SQL string.
+ * <br>
+ * All other patterns, e.g. regular expressions or custom
+ * {@link PatternMatcher} implementations, are kept compiled and are
+ * tested one by one.
+ * <br>
+ * {@link #getMatchingObjects} returns the matching values ordered by the
+ * pattern string, i.e. in the same order a <code>TreeMap</code> of the SQL
+ * strings would return them. The entry set of this map is unmodifiable,
+ * use {@link #put} and {@link #remove} to modify it.
+ */
+public class SQLStatementIndex<V> extends AbstractMap<PatternMatcher, V>
+{
+    private static final Comparator<PatternMatcher> RESOLUTION_ORDER = new Comparator<PatternMatcher>()
+    {
+        public int compare(PatternMatcher matcher1, PatternMatcher matcher2)
+        {
+            int result = matcher1.pattern().compareTo(matcher2.pattern());
+            if(0 != result) return result;
+            return matcher1.type().compareTo(matcher2.type());
+        }
+    };
+
+    private final Map<PatternMatcher, V> entries = new HashMap<PatternMatcher, V>();
+    private final Map<String, List<PatternMatcher>> exactMatchers = new HashMap<String, List<PatternMatcher>>();
+    private final Map<String, List<PatternMatcher>> exactMatchersIgnoreCase = new HashMap<String, List<PatternMatcher>>();
+    private final KeywordAutomaton containsMatchers = new KeywordAutomaton();
+    private final KeywordAutomaton containsMatchersIgnoreCase = new KeywordAutomaton();
+    private final List<PatternMatcher> otherMatchers = new ArrayList<PatternMatcher>();
+
+    @Override
+    public V put(PatternMatcher matcher, V value)
+    {
+        if(!entries.containsKey(matcher))
+        {
+            addToBucket(matcher);
+        }
+        return entries.put(matcher, value);
+    }
+
+    @Override
+    public V get(Object matcher)
+    {
+        return entries.get(matcher);
+    }
+
+    @Override
+    public boolean containsKey(Object matcher)
+    {
+        return entries.containsKey(matcher);
+    }
+
+    @Override
+    public V remove(Object matcher)
+    {
+        if(!entries.containsKey(matcher)) return null;
+        removeFromBucket((PatternMatcher)matcher);
+        return entries.remove(matcher);
+    }
+
+    @Override
+    public void clear()
+    {
+        entries.clear();
+        exactMatchers.clear();
+        exactMatchersIgnoreCase.clear();
+        containsMatchers.clear();
+        containsMatchersIgnoreCase.clear();
+        otherMatchers.clear();
+    }
+
+    @Override
+    public int size()
+    {
+        return entries.size();
+    }
+
+    @Override
+    public Set<Map.Entry<PatternMatcher, V>> entrySet()
+    {
+        return Collections.unmodifiableMap(entries).entrySet();
+    }
+
+    /**
+     * Returns the values of all patterns matching the specified
+     * SQL string, ordered by the pattern string.
+     * @param sql the SQL string
+     * @return the <code>List</code> of matching values
+     */
+    public List<V> getMatchingObjects(String sql)
+    {
+        if(null == sql) sql = "";
+        List<PatternMatcher> matchers = new ArrayList<PatternMatcher>();
+        addAll(matchers, exactMatchers.get(sql));
+        if(!exactMatchersIgnoreCase.isEmpty())
+        {
+            addAll(matchers, exactMatchersIgnoreCase.get(foldCase(sql)));
+        }
+        containsMatchers.collectMatches(sql, matchers);
+        if(!containsMatchersIgnoreCase.isEmpty())
+        {
+            containsMatchersIgnoreCase.collectMatches(sql.toUpperCase(), matchers);
+        }
+        for(PatternMatcher matcher : otherMatchers)
+        {
+            if(matcher.matches(sql))
+            {
+                matchers.add(matcher);
+            }
+        }
+        if(matchers.size() > 1)
+        {
+            Collections.sort(matchers, RESOLUTION_ORDER);
+        }
+        List<V> resultList = new ArrayList<V>(matchers.size());
+        for(PatternMatcher matcher : matchers)
+        {
+            resultList.add(entries.get(matcher));
+        }
+        return resultList;
+    }
+
+    private void addToBucket(PatternMatcher matcher)
+    {
+        if(matcher instanceof SimplePatternMatcher)
+        {
+            SimplePatternMatcher simpleMatcher = (SimplePatternMatcher)matcher;
+            if(simpleMatcher.isExactMatch())
+            {
+                if(simpleMatcher.isCaseSensitive())
+                {
+                    addToList(exactMatchers, matcher.pattern(), matcher);
+                }
+                else
+                {
+                    addToList(exactMatchersIgnoreCase, foldCase(matcher.pattern()), matcher);
+                }
+            }
+            else
+            {
+                if(simpleMatcher.isCaseSensitive())
+                {
+                    containsMatchers.add(matcher.pattern(), matcher);
+                }
+                else
+                {
+                    containsMatchersIgnoreCase.add(matcher.pattern().toUpperCase(), matcher);
+                }
+            }
+        }
+        else
+        {
+            otherMatchers.add(matcher);
+        }
+    }
+
+    private void removeFromBucket(PatternMatcher matcher)
+    {
+        if(matcher instanceof SimplePatternMatcher)
+        {
+            SimplePatternMatcher simpleMatcher = (SimplePatternMatcher)matcher;
+            if(simpleMatcher.isExactMatch())
+            {
+                if(simpleMatcher.isCaseSensitive())
+                {
+                    removeFromList(exactMatchers, matcher.pattern(), matcher);
+                }
+                else
+                {
+                    removeFromList(exactMatchersIgnoreCase, foldCase(matcher.pattern()), matcher);
+                }
+            }
+            else
+            {
+                if(simpleMatcher.isCaseSensitive())
+                {
+                    containsMatchers.remove(matcher.pattern(), matcher);
+                }
+                else
+                {
+                    containsMatchersIgnoreCase.remove(matcher.pattern().toUpperCase(), matcher);
+                }
+            }
+        }
+        else
+        {
+            otherMatchers.remove(matcher);
+        }
+    }
+
+    /**
+     * Folds every character the same way <code>String.equalsIgnoreCase</code>
+     * compares them, so two strings are equal ignoring case if and only
+     * if their folded representations are equal.
+     */
+    private static String foldCase(String string)
+    {
+        char[] chars = string.toCharArray();
+        for(int ii = 0; ii < chars.length; ii++)
+        {
+            chars[ii] = Character.toLowerCase(Character.toUpperCase(chars[ii]));
+        }
+        return new String(chars);
+    }
+
+    private static void addAll(List<PatternMatcher> target, List<PatternMatcher> source)
+    {
+        if(null != source) target.addAll(source);
+    }
+
+    private static void addToList(Map<String, List<PatternMatcher>> map, String key, PatternMatcher matcher)
+    {
+        List<PatternMatcher> list = map.get(key);
+        if(null == list)
+        {
+            list = new ArrayList<PatternMatcher>(1);
+            map.put(key, list);
+        }
+        list.add(matcher);
+    }
+
+    private static void removeFromList(Map<String, List<PatternMatcher>> map, String key, PatternMatcher matcher)
+    {
+        List<PatternMatcher> list = map.get(key);
+        if(null == list) return;
+        list.remove(matcher);
+        if(list.isEmpty()) map.remove(key);
+    }
+
+    /**
+     * Aho-Corasick automaton over the substring patterns. The automaton
+     * is rebuilt on the first lookup after the keywords changed. The
+     * built automaton is immutable and published through a volatile
+     * field, so concurrent lookups never see a partially built trie.
+     */
+    private static class KeywordAutomaton
+    {
+        private final Map<String, List<PatternMatcher>> matchersByKeyword = new LinkedHashMap<String, List<PatternMatcher>>();
+        private volatile Automaton automaton;
+
+        public synchronized boolean isEmpty()
+        {
+            return matchersByKeyword.isEmpty();
+        }
+
+        public synchronized void add(String keyword, PatternMatcher matcher)
+        {
+            addToList(matchersByKeyword, keyword, matcher);
+            automaton = null;
+        }
+
+        public synchronized void remove(String keyword, PatternMatcher matcher)
+        {
+            removeFromList(matchersByKeyword, keyword, matcher);
+            automaton = null;
+        }
+
+        public synchronized void clear()
+        {
+            matchersByKeyword.clear();
+            automaton = null;
+        }
+
+        public void collectMatches(String text, List<PatternMatcher> result)
+        {
+            Automaton current = automaton;
+            if(null == current)
+            {
+                current = build();
+            }
+            current.collectMatches(text, result);
+        }
+
+        private synchronized Automaton build()
+        {
+            if(null == automaton)
+            {
+                automaton = new Automaton(matchersByKeyword);
+            }
+            return automaton;
+        }
+    }
+
+    private static class Automaton
+    {
+        private final List<PatternMatcher>[] keywordMatchers;
+        private final List<PatternMatcher> rootMatchers;
+        private final char[][] labels;
+        private final int[][] targets;
+        private final int[] failure;
+        private final int[] outputLink;
+        private final int[][] outputs;
+
+        public void collectMatches(String text, List<PatternMatcher> result)
+        {
+            if(0 == keywordMatchers.length) return;
+            addAll(result, rootMatchers);
+            BitSet found = null;
+            int state = 0;
+            for(int ii = 0; ii < text.length(); ii++)
+            {
+                char currentChar = text.charAt(ii);
+                int next = step(state, currentChar);
+                while(next < 0 && state != 0)
+                {
+                    state = failure[state];
+                    next = step(state, currentChar);
+                }
+                state = (next < 0) ? 0 : next;
+                int outputState = (null != outputs[state]) ? state : outputLink[state];
+                while(outputState > 0)
+                {
+                    if(null == found) found = new BitSet(keywordMatchers.length);
+                    for(int keyword : outputs[outputState])
+                    {
+                        found.set(keyword);
+                    }
+                    outputState = outputLink[outputState];
+                }
+            }
+            if(null == found) return;
+            for(int keyword = found.nextSetBit(0); keyword >= 0; keyword = found.nextSetBit(keyword + 1))
+            {
+                result.addAll(keywordMatchers[keyword]);
+            }
+        }
+
+        private int step(int state, char currentChar)
+        {
+            char[] stateLabels = labels[state];
+            if(null == stateLabels) return -1;
+            int index = Arrays.binarySearch(stateLabels, currentChar);
+            return (index < 0) ? -1 : targets[state][index];
+        }
+
+        @SuppressWarnings("unchecked")
+        public Automaton(Map<String, List<PatternMatcher>> matchersByKeyword)
+        {
+            List<Map<Character, Integer>> trie = new ArrayList<Map<Character, Integer>>();
+            List<List<Integer>> trieOutputs = new ArrayList<List<Integer>>();
+            trie.add(new HashMap<Character, Integer>());
+            trieOutputs.add(null);
+            keywordMatchers = new List[matchersByKeyword.size()];
+            List<PatternMatcher> emptyKeywordMatchers = null;
+            int keywordIndex = 0;
+            for(Map.Entry<String, List<PatternMatcher>> entry : matchersByKeyword.entrySet())
+            {
+                String keyword = entry.getKey();
+                keywordMatchers[keywordIndex] = new ArrayList<PatternMatcher>(entry.getValue());
+                if(keyword.length() == 0)
+                {
+                    emptyKeywordMatchers = keywordMatchers[keywordIndex];
+                }
+                else
+                {
+                    int state = 0;
+                    for(int ii = 0; ii < keyword.length(); ii++)
+                    {
+                        Character currentChar = keyword.charAt(ii);
+                        Integer next = trie.get(state).get(currentChar);
+                        if(null == next)
+                        {
+                            next = trie.size();
+                            trie.add(new HashMap<Character, Integer>());
+                            trieOutputs.add(null);
+                            trie.get(state).put(currentChar, next);
+                        }
+                        state = next;
+                    }
+                    if(null == trieOutputs.get(state))
+                    {
+                        trieOutputs.set(state, new ArrayList<Integer>(1));
+                    }
+                    trieOutputs.get(state).add(keywordIndex);
+                }
+                keywordIndex++;
+            }
+            rootMatchers = emptyKeywordMatchers;
+            int size = trie.size();
+            labels = new char[size][];
+            targets = new int[size][];
+            outputs = new int[size][];
+            failure = new int[size];
+            outputLink = new int[size];
+            for(int state = 0; state < size; state++)
+            {
+                Map<Character, Integer> transitions = trie.get(state);
+                if(!transitions.isEmpty())
+                {
+                    char[] stateLabels = new char[transitions.size()];
+                    int index = 0;
+                    for(Character currentChar : transitions.keySet())
+                    {
+                        stateLabels[index++] = currentChar;
+                    }
+                    Arrays.sort(stateLabels);
+                    int[] stateTargets = new int[stateLabels.length];
+                    for(int ii = 0; ii < stateLabels.length; ii++)
+                    {
+                        stateTargets[ii] = transitions.get(stateLabels[ii]);
+                    }
+                    labels[state] = stateLabels;
+                    targets[state] = stateTargets;
+                }
+                List<Integer> stateOutputs = trieOutputs.get(state);
+                if(null != stateOutputs)
+                {
+                    outputs[state] = new int[stateOutputs.size()];
+                    for(int ii = 0; ii < stateOutputs.size(); ii++)
+                    {
+                        outputs[state][ii] = stateOutputs.get(ii);
+                    }
+                }
+            }
+            buildFailureLinks(size);
+        }
+
+        private void buildFailureLinks(int size)
+        {
+            int[] queue = new int[size];
+            int head = 0;
+            int tail = 0;
+            outputLink[0] = -1;
+            if(null != targets[0])
+            {
+                for(int child : targets[0])
+                {
+                    failure[child] = 0;
+                    outputLink[child] = -1;
+                    queue[tail++] = child;
+                }
+            }
+            while(head < tail)
+            {
+                int state = queue[head++];
+                if(null == targets[state]) continue;
+                for(int ii = 0; ii < targets[state].length; ii++)
+                {
+                    char currentChar = labels[state][ii];
+                    int child = targets[state][ii];
+                    int fallback = failure[state];
+                    int next = step(fallback, currentChar);
+                    while(next < 0 && fallback != 0)
+                    {
+                        fallback = failure[fallback];
+                        next = step(fallback, currentChar);
+                    }
+                    failure[child] = (next < 0) ? 0 : next;
+                    int failureState = failure[child];
+                    outputLink[child] = (failureState != 0 && null != outputs[failureState]) ? failureState : outputLink[failureState];
+                    queue[tail++] = child;
+                }
+            }
+        }
+    }
+}
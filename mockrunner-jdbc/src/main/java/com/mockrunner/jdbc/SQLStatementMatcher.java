@@ -26,6 +26,8 @@ import java.util.Map.Entry;
 public class SQLStatementMatcher
 {
     private final PatternMatcher.Factory patternMatcherFactory;
+    private String lastQuery;
+    private PatternMatcher lastPatternMatcher;
 
     public SQLStatementMatcher(boolean caseSensitive, boolean exactMatch)
     {
@@ -146,6 +148,9 @@ public class SQLStatementMatcher
     
     /**
      * Compares two strings and returns if they match. 
+     * The compiled pattern of the last query is reused, so
+     * matching one query against many strings compiles
+     * the query only once.
      * @param query the query string that must match source
      * @param source the source string
      * @return <code>true</code> of the strings match, <code>false</code> otherwise
@@ -154,7 +159,11 @@ public class SQLStatementMatcher
     {
         if(null == source) source = "";
         if(null == query) query = "";
-        PatternMatcher patternMatcher = patternMatcherFactory.create(query);
-        return patternMatcher.matches(source);
+        if(null == lastPatternMatcher || !query.equals(lastQuery))
+        {
+            lastPatternMatcher = patternMatcherFactory.create(query);
+            lastQuery = query;
+        }
+        return lastPatternMatcher.matches(source);
     }
 }
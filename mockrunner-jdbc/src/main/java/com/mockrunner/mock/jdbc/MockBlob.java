@@ -1,39 +1,89 @@
 package com.mockrunner.mock.jdbc;
 
-import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.sql.Blob;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
 
 import com.mockrunner.base.NestedApplicationException;
-import com.mockrunner.util.common.ArrayUtil;
-import com.mockrunner.util.common.CollectionUtil;
 
 /**
  * Mock implementation of <code>Blob</code>.
+ * The data is stored in a growable <code>byte</code> array.
+ * Large fixtures can be loaded with {@link #MockBlob(File)}, which
+ * maps the file into memory instead of copying it to the heap.
+ * <br>
+ * Clones share the data with the original <code>Blob</code>
+ * until one of them is modified. The streams returned by
+ * {@link #getBinaryStream()} and {@link #getBinaryStream(long, long)}
+ * are views of the data and do not copy it. The data is copied
+ * on the next modification instead, so the streams are not
+ * affected by later modifications.
  */
 public class MockBlob implements Blob, Cloneable
 {
-    private List<Byte> blobData;
+    private ByteBuffer blobData;
+    private int length;
+    private boolean shared;
     private boolean wasFreeCalled;
-    
+
     public MockBlob(byte[] data)
     {
-        blobData = ArrayUtil.getListFromByteArray(data);
+        blobData = ByteBuffer.wrap(data.clone());
+        length = data.length;
+        shared = false;
         wasFreeCalled = false;
     }
-    
+
+    /**
+     * Creates a <code>Blob</code> with the content of the specified file.
+     * The file is mapped into memory, so the content is not copied to the heap.
+     * The file is mapped read-only and never modified. The data is
+     * copied to the heap when the <code>Blob</code> is modified.
+     * @param file the file
+     * @throws NestedApplicationException if the file cannot be mapped
+     * @throws IllegalArgumentException if the file is larger than 2GB
+     */
+    public MockBlob(File file)
+    {
+        if(file.length() > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("file " + file + " is too large");
+        }
+        try
+        {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try
+            {
+                FileChannel channel = randomAccessFile.getChannel();
+                blobData = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                length = (int)channel.size();
+            }
+            finally
+            {
+                randomAccessFile.close();
+            }
+        }
+        catch(IOException exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+        shared = true;
+        wasFreeCalled = false;
+    }
+
     public long length() throws SQLException
     {
         if(wasFreeCalled)
         {
             throw new SQLException("free() was called");
         }
-        return blobData.size();
+        return length;
     }
 
     public byte[] getBytes(long pos, int length) throws SQLException
@@ -43,7 +93,9 @@ public class MockBlob implements Blob, Cloneable
             throw new SQLException("free() was called");
         }
         length = verifyAndFixLength(pos, length);
-        return ArrayUtil.getByteArrayFromList(blobData, (int)(pos - 1), length);
+        byte[] data = new byte[length];
+        getView((int)(pos - 1), length).get(data);
+        return data;
     }
 
     public InputStream getBinaryStream() throws SQLException
@@ -52,7 +104,8 @@ public class MockBlob implements Blob, Cloneable
         {
             throw new SQLException("free() was called");
         }
-        return new ByteArrayInputStream(ArrayUtil.getByteArrayFromList(blobData));
+        shared = true;
+        return new BlobInputStream(getView(0, length));
     }
 
     public InputStream getBinaryStream(long pos, long length) throws SQLException
@@ -62,7 +115,8 @@ public class MockBlob implements Blob, Cloneable
             throw new SQLException("free() was called");
         }
         length = verifyAndFixLength(pos, (int)length);
-        return new ByteArrayInputStream(ArrayUtil.getByteArrayFromList(blobData, (int)(pos - 1), (int)length));
+        shared = true;
+        return new BlobInputStream(getView((int)(pos - 1), (int)length));
     }
 
     public long position(byte[] pattern, long start) throws SQLException
@@ -71,8 +125,7 @@ public class MockBlob implements Blob, Cloneable
         {
             throw new SQLException("free() was called");
         }
-        byte[] data = ArrayUtil.getByteArrayFromList(blobData);
-        int index = ArrayUtil.indexOf(data, pattern, (int)(start - 1));
+        int index = indexOf(pattern, Math.max(0, (int)(start - 1)));
         if(-1 != index) index += 1;
         return index;
     }
@@ -84,12 +137,7 @@ public class MockBlob implements Blob, Cloneable
 
     public int setBytes(long pos, byte[] bytes) throws SQLException
     {
-        if(wasFreeCalled)
-        {
-            throw new SQLException("free() was called");
-        }
-        ArrayUtil.addBytesToList(bytes, blobData, (int)(pos - 1));
-        return bytes.length;
+        return setBytes(pos, bytes, 0, bytes.length);
     }
 
     public int setBytes(long pos, byte[] bytes, int offset, int len) throws SQLException
@@ -98,7 +146,7 @@ public class MockBlob implements Blob, Cloneable
         {
             throw new SQLException("free() was called");
         }
-        ArrayUtil.addBytesToList(bytes, offset, len, blobData, (int)(pos - 1));
+        writeBytes((int)(pos - 1), bytes, offset, len);
         return len;
     }
 
@@ -117,9 +165,9 @@ public class MockBlob implements Blob, Cloneable
         {
             throw new SQLException("free() was called");
         }
-        blobData = CollectionUtil.truncateList(blobData, (int)len);
+        if(len < length) length = (int)len;
     }
-    
+
     public void free() throws SQLException
     {
         wasFreeCalled = true;
@@ -142,13 +190,17 @@ public class MockBlob implements Blob, Cloneable
         if(!obj.getClass().equals(this.getClass())) return false;
         MockBlob other = (MockBlob)obj;
         if(wasFreeCalled != other.wasFreeCalled()) return false;
-        return blobData.equals(other.blobData);
+        return getView(0, length).equals(other.getView(0, other.length));
     }
 
     @Override
     public int hashCode()
     {
-        int hashCode = blobData.hashCode();
+        int hashCode = 1;
+        for(int ii = 0; ii < length; ii++)
+        {
+            hashCode = (31 * hashCode) + blobData.get(ii);
+        }
         hashCode = (31 * hashCode) + (wasFreeCalled ? 31 : 62);
         return hashCode;
     }
@@ -156,16 +208,24 @@ public class MockBlob implements Blob, Cloneable
     @Override
     public String toString()
     {
-        return "Blob data: " + blobData.toString();     
+        StringBuilder buffer = new StringBuilder("Blob data: [");
+        for(int ii = 0; ii < length; ii++)
+        {
+            if(ii > 0) buffer.append(", ");
+            buffer.append(blobData.get(ii));
+        }
+        buffer.append("]");
+        return buffer.toString();
     }
-    
+
     @Override
     public Object clone() throws CloneNotSupportedException
     {
         try
         {
             MockBlob blob = (MockBlob)super.clone();
-            blob.blobData = new ArrayList<Byte>(blobData);
+            shared = true;
+            blob.shared = true;
             return blob;
         }
         catch(CloneNotSupportedException exc)
@@ -173,34 +233,134 @@ public class MockBlob implements Blob, Cloneable
             throw new NestedApplicationException(exc);
         }
     }
-    
+
     private int verifyAndFixLength(long pos, int length)
     {
         if(length < 0)
         {
             throw new IllegalArgumentException("length must be greater or equals 0");
         }
-        if((length + (pos - 1)) > blobData.size())
+        if((length + (pos - 1)) > this.length)
         {
-            return blobData.size() - (int)(pos - 1);
+            return this.length - (int)(pos - 1);
         }
         return length;
     }
-    
+
+    private ByteBuffer getView(int index, int length)
+    {
+        ByteBuffer view = blobData.duplicate();
+        view.limit(index + length);
+        view.position(index);
+        return view.slice();
+    }
+
+    private void writeBytes(int index, byte[] bytes, int offset, int len)
+    {
+        if(index < 0 || offset < 0 || len < 0 || offset + len > bytes.length)
+        {
+            throw new IndexOutOfBoundsException();
+        }
+        int newLength = Math.max(length, index + len);
+        if(shared || newLength > blobData.capacity())
+        {
+            int capacity = (newLength > blobData.capacity()) ? Math.max(newLength, length + (length >> 1) + 1) : blobData.capacity();
+            byte[] data = new byte[capacity];
+            getView(0, length).get(data, 0, length);
+            blobData = ByteBuffer.wrap(data);
+            shared = false;
+        }
+        for(int ii = length; ii < index; ii++)
+        {
+            blobData.put(ii, (byte)0);
+        }
+        ByteBuffer view = blobData.duplicate();
+        view.position(index);
+        view.put(bytes, offset, len);
+        length = newLength;
+    }
+
+    /**
+     * Knuth-Morris-Pratt search, so the search time only depends
+     * on the length of the data and the pattern.
+     */
+    private int indexOf(byte[] pattern, int index)
+    {
+        if(index + pattern.length > length) return -1;
+        if(pattern.length == 0) return index;
+        int[] failure = new int[pattern.length];
+        for(int ii = 1, kk = 0; ii < pattern.length; ii++)
+        {
+            while(kk > 0 && pattern[ii] != pattern[kk]) kk = failure[kk - 1];
+            if(pattern[ii] == pattern[kk]) kk++;
+            failure[ii] = kk;
+        }
+        for(int ii = index, kk = 0; ii < length; ii++)
+        {
+            byte nextByte = blobData.get(ii);
+            while(kk > 0 && nextByte != pattern[kk]) kk = failure[kk - 1];
+            if(nextByte == pattern[kk]) kk++;
+            if(kk == pattern.length) return ii - pattern.length + 1;
+        }
+        return -1;
+    }
+
+    private static class BlobInputStream extends InputStream
+    {
+        private ByteBuffer data;
+
+        public BlobInputStream(ByteBuffer data)
+        {
+            this.data = data;
+        }
+
+        public int read() throws IOException
+        {
+            if(!data.hasRemaining()) return -1;
+            return data.get() & 0xFF;
+        }
+
+        public int read(byte[] bytes, int offset, int len) throws IOException
+        {
+            if(len == 0) return 0;
+            if(!data.hasRemaining()) return -1;
+            len = Math.min(len, data.remaining());
+            data.get(bytes, offset, len);
+            return len;
+        }
+
+        public long skip(long count) throws IOException
+        {
+            int skipped = (int)Math.max(0, Math.min(count, data.remaining()));
+            data.position(data.position() + skipped);
+            return skipped;
+        }
+
+        public int available() throws IOException
+        {
+            return data.remaining();
+        }
+    }
+
     private class BlobOutputStream extends OutputStream
-    {  
+    {
         private int index;
-        
+
         public BlobOutputStream(int index)
         {
             this.index = index;
         }
-        
+
         public void write(int byteValue) throws IOException
         {
-            byte[] bytes = new byte[] {(byte)byteValue};
-            ArrayUtil.addBytesToList(bytes, blobData, index);
+            writeBytes(index, new byte[] {(byte)byteValue}, 0, 1);
             index++;
         }
+
+        public void write(byte[] bytes, int offset, int len) throws IOException
+        {
+            writeBytes(index, bytes, offset, len);
+            index += len;
+        }
     }
 }
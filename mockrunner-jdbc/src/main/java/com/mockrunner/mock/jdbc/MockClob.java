@@ -1,35 +1,45 @@
 package com.mockrunner.mock.jdbc;
 
 import java.io.ByteArrayInputStream;
+import java.io.CharArrayReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
-import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.sql.Clob;
 import java.sql.SQLException;
+import java.util.Arrays;
 
 import com.mockrunner.base.NestedApplicationException;
 
 /**
  * Mock implementation of <code>Clob</code>.
+ * The data is stored in a growable <code>char</code> array.
+ * The <code>Reader</code> objects returned by {@link #getCharacterStream()}
+ * and {@link #getCharacterStream(long, long)} are views of the data
+ * and do not copy it. The data is copied on the next modification
+ * instead, so the readers are not affected by later modifications.
  */
 public class MockClob implements Clob, Cloneable
 {
-    private StringBuffer clobData;
+    private char[] clobData;
+    private int length;
+    private boolean shared;
     private boolean wasFreeCalled;
     
     public MockClob(String data)
     {
-        clobData = new StringBuffer(data);
+        clobData = data.toCharArray();
+        length = clobData.length;
+        shared = false;
         wasFreeCalled = false;
     }
 
     public long length() throws SQLException
     {
-        return clobData.length();
+        return length;
     }
 
     public void truncate(long len) throws SQLException
@@ -38,7 +48,13 @@ public class MockClob implements Clob, Cloneable
         {
             throw new SQLException("free() was called");
         }
-        clobData.setLength((int)len);
+        if(len < 0) throw new StringIndexOutOfBoundsException((int)len);
+        if(len > length)
+        {
+            prepareWrite((int)len);
+            Arrays.fill(clobData, length, (int)len, '\0');
+        }
+        length = (int)len;
     }
 
     public InputStream getAsciiStream() throws SQLException
@@ -49,7 +65,7 @@ public class MockClob implements Clob, Cloneable
         }
         try
         {
-            return new ByteArrayInputStream(clobData.toString().getBytes("ISO-8859-1"));
+            return new ByteArrayInputStream(new String(clobData, 0, length).getBytes("ISO-8859-1"));
         } 
         catch(UnsupportedEncodingException exc)
         {
@@ -72,7 +88,8 @@ public class MockClob implements Clob, Cloneable
         {
             throw new SQLException("free() was called");
         }
-        return new StringReader(clobData.toString());
+        shared = true;
+        return new CharArrayReader(clobData, 0, length);
     }
 
     public Reader getCharacterStream(long pos, long length) throws SQLException
@@ -82,7 +99,9 @@ public class MockClob implements Clob, Cloneable
             throw new SQLException("free() was called");
         }
         length = verifyAndFixLength(pos, (int)length);
-        return new StringReader(getSubString(pos, (int)length));
+        checkRange((int)(pos - 1), (int)length);
+        shared = true;
+        return new CharArrayReader(clobData, (int)(pos - 1), (int)length);
     }
 
     public Writer setCharacterStream(long pos) throws SQLException
@@ -101,7 +120,8 @@ public class MockClob implements Clob, Cloneable
             throw new SQLException("free() was called");
         }
         length = verifyAndFixLength(pos, length);
-        return clobData.substring((int)(pos - 1), (int)(pos - 1) + length);
+        checkRange((int)(pos - 1), length);
+        return new String(clobData, (int)(pos - 1), length);
     }
 
     public int setString(long pos, String str) throws SQLException
@@ -115,8 +135,12 @@ public class MockClob implements Clob, Cloneable
         {
             throw new SQLException("free() was called");
         }
-        str = str.substring(offset, offset + len);
-        clobData.replace((int)(pos - 1), (int)(pos - 1) + str.length(), str);
+        int index = (int)(pos - 1);
+        if(index < 0 || index > length) throw new StringIndexOutOfBoundsException(index);
+        if(offset < 0 || len < 0 || offset + len > str.length()) throw new StringIndexOutOfBoundsException(offset + len);
+        prepareWrite(index + len);
+        str.getChars(offset, offset + len, clobData, index);
+        length = Math.max(length, index + len);
         return len;
     }
 
@@ -126,7 +150,7 @@ public class MockClob implements Clob, Cloneable
         {
             throw new SQLException("free() was called");
         }
-        int index = clobData.toString().indexOf(searchstr, (int)(start - 1));
+        int index = indexOf(searchstr, Math.max(0, (int)(start - 1)));
         if(-1 != index) index += 1;
         return index;
     }
@@ -157,19 +181,28 @@ public class MockClob implements Clob, Cloneable
         if(!obj.getClass().equals(this.getClass())) return false;
         MockClob other = (MockClob)obj;
         if(wasFreeCalled != other.wasFreeCalled()) return false;
-        return clobData.toString().equals(other.clobData.toString());
+        if(length != other.length) return false;
+        for(int ii = 0; ii < length; ii++)
+        {
+            if(clobData[ii] != other.clobData[ii]) return false;
+        }
+        return true;
     }
 
     public int hashCode()
     {
-        int hashCode = clobData.toString().hashCode();
+        int hashCode = 0;
+        for(int ii = 0; ii < length; ii++)
+        {
+            hashCode = (31 * hashCode) + clobData[ii];
+        }
         hashCode = (31 * hashCode) + (wasFreeCalled ? 31 : 62);
         return hashCode;
     }
 
     public String toString()
     {
-        return "Clob data: " + clobData.toString();
+        return "Clob data: " + new String(clobData, 0, length);
     }
     
     public Object clone()
@@ -177,7 +210,8 @@ public class MockClob implements Clob, Cloneable
         try
         {
             MockClob clone = (MockClob)super.clone();
-            clone.clobData = new StringBuffer(clobData.toString());
+            shared = true;
+            clone.shared = true;
             return clone;
         }
         catch(CloneNotSupportedException exc)
@@ -192,13 +226,61 @@ public class MockClob implements Clob, Cloneable
         {
             throw new IllegalArgumentException("length must be greater or equals 0");
         }
-        if((length + (pos - 1)) > clobData.length())
+        if((length + (pos - 1)) > this.length)
         {
-            return clobData.length() - (int)(pos - 1);
+            return this.length - (int)(pos - 1);
         }
         return length;
     }
     
+    private void checkRange(int index, int length)
+    {
+        if(index < 0 || length < 0 || index + length > this.length)
+        {
+            throw new StringIndexOutOfBoundsException(index);
+        }
+    }
+    
+    /**
+     * Copies the data before it is modified, if it's shared
+     * or if the array is too small for the new length.
+     */
+    private void prepareWrite(int newLength)
+    {
+        if(shared || newLength > clobData.length)
+        {
+            int capacity = Math.max(clobData.length, newLength);
+            if(newLength > clobData.length) capacity = Math.max(newLength, length + (length >> 1) + 1);
+            clobData = Arrays.copyOf(clobData, capacity);
+            shared = false;
+        }
+    }
+    
+    /**
+     * Knuth-Morris-Pratt search, so the search time only depends
+     * on the length of the data and the search string.
+     */
+    private int indexOf(String searchstr, int index)
+    {
+        if(index + searchstr.length() > length) return -1;
+        if(searchstr.length() == 0) return index;
+        char[] pattern = searchstr.toCharArray();
+        int[] failure = new int[pattern.length];
+        for(int ii = 1, kk = 0; ii < pattern.length; ii++)
+        {
+            while(kk > 0 && pattern[ii] != pattern[kk]) kk = failure[kk - 1];
+            if(pattern[ii] == pattern[kk]) kk++;
+            failure[ii] = kk;
+        }
+        for(int ii = index, kk = 0; ii < length; ii++)
+        {
+            while(kk > 0 && clobData[ii] != pattern[kk]) kk = failure[kk - 1];
+            if(clobData[ii] == pattern[kk]) kk++;
+            if(kk == pattern.length) return ii - pattern.length + 1;
+        }
+        return -1;
+    }
+    
     private class ClobWriter extends Writer
     {  
         private int index;
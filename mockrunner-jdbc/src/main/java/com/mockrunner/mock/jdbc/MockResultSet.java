@@ -25,8 +25,8 @@ import java.sql.Time;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -57,13 +57,16 @@ public class MockResultSet implements ResultSet, Cloneable
 {
     private Statement statement;
     private String id;
-    private Map<String, List<Object>> columnMap;
-    private Map<String, List<Object>> columnMapCopy;
-    private Map<String, List<Object>> insertRow;
+    private List<ResultSetColumn> columns;
+    private List<ResultSetColumn> columnsCopy;
+    private Map<String, Integer> columnIndexMap;
+    private Map<String, Integer> resolvedColumnNames;
+    private int[] columnSlots;
+    private Object[] insertRow;
     private List<String> columnNameList;
-    private List<Boolean> updatedRows;
-    private List<Boolean> deletedRows;
-    private List<Boolean> insertedRows;
+    private BitSet updatedRows;
+    private BitSet deletedRows;
+    private BitSet insertedRows;
     private int cursor;
     private boolean isCursorInInsertRow;
     private boolean wasNull;
@@ -93,11 +96,14 @@ public class MockResultSet implements ResultSet, Cloneable
 
     private void init()
     {
-        columnMap = createCaseAwareMap();
+        columns = new ArrayList<ResultSetColumn>();
+        columnIndexMap = createCaseAwareMap();
+        resolvedColumnNames = new HashMap<String, Integer>();
+        columnSlots = null;
         columnNameList = new ArrayList<String>();
-        updatedRows = new ArrayList<Boolean>();
-        deletedRows = new ArrayList<Boolean>();
-        insertedRows = new ArrayList<Boolean>();
+        updatedRows = new BitSet();
+        deletedRows = new BitSet();
+        insertedRows = new BitSet();
         cursor = -1;
         wasNull = false;
         closed = false;
@@ -135,7 +141,11 @@ public class MockResultSet implements ResultSet, Cloneable
      * Copies this <code>ResultSet</code>. The data of the
      * <code>ResultSet</code> is copied using the
      * {@link com.mockrunner.jdbc.ParameterUtil#copyParameter}
-     * method.
+     * method. Columns without mutable values are shared with
+     * the copy and are only copied when one of the two
+     * <code>ResultSet</code> objects modifies them, so cloning
+     * does not depend on the number of rows of these columns.
+     * This <code>ResultSet</code> is not modified by cloning.
      * @return a copy of this <code>ResultSet</code>
      */
     @Override
@@ -144,13 +154,12 @@ public class MockResultSet implements ResultSet, Cloneable
         try
         {       
             MockResultSet copy = (MockResultSet)super.clone();
-            copy.columnNameList = new ArrayList<String>(columnNameList);
-            copy.updatedRows = new ArrayList<Boolean>(updatedRows);
-            copy.deletedRows = new ArrayList<Boolean>(deletedRows);
-            copy.insertedRows = new ArrayList<Boolean>(insertedRows);
-            copy.insertRow = copyColumnDataMap(insertRow);
-            copy.columnMap = copyColumnDataMap(columnMap);
-            copy.columnMapCopy = copyColumnDataMap(columnMapCopy);
+            copy.shareData(this);
+            copy.insertRow = new Object[insertRow.length];
+            for(int ii = 0; ii < insertRow.length; ii++)
+            {
+                copy.insertRow[ii] = ParameterUtil.copyParameter(insertRow[ii]);
+            }
             if(null != resultSetMetaData && resultSetMetaData instanceof MockResultSetMetaData)
             {
                 copy.resultSetMetaData = (ResultSetMetaData)((MockResultSetMetaData)resultSetMetaData).clone();
@@ -165,11 +174,26 @@ public class MockResultSet implements ResultSet, Cloneable
 
    public MockResultSet shallowCopy() {
       try {
-         return (MockResultSet) super.clone();
+         MockResultSet copy = (MockResultSet) super.clone();
+         copy.shareData(this);
+         return copy;
       } catch (CloneNotSupportedException e) {
          throw new NestedApplicationException(e);
       }
    }
+
+    private void shareData(MockResultSet source)
+    {
+        columnNameList = new ArrayList<String>(source.columnNameList);
+        columnIndexMap = createCaseAwareMap();
+        columnIndexMap.putAll(source.columnIndexMap);
+        resolvedColumnNames = new HashMap<String, Integer>();
+        columns = shareColumns(source.columns);
+        columnsCopy = (null == source.columnsCopy) ? null : shareColumns(source.columnsCopy);
+        updatedRows = (BitSet)source.updatedRows.clone();
+        deletedRows = (BitSet)source.deletedRows.clone();
+        insertedRows = (BitSet)source.insertedRows.clone();
+    }
     
     /**
      * Returns the id of this <code>ResultSet</code>. Ids are used
@@ -317,7 +341,7 @@ public class MockResultSet implements ResultSet, Cloneable
 
     public void addRow(HashMap<String,Object> row) throws Exception
     {
-        if(! row.keySet().equals(columnMap.keySet()))
+        if(! row.keySet().equals(columnIndexMap.keySet()))
         {
             throw new Exception("Columns on row don't match results set");
         }
@@ -353,13 +377,12 @@ public class MockResultSet implements ResultSet, Cloneable
         for(int ii = 0; ii < values.size(); ii++)
         {   
            Object nextValue = values.get(ii);
-           String nextColumnName = columnNameList.get(ii);
-           List<Object> nextColumnList = columnMap.get(nextColumnName);
-           nextColumnList.add(nextValue);
+           int nextColumnIndex = getColumnIndex(columnNameList.get(ii));
+           ResultSetColumn nextColumn = getWritableColumn(columns, nextColumnIndex);
+           columns.set(nextColumnIndex, nextColumn.add(nextValue));
         }
         adjustColumns();
         copyColumnMap();
-        adjustFlags();
     }
     
     /**
@@ -405,7 +428,7 @@ public class MockResultSet implements ResultSet, Cloneable
 
     public void addColumns(Set<String> cols) throws Exception
     {
-        if(columnMap.keySet().size() > 0)
+        if(columnIndexMap.keySet().size() > 0)
         {
             throw new Exception("resultSet already has column");
         }
@@ -467,13 +490,23 @@ public class MockResultSet implements ResultSet, Cloneable
      */
     public void addColumn(String columnName, List<Object> values)
     {
-        List<Object> column = new ArrayList<Object>(values);
-        columnMap.put(columnName, column);
+        ResultSetColumn column = ResultSetColumn.create(values);
+        int index = getColumnIndex(columnName);
+        if(index < 0)
+        {
+            columnIndexMap.put(columnName, columns.size());
+            columns.add(column);
+        }
+        else
+        {
+            columns.set(index, column);
+        }
         columnNameList.add(columnName);
+        resolvedColumnNames.clear();
+        columnSlots = null;
         adjustColumns();
         adjustInsertRow();
         copyColumnMap();
-        adjustFlags();
     }
     
     /**
@@ -482,9 +515,8 @@ public class MockResultSet implements ResultSet, Cloneable
      */
     public int getRowCount()
     {
-        if(columnMapCopy.size() == 0) return 0;
-        List<Object> column = columnMapCopy.values().iterator().next();
-        return column.size();
+        if(columns.isEmpty()) return 0;
+        return columns.get(0).size();
     }
     
     /**
@@ -493,7 +525,7 @@ public class MockResultSet implements ResultSet, Cloneable
      */
     public int getColumnCount()
     {
-        return columnMapCopy.size();
+        return columns.size();
     }
     
     /**
@@ -506,7 +538,7 @@ public class MockResultSet implements ResultSet, Cloneable
     public boolean rowInserted(int number)
     {
         if(number < 1) return false;
-        return insertedRows.get(number - 1);
+        return getRowFlag(insertedRows, number - 1);
     }
     
     /**
@@ -519,7 +551,7 @@ public class MockResultSet implements ResultSet, Cloneable
     public boolean rowDeleted(int number)
     {
         if(number < 1) return false;
-        return deletedRows.get(number - 1);
+        return getRowFlag(deletedRows, number - 1);
     }
     
     /**
@@ -532,7 +564,7 @@ public class MockResultSet implements ResultSet, Cloneable
     public boolean rowUpdated(int number)
     {
         if(number < 1) return false;
-        return updatedRows.get(number - 1);
+        return getRowFlag(updatedRows, number - 1);
     }
     
     /**
@@ -662,32 +694,17 @@ public class MockResultSet implements ResultSet, Cloneable
     public boolean isEqual(MockResultSet resultSet)
     {
         if(null == resultSet) return false;
-        Map<String, List<Object>> thisMap;
-        Map<String, List<Object>> otherMap;
-        if(isDatabaseView)
-        {
-            thisMap = columnMap;    
-        }
-        else
-        {
-            thisMap = columnMapCopy;  
-        }
-        if(resultSet.isDatabaseView)
-        {
-            otherMap = resultSet.columnMap;
-        }
-        else
-        {
-            otherMap = resultSet.columnMapCopy;
-        }
-        for (String currentKey : thisMap.keySet()) {
-            List<Object> thisList = thisMap.get(currentKey);
-            List<Object> otherList = otherMap.get(currentKey);
-            if (null == otherList) return false;
-            if (thisList.size() != otherList.size()) return false;
-            for (int ii = 0; ii < thisList.size(); ii++) {
-                Object source = thisList.get(ii);
-                Object target = otherList.get(ii);
+        List<ResultSetColumn> thisColumns = getCurrentColumns();
+        List<ResultSetColumn> otherColumns = resultSet.getCurrentColumns();
+        for (String currentKey : columnIndexMap.keySet()) {
+            ResultSetColumn thisColumn = thisColumns.get(getColumnIndex(currentKey));
+            int otherIndex = resultSet.getColumnIndex(currentKey);
+            if (otherIndex < 0) return false;
+            ResultSetColumn otherColumn = otherColumns.get(otherIndex);
+            if (thisColumn.size() != otherColumn.size()) return false;
+            for (int ii = 0; ii < thisColumn.size(); ii++) {
+                Object source = thisColumn.get(ii);
+                Object target = otherColumn.get(ii);
                 if (null != source && null != target) {
                     if (!source.getClass().isAssignableFrom(target.getClass()) && !target.getClass().isAssignableFrom
                             (source.getClass())) {
@@ -721,13 +738,8 @@ public class MockResultSet implements ResultSet, Cloneable
         int index = number - 1;
         List<Object> list = new ArrayList<Object>();
         for (String nextColumnName : columnNameList) {
-            List<Object> nextColumnList;
-            if (isDatabaseView) {
-                nextColumnList = columnMap.get(nextColumnName);
-            } else {
-                nextColumnList = columnMapCopy.get(nextColumnName);
-            }
-            list.add(nextColumnList.get(index));
+            ResultSetColumn nextColumn = getReadableColumn(getColumnIndex(nextColumnName));
+            list.add(nextColumn.get(index));
         }
         return list;
     }
@@ -759,18 +771,14 @@ public class MockResultSet implements ResultSet, Cloneable
      */
     public List<Object> getColumn(String name)
     {
-        List<Object> list = new ArrayList<Object>();
-        List<Object> columnList;
-        if(isDatabaseView)
+        int index = getColumnIndex(name);
+        if(index < 0) return null;
+        ResultSetColumn column = getReadableColumn(index);
+        List<Object> list = new ArrayList<Object>(column.size());
+        for(int ii = 0; ii < column.size(); ii++)
         {
-            columnList = columnMap.get(name);
+            list.add(column.get(ii));
         }
-        else
-        {
-            columnList = columnMapCopy.get(name);
-        }
-        if(null == columnList) return null;
-        list.addAll(columnList);
         return list;
     }
     
@@ -786,29 +794,12 @@ public class MockResultSet implements ResultSet, Cloneable
     
     public Object getObject(int columnIndex) throws SQLException
     {
-        checkColumnBounds(columnIndex);
-        checkRowBounds();
-        String columnName = columnNameList.get(columnIndex - 1);
-        return getObject(columnName);
+        return getValue(getColumnForRead(columnIndex));
     }
     
     public Object getObject(String columnName) throws SQLException
     {
-        checkRowBounds();
-        if(rowDeleted()) throw new SQLException("row was deleted");
-        List<Object> column;
-        if(isDatabaseView)
-        {
-            column = columnMap.get(columnName);
-        }
-        else
-        {
-            column = columnMapCopy.get(columnName);
-        }
-        checkColumnNotNull(column, columnName);
-        Object value = column.get(cursor);
-        wasNull = (null == value);
-        return value;
+        return getValue(getColumnForRead(columnName));
     }
     
     public <T> T getObject(int columnIndex, Class<T> type) throws SQLException
@@ -857,24 +848,12 @@ public class MockResultSet implements ResultSet, Cloneable
 
     public boolean getBoolean(int columnIndex) throws SQLException
     {
-        Object value = getObject(columnIndex);
-        if(null != value)
-        {
-            if(value instanceof Boolean) return ((Boolean)value);
-            return Boolean.parseBoolean(value.toString());
-        }
-        return false;
+        return toBoolean(getColumnForRead(columnIndex));
     }
     
     public boolean getBoolean(String columnName) throws SQLException
     {
-        Object value = getObject(columnName);
-        if(null != value)
-        {
-            if(value instanceof Boolean) return ((Boolean)value);
-            return Boolean.parseBoolean(value.toString());
-        }
-        return false;
+        return toBoolean(getColumnForRead(columnName));
     }
 
     public byte getByte(int columnIndex) throws SQLException
@@ -923,46 +902,22 @@ public class MockResultSet implements ResultSet, Cloneable
 
     public int getInt(int columnIndex) throws SQLException
     {
-        Object value = getObject(columnIndex);
-        if(null != value)
-        {
-            if(value instanceof Number) return ((Number)value).intValue();
-            return Integer.parseInt(value.toString());
-        }
-        return 0;
+        return toInt(getColumnForRead(columnIndex));
     }
     
     public int getInt(String columnName) throws SQLException
     {
-        Object value = getObject(columnName);
-        if(null != value)
-        {
-            if(value instanceof Number) return ((Number)value).intValue();
-            return Integer.parseInt(value.toString());
-        }
-        return 0;
+        return toInt(getColumnForRead(columnName));
     }
 
     public long getLong(int columnIndex) throws SQLException
     {
-        Object value = getObject(columnIndex);
-        if(null != value)
-        {
-            if(value instanceof Number) return ((Number)value).longValue();
-            return Long.parseLong(value.toString());
-        }
-        return 0;
+        return toLong(getColumnForRead(columnIndex));
     }
     
     public long getLong(String columnName) throws SQLException
     {
-        Object value = getObject(columnName);
-        if(null != value)
-        {
-            if(value instanceof Number) return ((Number)value).longValue();
-            return Long.parseLong(value.toString());
-        }
-        return 0;
+        return toLong(getColumnForRead(columnName));
     }
 
     public float getFloat(int columnIndex) throws SQLException
@@ -989,24 +944,12 @@ public class MockResultSet implements ResultSet, Cloneable
     
     public double getDouble(int columnIndex) throws SQLException
     {
-        Object value = getObject(columnIndex);
-        if(null != value)
-        {
-            if(value instanceof Number) return ((Number)value).doubleValue();
-            return Double.parseDouble(value.toString());
-        }
-        return 0;
+        return toDouble(getColumnForRead(columnIndex));
     }
     
     public double getDouble(String columnName) throws SQLException
     {
-        Object value = getObject(columnName);
-        if(null != value)
-        {
-            if(value instanceof Number) return ((Number)value).doubleValue();
-            return Double.parseDouble(value.toString());
-        }
-        return 0;
+        return toDouble(getColumnForRead(columnName));
     }
 
     @Deprecated
@@ -1624,8 +1567,10 @@ public class MockResultSet implements ResultSet, Cloneable
             return;
         }
         this.fetchDirection = fetchDirection;
-        for (List<Object> column : columnMapCopy.values()) {
-            Collections.reverse(column);
+        List<ResultSetColumn> copyColumns = getCopyColumns();
+        for(int ii = 0; ii < copyColumns.size(); ii++)
+        {
+            getWritableColumn(copyColumns, ii).reverse();
         }
         if(-1 != cursor) cursor = getRowCount() - cursor - 1;
     }
@@ -1699,17 +1644,16 @@ public class MockResultSet implements ResultSet, Cloneable
             checkRowBounds();
             if(rowDeleted()) throw new SQLException("row was deleted");
         }
+        int index = getColumnIndex(columnName);
+        checkColumnExists(index, columnName);
         if(isCursorInInsertRow)
         {
-            List<Object> column = insertRow.get(columnName);
-            checkColumnNotNull(column, columnName);
-            column.set(0, value);
+            insertRow[index] = value;
         }
         else
         {
-            List<Object> column = columnMapCopy.get(columnName);
-            checkColumnNotNull(column, columnName);
-            column.set(cursor, value);
+            List<ResultSetColumn> copyColumns = getCopyColumns();
+            copyColumns.set(index, getWritableColumn(copyColumns, index).set(cursor, value));
         }
     }
     
@@ -2126,19 +2070,19 @@ public class MockResultSet implements ResultSet, Cloneable
     public boolean rowUpdated() throws SQLException
     {
         checkRowBounds();
-        return (updatedRows.get(cursor));
+        return getRowFlag(updatedRows, cursor);
     }
 
     public boolean rowInserted() throws SQLException
     {
         checkRowBounds();
-        return insertedRows.get(cursor);
+        return getRowFlag(insertedRows, cursor);
     }
 
     public boolean rowDeleted() throws SQLException
     {
         checkRowBounds();
-        return deletedRows.get(cursor);
+        return getRowFlag(deletedRows, cursor);
     }
     
     public void insertRow() throws SQLException
@@ -2155,7 +2099,7 @@ public class MockResultSet implements ResultSet, Cloneable
         checkResultSetConcurrency();
         checkRowBounds();
         updateRow(cursor, true);
-        updatedRows.set(cursor, true);
+        updatedRows.set(cursor);
     }
 
     public void deleteRow() throws SQLException
@@ -2164,7 +2108,7 @@ public class MockResultSet implements ResultSet, Cloneable
         checkResultSetConcurrency();
         checkRowBounds();
         deleteRow(cursor);
-        deletedRows.set(cursor, true);
+        deletedRows.set(cursor);
     }
 
     public void refreshRow() throws SQLException
@@ -2178,7 +2122,7 @@ public class MockResultSet implements ResultSet, Cloneable
         if(rowDeleted()) throw new SQLException("row was deleted");
         checkRowBounds();
         updateRow(cursor, false);
-        updatedRows.set(cursor, false);
+        updatedRows.clear(cursor);
     }
 
     public void moveToInsertRow() throws SQLException
@@ -2202,9 +2146,114 @@ public class MockResultSet implements ResultSet, Cloneable
         throw new SQLException("No object found for " + iface);
     }
     
-    private void checkColumnNotNull(List<Object> column, String columnName) throws SQLException
+    private boolean toBoolean(ResultSetColumn column) throws SQLException
+    {
+        if(column.isBoolean())
+        {
+            wasNull = column.isNull(cursor);
+            return wasNull ? false : column.getBoolean(cursor);
+        }
+        Object value = getValue(column);
+        if(null != value)
+        {
+            if(value instanceof Boolean) return ((Boolean)value);
+            return Boolean.parseBoolean(value.toString());
+        }
+        return false;
+    }
+    
+    private int toInt(ResultSetColumn column) throws SQLException
+    {
+        if(column.isNumeric())
+        {
+            wasNull = column.isNull(cursor);
+            return wasNull ? 0 : column.getInt(cursor);
+        }
+        Object value = getValue(column);
+        if(null != value)
+        {
+            if(value instanceof Number) return ((Number)value).intValue();
+            return Integer.parseInt(value.toString());
+        }
+        return 0;
+    }
+    
+    private long toLong(ResultSetColumn column) throws SQLException
     {
-        if(column == null)
+        if(column.isNumeric())
+        {
+            wasNull = column.isNull(cursor);
+            return wasNull ? 0 : column.getLong(cursor);
+        }
+        Object value = getValue(column);
+        if(null != value)
+        {
+            if(value instanceof Number) return ((Number)value).longValue();
+            return Long.parseLong(value.toString());
+        }
+        return 0;
+    }
+    
+    private double toDouble(ResultSetColumn column) throws SQLException
+    {
+        if(column.isNumeric())
+        {
+            wasNull = column.isNull(cursor);
+            return wasNull ? 0 : column.getDouble(cursor);
+        }
+        Object value = getValue(column);
+        if(null != value)
+        {
+            if(value instanceof Number) return ((Number)value).doubleValue();
+            return Double.parseDouble(value.toString());
+        }
+        return 0;
+    }
+    
+    /**
+     * Returns the column with the specified index for reading the
+     * current row. Column indices are resolved to column slots
+     * once and the slots are reused until a column is added,
+     * so no column name lookup is necessary.
+     */
+    private ResultSetColumn getColumnForRead(int columnIndex) throws SQLException
+    {
+        checkColumnBounds(columnIndex);
+        checkRowBounds();
+        if(rowDeleted()) throw new SQLException("row was deleted");
+        if(null == columnSlots) resolveColumnSlots();
+        return getReadableColumn(columnSlots[columnIndex - 1]);
+    }
+    
+    private ResultSetColumn getColumnForRead(String columnName) throws SQLException
+    {
+        checkRowBounds();
+        if(rowDeleted()) throw new SQLException("row was deleted");
+        int index = getColumnIndex(columnName);
+        checkColumnExists(index, columnName);
+        return getReadableColumn(index);
+    }
+    
+    private Object getValue(ResultSetColumn column)
+    {
+        Object value = column.get(cursor);
+        wasNull = (null == value);
+        return value;
+    }
+    
+    private void resolveColumnSlots()
+    {
+        int[] slots = new int[columnNameList.size()];
+        for(int ii = 0; ii < slots.length; ii++)
+        {
+            slots[ii] = getColumnIndex(columnNameList.get(ii));
+        }
+        columnSlots = slots;
+    }
+    
+    private void checkColumnExists(int index, String columnName) throws SQLException
+    {
+        if(index < 0)
         {
             throw new SQLException("No column " + columnName);
         }
@@ -2258,44 +2307,50 @@ public class MockResultSet implements ResultSet, Cloneable
     
     private void insertRow(int index)
     {
-        for (String currentColumnName : columnMapCopy.keySet()) {
-            List<Object> copyColumn = columnMapCopy.get(currentColumnName);
-            List<Object> databaseColumn = columnMap.get(currentColumnName);
-            List<Object> sourceColumn = insertRow.get(currentColumnName);
-            copyColumn.add(index, ParameterUtil.copyParameter(sourceColumn.get(0)));
-            databaseColumn.add(index, ParameterUtil.copyParameter(sourceColumn.get(0)));  
+        for(int ii = 0; ii < columns.size(); ii++)
+        {
+            columns.set(ii, getWritableColumn(columns, ii).add(index, ParameterUtil.copyParameter(insertRow[ii])));
+            if(null != columnsCopy)
+            {
+                columnsCopy.set(ii, getWritableColumn(columnsCopy, ii).add(index, ParameterUtil.copyParameter(insertRow[ii])));
+            }
         }
-        updatedRows.add(index, false);
-        deletedRows.add(index, false);
-        insertedRows.add(index, true);
+        insertRowFlag(updatedRows, index, false);
+        insertRowFlag(deletedRows, index, false);
+        insertRowFlag(insertedRows, index, true);
     }
     
     private void deleteRow(int index)
     {
-        for (String currentColumnName : columnMapCopy.keySet()) {
-            List<Object> copyColumn = columnMapCopy.get(currentColumnName);
-            List<Object> databaseColumn = columnMap.get(currentColumnName);
-            copyColumn.set(index, null);
-            databaseColumn.set(index, null);
+        for(int ii = 0; ii < columns.size(); ii++)
+        {
+            columns.set(ii, getWritableColumn(columns, ii).set(index, null));
+            if(null != columnsCopy)
+            {
+                columnsCopy.set(ii, getWritableColumn(columnsCopy, ii).set(index, null));
+            }
         }
     }
     
     private void updateRow(int index, boolean toDatabase)
     {
-        for (String currentColumnName : columnMapCopy.keySet()) {
-            List<Object> sourceColumn;
-            List<Object> targetColumn;
-            if(toDatabase)
-            {
-                sourceColumn = columnMapCopy.get(currentColumnName);
-                targetColumn = columnMap.get(currentColumnName);
-            }
-            else
-            {
-                sourceColumn = columnMap.get(currentColumnName);
-                targetColumn = columnMapCopy.get(currentColumnName);
-            } 
-            targetColumn.set(index, ParameterUtil.copyParameter(sourceColumn.get(index)));
+        if(null == columnsCopy) return;
+        List<ResultSetColumn> sourceColumns;
+        List<ResultSetColumn> targetColumns;
+        if(toDatabase)
+        {
+            sourceColumns = columnsCopy;
+            targetColumns = columns;
+        }
+        else
+        {
+            sourceColumns = columns;
+            targetColumns = columnsCopy;
+        }
+        for(int ii = 0; ii < targetColumns.size(); ii++)
+        {
+            Object value = ParameterUtil.copyParameter(sourceColumns.get(ii).get(index));
+            targetColumns.set(ii, getWritableColumn(targetColumns, ii).set(index, value));
         }
     }
     
@@ -2314,72 +2369,144 @@ public class MockResultSet implements ResultSet, Cloneable
     private void adjustColumns()
     {
         int rowCount = 0;
-        for (List<Object> nextColumn : columnMap.values()) {
+        for (ResultSetColumn nextColumn : columns) {
             rowCount = Math.max(rowCount, nextColumn.size());
         }
-        for (List<Object> nextColumn : columnMap.values()) {
-            CollectionUtil.fillList(nextColumn, rowCount);
+        for(int ii = 0; ii < columns.size(); ii++)
+        {
+            if(columns.get(ii).size() < rowCount)
+            {
+                getWritableColumn(columns, ii).fill(rowCount);
+            }
         }
     }
     
-    private void adjustFlags()
+    private void adjustInsertRow()
+    {
+        insertRow = new Object[columns.size()];
+    }
+    
+    /**
+     * The copy is created lazily, the columns are shared with
+     * the database view until they are modified.
+     */
+    private void copyColumnMap()
+    {
+        columnsCopy = null;
+    }
+    
+    private List<ResultSetColumn> getCopyColumns()
+    {
+        if(null == columnsCopy)
+        {
+            columnsCopy = shareColumns(columns);
+        }
+        return columnsCopy;
+    }
+    
+    private List<ResultSetColumn> getCurrentColumns()
+    {
+        if(isDatabaseView) return columns;
+        return getCopyColumns();
+    }
+    
+    /**
+     * Returns the column of the current view for reading. Reading
+     * never copies a column, columns with mutable values are
+     * not shared, see {@link #shareColumns}.
+     */
+    private ResultSetColumn getReadableColumn(int index)
+    {
+        return getCurrentColumns().get(index);
+    }
+    
+    private ResultSetColumn getWritableColumn(List<ResultSetColumn> view, int index)
     {
-        for(int ii = updatedRows.size(); ii < getRowCount(); ii++)
+        ResultSetColumn column = view.get(index);
+        if(column.isShared())
         {
-            updatedRows.add(false);
+            column = column.copy();
+            view.set(index, column);
         }
-        for(int ii = deletedRows.size(); ii < getRowCount(); ii++)
+        return column;
+    }
+    
+    /**
+     * Returns a new view of the specified columns. Columns with
+     * mutable values are copied, because the values may be modified
+     * by the caller after they are handed out. All other columns
+     * are shared and copied on their first modification.
+     */
+    private List<ResultSetColumn> shareColumns(List<ResultSetColumn> source)
+    {
+        List<ResultSetColumn> view = new ArrayList<ResultSetColumn>(source.size());
+        for(ResultSetColumn column : source)
         {
-            deletedRows.add(false);
+            if(column.hasMutableValues())
+            {
+                view.add(column.copy());
+            }
+            else
+            {
+                column.share();
+                view.add(column);
+            }
         }
-        for(int ii = insertedRows.size(); ii < getRowCount(); ii++)
+        return view;
+    }
+    
+    /**
+     * Returns the column slot for the specified name. Resolved names
+     * are cached with their exact spelling, so repeated lookups
+     * don't have to normalize the name for the case aware map.
+     * Unknown names are not cached and the cache holds at most
+     * as many names as there are columns.
+     */
+    private int getColumnIndex(String columnName)
+    {
+        Integer index = resolvedColumnNames.get(columnName);
+        if(null == index)
         {
-            insertedRows.add(false);
+            index = columnIndexMap.get(columnName);
+            if(null == index) return -1;
+            if(resolvedColumnNames.size() < columnNameList.size())
+            {
+                resolvedColumnNames.put(columnName, index);
+            }
         }
+        return index;
     }
     
-    private void adjustInsertRow()
+    private boolean getRowFlag(BitSet flags, int index)
     {
-        insertRow = createCaseAwareMap();
-        for (String s : columnMap.keySet()) {
-            ArrayList<Object> list = new ArrayList<Object>(1);
-            list.add(null);
-            insertRow.put(s, list);
+        if(index >= getRowCount())
+        {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + getRowCount());
         }
+        return flags.get(index);
     }
     
-    private void copyColumnMap()
+    private void insertRowFlag(BitSet flags, int index, boolean value)
     {
-        columnMapCopy = copyColumnDataMap(columnMap);
+        for(int ii = flags.previousSetBit(flags.length() - 1); ii >= index; ii = flags.previousSetBit(ii - 1))
+        {
+            flags.clear(ii);
+            flags.set(ii + 1);
+        }
+        flags.set(index, value);
     }
     
     private String determineValidColumnName()
     {
         String name = "Column";
         int count = columnNameList.size() + 1;
-        while(columnMap.containsKey(name + count))
+        while(columnIndexMap.containsKey(name + count))
         {
             count ++;
         }
         return name + count;
     }
     
-    private <T> Map<String, List<T>> copyColumnDataMap(Map<String, List<T>> columnMap)
-    {
-        Map<String, List<T>> copy = createCaseAwareMap();
-        for (String s : columnMap.keySet()) {
-            List<T> copyList = new ArrayList<T>();
-            String nextKey = s;
-            List<T> nextColumnList = columnMap.get(nextKey);
-            for (T nextColumnList1 : nextColumnList) {
-                T copyParameter = (T) ParameterUtil.copyParameter(nextColumnList1);
-                copyList.add(copyParameter);
-            }
-            copy.put(nextKey, copyList);
-        }
-        return copy;
-    }
-    
     private <T> Map<String, T> createCaseAwareMap()
     {
         return (Map<String, T>)new CaseAwareMap(columnsCaseSensitive);
@@ -139,7 +139,7 @@ public class MockStatement implements Statement
         if(null != result){
             return cloneAndSetSingleResultSet(result);
         }
-        return new MockResultSet(String.valueOf(Math.random()));
+        return new MockResultSet(AbstractResultSetHandler.createResultSetId());
     }
 
     private MockResultSet cloneAndSetSingleResultSet(MockResultSet result)
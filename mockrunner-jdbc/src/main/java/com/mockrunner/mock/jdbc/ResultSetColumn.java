@@ -0,0 +1,795 @@
+package com.mockrunner.mock.jdbc;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import com.mockrunner.jdbc.ParameterUtil;
+
+/**
+ * Column storage of {@link MockResultSet}.
+ * Columns that only contain <code>Integer</code>, <code>Long</code>,
+ * <code>Double</code> or <code>Boolean</code> values (and <code>null</code>)
+ * are stored in primitive arrays, all other columns in an <code>Object</code>
+ * array. A column switches to the <code>Object</code> storage, if a value
+ * of another type is stored.
+ * <br>
+ * Columns are shared between the two views of a <code>MockResultSet</code>
+ * and between a <code>MockResultSet</code> and its clones. A shared column
+ * must not be modified, use {@link #copy} to get a private one. Columns
+ * with mutable values (arrays, streams and <code>Cloneable</code> objects)
+ * are not shared, they are copied with {@link ParameterUtil#copyParameter},
+ * so two views never hand out the same mutable object. Dates, times and
+ * timestamps are treated as values, like JDBC drivers do, so columns
+ * containing them are shared.
+ */
+abstract class ResultSetColumn
+{
+    private volatile boolean shared = false;
+
+    /**
+     * Creates a column containing the specified values.
+     * @param values the column data
+     * @return the new column
+     */
+    public static ResultSetColumn create(List<?> values)
+    {
+        ResultSetColumn column = new ObjectColumn(values.size());
+        for(Object value : values)
+        {
+            column = column.add(value);
+        }
+        return column;
+    }
+
+    /**
+     * Creates a column with the specified number of
+     * <code>null</code> values, that stores values of the
+     * type of the specified value in a primitive array.
+     * Returns <code>null</code>, if there's no primitive
+     * storage for the type.
+     */
+    private static ResultSetColumn createPrimitiveColumn(Object value, int size)
+    {
+        Class<?> type = value.getClass();
+        PrimitiveColumn column;
+        if(Integer.class == type) column = new IntColumn(size);
+        else if(Long.class == type) column = new LongColumn(size);
+        else if(Double.class == type) column = new DoubleColumn(size);
+        else if(Boolean.class == type) column = new BooleanColumn(size);
+        else return null;
+        column.appendNulls(size);
+        return column;
+    }
+
+    private static boolean isMutable(Object value)
+    {
+        if(null == value) return false;
+        if(value instanceof java.util.Date) return false;
+        return value.getClass().isArray() || value instanceof InputStream || value instanceof Reader || value instanceof Cloneable;
+    }
+
+    /**
+     * Marks this column as shared. Shared columns must be copied
+     * before they are modified.
+     */
+    public void share()
+    {
+        shared = true;
+    }
+
+    public boolean isShared()
+    {
+        return shared;
+    }
+
+    /**
+     * Returns the number of rows.
+     * @return the number of rows
+     */
+    public abstract int size();
+
+    /**
+     * Returns the value of the specified row. The first row
+     * has the index 0.
+     * @param row the row index
+     * @return the value
+     */
+    public abstract Object get(int row);
+
+    /**
+     * Returns if the specified row contains <code>null</code>.
+     * @param row the row index
+     * @return if the row contains <code>null</code>
+     */
+    public boolean isNull(int row)
+    {
+        return null == get(row);
+    }
+
+    /**
+     * Returns if this column stores numbers in a primitive array.
+     * Only numeric columns support {@link #getInt}, {@link #getLong}
+     * and {@link #getDouble}.
+     * @return if this column is numeric
+     */
+    public boolean isNumeric()
+    {
+        return false;
+    }
+
+    /**
+     * Returns if this column stores booleans in a primitive array.
+     * Only boolean columns support {@link #getBoolean}.
+     * @return if this column is a boolean column
+     */
+    public boolean isBoolean()
+    {
+        return false;
+    }
+
+    /**
+     * Returns the value of the specified row as <code>int</code>
+     * without boxing it. The result for <code>null</code> values
+     * is undefined, use {@link #isNull} to check for <code>null</code>.
+     * @param row the row index
+     * @return the value
+     * @throws UnsupportedOperationException if this column is not numeric
+     */
+    public int getInt(int row)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Returns the value of the specified row as <code>long</code>
+     * without boxing it. The result for <code>null</code> values
+     * is undefined, use {@link #isNull} to check for <code>null</code>.
+     * @param row the row index
+     * @return the value
+     * @throws UnsupportedOperationException if this column is not numeric
+     */
+    public long getLong(int row)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Returns the value of the specified row as <code>double</code>
+     * without boxing it. The result for <code>null</code> values
+     * is undefined, use {@link #isNull} to check for <code>null</code>.
+     * @param row the row index
+     * @return the value
+     * @throws UnsupportedOperationException if this column is not numeric
+     */
+    public double getDouble(int row)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Returns the value of the specified row as <code>boolean</code>
+     * without boxing it. The result for <code>null</code> values
+     * is undefined, use {@link #isNull} to check for <code>null</code>.
+     * @param row the row index
+     * @return the value
+     * @throws UnsupportedOperationException if this column is not
+     *         a boolean column
+     */
+    public boolean getBoolean(int row)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Replaces the value of the specified row.
+     * @param row the row index
+     * @param value the new value
+     * @return the column that contains the value, i.e. this column
+     *         or a new column, if the value cannot be stored in this one
+     */
+    public abstract ResultSetColumn set(int row, Object value);
+
+    /**
+     * Inserts the value at the specified row.
+     * @param row the row index
+     * @param value the new value
+     * @return the column that contains the value, i.e. this column
+     *         or a new column, if the value cannot be stored in this one
+     */
+    public abstract ResultSetColumn add(int row, Object value);
+
+    /**
+     * Reverses the order of the rows.
+     */
+    public abstract void reverse();
+
+    /**
+     * Returns a private, not shared copy of this column.
+     * Mutable values are copied.
+     * @return the copy
+     */
+    public abstract ResultSetColumn copy();
+
+    /**
+     * Returns if this column may contain mutable values.
+     * @return if this column may contain mutable values
+     */
+    public boolean hasMutableValues()
+    {
+        return false;
+    }
+
+    /**
+     * Appends the value.
+     * @param value the new value
+     * @return the column that contains the value
+     */
+    public ResultSetColumn add(Object value)
+    {
+        return add(size(), value);
+    }
+
+    /**
+     * Appends <code>null</code> values until the column
+     * has the specified size.
+     * @param size the resulting size
+     */
+    public void fill(int size)
+    {
+        for(int ii = size(); ii < size; ii++)
+        {
+            add(null);
+        }
+    }
+
+    private static class ObjectColumn extends ResultSetColumn
+    {
+        private Object[] values;
+        private int size;
+        private boolean containsValues;
+        private boolean containsMutableValues;
+
+        public ObjectColumn(int capacity)
+        {
+            values = new Object[Math.max(capacity, 4)];
+            size = 0;
+            containsValues = false;
+            containsMutableValues = false;
+        }
+
+        public int size()
+        {
+            return size;
+        }
+
+        public Object get(int row)
+        {
+            checkRow(row, size);
+            return values[row];
+        }
+
+        public ResultSetColumn set(int row, Object value)
+        {
+            checkRow(row, size);
+            ResultSetColumn primitiveColumn = toPrimitiveColumn(value);
+            if(null != primitiveColumn) return primitiveColumn.set(row, value);
+            values[row] = value;
+            registerValue(value);
+            return this;
+        }
+
+        public ResultSetColumn add(int row, Object value)
+        {
+            checkInsertRow(row, size);
+            ResultSetColumn primitiveColumn = toPrimitiveColumn(value);
+            if(null != primitiveColumn) return primitiveColumn.add(row, value);
+            if(size == values.length)
+            {
+                values = Arrays.copyOf(values, size + (size >> 1) + 1);
+            }
+            System.arraycopy(values, row, values, row + 1, size - row);
+            values[row] = value;
+            size++;
+            registerValue(value);
+            return this;
+        }
+
+        public void reverse()
+        {
+            for(int ii = 0, jj = size - 1; ii < jj; ii++, jj--)
+            {
+                Object value = values[ii];
+                values[ii] = values[jj];
+                values[jj] = value;
+            }
+        }
+
+        public ResultSetColumn copy()
+        {
+            ObjectColumn copy = new ObjectColumn(size);
+            if(containsMutableValues)
+            {
+                for(int ii = 0; ii < size; ii++)
+                {
+                    copy.values[ii] = ParameterUtil.copyParameter(values[ii]);
+                }
+            }
+            else
+            {
+                System.arraycopy(values, 0, copy.values, 0, size);
+            }
+            copy.size = size;
+            copy.containsValues = containsValues;
+            copy.containsMutableValues = containsMutableValues;
+            return copy;
+        }
+
+        @Override
+        public boolean hasMutableValues()
+        {
+            return containsMutableValues;
+        }
+
+        /**
+         * Columns that only contained <code>null</code> so far
+         * switch to a primitive storage, if possible.
+         */
+        private ResultSetColumn toPrimitiveColumn(Object value)
+        {
+            if(containsValues || null == value) return null;
+            return createPrimitiveColumn(value, size);
+        }
+
+        private void registerValue(Object value)
+        {
+            if(null == value) return;
+            containsValues = true;
+            if(!containsMutableValues && isMutable(value))
+            {
+                containsMutableValues = true;
+            }
+        }
+    }
+
+    /**
+     * Base class for columns that store their values in primitive
+     * arrays. <code>null</code> values are marked in a <code>BitSet</code>.
+     */
+    private static abstract class PrimitiveColumn extends ResultSetColumn
+    {
+        protected int size = 0;
+        protected BitSet nulls = new BitSet();
+
+        public int size()
+        {
+            return size;
+        }
+
+        public Object get(int row)
+        {
+            checkRow(row, size);
+            if(nulls.get(row)) return null;
+            return getValue(row);
+        }
+
+        @Override
+        public boolean isNull(int row)
+        {
+            checkRow(row, size);
+            return nulls.get(row);
+        }
+
+        public ResultSetColumn set(int row, Object value)
+        {
+            checkRow(row, size);
+            if(null == value)
+            {
+                nulls.set(row);
+                return this;
+            }
+            if(!accepts(value)) return toObjectColumn().set(row, value);
+            nulls.clear(row);
+            setValue(row, value);
+            return this;
+        }
+
+        public ResultSetColumn add(int row, Object value)
+        {
+            checkInsertRow(row, size);
+            if(null != value && !accepts(value)) return toObjectColumn().add(row, value);
+            ensureCapacity(size + 1);
+            moveValues(row, row + 1, size - row);
+            shiftNulls(row);
+            size++;
+            if(null == value)
+            {
+                nulls.set(row);
+            }
+            else
+            {
+                setValue(row, value);
+            }
+            return this;
+        }
+
+        public void reverse()
+        {
+            BitSet reversedNulls = new BitSet();
+            for(int ii = nulls.nextSetBit(0); ii >= 0; ii = nulls.nextSetBit(ii + 1))
+            {
+                reversedNulls.set(size - ii - 1);
+            }
+            nulls = reversedNulls;
+            for(int ii = 0, jj = size - 1; ii < jj; ii++, jj--)
+            {
+                swapValues(ii, jj);
+            }
+        }
+
+        public ResultSetColumn copy()
+        {
+            PrimitiveColumn copy = copyValues();
+            copy.size = size;
+            copy.nulls = (BitSet)nulls.clone();
+            return copy;
+        }
+
+        protected void appendNulls(int count)
+        {
+            ensureCapacity(size + count);
+            nulls.set(size, size + count);
+            size += count;
+        }
+
+        private void shiftNulls(int row)
+        {
+            if(nulls.nextSetBit(row) < 0) return;
+            BitSet shiftedNulls = nulls.get(0, row);
+            for(int ii = nulls.nextSetBit(row); ii >= 0; ii = nulls.nextSetBit(ii + 1))
+            {
+                shiftedNulls.set(ii + 1);
+            }
+            nulls = shiftedNulls;
+        }
+
+        private ResultSetColumn toObjectColumn()
+        {
+            ObjectColumn column = new ObjectColumn(size + 1);
+            for(int ii = 0; ii < size; ii++)
+            {
+                column.values[ii] = get(ii);
+            }
+            column.size = size;
+            column.containsValues = true;
+            return column;
+        }
+
+        protected abstract boolean accepts(Object value);
+
+        protected abstract Object getValue(int row);
+
+        protected abstract void setValue(int row, Object value);
+
+        protected abstract void ensureCapacity(int capacity);
+
+        protected abstract void moveValues(int from, int to, int length);
+
+        protected abstract void swapValues(int row1, int row2);
+
+        protected abstract PrimitiveColumn copyValues();
+
+        protected static int newCapacity(int currentCapacity, int capacity)
+        {
+            return Math.max(capacity, currentCapacity + (currentCapacity >> 1) + 1);
+        }
+    }
+
+    private static class IntColumn extends PrimitiveColumn
+    {
+        private int[] values;
+
+        public IntColumn(int capacity)
+        {
+            values = new int[Math.max(capacity, 4)];
+        }
+
+        @Override
+        public boolean isNumeric()
+        {
+            return true;
+        }
+
+        @Override
+        public int getInt(int row)
+        {
+            checkRow(row, size);
+            return values[row];
+        }
+
+        @Override
+        public long getLong(int row)
+        {
+            checkRow(row, size);
+            return values[row];
+        }
+
+        @Override
+        public double getDouble(int row)
+        {
+            checkRow(row, size);
+            return values[row];
+        }
+
+        protected boolean accepts(Object value)
+        {
+            return value instanceof Integer;
+        }
+
+        protected Object getValue(int row)
+        {
+            return values[row];
+        }
+
+        protected void setValue(int row, Object value)
+        {
+            values[row] = (Integer)value;
+        }
+
+        protected void ensureCapacity(int capacity)
+        {
+            if(capacity > values.length) values = Arrays.copyOf(values, newCapacity(values.length, capacity));
+        }
+
+        protected void moveValues(int from, int to, int length)
+        {
+            System.arraycopy(values, from, values, to, length);
+        }
+
+        protected void swapValues(int row1, int row2)
+        {
+            int value = values[row1];
+            values[row1] = values[row2];
+            values[row2] = value;
+        }
+
+        protected PrimitiveColumn copyValues()
+        {
+            IntColumn copy = new IntColumn(0);
+            copy.values = Arrays.copyOf(values, Math.max(size, 4));
+            return copy;
+        }
+    }
+
+    private static class LongColumn extends PrimitiveColumn
+    {
+        private long[] values;
+
+        public LongColumn(int capacity)
+        {
+            values = new long[Math.max(capacity, 4)];
+        }
+
+        @Override
+        public boolean isNumeric()
+        {
+            return true;
+        }
+
+        @Override
+        public int getInt(int row)
+        {
+            checkRow(row, size);
+            return (int)values[row];
+        }
+
+        @Override
+        public long getLong(int row)
+        {
+            checkRow(row, size);
+            return values[row];
+        }
+
+        @Override
+        public double getDouble(int row)
+        {
+            checkRow(row, size);
+            return values[row];
+        }
+
+        protected boolean accepts(Object value)
+        {
+            return value instanceof Long;
+        }
+
+        protected Object getValue(int row)
+        {
+            return values[row];
+        }
+
+        protected void setValue(int row, Object value)
+        {
+            values[row] = (Long)value;
+        }
+
+        protected void ensureCapacity(int capacity)
+        {
+            if(capacity > values.length) values = Arrays.copyOf(values, newCapacity(values.length, capacity));
+        }
+
+        protected void moveValues(int from, int to, int length)
+        {
+            System.arraycopy(values, from, values, to, length);
+        }
+
+        protected void swapValues(int row1, int row2)
+        {
+            long value = values[row1];
+            values[row1] = values[row2];
+            values[row2] = value;
+        }
+
+        protected PrimitiveColumn copyValues()
+        {
+            LongColumn copy = new LongColumn(0);
+            copy.values = Arrays.copyOf(values, Math.max(size, 4));
+            return copy;
+        }
+    }
+
+    private static class DoubleColumn extends PrimitiveColumn
+    {
+        private double[] values;
+
+        public DoubleColumn(int capacity)
+        {
+            values = new double[Math.max(capacity, 4)];
+        }
+
+        @Override
+        public boolean isNumeric()
+        {
+            return true;
+        }
+
+        @Override
+        public int getInt(int row)
+        {
+            checkRow(row, size);
+            return (int)values[row];
+        }
+
+        @Override
+        public long getLong(int row)
+        {
+            checkRow(row, size);
+            return (long)values[row];
+        }
+
+        @Override
+        public double getDouble(int row)
+        {
+            checkRow(row, size);
+            return values[row];
+        }
+
+        protected boolean accepts(Object value)
+        {
+            return value instanceof Double;
+        }
+
+        protected Object getValue(int row)
+        {
+            return values[row];
+        }
+
+        protected void setValue(int row, Object value)
+        {
+            values[row] = (Double)value;
+        }
+
+        protected void ensureCapacity(int capacity)
+        {
+            if(capacity > values.length) values = Arrays.copyOf(values, newCapacity(values.length, capacity));
+        }
+
+        protected void moveValues(int from, int to, int length)
+        {
+            System.arraycopy(values, from, values, to, length);
+        }
+
+        protected void swapValues(int row1, int row2)
+        {
+            double value = values[row1];
+            values[row1] = values[row2];
+            values[row2] = value;
+        }
+
+        protected PrimitiveColumn copyValues()
+        {
+            DoubleColumn copy = new DoubleColumn(0);
+            copy.values = Arrays.copyOf(values, Math.max(size, 4));
+            return copy;
+        }
+    }
+
+    private static class BooleanColumn extends PrimitiveColumn
+    {
+        private boolean[] values;
+
+        public BooleanColumn(int capacity)
+        {
+            values = new boolean[Math.max(capacity, 4)];
+        }
+
+        @Override
+        public boolean isBoolean()
+        {
+            return true;
+        }
+
+        @Override
+        public boolean getBoolean(int row)
+        {
+            checkRow(row, size);
+            return values[row];
+        }
+
+        protected boolean accepts(Object value)
+        {
+            return value instanceof Boolean;
+        }
+
+        protected Object getValue(int row)
+        {
+            return values[row];
+        }
+
+        protected void setValue(int row, Object value)
+        {
+            values[row] = (Boolean)value;
+        }
+
+        protected void ensureCapacity(int capacity)
+        {
+            if(capacity > values.length) values = Arrays.copyOf(values, newCapacity(values.length, capacity));
+        }
+
+        protected void moveValues(int from, int to, int length)
+        {
+            System.arraycopy(values, from, values, to, length);
+        }
+
+        protected void swapValues(int row1, int row2)
+        {
+            boolean value = values[row1];
+            values[row1] = values[row2];
+            values[row2] = value;
+        }
+
+        protected PrimitiveColumn copyValues()
+        {
+            BooleanColumn copy = new BooleanColumn(0);
+            copy.values = Arrays.copyOf(values, Math.max(size, 4));
+            return copy;
+        }
+    }
+
+    private static void checkRow(int row, int size)
+    {
+        if(row < 0 || row >= size)
+        {
+            throw new IndexOutOfBoundsException("Index: " + row + ", Size: " + size);
+        }
+    }
+
+    private static void checkInsertRow(int row, int size)
+    {
+        if(row < 0 || row > size)
+        {
+            throw new IndexOutOfBoundsException("Index: " + row + ", Size: " + size);
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package com.mockrunner.test.jdbc;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.sql.SQLException;
@@ -180,4 +183,52 @@ public class MockBlobTest extends TestCase
         blob = new MockBlob(new byte[] {1, 2, 3});
         assertEquals("Blob data: [1, 2, 3]", blob.toString());
     }
+
+    public void testPositionWithRepeatedPattern() throws Exception
+    {
+        blob = new MockBlob(new byte[] {1, 1, 1, 2, 1, 1, 1, 1, 2, 3});
+        assertEquals(2, blob.position(new byte[] {1, 1, 2}, 1));
+        assertEquals(7, blob.position(new byte[] {1, 1, 2}, 3));
+        assertEquals(8, blob.position(new byte[] {1, 2, 3}, 1));
+        assertEquals(-1, blob.position(new byte[] {1, 1, 2, 4}, 1));
+        assertEquals(5, blob.position(new byte[0], 5));
+    }
+    
+    public void testStreamsAreNotAffectedByModifications() throws Exception
+    {
+        InputStream stream = blob.getBinaryStream(2, 3);
+        blob.setBytes(2, new byte[] {20, 30});
+        assertTrue(StreamUtil.compareStreams(stream, new ByteArrayInputStream(new byte[] {2, 3, 4})));
+        assertTrue(Arrays.equals(new byte[] {1, 20, 30, 4}, blob.getBytes(1, 4)));
+        blob.truncate(2);
+        blob.setBytes(4, new byte[] {4});
+        assertTrue(Arrays.equals(new byte[] {1, 20, 0, 4}, blob.getBytes(1, 10)));
+    }
+    
+    public void testFileBackedBlob() throws Exception
+    {
+        File file = File.createTempFile("mockblob", ".bin");
+        try
+        {
+            FileOutputStream output = new FileOutputStream(file);
+            output.write(new byte[] {1, 2, 3, 4, 5});
+            output.close();
+            blob = new MockBlob(file);
+            assertEquals(5, blob.length());
+            assertTrue(Arrays.equals(new byte[] {2, 3}, blob.getBytes(2, 2)));
+            assertEquals(3, blob.position(new byte[] {3, 4}, 1));
+            assertEquals(new MockBlob(new byte[] {1, 2, 3, 4, 5}), blob);
+            MockBlob copy = (MockBlob)blob.clone();
+            blob.setBytes(5, new byte[] {6, 7});
+            assertTrue(Arrays.equals(new byte[] {1, 2, 3, 4, 6, 7}, blob.getBytes(1, 6)));
+            assertTrue(Arrays.equals(new byte[] {1, 2, 3, 4, 5}, copy.getBytes(1, 6)));
+            InputStream input = new FileInputStream(file);
+            assertTrue(StreamUtil.compareStreams(input, copy.getBinaryStream()));
+            input.close();
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
 }
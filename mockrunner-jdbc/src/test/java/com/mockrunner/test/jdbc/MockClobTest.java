@@ -2,6 +2,7 @@ package com.mockrunner.test.jdbc;
 
 import java.io.ByteArrayInputStream;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.io.StringReader;
 import java.io.Writer;
 import java.sql.SQLException;
@@ -157,4 +158,24 @@ public class MockClobTest extends TestCase
         clob = new MockClob("test");
         assertEquals("Clob data: test", clob.toString());
     }
+
+    public void testReaderIsNotAffectedByModifications() throws Exception
+    {
+        Reader reader = clob.getCharacterStream(1, 4);
+        clob.setString(1, "That");
+        assertTrue(StreamUtil.compareReaders(reader, new StringReader("This")));
+        assertEquals("That", clob.getSubString(1, 4));
+        clob.truncate(2);
+        clob.truncate(3);
+        assertEquals("Th\0", clob.getSubString(1, 10));
+    }
+    
+    public void testPositionWithRepeatedPattern() throws Exception
+    {
+        clob = new MockClob("aaabaaaabc");
+        assertEquals(2, clob.position("aab", 1));
+        assertEquals(7, clob.position("aab", 3));
+        assertEquals(8, clob.position("abc", 1));
+        assertEquals(-1, clob.position("aabd", 1));
+    }
 }
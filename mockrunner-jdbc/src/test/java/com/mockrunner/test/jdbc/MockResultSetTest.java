@@ -4,6 +4,7 @@ import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.Reader;
 import java.io.StringReader;
+import java.lang.management.ManagementFactory;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.sql.Blob;
@@ -11,6 +12,7 @@ import java.sql.Clob;
 import java.sql.Ref;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -1158,4 +1160,187 @@ public class MockResultSetTest extends TestCase
             //expected exception
         }
     }
+    
+    public void testCloneSharesDataUntilModified() throws Exception
+    {
+        resultSet.setResultSetConcurrency(ResultSet.CONCUR_UPDATABLE);
+        resultSet.addColumn("id", new Object[] {1, 2, 3});
+        resultSet.addColumn("name", new Object[] {"a", "b", "c"});
+        resultSet.addColumn("blob", new Object[] {new MockBlob(new byte[] {1}), null, new MockBlob(new byte[] {3})});
+        MockResultSet cloneResult = (MockResultSet)resultSet.clone();
+        cloneResult.next();
+        cloneResult.updateInt("id", 5);
+        cloneResult.updateString("name", "x");
+        cloneResult.getBlob("blob").setBytes(1, new byte[] {7});
+        cloneResult.updateRow();
+        assertEquals(Arrays.asList(new Object[] {5, 2, 3}), cloneResult.getColumn("id"));
+        assertEquals(Arrays.asList(new Object[] {"x", "b", "c"}), cloneResult.getColumn("name"));
+        assertEquals(new MockBlob(new byte[] {7}), cloneResult.getColumn("blob").get(0));
+        assertEquals(Arrays.asList(new Object[] {1, 2, 3}), resultSet.getColumn("id"));
+        assertEquals(Arrays.asList(new Object[] {"a", "b", "c"}), resultSet.getColumn("name"));
+        assertEquals(new MockBlob(new byte[] {1}), resultSet.getColumn("blob").get(0));
+        assertTrue(cloneResult.rowUpdated(1));
+        assertFalse(resultSet.rowUpdated(1));
+        resultSet.next();
+        resultSet.deleteRow();
+        assertTrue(resultSet.rowDeleted(1));
+        assertFalse(cloneResult.rowDeleted(1));
+        assertEquals(5, cloneResult.getInt("id"));
+    }
+
+    public void testCloneDoesNotModifySource() throws Exception
+    {
+        resultSet.addColumn("id", new Object[] {1, 2});
+        resultSet.addColumn("blob", new Object[] {new MockBlob(new byte[] {1}), new MockBlob(new byte[] {2})});
+        resultSet.next();
+        Blob blob = resultSet.getBlob("blob");
+        MockResultSet cloneResult = (MockResultSet)resultSet.clone();
+        assertSame(blob, resultSet.getBlob("blob"));
+        blob.setBytes(1, new byte[] {7});
+        assertEquals(new MockBlob(new byte[] {7}), resultSet.getBlob("blob"));
+        assertEquals(new MockBlob(new byte[] {1}), cloneResult.getBlob("blob"));
+        assertSame(cloneResult.getBlob("blob"), cloneResult.getBlob("blob"));
+        assertEquals(1, resultSet.getInt("id"));
+        assertEquals(1, cloneResult.getInt("id"));
+    }
+
+    public void testMixedTypesInColumn() throws Exception
+    {
+        resultSet.setResultSetConcurrency(ResultSet.CONCUR_UPDATABLE);
+        resultSet.addColumn("col");
+        resultSet.addRow(new Object[] {null});
+        resultSet.addRow(new Object[] {1});
+        resultSet.addRow(new Object[] {2L});
+        resultSet.addRow(new Object[] {true});
+        assertEquals(Arrays.asList(new Object[] {null, 1, 2L, true}), resultSet.getColumn("col"));
+        resultSet.absolute(2);
+        assertEquals(1, resultSet.getObject(1));
+        assertFalse(resultSet.wasNull());
+        resultSet.updateObject(1, "3");
+        assertEquals("3", resultSet.getObject(1));
+        resultSet.moveToInsertRow();
+        resultSet.updateObject(1, 4.0);
+        resultSet.insertRow();
+        resultSet.moveToCurrentRow();
+        assertEquals(Arrays.asList(new Object[] {null, 4.0, "3", 2L, true}), resultSet.getColumn("col"));
+        resultSet.setDatabaseView(true);
+        assertEquals(Arrays.asList(new Object[] {null, 4.0, 1, 2L, true}), resultSet.getColumn("col"));
+        assertTrue(resultSet.rowInserted(2));
+        assertFalse(resultSet.rowInserted(3));
+    }
+    
+    public void testPrimitiveColumnWithNulls() throws Exception
+    {
+        resultSet.setResultSetConcurrency(ResultSet.CONCUR_UPDATABLE);
+        resultSet.setResultSetType(ResultSet.TYPE_SCROLL_INSENSITIVE);
+        resultSet.addColumn("int", new Object[] {1, null, 3});
+        resultSet.addColumn("double", new Object[] {1.5, 2.5, null});
+        resultSet.setFetchDirection(ResultSet.FETCH_REVERSE);
+        assertEquals(Arrays.asList(new Object[] {3, null, 1}), resultSet.getColumn("int"));
+        resultSet.next();
+        assertEquals(0.0, resultSet.getDouble("double"), 0);
+        assertTrue(resultSet.wasNull());
+        resultSet.next();
+        assertEquals(0, resultSet.getInt("int"));
+        assertTrue(resultSet.wasNull());
+        resultSet.updateNull("double");
+        assertNull(resultSet.getObject("double"));
+        resultSet.setDatabaseView(true);
+        assertEquals(Arrays.asList(new Object[] {1, null, 3}), resultSet.getColumn("int"));
+        assertEquals(Arrays.asList(new Object[] {1.5, 2.5, null}), resultSet.getColumn("double"));
+    }
+
+    public void testTypedGettersOnPrimitiveColumns() throws Exception
+    {
+        resultSet.addColumn("int", new Object[] {1, null});
+        resultSet.addColumn("long", new Object[] {5000000000L, 2L});
+        resultSet.addColumn("double", new Object[] {2.75, -1.5});
+        resultSet.addColumn("boolean", new Object[] {true, null});
+        resultSet.next();
+        assertEquals(1L, resultSet.getLong(1));
+        assertEquals(1.0, resultSet.getDouble("INT"), 0);
+        assertEquals((int)5000000000L, resultSet.getInt(2));
+        assertEquals(5000000000.0, resultSet.getDouble(2), 0);
+        assertEquals(2, resultSet.getInt("double"));
+        assertEquals(2L, resultSet.getLong(3));
+        assertTrue(resultSet.getBoolean(4));
+        assertFalse(resultSet.wasNull());
+        assertEquals("true", resultSet.getString(4));
+        resultSet.next();
+        assertEquals(0, resultSet.getInt(1));
+        assertTrue(resultSet.wasNull());
+        assertEquals(-1, resultSet.getInt("double"));
+        assertFalse(resultSet.wasNull());
+        assertFalse(resultSet.getBoolean("boolean"));
+        assertTrue(resultSet.wasNull());
+        assertFalse(resultSet.getBoolean("long"));
+        try
+        {
+            resultSet.getInt(5);
+            fail();
+        }
+        catch(SQLException exc)
+        {
+            //should throw exception
+        }
+        resultSet.addColumn("int", new Object[] {"3", "4"});
+        assertEquals(4, resultSet.getInt(1));
+        assertEquals(4, resultSet.getInt(5));
+    }
+
+    public void testTypedGettersDoNotAllocate() throws Exception
+    {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if(!(threadBean instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean)threadBean;
+        if(!allocationBean.isThreadAllocatedMemorySupported() || !allocationBean.isThreadAllocatedMemoryEnabled()) return;
+        int rows = 1000000;
+        List<Object> intValues = new ArrayList<Object>(rows);
+        List<Object> longValues = new ArrayList<Object>(rows);
+        List<Object> doubleValues = new ArrayList<Object>(rows);
+        List<Object> timestampValues = new ArrayList<Object>(rows);
+        for(int ii = 0; ii < rows; ii++)
+        {
+            intValues.add(ii);
+            longValues.add((long)ii * 1000);
+            doubleValues.add(ii / 2.0);
+            timestampValues.add(new Timestamp(ii * 1000L));
+        }
+        resultSet.addColumn("int", intValues);
+        resultSet.addColumn("long", longValues);
+        resultSet.addColumn("double", doubleValues);
+        resultSet.addColumn("timestamp", timestampValues);
+        intValues = longValues = doubleValues = timestampValues = null;
+        readTypedValues(rows);
+        resultSet.beforeFirst();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = allocationBean.getThreadAllocatedBytes(threadId);
+        double sum = readTypedValues(rows);
+        long allocated = allocationBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        assertTrue(sum > 0);
+        assertTrue("allocated " + allocated + " bytes", allocated < 64 * 1024);
+        allocatedBefore = allocationBean.getThreadAllocatedBytes(threadId);
+        MockResultSet copy = (MockResultSet)resultSet.clone();
+        allocated = allocationBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        assertTrue("clone allocated " + allocated + " bytes", allocated < 64 * 1024);
+        resultSet.absolute(5);
+        copy.absolute(5);
+        assertSame(resultSet.getTimestamp(4), copy.getTimestamp(4));
+        copy.setResultSetConcurrency(ResultSet.CONCUR_UPDATABLE);
+        copy.updateTimestamp(4, new Timestamp(0));
+        assertEquals(new Timestamp(4000), resultSet.getTimestamp(4));
+    }
+
+    private double readTypedValues(int rows) throws SQLException
+    {
+        double sum = 0;
+        int count = 0;
+        while(resultSet.next())
+        {
+            sum += resultSet.getInt(1) + resultSet.getLong(2) + resultSet.getDouble(3) + resultSet.getTimestamp(4).getTime();
+            count++;
+        }
+        assertEquals(rows, count);
+        return sum;
+    }
 }
@@ -0,0 +1,132 @@
+package com.mockrunner.test.jdbc;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.mockrunner.jdbc.SQLStatementIndex;
+import com.mockrunner.util.regexp.PatternMatcher;
+import com.mockrunner.util.regexp.Perl5PatternMatcher;
+import com.mockrunner.util.regexp.SimplePatternMatcher;
+
+import junit.framework.TestCase;
+
+public class SQLStatementIndexTest extends TestCase
+{
+    public void testExactMatch()
+    {
+        SQLStatementIndex<String> index = new SQLStatementIndex<String>();
+        PatternMatcher.Factory factory = new SimplePatternMatcher.Factory(true, true);
+        index.put(factory.create("select * from x"), "1");
+        index.put(factory.create("select * from y"), "2");
+        assertEquals(Arrays.asList("1"), index.getMatchingObjects("select * from x"));
+        assertTrue(index.getMatchingObjects("SELECT * from x").isEmpty());
+        assertTrue(index.getMatchingObjects("select * from x where").isEmpty());
+        factory = new SimplePatternMatcher.Factory(false, true);
+        index.put(factory.create("Insert Into X"), "3");
+        assertEquals(Arrays.asList("3"), index.getMatchingObjects("insert into x"));
+        assertTrue(index.getMatchingObjects("insert into").isEmpty());
+    }
+
+    public void testContainsMatch()
+    {
+        SQLStatementIndex<String> index = new SQLStatementIndex<String>();
+        PatternMatcher.Factory factory = new SimplePatternMatcher.Factory(false, false);
+        index.put(factory.create("select"), "select");
+        index.put(factory.create("from mytable"), "from");
+        index.put(factory.create("table"), "table");
+        index.put(factory.create("update"), "update");
+        index.put(factory.create("able where"), "where");
+        List<String> result = index.getMatchingObjects("SELECT * FROM MyTable where x = ?");
+        assertEquals(Arrays.asList("where", "from", "select", "table"), result);
+        assertTrue(index.getMatchingObjects("delete from x").isEmpty());
+        assertTrue(index.getMatchingObjects(null).isEmpty());
+        factory = new SimplePatternMatcher.Factory(true, false);
+        index.put(factory.create("Delete"), "delete");
+        assertTrue(index.getMatchingObjects("delete from x").isEmpty());
+        assertEquals(Arrays.asList("delete"), index.getMatchingObjects("Delete from x"));
+    }
+
+    public void testContainsMatchOverlappingPatterns()
+    {
+        SQLStatementIndex<String> index = new SQLStatementIndex<String>();
+        PatternMatcher.Factory factory = new SimplePatternMatcher.Factory(true, false);
+        index.put(factory.create("he"), "he");
+        index.put(factory.create("she"), "she");
+        index.put(factory.create("his"), "his");
+        index.put(factory.create("hers"), "hers");
+        index.put(factory.create(""), "empty");
+        assertEquals(Arrays.asList("empty", "he", "hers", "she"), index.getMatchingObjects("ushers"));
+        assertEquals(Arrays.asList("empty"), index.getMatchingObjects("xyz"));
+    }
+
+    public void testRegularExpressions()
+    {
+        SQLStatementIndex<String> index = new SQLStatementIndex<String>();
+        PatternMatcher.Factory factory = new Perl5PatternMatcher.Factory(false);
+        index.put(factory.create("select.*"), "1");
+        index.put(factory.create("[a-z]* from x"), "2");
+        assertEquals(Arrays.asList("2", "1"), index.getMatchingObjects("select from x"));
+        assertTrue(index.getMatchingObjects("update x").isEmpty());
+    }
+
+    public void testPutAndRemove()
+    {
+        SQLStatementIndex<String> index = new SQLStatementIndex<String>();
+        PatternMatcher.Factory factory = new SimplePatternMatcher.Factory(false, false);
+        index.put(factory.create("select"), "1");
+        assertEquals("1", index.put(factory.create("select"), "2"));
+        assertEquals(1, index.size());
+        assertEquals(Arrays.asList("2"), index.getMatchingObjects("select * from x"));
+        index.put(factory.create("from"), "3");
+        assertEquals("2", index.remove(factory.create("select")));
+        assertNull(index.remove(factory.create("select")));
+        assertEquals(Arrays.asList("3"), index.getMatchingObjects("select * from x"));
+        index.clear();
+        assertTrue(index.isEmpty());
+        assertTrue(index.getMatchingObjects("select * from x").isEmpty());
+    }
+
+    public void testConcurrentLookupsAfterChange() throws Exception
+    {
+        final SQLStatementIndex<String> index = new SQLStatementIndex<String>();
+        PatternMatcher.Factory factory = new SimplePatternMatcher.Factory(false, false);
+        for(int ii = 0; ii < 200; ii++)
+        {
+            index.put(factory.create("table" + ii + " "), String.valueOf(ii));
+        }
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for(int ii = 0; ii < threads.length; ii++)
+        {
+            threads[ii] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        for(int jj = 0; jj < 200; jj++)
+                        {
+                            List<String> result = index.getMatchingObjects("select * from TABLE" + jj + " where x = ?");
+                            if(!result.equals(Arrays.asList(String.valueOf(jj)))) failures.incrementAndGet();
+                        }
+                    }
+                    catch(Exception exc)
+                    {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            threads[ii].start();
+        }
+        start.countDown();
+        for(int ii = 0; ii < threads.length; ii++)
+        {
+            threads[ii].join();
+        }
+        assertEquals(0, failures.get());
+    }
+}
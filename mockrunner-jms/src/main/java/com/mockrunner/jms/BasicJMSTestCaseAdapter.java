@@ -1,6 +1,7 @@
 package com.mockrunner.jms;
 
 import java.util.List;
+import java.util.Map;
 
 import javax.jms.MessageListener;
 
@@ -239,6 +240,46 @@ public abstract class BasicJMSTestCaseAdapter
         return jmsTestModule.getDestinationManager();
     }
 
+    /**
+     * Delegates to {@link com.mockrunner.jms.JMSTestModule#getNumberQueues}
+     */
+    protected int getNumberQueues()
+    {
+        return jmsTestModule.getNumberQueues();
+    }
+
+    /**
+     * Delegates to {@link com.mockrunner.jms.JMSTestModule#getNumberTopics}
+     */
+    protected int getNumberTopics()
+    {
+        return jmsTestModule.getNumberTopics();
+    }
+
+    /**
+     * Delegates to {@link com.mockrunner.jms.JMSTestModule#getQueueDepths}
+     */
+    protected Map getQueueDepths()
+    {
+        return jmsTestModule.getQueueDepths();
+    }
+
+    /**
+     * Delegates to {@link com.mockrunner.jms.JMSTestModule#getTopicDepths}
+     */
+    protected Map getTopicDepths()
+    {
+        return jmsTestModule.getTopicDepths();
+    }
+
+    /**
+     * Delegates to {@link com.mockrunner.jms.JMSTestModule#getNumberTemporaryDestinations}
+     */
+    protected int getNumberTemporaryDestinations()
+    {
+        return jmsTestModule.getNumberTemporaryDestinations();
+    }
+
     /**
      * Delegates to {@link com.mockrunner.jms.JMSTestModule#registerTestMessageListenerForTopic(MockConnection, String, boolean, int, String, MessageListener)}
      */
@@ -287,6 +328,14 @@ public abstract class BasicJMSTestCaseAdapter
         return jmsTestModule.getConfigurationManager();
     }
 
+    /**
+     * Delegates to {@link com.mockrunner.jms.JMSTestModule#awaitMessageDispatch}
+     */
+    protected boolean awaitMessageDispatch(long timeoutMillis)
+    {
+        return jmsTestModule.awaitMessageDispatch(timeoutMillis);
+    }
+
     /**
      * Delegates to {@link com.mockrunner.jms.JMSTestModule#getQueueMessageManager(int)}
      */
@@ -311,6 +360,30 @@ public abstract class BasicJMSTestCaseAdapter
         return jmsTestModule.getMessageManager(indexOfSession);
     }
 
+    /**
+     * Delegates to {@link com.mockrunner.jms.JMSTestModule#getQueueSessionCommitStatistics}
+     */
+    protected CommitStatistics getQueueSessionCommitStatistics(int indexOfSession)
+    {
+        return jmsTestModule.getQueueSessionCommitStatistics(indexOfSession);
+    }
+
+    /**
+     * Delegates to {@link com.mockrunner.jms.JMSTestModule#getTopicSessionCommitStatistics}
+     */
+    protected CommitStatistics getTopicSessionCommitStatistics(int indexOfSession)
+    {
+        return jmsTestModule.getTopicSessionCommitStatistics(indexOfSession);
+    }
+
+    /**
+     * Delegates to {@link com.mockrunner.jms.JMSTestModule#getSessionCommitStatistics}
+     */
+    protected CommitStatistics getSessionCommitStatistics(int indexOfSession)
+    {
+        return jmsTestModule.getSessionCommitStatistics(indexOfSession);
+    }
+
     /**
      * Delegates to {@link com.mockrunner.jms.JMSTestModule#getTopicMessageManager(int)}
      */
@@ -0,0 +1,144 @@
+package com.mockrunner.jms;
+
+import java.io.Serializable;
+
+/**
+ * Statistics about the transactions committed by a transacted session,
+ * if transactional batching is enabled with
+ * {@link ConfigurationManager#setUseTransactionalBatching}.
+ * The batch size is the number of messages sent in a transaction.
+ * The commit latency is the time it took to acknowledge the consumed
+ * messages and to deliver the sent messages.
+ */
+public class CommitStatistics implements Serializable
+{
+    private int numberOfBatches;
+    private long numberOfMessages;
+    private long numberOfAcknowledgedMessages;
+    private int lastBatchSize;
+    private int maxBatchSize;
+    private long lastCommitNanos;
+    private long maxCommitNanos;
+    private long totalCommitNanos;
+
+    /**
+     * Records a committed transaction.
+     * @param batchSize the number of sent messages
+     * @param acknowledgedMessages the number of acknowledged messages
+     * @param commitNanos the duration of the commit in nanoseconds
+     */
+    public synchronized void recordCommit(int batchSize, int acknowledgedMessages, long commitNanos)
+    {
+        numberOfBatches++;
+        numberOfMessages += batchSize;
+        numberOfAcknowledgedMessages += acknowledgedMessages;
+        lastBatchSize = batchSize;
+        maxBatchSize = Math.max(maxBatchSize, batchSize);
+        lastCommitNanos = commitNanos;
+        maxCommitNanos = Math.max(maxCommitNanos, commitNanos);
+        totalCommitNanos += commitNanos;
+    }
+
+    /**
+     * Returns the number of committed transactions.
+     * @return the number of committed transactions
+     */
+    public synchronized int getNumberOfBatches()
+    {
+        return numberOfBatches;
+    }
+
+    /**
+     * Returns the number of messages sent in all committed transactions.
+     * @return the number of messages
+     */
+    public synchronized long getNumberOfMessages()
+    {
+        return numberOfMessages;
+    }
+
+    /**
+     * Returns the number of messages acknowledged by all committed transactions.
+     * @return the number of acknowledged messages
+     */
+    public synchronized long getNumberOfAcknowledgedMessages()
+    {
+        return numberOfAcknowledgedMessages;
+    }
+
+    /**
+     * Returns the number of messages sent in the last committed transaction.
+     * @return the last batch size
+     */
+    public synchronized int getLastBatchSize()
+    {
+        return lastBatchSize;
+    }
+
+    /**
+     * Returns the maximum number of messages sent in one transaction.
+     * @return the maximum batch size
+     */
+    public synchronized int getMaxBatchSize()
+    {
+        return maxBatchSize;
+    }
+
+    /**
+     * Returns the average number of messages sent in one transaction.
+     * @return the average batch size
+     */
+    public synchronized double getAverageBatchSize()
+    {
+        if(numberOfBatches == 0) return 0;
+        return (double)numberOfMessages / numberOfBatches;
+    }
+
+    /**
+     * Returns the duration of the last commit in nanoseconds.
+     * @return the last commit latency
+     */
+    public synchronized long getLastCommitNanos()
+    {
+        return lastCommitNanos;
+    }
+
+    /**
+     * Returns the maximum duration of a commit in nanoseconds.
+     * @return the maximum commit latency
+     */
+    public synchronized long getMaxCommitNanos()
+    {
+        return maxCommitNanos;
+    }
+
+    /**
+     * Returns the average duration of a commit in nanoseconds.
+     * @return the average commit latency
+     */
+    public synchronized long getAverageCommitNanos()
+    {
+        if(numberOfBatches == 0) return 0;
+        return totalCommitNanos / numberOfBatches;
+    }
+
+    /**
+     * Resets the statistics.
+     */
+    public synchronized void reset()
+    {
+        numberOfBatches = 0;
+        numberOfMessages = 0;
+        numberOfAcknowledgedMessages = 0;
+        lastBatchSize = 0;
+        maxBatchSize = 0;
+        lastCommitNanos = 0;
+        maxCommitNanos = 0;
+        totalCommitNanos = 0;
+    }
+
+    public synchronized String toString()
+    {
+        return "CommitStatistics: " + numberOfBatches + " batches, " + numberOfMessages + " messages, average batch size " + getAverageBatchSize() + ", average commit " + getAverageCommitNanos() + " ns";
+    }
+}
@@ -1,7 +1,10 @@
 package com.mockrunner.jms;
 
+import java.io.File;
 import java.io.Serializable;
 
+import com.mockrunner.mock.jms.MessageJournal;
+
 /**
  * The <code>ConfigurationManager</code> is used
  * for global settings of the JMS test framework.
@@ -9,12 +12,36 @@ import java.io.Serializable;
 public class ConfigurationManager implements Serializable
 {
     private boolean doCloneOnSend;
+    private MessageCloner messageCloner;
+    private MessageIdGenerator messageIdGenerator;
     private boolean useMessageSelectors;
+    private MessageRetentionPolicy messageRetentionPolicy;
+    private MessageDispatchMode messageDispatchMode;
+    private boolean useTransactionalBatching;
+    private int maximumRedeliveries;
+    private MessageTrackingPolicy messageTrackingPolicy;
+    private int messagePoolSize;
+    private boolean discardFreedTemporaryDestinations;
+    private long destinationIdleTimeout;
+    private File journalDirectory;
+    private int journalSegmentSize;
     
     public ConfigurationManager()
     {
         doCloneOnSend = false;
+        messageCloner = MessageCloner.standard();
+        messageIdGenerator = MessageIdGenerator.counter();
         useMessageSelectors = true;
+        messageRetentionPolicy = MessageRetentionPolicy.unbounded();
+        messageDispatchMode = MessageDispatchMode.synchronous();
+        useTransactionalBatching = false;
+        maximumRedeliveries = 6;
+        messageTrackingPolicy = MessageTrackingPolicy.all();
+        messagePoolSize = 0;
+        discardFreedTemporaryDestinations = false;
+        destinationIdleTimeout = 0;
+        journalDirectory = null;
+        journalSegmentSize = MessageJournal.DEFAULT_SEGMENT_SIZE;
     }
     
     /**
@@ -38,7 +65,8 @@ public class ConfigurationManager implements Serializable
      * to examine it. However, the <code>true</code> option
      * is closer to a real JMS server, where you can send
      * the same message multiple times and the messages do
-     * not influence each other.
+     * not influence each other. The messages are cloned
+     * with the {@link MessageCloner} set with {@link #setMessageCloner}.
      * @param doCloneOnSend the clone on send flag,
      *        default is <code>false</code>
      */
@@ -47,6 +75,54 @@ public class ConfigurationManager implements Serializable
         this.doCloneOnSend = doCloneOnSend;
     }
     
+    /**
+     * Get the strategy that clones messages, see {@link #setMessageCloner}.
+     * @return the message cloner
+     */
+    public MessageCloner getMessageCloner()
+    {
+        return messageCloner;
+    }
+    
+    /**
+     * Set the strategy that clones messages, if clone on send is enabled
+     * with {@link #setDoCloneOnSend}. Default is {@link MessageCloner#standard},
+     * i.e. the messages are cloned with their <code>clone</code> method.
+     * @param messageCloner the message cloner
+     */
+    public void setMessageCloner(MessageCloner messageCloner)
+    {
+        if(null == messageCloner)
+        {
+            throw new IllegalArgumentException("messageCloner must not be null");
+        }
+        this.messageCloner = messageCloner;
+    }
+    
+    /**
+     * Get the strategy that generates message ids, see {@link #setMessageIdGenerator}.
+     * @return the message id generator
+     */
+    public MessageIdGenerator getMessageIdGenerator()
+    {
+        return messageIdGenerator;
+    }
+    
+    /**
+     * Set the strategy that generates the ids of sent messages.
+     * Default is {@link MessageIdGenerator#counter}, i.e. the
+     * messages are numbered.
+     * @param messageIdGenerator the message id generator
+     */
+    public void setMessageIdGenerator(MessageIdGenerator messageIdGenerator)
+    {
+        if(null == messageIdGenerator)
+        {
+            throw new IllegalArgumentException("messageIdGenerator must not be null");
+        }
+        this.messageIdGenerator = messageIdGenerator;
+    }
+    
     /**
      * Get if message selectors should be used.
      * @return <code>true</code> use message selectors,
@@ -74,4 +150,273 @@ public class ConfigurationManager implements Serializable
     {
         this.useMessageSelectors = useMessageSelectors;
     }
+    
+    /**
+     * Get the policy for the list of received messages
+     * of destinations, see {@link #setMessageRetentionPolicy}.
+     * @return the policy
+     */
+    public MessageRetentionPolicy getMessageRetentionPolicy()
+    {
+        return messageRetentionPolicy;
+    }
+    
+    /**
+     * Set the policy for the list of received messages of
+     * destinations. Default is {@link MessageRetentionPolicy#unbounded},
+     * i.e. all received messages are kept. Long running tests can
+     * limit the history with one of the other policies of
+     * {@link MessageRetentionPolicy}. The policy is used by
+     * destinations that are created afterwards.
+     * @param messageRetentionPolicy the policy
+     */
+    public void setMessageRetentionPolicy(MessageRetentionPolicy messageRetentionPolicy)
+    {
+        this.messageRetentionPolicy = messageRetentionPolicy;
+    }
+    
+    /**
+     * Get the mode for delivering messages to listeners,
+     * see {@link #setMessageDispatchMode}.
+     * @return the mode
+     */
+    public MessageDispatchMode getMessageDispatchMode()
+    {
+        return messageDispatchMode;
+    }
+    
+    /**
+     * Set the mode for delivering messages to listeners. Default is
+     * {@link MessageDispatchMode#synchronous}, i.e. the listeners are
+     * called by the thread that sends the message. The asynchronous
+     * modes of {@link MessageDispatchMode} call the listeners
+     * concurrently and can be used to test concurrent consumers.
+     * The mode is used by destinations that are created afterwards.
+     * @param messageDispatchMode the mode
+     */
+    public void setMessageDispatchMode(MessageDispatchMode messageDispatchMode)
+    {
+        this.messageDispatchMode = messageDispatchMode;
+    }
+    
+    /**
+     * Get if transacted sessions batch their work until commit,
+     * see {@link #setUseTransactionalBatching}.
+     * @return the transactional batching flag
+     */
+    public boolean getUseTransactionalBatching()
+    {
+        return useTransactionalBatching;
+    }
+    
+    /**
+     * Set if transacted sessions batch their work until commit.
+     * Default is <code>false</code>, i.e. transacted sessions send
+     * messages immediately and acknowledge received messages like
+     * sessions with acknowledge mode <code>AUTO_ACKNOWLEDGE</code>.
+     * If you set this to <code>true</code>, messages sent by a
+     * transacted session are delivered when the session is committed,
+     * all messages of a destination in one pass, and received messages
+     * are acknowledged on commit. A rollback discards the sent messages
+     * and redelivers the received messages with the
+     * <code>JMSRedelivered</code> flag set. The commits are recorded in
+     * the {@link CommitStatistics} of the session.
+     * @param useTransactionalBatching the transactional batching flag,
+     *        default is <code>false</code>
+     */
+    public void setUseTransactionalBatching(boolean useTransactionalBatching)
+    {
+        this.useTransactionalBatching = useTransactionalBatching;
+    }
+    
+    /**
+     * Get the maximum number of redeliveries of a rolled back message
+     * to a <code>MessageListener</code>,
+     * see {@link #setMaximumRedeliveries}.
+     * @return the maximum number of redeliveries
+     */
+    public int getMaximumRedeliveries()
+    {
+        return maximumRedeliveries;
+    }
+    
+    /**
+     * Set the maximum number of redeliveries of a rolled back message
+     * to a <code>MessageListener</code>, if transactional batching is
+     * used. A listener that rolls back its session for every message
+     * would otherwise get the same message forever. A message that was
+     * rolled back more often than the specified number of times is not
+     * redelivered to the listener, but stays in its destination, where
+     * it can be verified or received explicitly. Default is <code>6</code>.
+     * A negative value redelivers messages without limit.
+     * @param maximumRedeliveries the maximum number of redeliveries,
+     *        default is <code>6</code>
+     */
+    public void setMaximumRedeliveries(int maximumRedeliveries)
+    {
+        this.maximumRedeliveries = maximumRedeliveries;
+    }
+    
+    /**
+     * Get the policy for the messages created by sessions,
+     * see {@link #setMessageTrackingPolicy}.
+     * @return the policy
+     */
+    public MessageTrackingPolicy getMessageTrackingPolicy()
+    {
+        return messageTrackingPolicy;
+    }
+    
+    /**
+     * Set the policy for the messages created by sessions, i.e. which
+     * messages are kept by the {@link MessageManager} of a session.
+     * Default is {@link MessageTrackingPolicy#all}. Tests that create
+     * many messages can limit the kept messages with one of the other
+     * policies of {@link MessageTrackingPolicy}. The policy is used by
+     * sessions that are created afterwards.
+     * @param messageTrackingPolicy the policy
+     */
+    public void setMessageTrackingPolicy(MessageTrackingPolicy messageTrackingPolicy)
+    {
+        if(null == messageTrackingPolicy)
+        {
+            throw new IllegalArgumentException("messageTrackingPolicy must not be null");
+        }
+        this.messageTrackingPolicy = messageTrackingPolicy;
+    }
+    
+    /**
+     * Get the size of the message pool of sessions,
+     * see {@link #setMessagePoolSize}.
+     * @return the message pool size
+     */
+    public int getMessagePoolSize()
+    {
+        return messagePoolSize;
+    }
+    
+    /**
+     * Set the maximum number of released text and bytes messages
+     * per type that the {@link MessageManager} of a session keeps
+     * for reuse, see {@link MessageManager#releaseMessage}.
+     * The size is used by sessions that are created afterwards.
+     * @param messagePoolSize the message pool size,
+     *        default is 0, i.e. no messages are reused
+     */
+    public void setMessagePoolSize(int messagePoolSize)
+    {
+        if(messagePoolSize < 0)
+        {
+            throw new IllegalArgumentException("messagePoolSize must be greater or equals 0");
+        }
+        this.messagePoolSize = messagePoolSize;
+    }
+    
+    /**
+     * Get if freed temporary destinations are discarded,
+     * see {@link #setDiscardFreedTemporaryDestinations}.
+     * @return the discard flag
+     */
+    public boolean getDiscardFreedTemporaryDestinations()
+    {
+        return discardFreedTemporaryDestinations;
+    }
+    
+    /**
+     * Set if freed temporary destinations are discarded. A temporary
+     * queue or topic is freed when it is deleted and all its consumers
+     * are closed. Closing a connection deletes its temporary destinations.
+     * Default is <code>false</code>, i.e. freed destinations stay in the
+     * temporary destination list of the session that created them and
+     * can be verified with <code>JMSTestModule</code>. If you set this
+     * to <code>true</code>, freed destinations are cleared and removed
+     * from the list, which keeps the memory usage of request/reply tests
+     * that create a temporary queue per request constant.
+     * @param discardFreedTemporaryDestinations the discard flag,
+     *        default is <code>false</code>
+     */
+    public void setDiscardFreedTemporaryDestinations(boolean discardFreedTemporaryDestinations)
+    {
+        this.discardFreedTemporaryDestinations = discardFreedTemporaryDestinations;
+    }
+    
+    /**
+     * Get the idle timeout of destinations,
+     * see {@link #setDestinationIdleTimeout}.
+     * @return the idle timeout in milliseconds
+     */
+    public long getDestinationIdleTimeout()
+    {
+        return destinationIdleTimeout;
+    }
+    
+    /**
+     * Set the time in milliseconds after which the {@link DestinationManager}
+     * removes idle queues and topics. A destination is idle, if it contains
+     * no messages, is not used by a session and no message was added or
+     * removed within the timeout. Idle destinations are evicted when a new
+     * destination is created, see {@link DestinationManager#evictIdleDestinations}.
+     * @param destinationIdleTimeout the idle timeout in milliseconds,
+     *        default is 0, i.e. destinations are never evicted
+     */
+    public void setDestinationIdleTimeout(long destinationIdleTimeout)
+    {
+        if(destinationIdleTimeout < 0)
+        {
+            throw new IllegalArgumentException("destinationIdleTimeout must be greater or equals 0");
+        }
+        this.destinationIdleTimeout = destinationIdleTimeout;
+    }
+    
+    /**
+     * Get the journal directory, see {@link #setJournalDirectory}.
+     * @return the journal directory or <code>null</code>
+     */
+    public File getJournalDirectory()
+    {
+        return journalDirectory;
+    }
+    
+    /**
+     * Set the directory where the {@link DestinationManager} keeps
+     * the current messages of the queues and topics it creates.
+     * Each destination gets a {@link MessageJournal} in a subdirectory.
+     * The messages are stored in memory-mapped files instead of the heap,
+     * so tests can use backlogs larger than the memory. Messages that
+     * are left in the directory are replayed by the next
+     * <code>DestinationManager</code> that uses the same directory.
+     * Must be set before the <code>DestinationManager</code> is created.
+     * @param journalDirectory the journal directory, default is
+     *        <code>null</code>, i.e. messages are kept on the heap
+     */
+    public void setJournalDirectory(File journalDirectory)
+    {
+        this.journalDirectory = journalDirectory;
+    }
+    
+    /**
+     * Get the size of the journal segment files,
+     * see {@link #setJournalSegmentSize}.
+     * @return the size of the segment files in bytes
+     */
+    public int getJournalSegmentSize()
+    {
+        return journalSegmentSize;
+    }
+    
+    /**
+     * Set the size of the segment files of the journals created for
+     * the {@link #setJournalDirectory}. Segments are deleted when all
+     * their messages are consumed.
+     * @param journalSegmentSize the size of the segment files in bytes,
+     *        default is {@link MessageJournal#DEFAULT_SEGMENT_SIZE}
+     */
+    public void setJournalSegmentSize(int journalSegmentSize)
+    {
+        if(journalSegmentSize <= 0)
+        {
+            throw new IllegalArgumentException("journalSegmentSize must be greater than 0");
+        }
+        this.journalSegmentSize = journalSegmentSize;
+    }
 }
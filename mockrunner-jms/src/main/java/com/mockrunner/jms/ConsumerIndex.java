@@ -0,0 +1,117 @@
+package com.mockrunner.jms;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps destination names to the open consumers of the destination.
+ * The consumers of a destination are kept in an array, that is
+ * replaced when a consumer is added or removed. Looking up the
+ * consumers does not allocate or copy anything, so sending
+ * a message only costs the number of consumers of the destination.
+ * The arrays returned by {@link #getConsumers} must not be modified.
+ * <br>
+ * This class is thread safe.
+ */
+public class ConsumerIndex implements Serializable
+{
+    private Class consumerType;
+    private Object emptyArray;
+    private ConcurrentMap consumers;
+
+    /**
+     * Creates an index that returns arrays of the specified type.
+     * @param consumerType the component type of the arrays
+     */
+    public ConsumerIndex(Class consumerType)
+    {
+        this.consumerType = consumerType;
+        emptyArray = Array.newInstance(consumerType, 0);
+        consumers = new ConcurrentHashMap();
+    }
+
+    /**
+     * Adds a consumer for a destination.
+     * @param destinationName the name of the destination
+     * @param consumer the consumer
+     */
+    public void add(String destinationName, Object consumer)
+    {
+        while(true)
+        {
+            Object[] current = (Object[])consumers.get(destinationName);
+            if(null == current)
+            {
+                Object[] added = (Object[])Array.newInstance(consumerType, 1);
+                added[0] = consumer;
+                if(null == consumers.putIfAbsent(destinationName, added)) return;
+            }
+            else
+            {
+                Object[] added = (Object[])Array.newInstance(consumerType, current.length + 1);
+                System.arraycopy(current, 0, added, 0, current.length);
+                added[current.length] = consumer;
+                if(consumers.replace(destinationName, current, added)) return;
+            }
+        }
+    }
+
+    /**
+     * Removes a consumer of a destination. Nothing happens,
+     * if the consumer is not registered for the destination.
+     * @param destinationName the name of the destination
+     * @param consumer the consumer
+     */
+    public void remove(String destinationName, Object consumer)
+    {
+        while(true)
+        {
+            Object[] current = (Object[])consumers.get(destinationName);
+            if(null == current) return;
+            int index = indexOf(current, consumer);
+            if(index < 0) return;
+            if(current.length == 1)
+            {
+                if(consumers.remove(destinationName, current)) return;
+            }
+            else
+            {
+                Object[] removed = (Object[])Array.newInstance(consumerType, current.length - 1);
+                System.arraycopy(current, 0, removed, 0, index);
+                System.arraycopy(current, index + 1, removed, index, current.length - index - 1);
+                if(consumers.replace(destinationName, current, removed)) return;
+            }
+        }
+    }
+
+    /**
+     * Returns the consumers of a destination. The returned array
+     * is shared and must not be modified.
+     * @param destinationName the name of the destination
+     * @return the consumers, an empty array if there are none
+     */
+    public Object getConsumers(String destinationName)
+    {
+        Object current = consumers.get(destinationName);
+        return (null == current) ? emptyArray : current;
+    }
+
+    /**
+     * Removes all consumers.
+     */
+    public void clear()
+    {
+        consumers.clear();
+    }
+
+    private int indexOf(Object[] array, Object consumer)
+    {
+        for(int ii = 0; ii < array.length; ii++)
+        {
+            if(array[ii] == consumer) return ii;
+        }
+        return -1;
+    }
+}
@@ -1,9 +1,19 @@
 package com.mockrunner.jms;
 
+import java.io.File;
 import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.mockrunner.base.NestedApplicationException;
+import com.mockrunner.mock.jms.MessageJournal;
+import com.mockrunner.mock.jms.MockDestination;
 import com.mockrunner.mock.jms.MockQueue;
 import com.mockrunner.mock.jms.MockTopic;
 
@@ -14,16 +24,50 @@ import com.mockrunner.mock.jms.MockTopic;
  * acquired using JNDI in a J2EE environment, you can bind
  * the created objects to the mock context with the help
  * of com.mockrunner.ejb.EJBTestModule#bindToContext.
+ * <br>
+ * Looking up an existing destination does not lock and does not
+ * create objects. Idle destinations can be evicted automatically,
+ * see {@link ConfigurationManager#setDestinationIdleTimeout}.
+ * <br>
+ * If a journal directory is set with
+ * {@link ConfigurationManager#setJournalDirectory}, the messages
+ * of the created destinations are kept in a {@link MessageJournal}
+ * and the destinations of an earlier <code>DestinationManager</code>
+ * with the same directory are recreated, see {@link #replayJournals}.
  */
 public class DestinationManager implements Serializable
 {
+    private static final String QUEUE_PREFIX = "queue-";
+    private static final String TOPIC_PREFIX = "topic-";
+    private static final String ENCODING = "UTF-8";
+    
     private ConcurrentMap<String, MockQueue> queues;
     private ConcurrentMap<String, MockTopic> topics;
+    private ConfigurationManager configurationManager;
+    private AtomicLong lastEvictionTime;
 
     public DestinationManager()
+    {
+        this(new ConfigurationManager());
+    }
+
+    /**
+     * Creates a <code>DestinationManager</code> that applies the
+     * {@link ConfigurationManager#getMessageRetentionPolicy} and the
+     * {@link ConfigurationManager#getMessageDispatchMode} to
+     * the created destinations.
+     * @param configurationManager the configuration
+     */
+    public DestinationManager(ConfigurationManager configurationManager)
     {
         queues = new ConcurrentHashMap<String, MockQueue>();
         topics = new ConcurrentHashMap<String, MockTopic>();
+        this.configurationManager = configurationManager;
+        lastEvictionTime = new AtomicLong(System.currentTimeMillis());
+        if(null != configurationManager.getJournalDirectory())
+        {
+            replayJournals();
+        }
     }
 
     /**
@@ -39,18 +83,27 @@ public class DestinationManager implements Serializable
      */
     public MockQueue createQueue(String name)
     {
-        MockQueue queue = new MockQueue(name);
+        MockQueue queue = queues.get(name);
+        if(null != queue) return queue;
+        evictIdleDestinationsIfDue();
+        queue = new MockQueue(name);
+        queue.setMessageRetentionPolicy(configurationManager.getMessageRetentionPolicy());
+        queue.setMessageDispatchMode(configurationManager.getMessageDispatchMode());
         MockQueue orig = queues.putIfAbsent(name, queue);
-        return orig == null ? queue : orig;
+        if(null != orig) return orig;
+        attachJournal(queue, QUEUE_PREFIX, name);
+        return queue;
     }
 
     /**
      * Removes a formerly created <code>Queue</code>.
+     * Its journal is closed, the messages stay in the journal directory.
+     * Its message dispatcher is shut down.
      * @param name the name of the <code>Queue</code>
      */
     public void removeQueue(String name)
     {
-        queues.remove(name);
+        removeDestination(queues.remove(name));
     }
 
     /**
@@ -77,18 +130,27 @@ public class DestinationManager implements Serializable
      */
     public MockTopic createTopic(String name)
     {
-        MockTopic topic = new MockTopic(name);
+        MockTopic topic = topics.get(name);
+        if(null != topic) return topic;
+        evictIdleDestinationsIfDue();
+        topic = new MockTopic(name);
+        topic.setMessageRetentionPolicy(configurationManager.getMessageRetentionPolicy());
+        topic.setMessageDispatchMode(configurationManager.getMessageDispatchMode());
         MockTopic orig = topics.putIfAbsent(name, topic);
-        return orig == null ? topic : orig;
+        if(null != orig) return orig;
+        attachJournal(topic, TOPIC_PREFIX, name);
+        return topic;
     }
 
     /**
      * Removes a formerly created <code>Topic</code>.
+     * Its journal is closed, the messages stay in the journal directory.
+     * Its message dispatcher is shut down.
      * @param name the name of the <code>Topic</code>
      */
     public void removeTopic(String name)
     {
-        topics.remove(name);
+        removeDestination(topics.remove(name));
     }
 
     /**
@@ -102,6 +164,203 @@ public class DestinationManager implements Serializable
         return createTopic(name);
     }
 
+    /**
+     * Returns the number of queues.
+     * @return the number of queues
+     */
+    public int getNumberQueues()
+    {
+        return queues.size();
+    }
+
+    /**
+     * Returns the number of topics.
+     * @return the number of topics
+     */
+    public int getNumberTopics()
+    {
+        return topics.size();
+    }
+
+    /**
+     * Returns the number of current messages of each queue.
+     * @return a <code>Map</code> with the queue names as keys
+     *         and the numbers of messages as values
+     */
+    public Map<String, Integer> getQueueDepths()
+    {
+        return getDepths(queues);
+    }
+
+    /**
+     * Returns the number of current messages of each topic.
+     * @return a <code>Map</code> with the topic names as keys
+     *         and the numbers of messages as values
+     */
+    public Map<String, Integer> getTopicDepths()
+    {
+        return getDepths(topics);
+    }
+
+    /**
+     * Removes the idle queues and topics, if an idle timeout is set with
+     * {@link ConfigurationManager#setDestinationIdleTimeout}. A destination
+     * is idle, if it contains no messages, is not used by a session and
+     * no message was added or removed within the timeout. This method
+     * is called when a destination is created, at most once per timeout.
+     * @return the number of removed destinations
+     */
+    public int evictIdleDestinations()
+    {
+        long timeout = configurationManager.getDestinationIdleTimeout();
+        if(timeout <= 0) return 0;
+        long now = System.currentTimeMillis();
+        lastEvictionTime.set(now);
+        return evictIdle(queues, now, timeout) + evictIdle(topics, now, timeout);
+    }
+
+    /**
+     * Recreates the queues and topics whose journals are contained
+     * in the journal directory, see
+     * {@link ConfigurationManager#setJournalDirectory}. The messages
+     * that were not consumed become the current messages of the
+     * destinations. Called by the constructor.
+     * @return the number of recreated destinations
+     */
+    public int replayJournals()
+    {
+        File directory = configurationManager.getJournalDirectory();
+        if(null == directory) return 0;
+        File[] files = directory.listFiles();
+        if(null == files) return 0;
+        int replayed = 0;
+        for(File file : files)
+        {
+            if(!file.isDirectory()) continue;
+            String fileName = file.getName();
+            if(fileName.startsWith(QUEUE_PREFIX))
+            {
+                createQueue(decodeName(fileName.substring(QUEUE_PREFIX.length())));
+                replayed++;
+            }
+            else if(fileName.startsWith(TOPIC_PREFIX))
+            {
+                createTopic(decodeName(fileName.substring(TOPIC_PREFIX.length())));
+                replayed++;
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * Closes the journals of all queues and topics. The messages
+     * stay in the journal directory and are replayed by the next
+     * <code>DestinationManager</code> with the same directory.
+     * The destinations must not be used afterwards.
+     */
+    public void closeJournals()
+    {
+        closeJournals(queues);
+        closeJournals(topics);
+    }
+
+    private <T extends MockDestination> void closeJournals(ConcurrentMap<String, T> destinations)
+    {
+        for(T destination : destinations.values())
+        {
+            closeJournal(destination);
+        }
+    }
+
+    private void removeDestination(MockDestination destination)
+    {
+        if(null == destination) return;
+        destination.shutdownMessageDispatcher();
+        closeJournal(destination);
+    }
+
+    private void closeJournal(MockDestination destination)
+    {
+        if(null == destination) return;
+        MessageJournal journal = destination.getJournal();
+        if(null != journal) journal.close();
+    }
+
+    private void attachJournal(MockDestination destination, String prefix, String name)
+    {
+        File directory = configurationManager.getJournalDirectory();
+        if(null == directory) return;
+        MessageJournal journal = new MessageJournal(new File(directory, prefix + encodeName(name)), configurationManager.getJournalSegmentSize());
+        journal.setDestinationManager(this);
+        destination.setJournal(journal);
+    }
+
+    private static String encodeName(String name)
+    {
+        try
+        {
+            return URLEncoder.encode(name, ENCODING);
+        }
+        catch(UnsupportedEncodingException exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+    }
+
+    private static String decodeName(String fileName)
+    {
+        try
+        {
+            return URLDecoder.decode(fileName, ENCODING);
+        }
+        catch(UnsupportedEncodingException exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+    }
+
+    private void evictIdleDestinationsIfDue()
+    {
+        long timeout = configurationManager.getDestinationIdleTimeout();
+        if(timeout <= 0) return;
+        long last = lastEvictionTime.get();
+        if(System.currentTimeMillis() - last < timeout) return;
+        if(lastEvictionTime.compareAndSet(last, System.currentTimeMillis()))
+        {
+            evictIdleDestinations();
+        }
+    }
+
+    private <T extends MockDestination> int evictIdle(ConcurrentMap<String, T> destinations, long now, long timeout)
+    {
+        int evicted = 0;
+        for(Map.Entry<String, T> entry : destinations.entrySet())
+        {
+            T destination = entry.getValue();
+            if(destination.isEmpty() && destination.sessionSet().isEmpty() && now - destination.getLastActivityTime() >= timeout)
+            {
+                if(destinations.remove(entry.getKey(), destination))
+                {
+                    destination.shutdownMessageDispatcher();
+                    MessageJournal journal = destination.getJournal();
+                    if(null != journal) journal.delete();
+                    evicted++;
+                }
+            }
+        }
+        return evicted;
+    }
+
+    private <T extends MockDestination> Map<String, Integer> getDepths(ConcurrentMap<String, T> destinations)
+    {
+        Map<String, Integer> depths = new TreeMap<String, Integer>();
+        for(Map.Entry<String, T> entry : destinations.entrySet())
+        {
+            depths.put(entry.getKey(), entry.getValue().getNumberCurrentMessages());
+        }
+        return depths;
+    }
+
     public boolean existsTopic(String topicName) {
         return topics.containsKey(topicName);
     }
@@ -2,6 +2,7 @@ package com.mockrunner.jms;
 
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import javax.jms.JMSException;
 import javax.jms.MessageConsumer;
@@ -14,6 +15,7 @@ import com.mockrunner.base.NestedApplicationException;
 import com.mockrunner.base.VerifyFailedException;
 import com.mockrunner.mock.jms.JMSMockObjectFactory;
 import com.mockrunner.mock.jms.MockConnection;
+import com.mockrunner.mock.jms.MockDestination;
 import com.mockrunner.mock.jms.MockMessage;
 import com.mockrunner.mock.jms.MockMessageConsumer;
 import com.mockrunner.mock.jms.MockMessageProducer;
@@ -339,6 +341,71 @@ public class JMSTestModule
         return mockFactory.getDestinationManager();
     }
     
+    /**
+     * Returns the number of queues of the {@link DestinationManager}.
+     * @return the number of queues
+     */
+    public int getNumberQueues()
+    {
+        return getDestinationManager().getNumberQueues();
+    }
+    
+    /**
+     * Returns the number of topics of the {@link DestinationManager}.
+     * @return the number of topics
+     */
+    public int getNumberTopics()
+    {
+        return getDestinationManager().getNumberTopics();
+    }
+    
+    /**
+     * Returns the number of current messages of each queue
+     * of the {@link DestinationManager}.
+     * @return a <code>Map</code> with the queue names as keys
+     *         and the numbers of messages as values
+     */
+    public Map getQueueDepths()
+    {
+        return getDestinationManager().getQueueDepths();
+    }
+    
+    /**
+     * Returns the number of current messages of each topic
+     * of the {@link DestinationManager}.
+     * @return a <code>Map</code> with the topic names as keys
+     *         and the numbers of messages as values
+     */
+    public Map getTopicDepths()
+    {
+        return getDestinationManager().getTopicDepths();
+    }
+    
+    /**
+     * Returns the number of temporary queues and topics of the current
+     * queue, topic and generic connection that are not freed yet.
+     * A temporary destination is freed when it is deleted and all its
+     * consumers are closed. Closing a connection deletes its temporary
+     * destinations.
+     * @return the number of temporary destinations
+     */
+    public int getNumberTemporaryDestinations()
+    {
+        int number = 0;
+        MockConnection[] connections = new MockConnection[] {getCurrentQueueConnection(), getCurrentTopicConnection(), getCurrentConnection()};
+        for(int ii = 0; ii < connections.length; ii++)
+        {
+            if(null == connections[ii]) continue;
+            boolean counted = false;
+            for(int yy = 0; yy < ii; yy++)
+            {
+                if(connections[yy] == connections[ii]) counted = true;
+            }
+            if(!counted) number += connections[ii].getTemporaryDestinationList().size();
+        }
+        return number;
+    }
+    
     /**
      * Returns the {@link ConfigurationManager}.
      * @return the {@link ConfigurationManager}
@@ -347,6 +414,29 @@ public class JMSTestModule
     {
         return mockFactory.getConfigurationManager();
     }
+    
+    /**
+     * Waits until all messages are delivered to the listeners, if the
+     * {@link MessageDispatchMode} of the {@link ConfigurationManager}
+     * is asynchronous. Returns immediately for synchronous delivery.
+     * Call this method after sending messages and before verifying
+     * the results of the listeners.
+     * @param timeoutMillis the maximum time to wait in milliseconds
+     * @return <code>true</code> if all messages are delivered,
+     *         <code>false</code> if the timeout elapsed before
+     */
+    public boolean awaitMessageDispatch(long timeoutMillis)
+    {
+        try
+        {
+            return getConfigurationManager().getMessageDispatchMode().awaitQuiescence(timeoutMillis);
+        }
+        catch(InterruptedException exc)
+        {
+            Thread.currentThread().interrupt();
+            throw new NestedApplicationException(exc);
+        }
+    }
 
     /**
      * Returns the {@link MessageManager} for the specified session
@@ -396,6 +486,54 @@ public class JMSTestModule
         return session.getMessageManager();
     }
     
+    /**
+     * Returns the {@link CommitStatistics} for the specified session
+     * or <code>null</code> if the session does not exist. Commits are
+     * only recorded, if transactional batching is enabled with
+     * {@link ConfigurationManager#setUseTransactionalBatching}.
+     * The session has to be created using the current {@link MockQueueConnection}.
+     * @param indexOfSession the index of the session
+     * @return the {@link CommitStatistics}
+     */
+    public CommitStatistics getQueueSessionCommitStatistics(int indexOfSession)
+    {
+        MockQueueSession session = getQueueSession(indexOfSession);
+        if(null == session) return null;
+        return session.getCommitStatistics();
+    }
+    
+    /**
+     * Returns the {@link CommitStatistics} for the specified session
+     * or <code>null</code> if the session does not exist. Commits are
+     * only recorded, if transactional batching is enabled with
+     * {@link ConfigurationManager#setUseTransactionalBatching}.
+     * The session has to be created using the current {@link MockTopicConnection}.
+     * @param indexOfSession the index of the session
+     * @return the {@link CommitStatistics}
+     */
+    public CommitStatistics getTopicSessionCommitStatistics(int indexOfSession)
+    {
+        MockTopicSession session = getTopicSession(indexOfSession);
+        if(null == session) return null;
+        return session.getCommitStatistics();
+    }
+    
+    /**
+     * Returns the {@link CommitStatistics} for the specified session
+     * or <code>null</code> if the session does not exist. Commits are
+     * only recorded, if transactional batching is enabled with
+     * {@link ConfigurationManager#setUseTransactionalBatching}.
+     * The session has to be created using the current {@link MockConnection}.
+     * @param indexOfSession the index of the session
+     * @return the {@link CommitStatistics}
+     */
+    public CommitStatistics getSessionCommitStatistics(int indexOfSession)
+    {
+        MockSession session = getSession(indexOfSession);
+        if(null == session) return null;
+        return session.getCommitStatistics();
+    }
+    
     /**
      * Returns the {@link QueueTransmissionManager} for the specified session
      * or <code>null</code> if the session does not exist.
@@ -662,6 +800,9 @@ public class JMSTestModule
      * Returns the list of messages that were received by the queue
      * or <code>null</code> if no such queue exists.
      * @param name the name of the queue
+     * Depending on the {@link MessageRetentionPolicy} of the
+     * {@link ConfigurationManager}, older messages may have been
+     * evicted from the list.
      * @return the list of messages
      */
     public List getReceivedMessageListFromQueue(String name)
@@ -677,6 +818,9 @@ public class JMSTestModule
      * The session has to be created using the current {@link MockQueueConnection}.
      * @param indexOfSession the index of the session
      * @param indexOfQueue the index of the temporary queue
+     * Depending on the {@link MessageRetentionPolicy} of the
+     * {@link ConfigurationManager}, older messages may have been
+     * evicted from the list.
      * @return the list of messages
      */
     public List getReceivedMessageListFromTemporaryQueue(int indexOfSession, int indexOfQueue)
@@ -718,6 +862,9 @@ public class JMSTestModule
      * Returns the list of messages that were received by the topic
      * or <code>null</code> if no such topic exists.
      * @param name the name of the topic
+     * Depending on the {@link MessageRetentionPolicy} of the
+     * {@link ConfigurationManager}, older messages may have been
+     * evicted from the list.
      * @return the list of messages
      */
     public List getReceivedMessageListFromTopic(String name)
@@ -733,6 +880,9 @@ public class JMSTestModule
      * The session has to be created using the current {@link MockTopicConnection}.
      * @param indexOfSession the index of the session
      * @param indexOfTopic the index of the temporary topic
+     * Depending on the {@link MessageRetentionPolicy} of the
+     * {@link ConfigurationManager}, older messages may have been
+     * evicted from the list.
      * @return the list of messages
      */
     public List getReceivedMessageListFromTemporaryTopic(int indexOfSession, int indexOfTopic)
@@ -2357,6 +2507,7 @@ public class JMSTestModule
     {
         checkQueueByName(nameOfQueue);
         List messageList = getReceivedMessageListFromQueue(nameOfQueue);
+        checkReceivedMessagesRetained(getQueue(nameOfQueue), "Queue " + nameOfQueue);
         if(indexOfSourceMessage >= messageList.size())
         {
             throw new VerifyFailedException("Queue " + nameOfQueue + " received only " + messageList.size() + " messages");
@@ -2407,6 +2558,7 @@ public class JMSTestModule
     {
         checkAndGetQueueSessionByIndex(indexOfSession);
         List messageList = getReceivedMessageListFromTemporaryQueue(indexOfSession, indexOfQueue);
+        checkReceivedMessagesRetained(getTemporaryQueue(indexOfSession, indexOfQueue), "Temporary queue with index " + indexOfQueue);
         if(null == messageList)
         {
             throw new VerifyFailedException("Temporary queue with index " + indexOfQueue + " of session with index " + indexOfSession +  " does not exist");
@@ -2444,10 +2596,10 @@ public class JMSTestModule
     public void verifyNumberOfReceivedQueueMessages(String nameOfQueue, int numberOfMessages)
     {
         checkQueueByName(nameOfQueue);
-        List list = getReceivedMessageListFromQueue(nameOfQueue);
-        if(numberOfMessages != list.size())
+        long receivedCount = getQueue(nameOfQueue).getReceivedMessageCount();
+        if(numberOfMessages != receivedCount)
         {
-            throw new VerifyFailedException("Expected " + numberOfMessages + " messages received by queue " + nameOfQueue + ", received " + list.size() + " messages");
+            throw new VerifyFailedException("Expected " + numberOfMessages + " messages received by queue " + nameOfQueue + ", received " + receivedCount + " messages");
         }
     }
     
@@ -2489,9 +2641,10 @@ public class JMSTestModule
         {
             throw new VerifyFailedException("Temporary queue with index " + indexOfQueue + " of session with index " + indexOfSession +  " does not exist");
         }
-        if(numberOfMessages != list.size())
+        long receivedCount = getTemporaryQueue(indexOfSession, indexOfQueue).getReceivedMessageCount();
+        if(numberOfMessages != receivedCount)
         {
-            throw new VerifyFailedException("Expected " + numberOfMessages + " messages, received " + list.size() + " messages");
+            throw new VerifyFailedException("Expected " + numberOfMessages + " messages, received " + receivedCount + " messages");
         }
     }
     
@@ -2505,6 +2658,7 @@ public class JMSTestModule
     {
         checkQueueByName(nameOfQueue);
         List messageList = getReceivedMessageListFromQueue(nameOfQueue);
+        checkReceivedMessagesRetained(getQueue(nameOfQueue), "Queue " + nameOfQueue);
         for(int ii = 0; ii < messageList.size(); ii++)
         {
             MockMessage currentMessage = (MockMessage)messageList.get(ii);
@@ -2527,6 +2681,7 @@ public class JMSTestModule
     {
         checkAndGetQueueSessionByIndex(indexOfSession);
         List messageList = getReceivedMessageListFromTemporaryQueue(indexOfSession, indexOfQueue);
+        checkReceivedMessagesRetained(getTemporaryQueue(indexOfSession, indexOfQueue), "Temporary queue with index " + indexOfQueue);
         if(null == messageList)
         {
             throw new VerifyFailedException("Temporary queue with index " + indexOfQueue + " of session with index " + indexOfSession +  " does not exist");
@@ -2551,6 +2706,7 @@ public class JMSTestModule
     {
         checkQueueByName(nameOfQueue);
         List messageList = getReceivedMessageListFromQueue(nameOfQueue);
+        checkReceivedMessagesRetained(getQueue(nameOfQueue), "Queue " + nameOfQueue);
         if(indexOfMessage >= messageList.size())
         {
             throw new VerifyFailedException("Queue " + nameOfQueue + " received only " + messageList.size() + " messages");
@@ -2572,6 +2728,7 @@ public class JMSTestModule
     {
         checkQueueByName(nameOfQueue);
         List messageList = getReceivedMessageListFromQueue(nameOfQueue);
+        checkReceivedMessagesRetained(getQueue(nameOfQueue), "Queue " + nameOfQueue);
         if(indexOfMessage >= messageList.size())
         {
             throw new VerifyFailedException("Queue " + nameOfQueue + " received only " + messageList.size() + " messages");
@@ -2595,6 +2752,7 @@ public class JMSTestModule
     {
         checkAndGetQueueSessionByIndex(indexOfSession);
         List messageList = getReceivedMessageListFromTemporaryQueue(indexOfSession, indexOfQueue);
+        checkReceivedMessagesRetained(getTemporaryQueue(indexOfSession, indexOfQueue), "Temporary queue with index " + indexOfQueue);
         if(null == messageList)
         {
             throw new VerifyFailedException("Temporary queue with index " + indexOfQueue + " of session with index " + indexOfSession +  " does not exist");
@@ -2622,6 +2780,7 @@ public class JMSTestModule
     {
         checkAndGetQueueSessionByIndex(indexOfSession);
         List messageList = getReceivedMessageListFromTemporaryQueue(indexOfSession, indexOfQueue);
+        checkReceivedMessagesRetained(getTemporaryQueue(indexOfSession, indexOfQueue), "Temporary queue with index " + indexOfQueue);
         if(null == messageList)
         {
             throw new VerifyFailedException("Temporary queue with index " + indexOfQueue + " of session with index " + indexOfSession +  " does not exist");
@@ -3097,6 +3256,7 @@ public class JMSTestModule
     {
         checkTopicByName(nameOfTopic);
         List messageList = getReceivedMessageListFromTopic(nameOfTopic);
+        checkReceivedMessagesRetained(getTopic(nameOfTopic), "Topic " + nameOfTopic);
         if(indexOfSourceMessage >= messageList.size())
         {
             throw new VerifyFailedException("Topic " + nameOfTopic + " received only " + messageList.size() + " messages");
@@ -3147,6 +3307,7 @@ public class JMSTestModule
     {
         checkAndGetTopicSessionByIndex(indexOfSession);
         List messageList = getReceivedMessageListFromTemporaryTopic(indexOfSession, indexOfTopic);
+        checkReceivedMessagesRetained(getTemporaryTopic(indexOfSession, indexOfTopic), "Temporary topic with index " + indexOfTopic);
         if(null == messageList)
         {
             throw new VerifyFailedException("Temporary topic with index " + indexOfTopic + " of session with index " + indexOfSession +  " does not exist");
@@ -3184,10 +3345,10 @@ public class JMSTestModule
     public void verifyNumberOfReceivedTopicMessages(String nameOfTopic, int numberOfMessages)
     {
         checkTopicByName(nameOfTopic);
-        List list = getReceivedMessageListFromTopic(nameOfTopic);
-        if(numberOfMessages != list.size())
+        long receivedCount = getTopic(nameOfTopic).getReceivedMessageCount();
+        if(numberOfMessages != receivedCount)
         {
-            throw new VerifyFailedException("Expected " + numberOfMessages + " messages received by topic " + nameOfTopic + ", received " + list.size() + " messages");
+            throw new VerifyFailedException("Expected " + numberOfMessages + " messages received by topic " + nameOfTopic + ", received " + receivedCount + " messages");
         }
     }
 
@@ -3229,9 +3390,10 @@ public class JMSTestModule
         {
             throw new VerifyFailedException("Temporary topic with index " + indexOfTopic + " of session with index " + indexOfSession +  " does not exist");
         }
-        if(numberOfMessages != list.size())
+        long receivedCount = getTemporaryTopic(indexOfSession, indexOfTopic).getReceivedMessageCount();
+        if(numberOfMessages != receivedCount)
         {
-            throw new VerifyFailedException("Expected " + numberOfMessages + " messages, received " + list.size() + " messages");
+            throw new VerifyFailedException("Expected " + numberOfMessages + " messages, received " + receivedCount + " messages");
         }
     }
     
@@ -3245,6 +3407,7 @@ public class JMSTestModule
     {
         checkTopicByName(nameOfTopic);
         List messageList = getReceivedMessageListFromTopic(nameOfTopic);
+        checkReceivedMessagesRetained(getTopic(nameOfTopic), "Topic " + nameOfTopic);
         for(int ii = 0; ii < messageList.size(); ii++)
         {
             MockMessage currentMessage = (MockMessage)messageList.get(ii);
@@ -3267,6 +3430,7 @@ public class JMSTestModule
     {
         checkAndGetTopicSessionByIndex(indexOfSession);
         List messageList = getReceivedMessageListFromTemporaryTopic(indexOfSession, indexOfTopic);
+        checkReceivedMessagesRetained(getTemporaryTopic(indexOfSession, indexOfTopic), "Temporary topic with index " + indexOfTopic);
         if(null == messageList)
         {
             throw new VerifyFailedException("Temporary topic with index " + indexOfTopic + " of session with index " + indexOfSession +  " does not exist");
@@ -3291,6 +3455,7 @@ public class JMSTestModule
     {
         checkTopicByName(nameOfTopic);
         List messageList = getReceivedMessageListFromTopic(nameOfTopic);
+        checkReceivedMessagesRetained(getTopic(nameOfTopic), "Topic " + nameOfTopic);
         if(indexOfMessage >= messageList.size())
         {
             throw new VerifyFailedException("Topic " + nameOfTopic + " received only " + messageList.size() + " messages");
@@ -3312,6 +3477,7 @@ public class JMSTestModule
     {
         checkTopicByName(nameOfTopic);
         List messageList = getReceivedMessageListFromTopic(nameOfTopic);
+        checkReceivedMessagesRetained(getTopic(nameOfTopic), "Topic " + nameOfTopic);
         if(indexOfMessage >= messageList.size())
         {
             throw new VerifyFailedException("Topic " + nameOfTopic + " received only " + messageList.size() + " messages");
@@ -3335,6 +3501,7 @@ public class JMSTestModule
     {
         checkAndGetTopicSessionByIndex(indexOfSession);
         List messageList = getReceivedMessageListFromTemporaryTopic(indexOfSession, indexOfTopic);
+        checkReceivedMessagesRetained(getTemporaryTopic(indexOfSession, indexOfTopic), "Temporary topic with index " + indexOfTopic);
         if(null == messageList)
         {
             throw new VerifyFailedException("Temporary topic with index " + indexOfTopic + " of session with index " + indexOfSession +  " does not exist");
@@ -3362,6 +3529,7 @@ public class JMSTestModule
     {
         checkAndGetTopicSessionByIndex(indexOfSession);
         List messageList = getReceivedMessageListFromTemporaryTopic(indexOfSession, indexOfTopic);
+        checkReceivedMessagesRetained(getTemporaryTopic(indexOfSession, indexOfTopic), "Temporary topic with index " + indexOfTopic);
         if(null == messageList)
         {
             throw new VerifyFailedException("Temporary topic with index " + indexOfTopic + " of session with index " + indexOfSession +  " does not exist");
@@ -4264,4 +4432,15 @@ public class JMSTestModule
             throw new VerifyFailedException("Topic with name " + topicName + " is not present.");
         }
     }
+    
+    private void checkReceivedMessagesRetained(MockDestination destination, String description)
+    {
+        if(null == destination) return;
+        long evictedCount = destination.getEvictedMessageCount();
+        if(evictedCount > 0)
+        {
+            long receivedCount = destination.getReceivedMessageCount();
+            throw new VerifyFailedException(description + " received " + receivedCount + " messages, but only " + (receivedCount - evictedCount) + " messages are retained with the policy '" + destination.getMessageRetentionPolicy() + "'");
+        }
+    }
 }
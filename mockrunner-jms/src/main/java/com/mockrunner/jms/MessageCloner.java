@@ -0,0 +1,354 @@
+package com.mockrunner.jms;
+
+import java.io.Externalizable;
+import java.io.NotSerializableException;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.mockrunner.base.NestedApplicationException;
+import com.mockrunner.mock.jms.MockMessage;
+import com.mockrunner.mock.jms.MockObjectMessage;
+
+/**
+ * Determines how messages are cloned, if
+ * {@link ConfigurationManager#setDoCloneOnSend} is enabled.
+ * The default is {@link #standard}, which uses
+ * {@link MockMessage#clone}. The object of a
+ * <code>MockObjectMessage</code> is copied with Java
+ * serialization in this case, the other message types copy their
+ * data.
+ * <br>
+ * The other strategies are faster for some message types:
+ * {@link #reflective} copies the object of a
+ * <code>MockObjectMessage</code> field by field,
+ * {@link #copyOnWrite} shares the data of the message with the clone
+ * until one of them changes it and {@link #pooledSerialization}
+ * serializes the object of a <code>MockObjectMessage</code> with
+ * reused buffers. Custom strategies can extend this class.
+ * <br>
+ * The strategy is set with {@link ConfigurationManager#setMessageCloner}.
+ */
+public abstract class MessageCloner implements Serializable
+{
+    private static final MessageCloner STANDARD = new StandardCloner();
+    private static final MessageCloner REFLECTIVE = new ReflectiveCloner();
+    private static final MessageCloner COPY_ON_WRITE = new CopyOnWriteCloner();
+    private static final MessageCloner POOLED_SERIALIZATION = new PooledSerializationCloner();
+
+    /**
+     * Clones messages with {@link MockMessage#clone}.
+     * This is the default.
+     * @return the strategy
+     */
+    public static MessageCloner standard()
+    {
+        return STANDARD;
+    }
+
+    /**
+     * Copies the object of a <code>MockObjectMessage</code> by
+     * reflection. The fields of each class are looked up only once.
+     * Like serialization, transient and static fields are not copied
+     * and fields of classes that are not <code>Serializable</code>
+     * are initialized by the constructor. Objects of classes without
+     * a no-argument constructor, of classes whose fields cannot be made
+     * accessible and of classes that customize their serialization,
+     * e.g. with <code>writeObject</code>, are copied with serialization. The other message types are cloned with
+     * {@link MockMessage#clone}.
+     * @return the strategy
+     */
+    public static MessageCloner reflective()
+    {
+        return REFLECTIVE;
+    }
+
+    /**
+     * Clones messages with {@link MockMessage#copyOnWriteClone}. The
+     * clone shares the properties and the body with the original
+     * message, until one of them changes it.
+     * The object of a <code>MockObjectMessage</code> is serialized,
+     * but not deserialized until the receiver accesses it.
+     * @return the strategy
+     */
+    public static MessageCloner copyOnWrite()
+    {
+        return COPY_ON_WRITE;
+    }
+
+    /**
+     * Copies the object of a <code>MockObjectMessage</code>
+     * with {@link PooledSerializer}. The other message types are
+     * cloned with {@link MockMessage#clone}.
+     * @return the strategy
+     */
+    public static MessageCloner pooledSerialization()
+    {
+        return POOLED_SERIALIZATION;
+    }
+
+    /**
+     * Clones a message.
+     * @param message the message
+     * @return the clone
+     */
+    public abstract MockMessage cloneMessage(MockMessage message);
+
+    private static class StandardCloner extends MessageCloner
+    {
+        public MockMessage cloneMessage(MockMessage message)
+        {
+            return (MockMessage)message.clone();
+        }
+
+        public String toString()
+        {
+            return "standard";
+        }
+    }
+
+    private static class CopyOnWriteCloner extends MessageCloner
+    {
+        public MockMessage cloneMessage(MockMessage message)
+        {
+            return message.copyOnWriteClone();
+        }
+
+        public String toString()
+        {
+            return "copy on write";
+        }
+    }
+
+    private static class PooledSerializationCloner extends MessageCloner
+    {
+        public MockMessage cloneMessage(MockMessage message)
+        {
+            if(!(message instanceof MockObjectMessage))
+            {
+                return (MockMessage)message.clone();
+            }
+            MockObjectMessage objectMessage = (MockObjectMessage)message;
+            return objectMessage.cloneWithObject(PooledSerializer.copy(getObject(objectMessage)));
+        }
+
+        public String toString()
+        {
+            return "pooled serialization";
+        }
+    }
+
+    private static class ReflectiveCloner extends MessageCloner
+    {
+        private static final ClassValue PLANS = new ClassValue()
+        {
+            protected Object computeValue(Class type)
+            {
+                return new CopyPlan(type);
+            }
+        };
+
+        public MockMessage cloneMessage(MockMessage message)
+        {
+            if(!(message instanceof MockObjectMessage))
+            {
+                return (MockMessage)message.clone();
+            }
+            MockObjectMessage objectMessage = (MockObjectMessage)message;
+            Serializable copy = (Serializable)copy(getObject(objectMessage), new IdentityHashMap());
+            return objectMessage.cloneWithObject(copy);
+        }
+
+        private Object copy(Object object, Map copies)
+        {
+            if(null == object || isImmutable(object.getClass())) return object;
+            Object copy = copies.get(object);
+            if(null != copy) return copy;
+            Class type = object.getClass();
+            if(type.isArray())
+            {
+                return copyArray(object, copies);
+            }
+            CopyPlan plan = (CopyPlan)PLANS.get(type);
+            if(!(object instanceof Serializable))
+            {
+                throw new NestedApplicationException(new NotSerializableException(type.getName()));
+            }
+            if(!plan.isReflective())
+            {
+                copy = PooledSerializer.copy((Serializable)object);
+                copies.put(object, copy);
+                return copy;
+            }
+            copy = plan.newInstance();
+            copies.put(object, copy);
+            plan.copyFields(this, object, copy, copies);
+            return copy;
+        }
+
+        private Object copyArray(Object array, Map copies)
+        {
+            int length = Array.getLength(array);
+            Class componentType = array.getClass().getComponentType();
+            Object copy = Array.newInstance(componentType, length);
+            copies.put(array, copy);
+            if(componentType.isPrimitive())
+            {
+                System.arraycopy(array, 0, copy, 0, length);
+                return copy;
+            }
+            Object[] source = (Object[])array;
+            Object[] target = (Object[])copy;
+            for(int ii = 0; ii < length; ii++)
+            {
+                target[ii] = copy(source[ii], copies);
+            }
+            return copy;
+        }
+
+        private static boolean isImmutable(Class type)
+        {
+            return type == String.class || type == Integer.class || type == Long.class ||
+                   type == Double.class || type == Float.class || type == Short.class ||
+                   type == Byte.class || type == Character.class || type == Boolean.class ||
+                   type == BigInteger.class || type == BigDecimal.class || type == Class.class ||
+                   type.isEnum() || (null != type.getSuperclass() && type.getSuperclass().isEnum());
+        }
+
+        public String toString()
+        {
+            return "reflective";
+        }
+    }
+
+    /**
+     * The fields and the constructor used to copy objects of a class.
+     */
+    private static class CopyPlan
+    {
+        private Constructor constructor;
+        private Field[] fields;
+
+        public CopyPlan(Class type)
+        {
+            if(!Serializable.class.isAssignableFrom(type)) return;
+            List fieldList = new ArrayList();
+            for(Class current = type; null != current && Serializable.class.isAssignableFrom(current); current = current.getSuperclass())
+            {
+                if(hasCustomSerialization(current)) return;
+                for(Field field : current.getDeclaredFields())
+                {
+                    int modifiers = field.getModifiers();
+                    if(Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) continue;
+                    if(!makeAccessible(field)) return;
+                    fieldList.add(field);
+                }
+            }
+            try
+            {
+                constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            }
+            catch(Exception exc)
+            {
+                constructor = null;
+                return;
+            }
+            fields = (Field[])fieldList.toArray(new Field[fieldList.size()]);
+        }
+
+        public boolean isReflective()
+        {
+            return null != constructor && null != fields;
+        }
+
+        public Object newInstance()
+        {
+            try
+            {
+                return constructor.newInstance();
+            }
+            catch(Exception exc)
+            {
+                throw new NestedApplicationException(exc);
+            }
+        }
+
+        public void copyFields(ReflectiveCloner cloner, Object source, Object target, Map copies)
+        {
+            try
+            {
+                for(Field field : fields)
+                {
+                    if(field.getType().isPrimitive())
+                    {
+                        field.set(target, field.get(source));
+                    }
+                    else
+                    {
+                        field.set(target, cloner.copy(field.get(source), copies));
+                    }
+                }
+            }
+            catch(IllegalAccessException exc)
+            {
+                throw new NestedApplicationException(exc);
+            }
+        }
+
+        /**
+         * Fields of classes in modules that are not open, e.g. of the
+         * JDK, cannot be made accessible. Objects of these classes are
+         * copied with serialization.
+         */
+        private static boolean makeAccessible(Field field)
+        {
+            try
+            {
+                field.setAccessible(true);
+                return true;
+            }
+            catch(RuntimeException exc)
+            {
+                return false;
+            }
+        }
+
+        private static boolean hasCustomSerialization(Class type)
+        {
+            return hasMethod(type, "writeObject") || hasMethod(type, "readObject") ||
+                   hasMethod(type, "readObjectNoData") || hasMethod(type, "writeReplace") ||
+                   hasMethod(type, "readResolve") || Externalizable.class.isAssignableFrom(type);
+        }
+
+        private static boolean hasMethod(Class type, String name)
+        {
+            for(Method method : type.getDeclaredMethods())
+            {
+                if(method.getName().equals(name)) return true;
+            }
+            return false;
+        }
+    }
+
+    private static Serializable getObject(MockObjectMessage message)
+    {
+        try
+        {
+            return message.getObject();
+        }
+        catch(Exception exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+    }
+}
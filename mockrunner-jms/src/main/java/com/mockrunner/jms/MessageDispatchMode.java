@@ -0,0 +1,340 @@
+package com.mockrunner.jms;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Determines how a destination delivers messages to message listeners.
+ * The default is {@link #synchronous}, i.e. the listeners are called
+ * by the thread that sends the message, one after the other. This is
+ * the simplest mode for tests.
+ * <br>
+ * The asynchronous modes call the listeners with an executor that
+ * belongs to the destination. Each consumer gets its messages in the
+ * order they were sent and one at a time, but different consumers are
+ * called concurrently, so a slow listener does not stall the producers
+ * and the other consumers. Each consumer has a bounded number of
+ * messages in flight. If the bound is reached, sending a message blocks
+ * until the consumer has processed a message (back-pressure).
+ * Use {@link JMSTestModule#awaitMessageDispatch} to wait until all
+ * messages are delivered before verifying the results.
+ * <br>
+ * Exceptions thrown by listeners in asynchronous mode are not passed
+ * to the producer. They are collected by the {@link MessageDispatcher}
+ * of the destination instead.
+ * <br>
+ * The mode is set with {@link ConfigurationManager#setMessageDispatchMode}
+ * or directly on a destination with
+ * {@link com.mockrunner.mock.jms.MockDestination#setMessageDispatchMode}.
+ */
+public abstract class MessageDispatchMode implements Serializable
+{
+    private static final MessageDispatchMode SYNCHRONOUS = new SynchronousMode();
+
+    private transient Set dispatchers;
+
+    /**
+     * Calls the listeners with the thread that sends the message.
+     * This is the default.
+     * @return the mode
+     */
+    public static MessageDispatchMode synchronous()
+    {
+        return SYNCHRONOUS;
+    }
+
+    /**
+     * Calls the listeners with a fixed number of threads per destination.
+     * Idle threads are stopped after a second.
+     * @param numberOfThreads the number of threads
+     * @param maxMessagesInFlight the maximum number of messages per consumer,
+     *        that are sent but not yet processed
+     * @return the mode
+     */
+    public static MessageDispatchMode threadPool(int numberOfThreads, int maxMessagesInFlight)
+    {
+        if(numberOfThreads <= 0)
+        {
+            throw new IllegalArgumentException("numberOfThreads must be greater than 0");
+        }
+        return new ThreadPoolMode(numberOfThreads, maxMessagesInFlight);
+    }
+
+    /**
+     * Calls the listeners with a <code>ForkJoinPool</code> per destination.
+     * @param parallelism the parallelism of the pool
+     * @param maxMessagesInFlight the maximum number of messages per consumer,
+     *        that are sent but not yet processed
+     * @return the mode
+     */
+    public static MessageDispatchMode forkJoin(int parallelism, int maxMessagesInFlight)
+    {
+        if(parallelism <= 0)
+        {
+            throw new IllegalArgumentException("parallelism must be greater than 0");
+        }
+        return new ForkJoinMode(parallelism, maxMessagesInFlight);
+    }
+
+    /**
+     * Calls the listeners with the specified executor, which is shared
+     * by all destinations. The executor is not shut down by Mockrunner.
+     * This mode can be used with any executor, e.g. one that
+     * creates virtual threads on newer JDKs. The executor must be
+     * serializable, if the destinations are serialized.
+     * @param executor the executor
+     * @param maxMessagesInFlight the maximum number of messages per consumer,
+     *        that are sent but not yet processed
+     * @return the mode
+     */
+    public static MessageDispatchMode executor(Executor executor, int maxMessagesInFlight)
+    {
+        if(null == executor)
+        {
+            throw new IllegalArgumentException("executor must not be null");
+        }
+        return new ExecutorMode(executor, maxMessagesInFlight);
+    }
+
+    /**
+     * Returns if the listeners are called by the thread that sends
+     * the message.
+     * @return <code>true</code> for synchronous delivery,
+     *         <code>false</code> otherwise
+     */
+    public boolean isSynchronous()
+    {
+        return false;
+    }
+
+    /**
+     * Creates the dispatcher for a destination.
+     * @param name the name of the destination, used for the thread names
+     * @return the dispatcher
+     */
+    public MessageDispatcher createDispatcher(String name)
+    {
+        MessageDispatcher dispatcher = new MessageDispatcher(this, name);
+        synchronized(this)
+        {
+            if(null == dispatchers)
+            {
+                dispatchers = Collections.newSetFromMap(new WeakHashMap());
+            }
+            dispatchers.add(dispatcher);
+        }
+        return dispatcher;
+    }
+
+    /**
+     * Waits until all messages sent to destinations that use this
+     * mode are processed by the consumers.
+     * @param timeoutMillis the maximum time to wait in milliseconds
+     * @return <code>true</code> if all messages are processed,
+     *         <code>false</code> if the timeout elapsed before
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public boolean awaitQuiescence(long timeoutMillis) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        Iterator iterator = getDispatcherList().iterator();
+        while(iterator.hasNext())
+        {
+            MessageDispatcher dispatcher = (MessageDispatcher)iterator.next();
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if(!dispatcher.awaitQuiescence(Math.max(0, remaining))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the dispatchers of the destinations that use this mode.
+     * @return the <code>List</code> of {@link MessageDispatcher} objects
+     */
+    public synchronized List getDispatcherList()
+    {
+        if(null == dispatchers) return new ArrayList();
+        return new ArrayList(dispatchers);
+    }
+
+    /**
+     * Returns the maximum number of messages per consumer, that
+     * are sent but not yet processed.
+     * @return the maximum number of messages
+     */
+    public abstract int getMaxMessagesInFlight();
+
+    /**
+     * Creates the executor for a destination.
+     * @param name the name of the destination
+     * @return the executor
+     */
+    protected abstract Executor createExecutor(String name);
+
+    /**
+     * Shuts down an executor created by {@link #createExecutor}.
+     * Queued tasks are still executed.
+     * @param executor the executor
+     */
+    protected void shutdownExecutor(Executor executor)
+    {
+        if(executor instanceof ExecutorService)
+        {
+            ((ExecutorService)executor).shutdown();
+        }
+    }
+
+    private static void checkMaxMessagesInFlight(int maxMessagesInFlight)
+    {
+        if(maxMessagesInFlight <= 0)
+        {
+            throw new IllegalArgumentException("maxMessagesInFlight must be greater than 0");
+        }
+    }
+
+    private static class SynchronousMode extends MessageDispatchMode
+    {
+        public boolean isSynchronous()
+        {
+            return true;
+        }
+
+        public int getMaxMessagesInFlight()
+        {
+            return 1;
+        }
+
+        protected Executor createExecutor(String name)
+        {
+            throw new UnsupportedOperationException("Synchronous delivery does not use an executor");
+        }
+
+        public String toString()
+        {
+            return "synchronous";
+        }
+    }
+
+    private static class ThreadPoolMode extends MessageDispatchMode
+    {
+        private int numberOfThreads;
+        private int maxMessagesInFlight;
+
+        public ThreadPoolMode(int numberOfThreads, int maxMessagesInFlight)
+        {
+            checkMaxMessagesInFlight(maxMessagesInFlight);
+            this.numberOfThreads = numberOfThreads;
+            this.maxMessagesInFlight = maxMessagesInFlight;
+        }
+
+        public int getMaxMessagesInFlight()
+        {
+            return maxMessagesInFlight;
+        }
+
+        protected Executor createExecutor(String name)
+        {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(numberOfThreads, numberOfThreads, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new DispatchThreadFactory(name));
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+
+        public String toString()
+        {
+            return "thread pool with " + numberOfThreads + " threads";
+        }
+    }
+
+    private static class ForkJoinMode extends MessageDispatchMode
+    {
+        private int parallelism;
+        private int maxMessagesInFlight;
+
+        public ForkJoinMode(int parallelism, int maxMessagesInFlight)
+        {
+            checkMaxMessagesInFlight(maxMessagesInFlight);
+            this.parallelism = parallelism;
+            this.maxMessagesInFlight = maxMessagesInFlight;
+        }
+
+        public int getMaxMessagesInFlight()
+        {
+            return maxMessagesInFlight;
+        }
+
+        protected Executor createExecutor(String name)
+        {
+            return new ForkJoinPool(parallelism);
+        }
+
+        public String toString()
+        {
+            return "fork join pool with parallelism " + parallelism;
+        }
+    }
+
+    private static class ExecutorMode extends MessageDispatchMode
+    {
+        private Executor executor;
+        private int maxMessagesInFlight;
+
+        public ExecutorMode(Executor executor, int maxMessagesInFlight)
+        {
+            checkMaxMessagesInFlight(maxMessagesInFlight);
+            this.executor = executor;
+            this.maxMessagesInFlight = maxMessagesInFlight;
+        }
+
+        public int getMaxMessagesInFlight()
+        {
+            return maxMessagesInFlight;
+        }
+
+        protected Executor createExecutor(String name)
+        {
+            return executor;
+        }
+
+        protected void shutdownExecutor(Executor executor)
+        {
+
+        }
+
+        public String toString()
+        {
+            return "executor " + executor;
+        }
+    }
+
+    private static class DispatchThreadFactory implements ThreadFactory
+    {
+        private String name;
+        private AtomicInteger threadNumber;
+
+        public DispatchThreadFactory(String name)
+        {
+            this.name = name;
+            threadNumber = new AtomicInteger();
+        }
+
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "mockrunner-dispatch-" + name + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
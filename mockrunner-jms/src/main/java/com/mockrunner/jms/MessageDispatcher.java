@@ -0,0 +1,329 @@
+package com.mockrunner.jms;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers the messages of one destination asynchronously, see
+ * {@link MessageDispatchMode}. Every consumer has its own queue of
+ * deliveries, which is processed by at most one thread at a time.
+ * The size of the queue is limited by
+ * {@link MessageDispatchMode#getMaxMessagesInFlight}. Listeners
+ * that send messages are never blocked by the limit, because
+ * blocking a dispatch thread may deadlock the dispatcher.
+ */
+public class MessageDispatcher implements Serializable
+{
+    private static final ThreadLocal DISPATCH_THREAD = new ThreadLocal();
+
+    private MessageDispatchMode mode;
+    private String name;
+    private transient Executor executor;
+    private transient Map consumerQueues;
+    private int pendingDeliveries;
+    private boolean shutdown;
+    private List exceptions;
+
+    public MessageDispatcher(MessageDispatchMode mode, String name)
+    {
+        this.mode = mode;
+        this.name = name;
+        pendingDeliveries = 0;
+        shutdown = false;
+        exceptions = new ArrayList();
+    }
+
+    /**
+     * Returns the mode that created this dispatcher.
+     * @return the mode
+     */
+    public MessageDispatchMode getMode()
+    {
+        return mode;
+    }
+
+    /**
+     * Queues a delivery for the specified consumer. Blocks, if the
+     * consumer has the maximum number of messages in flight, unless
+     * the current thread is a dispatch thread, i.e. a listener sends
+     * the message. In this case, the delivery is queued beyond the
+     * limit, because the consumer may be waiting for the current thread.
+     * @param consumer the consumer, deliveries to the same consumer
+     *        are processed in order and one at a time
+     * @param delivery the delivery
+     * @throws InterruptedException if the thread is interrupted while
+     *         waiting for the consumer
+     */
+    public void dispatch(Object consumer, Runnable delivery) throws InterruptedException
+    {
+        ConsumerQueue queue = getConsumerQueue(consumer);
+        boolean permit;
+        if(null != DISPATCH_THREAD.get())
+        {
+            permit = queue.permits.tryAcquire();
+        }
+        else
+        {
+            queue.permits.acquire();
+            permit = true;
+        }
+        synchronized(this)
+        {
+            pendingDeliveries++;
+        }
+        queue.add(new Delivery(delivery, permit));
+    }
+
+    /**
+     * Removes the queue of a consumer that was closed. Deliveries
+     * that are already queued are still processed.
+     * @param consumer the consumer
+     */
+    public synchronized void removeConsumer(Object consumer)
+    {
+        if(null == consumerQueues) return;
+        consumerQueues.remove(consumer);
+    }
+
+    /**
+     * Shuts down the executor of this dispatcher, if it was
+     * created by the {@link MessageDispatchMode}. Deliveries that
+     * are already queued are still processed. Called by the
+     * destination when the mode is changed and when the
+     * destination is cleared or removed. The next delivery
+     * creates a new dispatcher.
+     */
+    public void shutdown()
+    {
+        Executor currentExecutor;
+        synchronized(this)
+        {
+            shutdown = true;
+            currentExecutor = executor;
+            executor = null;
+            consumerQueues = null;
+        }
+        if(null != currentExecutor) mode.shutdownExecutor(currentExecutor);
+    }
+
+    /**
+     * Returns the number of deliveries that are queued or
+     * in progress.
+     * @return the number of pending deliveries
+     */
+    public synchronized int getNumberOfPendingDeliveries()
+    {
+        return pendingDeliveries;
+    }
+
+    /**
+     * Returns the number of consumers that got messages from this
+     * dispatcher and were not closed yet.
+     * @return the number of consumers
+     */
+    public synchronized int getNumberOfConsumers()
+    {
+        if(null == consumerQueues) return 0;
+        return consumerQueues.size();
+    }
+
+    /**
+     * Returns if this dispatcher was shut down, see {@link #shutdown}.
+     * @return <code>true</code> if this dispatcher was shut down
+     */
+    public synchronized boolean isShutdown()
+    {
+        return shutdown;
+    }
+
+    /**
+     * Waits until all queued deliveries are processed.
+     * @param timeoutMillis the maximum time to wait in milliseconds
+     * @return <code>true</code> if all deliveries are processed,
+     *         <code>false</code> if the timeout elapsed before
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public synchronized boolean awaitQuiescence(long timeoutMillis) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while(pendingDeliveries > 0)
+        {
+            long remaining = deadline - System.nanoTime();
+            if(remaining <= 0) return false;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the exceptions that were thrown by the consumers.
+     * @return the <code>List</code> of <code>Throwable</code> objects
+     */
+    public List getExceptionList()
+    {
+        synchronized(exceptions)
+        {
+            return new ArrayList(exceptions);
+        }
+    }
+
+    /**
+     * Clears the list of exceptions.
+     */
+    public void clearExceptionList()
+    {
+        synchronized(exceptions)
+        {
+            exceptions.clear();
+        }
+    }
+
+    private synchronized ConsumerQueue getConsumerQueue(Object consumer)
+    {
+        if(shutdown)
+        {
+            throw new RejectedExecutionException("Dispatcher for " + name + " is shut down");
+        }
+        if(null == consumerQueues)
+        {
+            consumerQueues = new IdentityHashMap();
+            executor = mode.createExecutor(name);
+        }
+        ConsumerQueue queue = (ConsumerQueue)consumerQueues.get(consumer);
+        if(null == queue)
+        {
+            queue = new ConsumerQueue(mode.getMaxMessagesInFlight());
+            consumerQueues.put(consumer, queue);
+        }
+        return queue;
+    }
+
+    private synchronized Executor getExecutor()
+    {
+        if(null == executor)
+        {
+            throw new RejectedExecutionException("Dispatcher for " + name + " is shut down");
+        }
+        return executor;
+    }
+
+    private synchronized void deliveryDone()
+    {
+        pendingDeliveries--;
+        if(pendingDeliveries == 0) notifyAll();
+    }
+
+    private static class Delivery
+    {
+        private Runnable delivery;
+        private boolean permit;
+
+        public Delivery(Runnable delivery, boolean permit)
+        {
+            this.delivery = delivery;
+            this.permit = permit;
+        }
+    }
+
+    private class ConsumerQueue implements Runnable
+    {
+        private Semaphore permits;
+        private Queue deliveries;
+        private boolean running;
+
+        public ConsumerQueue(int maxMessagesInFlight)
+        {
+            permits = new Semaphore(maxMessagesInFlight);
+            deliveries = new ArrayDeque();
+            running = false;
+        }
+
+        public void add(Delivery delivery)
+        {
+            synchronized(this)
+            {
+                deliveries.add(delivery);
+                if(running) return;
+                running = true;
+            }
+            try
+            {
+                getExecutor().execute(this);
+            }
+            catch(RuntimeException exc)
+            {
+                synchronized(this)
+                {
+                    running = false;
+                    Delivery dropped;
+                    while(null != (dropped = (Delivery)deliveries.poll()))
+                    {
+                        done(dropped);
+                    }
+                }
+                throw exc;
+            }
+        }
+
+        public void run()
+        {
+            Object previous = DISPATCH_THREAD.get();
+            DISPATCH_THREAD.set(Boolean.TRUE);
+            try
+            {
+                runDeliveries();
+            }
+            finally
+            {
+                DISPATCH_THREAD.set(previous);
+            }
+        }
+
+        private void runDeliveries()
+        {
+            while(true)
+            {
+                Delivery delivery;
+                synchronized(this)
+                {
+                    delivery = (Delivery)deliveries.poll();
+                    if(null == delivery)
+                    {
+                        running = false;
+                        return;
+                    }
+                }
+                try
+                {
+                    delivery.delivery.run();
+                }
+                catch(Throwable exc)
+                {
+                    synchronized(exceptions)
+                    {
+                        exceptions.add(exc);
+                    }
+                }
+                finally
+                {
+                    done(delivery);
+                }
+            }
+        }
+
+        private void done(Delivery delivery)
+        {
+            if(delivery.permit) permits.release();
+            deliveryDone();
+        }
+    }
+}
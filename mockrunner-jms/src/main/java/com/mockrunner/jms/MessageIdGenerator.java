@@ -0,0 +1,188 @@
+package com.mockrunner.jms;
+
+import java.io.Serializable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates the <code>JMSMessageID</code> of sent messages.
+ * An id consists of a sequence number, which is generated
+ * when the message is sent, and a string, which is only created
+ * when the id of a <code>MockMessage</code> is requested with
+ * <code>getJMSMessageID</code>.
+ * <br>
+ * The default is {@link #counter}, which numbers the messages
+ * with an atomic counter. {@link #threadLocal} is faster if many
+ * threads send messages concurrently. Both generate ids that are
+ * unique in the JVM. {@link #random} creates random ids like
+ * former versions of Mockrunner. Custom strategies can extend
+ * this class.
+ * <br>
+ * The strategy is set with {@link ConfigurationManager#setMessageIdGenerator}.
+ */
+public abstract class MessageIdGenerator implements Serializable
+{
+    private static final AtomicLong generatorNumber = new AtomicLong();
+    private static final MessageIdGenerator RANDOM = new RandomGenerator();
+
+    /**
+     * Returns a generator that numbers the messages with an
+     * atomic counter. Each generator has its own prefix.
+     * @return the strategy
+     */
+    public static MessageIdGenerator counter()
+    {
+        return new CounterGenerator(createPrefix());
+    }
+
+    /**
+     * Returns a generator that assigns blocks of sequence numbers
+     * to each thread, so threads only share a counter when they
+     * need a new block. Each generator has its own prefix.
+     * @return the strategy
+     */
+    public static MessageIdGenerator threadLocal()
+    {
+        return new ThreadLocalGenerator(createPrefix());
+    }
+
+    /**
+     * Returns a generator that creates random ids with
+     * <code>Math.random</code>. The ids are not guaranteed
+     * to be unique.
+     * @return the strategy
+     */
+    public static MessageIdGenerator random()
+    {
+        return RANDOM;
+    }
+
+    private static String createPrefix()
+    {
+        return "ID:" + Long.toHexString(ThreadLocalRandom.current().nextLong() >>> 16) + "-" + generatorNumber.incrementAndGet() + "-";
+    }
+
+    /**
+     * Returns the sequence number of the next message.
+     * This method is called by every send and must be thread safe.
+     * @return the sequence number
+     */
+    public abstract long nextSequence();
+
+    /**
+     * Creates the id for a sequence number returned by {@link #nextSequence}.
+     * @param sequence the sequence number
+     * @return the id
+     */
+    public abstract String format(long sequence);
+
+    /**
+     * Generates the next id as a string.
+     * @return the id
+     */
+    public String nextId()
+    {
+        return format(nextSequence());
+    }
+
+    private static class CounterGenerator extends MessageIdGenerator
+    {
+        private String prefix;
+        private AtomicLong sequence;
+
+        public CounterGenerator(String prefix)
+        {
+            this.prefix = prefix;
+            sequence = new AtomicLong();
+        }
+
+        public long nextSequence()
+        {
+            return sequence.incrementAndGet();
+        }
+
+        public String format(long sequence)
+        {
+            return prefix + sequence;
+        }
+
+        public String toString()
+        {
+            return "counter";
+        }
+    }
+
+    private static class ThreadLocalGenerator extends MessageIdGenerator
+    {
+        private static final int BLOCK_SIZE = 1024;
+
+        private String prefix;
+        private AtomicLong blocks;
+        private transient volatile ThreadLocal currentBlock;
+
+        public ThreadLocalGenerator(String prefix)
+        {
+            this.prefix = prefix;
+            blocks = new AtomicLong();
+        }
+
+        public long nextSequence()
+        {
+            ThreadLocal local = currentBlock;
+            if(null == local)
+            {
+                local = createCurrentBlock();
+            }
+            long[] block = (long[])local.get();
+            if(block[0] == block[1])
+            {
+                block[0] = blocks.getAndIncrement() * BLOCK_SIZE;
+                block[1] = block[0] + BLOCK_SIZE;
+            }
+            return ++block[0];
+        }
+
+        private synchronized ThreadLocal createCurrentBlock()
+        {
+            if(null == currentBlock)
+            {
+                currentBlock = new ThreadLocal()
+                {
+                    protected Object initialValue()
+                    {
+                        return new long[2];
+                    }
+                };
+            }
+            return currentBlock;
+        }
+
+        public String format(long sequence)
+        {
+            return prefix + sequence;
+        }
+
+        public String toString()
+        {
+            return "thread local";
+        }
+    }
+
+    private static class RandomGenerator extends MessageIdGenerator
+    {
+        public long nextSequence()
+        {
+            return Double.doubleToLongBits(Math.random());
+        }
+
+        public String format(long sequence)
+        {
+            return "ID:" + Double.longBitsToDouble(sequence);
+        }
+
+        public String toString()
+        {
+            return "random";
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package com.mockrunner.jms;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
+import javax.jms.JMSException;
+
+import com.mockrunner.base.NestedApplicationException;
 import com.mockrunner.mock.jms.MockBytesMessage;
 import com.mockrunner.mock.jms.MockMapMessage;
 import com.mockrunner.mock.jms.MockMessage;
@@ -15,26 +17,131 @@ import com.mockrunner.mock.jms.MockTextMessage;
  * Can be used to create and access all type of messages.
  * The create methods are usually called by
  * {@link com.mockrunner.mock.jms.MockSession}.
+ * <br>
+ * Which of the created messages are kept depends on the
+ * {@link MessageTrackingPolicy}. The index of a message
+ * refers to the kept messages, i.e. if older messages are
+ * dropped by the policy, the index 0 refers to the oldest
+ * message that is still kept.
+ * <br>
+ * If a message pool size greater than 0 is set, text and bytes
+ * messages that are passed to {@link #releaseMessage} are
+ * recycled by {@link #createTextMessage} and {@link #createBytesMessage}.
  */
 public class MessageManager
 {
-    private List messages;
-    private List byteMessages;
-    private List mapMessages;
-    private List textMessages;
-    private List streamMessages;
-    private List objectMessages;
+    private MessageTrackingPolicy trackingPolicy;
+    private ReceivedMessageHistory messages;
+    private ReceivedMessageHistory byteMessages;
+    private ReceivedMessageHistory mapMessages;
+    private ReceivedMessageHistory textMessages;
+    private ReceivedMessageHistory streamMessages;
+    private ReceivedMessageHistory objectMessages;
+    private int messagePoolSize;
+    private List textMessagePool;
+    private List bytesMessagePool;
     
     public MessageManager()
     {
-        messages = new ArrayList();
-        byteMessages = new ArrayList();
-        mapMessages = new ArrayList();
-        textMessages = new ArrayList();
-        streamMessages = new ArrayList();
-        objectMessages = new ArrayList();
+        this(MessageTrackingPolicy.all(), 0);
     }
-
+    
+    /**
+     * Creates a <code>MessageManager</code> with the specified
+     * policy and pool size.
+     * @param trackingPolicy the policy for the created messages
+     * @param messagePoolSize the maximum number of released messages
+     *        per type that are kept for reuse, 0 disables the pool
+     */
+    public MessageManager(MessageTrackingPolicy trackingPolicy, int messagePoolSize)
+    {
+        if(null == trackingPolicy)
+        {
+            throw new IllegalArgumentException("trackingPolicy must not be null");
+        }
+        if(messagePoolSize < 0)
+        {
+            throw new IllegalArgumentException("messagePoolSize must be greater or equals 0");
+        }
+        this.trackingPolicy = trackingPolicy;
+        this.messagePoolSize = messagePoolSize;
+        messages = trackingPolicy.createHistory();
+        byteMessages = trackingPolicy.createHistory();
+        mapMessages = trackingPolicy.createHistory();
+        textMessages = trackingPolicy.createHistory();
+        streamMessages = trackingPolicy.createHistory();
+        objectMessages = trackingPolicy.createHistory();
+        textMessagePool = new ArrayList();
+        bytesMessagePool = new ArrayList();
+    }
+    
+    /**
+     * Returns the policy for the created messages.
+     * @return the policy
+     */
+    public MessageTrackingPolicy getMessageTrackingPolicy()
+    {
+        return trackingPolicy;
+    }
+    
+    /**
+     * Returns the maximum number of released messages per
+     * type that are kept for reuse.
+     * @return the pool size
+     */
+    public int getMessagePoolSize()
+    {
+        return messagePoolSize;
+    }
+    
+    /**
+     * Releases a message that is not used by the test anymore.
+     * If the pool is enabled and not full, text and bytes messages
+     * are cleared and returned by one of the next calls of
+     * {@link #createTextMessage} or {@link #createBytesMessage}.
+     * A pooled message is removed from the list of created messages,
+     * so the list does not contain a message that is reused.
+     * Other messages are ignored. The message must not be used
+     * after calling this method, it must not be in a destination
+     * either.
+     * @param message the message
+     */
+    public void releaseMessage(MockMessage message)
+    {
+        if(message instanceof MockTextMessage)
+        {
+            addToPool(textMessagePool, textMessages, message);
+        }
+        else if(message instanceof MockBytesMessage)
+        {
+            addToPool(bytesMessagePool, byteMessages, message);
+        }
+    }
+    
+    /**
+     * Returns the number of text messages in the pool.
+     * @return the number of pooled text messages
+     */
+    public int getNumberPooledTextMessages()
+    {
+        synchronized(textMessagePool)
+        {
+            return textMessagePool.size();
+        }
+    }
+    
+    /**
+     * Returns the number of bytes messages in the pool.
+     * @return the number of pooled bytes messages
+     */
+    public int getNumberPooledBytesMessages()
+    {
+        synchronized(bytesMessagePool)
+        {
+            return bytesMessagePool.size();
+        }
+    }
+    
     /**
      * Creates a new <code>Message</code>. Usually this method is called
      * by {@link com.mockrunner.mock.jms.MockSession#createMessage}.
@@ -56,8 +163,9 @@ public class MessageManager
      */
     public MockMessage getMessage(int index)
     {
-        if(messages.size() <= index || index < 0) return null;
-        return (MockMessage)messages.get(index);
+        List list = messages.getMessages();
+        if(list.size() <= index || index < 0) return null;
+        return (MockMessage)list.get(index);
     }
     
     /**
@@ -66,7 +174,7 @@ public class MessageManager
      */
     public List getMessageList()
     {
-        return Collections.unmodifiableList(messages);
+        return messages.getMessages();
     }
     
     /**
@@ -76,7 +184,11 @@ public class MessageManager
      */
     public MockBytesMessage createBytesMessage()
     {
-        MockBytesMessage message = new MockBytesMessage();
+        MockBytesMessage message = (MockBytesMessage)takeFromPool(bytesMessagePool);
+        if(null == message)
+        {
+            message = new MockBytesMessage();
+        }
         byteMessages.add(message);
         return message;
     }
@@ -90,8 +202,9 @@ public class MessageManager
      */
     public MockBytesMessage getBytesMessage(int index)
     {
-        if(byteMessages.size() <= index || index < 0) return null;
-        return (MockBytesMessage)byteMessages.get(index);
+        List list = byteMessages.getMessages();
+        if(list.size() <= index || index < 0) return null;
+        return (MockBytesMessage)list.get(index);
     }
     
     /**
@@ -100,7 +213,7 @@ public class MessageManager
      */
     public List getBytesMessageList()
     {
-        return Collections.unmodifiableList(byteMessages);
+        return byteMessages.getMessages();
     }
     
     /**
@@ -124,8 +237,9 @@ public class MessageManager
      */
     public MockMapMessage getMapMessage(int index)
     {
-        if(mapMessages.size() <= index || index < 0) return null;
-        return (MockMapMessage)mapMessages.get(index);
+        List list = mapMessages.getMessages();
+        if(list.size() <= index || index < 0) return null;
+        return (MockMapMessage)list.get(index);
     }
     
     /**
@@ -134,7 +248,7 @@ public class MessageManager
      */
     public List getMapMessageList()
     {
-        return Collections.unmodifiableList(mapMessages);
+        return mapMessages.getMessages();
     }
     
     /**
@@ -145,7 +259,22 @@ public class MessageManager
      */
     public MockTextMessage createTextMessage(String text)
     {
-        MockTextMessage message = new MockTextMessage(text);
+        MockTextMessage message = (MockTextMessage)takeFromPool(textMessagePool);
+        if(null == message)
+        {
+            message = new MockTextMessage(text);
+        }
+        else
+        {
+            try
+            {
+                message.setText(text);
+            }
+            catch(JMSException exc)
+            {
+                throw new NestedApplicationException(exc);
+            }
+        }
         textMessages.add(message);
         return message;
     }
@@ -159,8 +288,9 @@ public class MessageManager
      */
     public MockTextMessage getTextMessage(int index)
     {
-        if(textMessages.size() <= index || index < 0) return null;
-        return (MockTextMessage)textMessages.get(index);
+        List list = textMessages.getMessages();
+        if(list.size() <= index || index < 0) return null;
+        return (MockTextMessage)list.get(index);
     }
     
     /**
@@ -169,7 +299,7 @@ public class MessageManager
      */
     public List getTextMessageList()
     {
-        return Collections.unmodifiableList(textMessages);
+        return textMessages.getMessages();
     }
     
     /**
@@ -193,8 +323,9 @@ public class MessageManager
      */
     public MockStreamMessage getStreamMessage(int index)
     {
-        if(streamMessages.size() <= index || index < 0) return null;
-        return (MockStreamMessage)streamMessages.get(index);
+        List list = streamMessages.getMessages();
+        if(list.size() <= index || index < 0) return null;
+        return (MockStreamMessage)list.get(index);
     }
     
     /**
@@ -203,7 +334,7 @@ public class MessageManager
      */
     public List getStreamMessageList()
     {
-        return Collections.unmodifiableList(streamMessages);
+        return streamMessages.getMessages();
     }
     
     /**
@@ -228,8 +359,9 @@ public class MessageManager
      */
     public MockObjectMessage getObjectMessage(int index)
     {
-        if(objectMessages.size() <= index || index < 0) return null;
-        return (MockObjectMessage)objectMessages.get(index);
+        List list = objectMessages.getMessages();
+        if(list.size() <= index || index < 0) return null;
+        return (MockObjectMessage)list.get(index);
     }
     
     /**
@@ -238,6 +370,87 @@ public class MessageManager
      */
     public List getObjectMessageList()
     {
-        return Collections.unmodifiableList(objectMessages);
+        return objectMessages.getMessages();
+    }
+    
+    /**
+     * Returns the number of created <code>Message</code> objects,
+     * including the ones that are not kept by the {@link MessageTrackingPolicy}.
+     * The other message types are not counted.
+     * @return the number of created <code>Message</code> objects
+     */
+    public long getNumberCreatedMessages()
+    {
+        return messages.getReceivedCount();
+    }
+    
+    /**
+     * Returns the number of created <code>BytesMessage</code> objects,
+     * including the ones that are not kept by the {@link MessageTrackingPolicy}.
+     * @return the number of created <code>BytesMessage</code> objects
+     */
+    public long getNumberCreatedBytesMessages()
+    {
+        return byteMessages.getReceivedCount();
+    }
+    
+    /**
+     * Returns the number of created <code>MapMessage</code> objects,
+     * including the ones that are not kept by the {@link MessageTrackingPolicy}.
+     * @return the number of created <code>MapMessage</code> objects
+     */
+    public long getNumberCreatedMapMessages()
+    {
+        return mapMessages.getReceivedCount();
+    }
+    
+    /**
+     * Returns the number of created <code>TextMessage</code> objects,
+     * including the ones that are not kept by the {@link MessageTrackingPolicy}.
+     * @return the number of created <code>TextMessage</code> objects
+     */
+    public long getNumberCreatedTextMessages()
+    {
+        return textMessages.getReceivedCount();
+    }
+    
+    /**
+     * Returns the number of created <code>StreamMessage</code> objects,
+     * including the ones that are not kept by the {@link MessageTrackingPolicy}.
+     * @return the number of created <code>StreamMessage</code> objects
+     */
+    public long getNumberCreatedStreamMessages()
+    {
+        return streamMessages.getReceivedCount();
+    }
+    
+    /**
+     * Returns the number of created <code>ObjectMessage</code> objects,
+     * including the ones that are not kept by the {@link MessageTrackingPolicy}.
+     * @return the number of created <code>ObjectMessage</code> objects
+     */
+    public long getNumberCreatedObjectMessages()
+    {
+        return objectMessages.getReceivedCount();
+    }
+    
+    private void addToPool(List pool, ReceivedMessageHistory history, MockMessage message)
+    {
+        synchronized(pool)
+        {
+            if(pool.size() >= messagePoolSize) return;
+            history.remove(message);
+            message.recycle();
+            pool.add(message);
+        }
+    }
+    
+    private MockMessage takeFromPool(List pool)
+    {
+        synchronized(pool)
+        {
+            if(pool.isEmpty()) return null;
+            return (MockMessage)pool.remove(pool.size() - 1);
+        }
     }
 }
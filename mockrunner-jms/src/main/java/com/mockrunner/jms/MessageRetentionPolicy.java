@@ -0,0 +1,142 @@
+package com.mockrunner.jms;
+
+import java.io.Serializable;
+
+import com.mockrunner.mock.jms.MockDestination;
+
+/**
+ * Determines which of the messages received by a destination are
+ * kept in the list of received messages, see
+ * {@link com.mockrunner.mock.jms.MockDestination#getReceivedMessageList}.
+ * The default is {@link #unbounded}, i.e. all messages are kept.
+ * Long running tests can use one of the other policies to limit
+ * the memory used by the history. Messages that are not kept
+ * anymore are called evicted. The number of received messages
+ * is always counted, regardless of the policy.
+ * <br>
+ * The policy is set with
+ * {@link ConfigurationManager#setMessageRetentionPolicy}
+ * or directly on a destination with
+ * {@link com.mockrunner.mock.jms.MockDestination#setMessageRetentionPolicy}.
+ */
+public abstract class MessageRetentionPolicy implements Serializable
+{
+    private static final MessageRetentionPolicy UNBOUNDED = new RetainingPolicy(Integer.MAX_VALUE, -1);
+    private static final MessageRetentionPolicy COUNT_ONLY = new RetainingPolicy(0, -1);
+
+    /**
+     * Keeps all received messages. This is the default.
+     * @return the policy
+     */
+    public static MessageRetentionPolicy unbounded()
+    {
+        return UNBOUNDED;
+    }
+
+    /**
+     * Keeps the specified number of messages. If more messages are
+     * received, the oldest messages are evicted.
+     * @param numberOfMessages the maximum number of kept messages
+     * @return the policy
+     */
+    public static MessageRetentionPolicy lastMessages(int numberOfMessages)
+    {
+        if(numberOfMessages < 0)
+        {
+            throw new IllegalArgumentException("numberOfMessages must be greater or equals 0");
+        }
+        return new RetainingPolicy(numberOfMessages, -1);
+    }
+
+    /**
+     * Keeps the messages received in the specified time window.
+     * Older messages are evicted.
+     * @param windowMillis the time window in milliseconds
+     * @return the policy
+     */
+    public static MessageRetentionPolicy timeWindow(long windowMillis)
+    {
+        if(windowMillis < 0)
+        {
+            throw new IllegalArgumentException("windowMillis must be greater or equals 0");
+        }
+        return new RetainingPolicy(Integer.MAX_VALUE, windowMillis);
+    }
+
+    /**
+     * Keeps no messages, only the number of received messages
+     * is counted.
+     * @return the policy
+     */
+    public static MessageRetentionPolicy countOnly()
+    {
+        return COUNT_ONLY;
+    }
+
+    /**
+     * Passes every received message to the specified sink and
+     * keeps no messages.
+     * @param sink the sink
+     * @return the policy
+     */
+    public static MessageRetentionPolicy streaming(ReceivedMessageSink sink)
+    {
+        if(null == sink)
+        {
+            throw new IllegalArgumentException("sink must not be null");
+        }
+        return new StreamingPolicy(sink);
+    }
+
+    /**
+     * Creates the history of received messages for a destination.
+     * @param destination the destination
+     * @return the history
+     */
+    public abstract ReceivedMessageHistory createHistory(MockDestination destination);
+
+    private static class RetainingPolicy extends MessageRetentionPolicy
+    {
+        private int maxMessages;
+        private long windowMillis;
+
+        public RetainingPolicy(int maxMessages, long windowMillis)
+        {
+            this.maxMessages = maxMessages;
+            this.windowMillis = windowMillis;
+        }
+
+        public ReceivedMessageHistory createHistory(MockDestination destination)
+        {
+            return new ReceivedMessageHistory.RetainingHistory(this, maxMessages, windowMillis);
+        }
+
+        public String toString()
+        {
+            if(windowMillis >= 0) return "time window of " + windowMillis + " ms";
+            if(maxMessages == Integer.MAX_VALUE) return "unbounded";
+            if(maxMessages == 0) return "count only";
+            return "last " + maxMessages + " messages";
+        }
+    }
+
+    private static class StreamingPolicy extends MessageRetentionPolicy
+    {
+        private ReceivedMessageSink sink;
+
+        public StreamingPolicy(ReceivedMessageSink sink)
+        {
+            this.sink = sink;
+        }
+
+        public ReceivedMessageHistory createHistory(MockDestination destination)
+        {
+            return new ReceivedMessageHistory.StreamingHistory(this, destination, sink);
+        }
+
+        public String toString()
+        {
+            return "streaming to " + sink;
+        }
+    }
+}
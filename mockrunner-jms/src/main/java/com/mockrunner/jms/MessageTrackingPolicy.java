@@ -0,0 +1,198 @@
+package com.mockrunner.jms;
+
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jms.Message;
+
+/**
+ * Determines which of the messages created by a {@link MessageManager}
+ * are kept, see {@link MessageManager#getTextMessageList} and the
+ * other list methods. The default is {@link #all}, i.e. all created
+ * messages are kept for the life of the session. Long running tests
+ * can use one of the other policies to limit the memory used by the
+ * message manager. The number of created messages is always counted,
+ * regardless of the policy.
+ * <br>
+ * The policy is set with
+ * {@link ConfigurationManager#setMessageTrackingPolicy}.
+ */
+public abstract class MessageTrackingPolicy implements Serializable
+{
+    private static final MessageTrackingPolicy ALL = new RetainingPolicy(Integer.MAX_VALUE);
+    private static final MessageTrackingPolicy COUNT_ONLY = new RetainingPolicy(0);
+    private static final MessageTrackingPolicy WEAK_REFERENCES = new WeakReferencePolicy();
+
+    /**
+     * Keeps all created messages. This is the default.
+     * @return the policy
+     */
+    public static MessageTrackingPolicy all()
+    {
+        return ALL;
+    }
+
+    /**
+     * Keeps the specified number of messages per message type.
+     * If more messages are created, the oldest messages are dropped.
+     * @param numberOfMessages the maximum number of kept messages per type
+     * @return the policy
+     */
+    public static MessageTrackingPolicy lastMessages(int numberOfMessages)
+    {
+        if(numberOfMessages < 0)
+        {
+            throw new IllegalArgumentException("numberOfMessages must be greater or equals 0");
+        }
+        return new RetainingPolicy(numberOfMessages);
+    }
+
+    /**
+     * Keeps no messages, only the number of created messages
+     * is counted.
+     * @return the policy
+     */
+    public static MessageTrackingPolicy countOnly()
+    {
+        return COUNT_ONLY;
+    }
+
+    /**
+     * Keeps weak references to the created messages. Messages that
+     * are not referenced by the test or a destination anymore are
+     * dropped by the garbage collector.
+     * @return the policy
+     */
+    public static MessageTrackingPolicy weakReferences()
+    {
+        return WEAK_REFERENCES;
+    }
+
+    /**
+     * Creates the history for one message type.
+     * @return the history
+     */
+    protected abstract ReceivedMessageHistory createHistory();
+
+    private static class RetainingPolicy extends MessageTrackingPolicy
+    {
+        private int maxMessages;
+
+        public RetainingPolicy(int maxMessages)
+        {
+            this.maxMessages = maxMessages;
+        }
+
+        protected ReceivedMessageHistory createHistory()
+        {
+            return new ReceivedMessageHistory.RetainingHistory(null, maxMessages, -1);
+        }
+
+        public String toString()
+        {
+            if(maxMessages == Integer.MAX_VALUE) return "all";
+            if(maxMessages == 0) return "count only";
+            return "last " + maxMessages + " messages";
+        }
+    }
+
+    private static class WeakReferencePolicy extends MessageTrackingPolicy
+    {
+        protected ReceivedMessageHistory createHistory()
+        {
+            return new WeakReferenceHistory();
+        }
+
+        public String toString()
+        {
+            return "weak references";
+        }
+    }
+
+    /**
+     * Keeps weak references and drops the cleared references
+     * when the messages are requested or when the number of
+     * references has doubled since they were dropped the last time.
+     */
+    private static class WeakReferenceHistory extends ReceivedMessageHistory
+    {
+        private static final int MIN_COMPACTION_SIZE = 64;
+
+        private List references;
+        private int compactionSize;
+
+        public WeakReferenceHistory()
+        {
+            super(null);
+            references = new ArrayList();
+            compactionSize = MIN_COMPACTION_SIZE;
+        }
+
+        public synchronized List getMessages()
+        {
+            removeCleared();
+            List messages = new ArrayList(references.size());
+            for(Object reference : references)
+            {
+                Object message = ((WeakReference)reference).get();
+                if(null != message) messages.add(message);
+            }
+            return Collections.unmodifiableList(messages);
+        }
+
+        public List getMessageSnapshot()
+        {
+            return getMessages();
+        }
+
+        public synchronized boolean remove(Message message)
+        {
+            for(int ii = references.size() - 1; ii >= 0; ii--)
+            {
+                if(((WeakReference)references.get(ii)).get() == message)
+                {
+                    references.remove(ii);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        protected synchronized void store(Message message)
+        {
+            if(references.size() >= compactionSize)
+            {
+                removeCleared();
+                compactionSize = Math.max(MIN_COMPACTION_SIZE, references.size() * 2);
+            }
+            references.add(new WeakReference(message));
+        }
+
+        protected synchronized void removeAll()
+        {
+            references.clear();
+            compactionSize = MIN_COMPACTION_SIZE;
+        }
+
+        /**
+         * Moves the references that are not cleared to the
+         * front and truncates the list in one pass.
+         */
+        private void removeCleared()
+        {
+            int kept = 0;
+            for(int ii = 0; ii < references.size(); ii++)
+            {
+                Object reference = references.get(ii);
+                if(null != ((WeakReference)reference).get())
+                {
+                    references.set(kept++, reference);
+                }
+            }
+            references.subList(kept, references.size()).clear();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.mockrunner.jms;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import com.mockrunner.base.NestedApplicationException;
+
+/**
+ * Copies objects with Java serialization. The byte buffer
+ * is kept per thread and reused, so copying an object does not
+ * grow a new buffer every time. Buffers larger than
+ * {@link #MAX_POOLED_SIZE} are not kept.
+ */
+public class PooledSerializer
+{
+    /**
+     * The maximum size of a buffer that is kept for reuse.
+     */
+    public static final int MAX_POOLED_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal BUFFER = new ThreadLocal()
+    {
+        protected Object initialValue()
+        {
+            return new ReusableByteArrayOutputStream();
+        }
+    };
+
+    private PooledSerializer()
+    {
+
+    }
+
+    /**
+     * Copies an object by serializing and deserializing it.
+     * @param object the object
+     * @return the copy
+     */
+    public static Serializable copy(Serializable object)
+    {
+        if(null == object) return null;
+        ReusableByteArrayOutputStream buffer = writeToBuffer(object);
+        try
+        {
+            return (Serializable)readObject(buffer.getBuffer(), buffer.size());
+        }
+        finally
+        {
+            releaseBuffer(buffer);
+        }
+    }
+
+    /**
+     * Serializes an object.
+     * @param object the object
+     * @return the serialized bytes
+     */
+    public static byte[] serialize(Serializable object)
+    {
+        ReusableByteArrayOutputStream buffer = writeToBuffer(object);
+        try
+        {
+            return buffer.toByteArray();
+        }
+        finally
+        {
+            releaseBuffer(buffer);
+        }
+    }
+
+    /**
+     * Deserializes an object.
+     * @param data the serialized bytes
+     * @return the object
+     */
+    public static Serializable deserialize(byte[] data)
+    {
+        return (Serializable)readObject(data, data.length);
+    }
+
+    private static ReusableByteArrayOutputStream writeToBuffer(Serializable object)
+    {
+        ReusableByteArrayOutputStream buffer = (ReusableByteArrayOutputStream)BUFFER.get();
+        BUFFER.set(null);
+        if(null == buffer)
+        {
+            buffer = new ReusableByteArrayOutputStream();
+        }
+        try
+        {
+            ObjectOutputStream objectOutStream = new ObjectOutputStream(buffer);
+            objectOutStream.writeObject(object);
+            objectOutStream.flush();
+            return buffer;
+        }
+        catch(IOException exc)
+        {
+            releaseBuffer(buffer);
+            throw new NestedApplicationException(exc);
+        }
+    }
+
+    private static Object readObject(byte[] data, int length)
+    {
+        try
+        {
+            ObjectInputStream objectInStream = new ObjectInputStream(new ByteArrayInputStream(data, 0, length));
+            return objectInStream.readObject();
+        }
+        catch(Exception exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+    }
+
+    private static void releaseBuffer(ReusableByteArrayOutputStream buffer)
+    {
+        if(buffer.getBuffer().length > MAX_POOLED_SIZE) return;
+        buffer.reset();
+        BUFFER.set(buffer);
+    }
+
+    private static class ReusableByteArrayOutputStream extends ByteArrayOutputStream
+    {
+        public ReusableByteArrayOutputStream()
+        {
+            super(512);
+        }
+
+        public byte[] getBuffer()
+        {
+            return buf;
+        }
+    }
+}
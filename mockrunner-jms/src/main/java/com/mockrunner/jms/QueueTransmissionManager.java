@@ -4,12 +4,14 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.jms.JMSException;
 import javax.jms.QueueBrowser;
 import javax.jms.QueueReceiver;
 import javax.jms.QueueSender;
 
+import com.mockrunner.base.NestedApplicationException;
 import com.mockrunner.mock.jms.MockConnection;
 import com.mockrunner.mock.jms.MockQueue;
 import com.mockrunner.mock.jms.MockQueueBrowser;
@@ -28,14 +30,16 @@ public class QueueTransmissionManager implements Serializable
     private List queueSenderList;
     private List queueReceiverList;
     private List queueBrowserList;
+    private ConsumerIndex openQueueReceivers;
     
     public QueueTransmissionManager(MockConnection connection, MockSession session)
     {
         this.connection = connection;
         this.session = session;
-        queueSenderList = new ArrayList();
-        queueReceiverList = new ArrayList();
-        queueBrowserList = new ArrayList();
+        queueSenderList = new CopyOnWriteArrayList();
+        queueReceiverList = new CopyOnWriteArrayList();
+        queueBrowserList = new CopyOnWriteArrayList();
+        openQueueReceivers = new ConsumerIndex(MockQueueReceiver.class);
     }
 
     /**
@@ -178,8 +182,41 @@ public class QueueTransmissionManager implements Serializable
     {
         MockQueueReceiver receiver = new MockQueueReceiver(connection, session, queue, messageSelector);
         queueReceiverList.add(receiver);
+        openQueueReceivers.add(getQueueName(queue), receiver);
         return receiver;
     }
+    
+    /**
+     * Removes a closed <code>QueueReceiver</code> from the open
+     * receivers. This method is called by
+     * {@link com.mockrunner.mock.jms.MockQueueReceiver#close}.
+     * @param receiver the closed <code>QueueReceiver</code>
+     */
+    public void queueReceiverClosed(MockQueueReceiver receiver)
+    {
+        try
+        {
+            openQueueReceivers.remove(getQueueName((MockQueue)receiver.getQueue()), receiver);
+        }
+        catch(JMSException exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+    }
+    
+    /**
+     * Returns the <code>QueueReceiver</code> objects for a specific
+     * <code>Queue</code>, that are not closed. Unlike
+     * {@link #getQueueReceiverList(String)}, this method does not
+     * create a new list. The returned array is shared and must
+     * not be modified.
+     * @param queueName the name of the <code>Queue</code>
+     * @return the array of open <code>QueueReceiver</code> objects
+     */
+    public MockQueueReceiver[] getOpenQueueReceivers(String queueName)
+    {
+        return (MockQueueReceiver[])openQueueReceivers.getConsumers(queueName);
+    }
 
     /**
      * Returns a <code>QueueReceiver</code> by its index or
@@ -313,4 +350,16 @@ public class QueueTransmissionManager implements Serializable
     {
         return Collections.unmodifiableList(queueBrowserList);
     }
+    
+    private String getQueueName(MockQueue queue)
+    {
+        try
+        {
+            return queue.getQueueName();
+        }
+        catch(JMSException exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+    }
 }
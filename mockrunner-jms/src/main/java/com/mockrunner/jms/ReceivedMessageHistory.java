@@ -0,0 +1,294 @@
+package com.mockrunner.jms;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.Message;
+
+import com.mockrunner.mock.jms.MockDestination;
+
+/**
+ * The history of messages received by a destination. Which messages
+ * are kept depends on the {@link MessageRetentionPolicy} that
+ * created the history.
+ */
+public abstract class ReceivedMessageHistory implements Serializable
+{
+    private MessageRetentionPolicy policy;
+    private AtomicLong receivedCount;
+
+    protected ReceivedMessageHistory(MessageRetentionPolicy policy)
+    {
+        this.policy = policy;
+        receivedCount = new AtomicLong();
+    }
+
+    /**
+     * Returns the policy that created this history.
+     * @return the policy
+     */
+    public MessageRetentionPolicy getPolicy()
+    {
+        return policy;
+    }
+
+    /**
+     * Adds a received message.
+     * @param message the message
+     */
+    public void add(Message message)
+    {
+        receivedCount.incrementAndGet();
+        store(message);
+    }
+
+    /**
+     * Returns the total number of received messages,
+     * including the evicted ones.
+     * @return the number of received messages
+     */
+    public long getReceivedCount()
+    {
+        return receivedCount.get();
+    }
+
+    /**
+     * Returns the number of received messages that are
+     * not kept anymore.
+     * @return the number of evicted messages
+     */
+    public long getEvictedCount()
+    {
+        return getReceivedCount() - getMessages().size();
+    }
+
+    /**
+     * Removes all messages and resets the number of received messages.
+     */
+    public void clear()
+    {
+        receivedCount.set(0);
+        removeAll();
+    }
+
+    /**
+     * Returns an unmodifiable view of the kept messages.
+     * Depending on the policy, the view is live, i.e. it reflects
+     * messages that are added or evicted later. A live view must
+     * not be iterated while messages are added by other threads,
+     * use {@link #getMessageSnapshot} in this case.
+     * @return the kept messages, the oldest message first
+     */
+    public abstract List getMessages();
+
+    /**
+     * Returns an unmodifiable copy of the kept messages.
+     * The copy is consistent, even if messages are added
+     * by other threads.
+     * @return the kept messages, the oldest message first
+     */
+    public List getMessageSnapshot()
+    {
+        return Collections.unmodifiableList(new ArrayList(getMessages()));
+    }
+
+    /**
+     * Removes a kept message, e.g. a message that is reused. The
+     * newest messages are searched first. The received count is
+     * not changed. This implementation keeps no messages and
+     * returns <code>false</code>.
+     * @param message the message
+     * @return <code>true</code> if the message was removed
+     */
+    public boolean remove(Message message)
+    {
+        return false;
+    }
+
+    protected abstract void store(Message message);
+
+    protected abstract void removeAll();
+
+    /**
+     * Keeps the messages in a ring buffer. Messages are evicted, if
+     * the maximum number of messages is exceeded or if they are older
+     * than the time window. A maximum of 0 only counts the messages.
+     * {@link #getMessages} returns a live view, that is meant to be
+     * used by a single thread.
+     */
+    static class RetainingHistory extends ReceivedMessageHistory
+    {
+        private int maxMessages;
+        private long windowMillis;
+        private Message[] messages;
+        private long[] timestamps;
+        private int head;
+        private int size;
+        private List messageList;
+
+        public RetainingHistory(MessageRetentionPolicy policy, int maxMessages, long windowMillis)
+        {
+            super(policy);
+            this.maxMessages = maxMessages;
+            this.windowMillis = windowMillis;
+            messages = new Message[Math.min(maxMessages, 16)];
+            timestamps = (windowMillis >= 0) ? new long[messages.length] : null;
+            head = 0;
+            size = 0;
+            messageList = new MessageList();
+        }
+
+        public List getMessages()
+        {
+            return messageList;
+        }
+
+        public synchronized List getMessageSnapshot()
+        {
+            evictExpired(System.currentTimeMillis());
+            List snapshot = new ArrayList(size);
+            for(int ii = 0; ii < size; ii++)
+            {
+                snapshot.add(messages[(head + ii) % messages.length]);
+            }
+            return Collections.unmodifiableList(snapshot);
+        }
+
+        protected synchronized void store(Message message)
+        {
+            if(maxMessages == 0) return;
+            long now = (null != timestamps) ? System.currentTimeMillis() : 0;
+            evictExpired(now);
+            if(size == maxMessages)
+            {
+                messages[head] = null;
+                head = (head + 1) % messages.length;
+                size--;
+            }
+            if(size == messages.length) grow();
+            int index = (head + size) % messages.length;
+            messages[index] = message;
+            if(null != timestamps) timestamps[index] = now;
+            size++;
+        }
+
+        public synchronized boolean remove(Message message)
+        {
+            for(int ii = size - 1; ii >= 0; ii--)
+            {
+                if(messages[(head + ii) % messages.length] != message) continue;
+                for(int kk = ii; kk < size - 1; kk++)
+                {
+                    int index = (head + kk) % messages.length;
+                    int next = (head + kk + 1) % messages.length;
+                    messages[index] = messages[next];
+                    if(null != timestamps) timestamps[index] = timestamps[next];
+                }
+                messages[(head + size - 1) % messages.length] = null;
+                size--;
+                return true;
+            }
+            return false;
+        }
+
+        protected synchronized void removeAll()
+        {
+            messages = new Message[Math.min(maxMessages, 16)];
+            if(null != timestamps) timestamps = new long[messages.length];
+            head = 0;
+            size = 0;
+        }
+
+        private synchronized Message get(int index)
+        {
+            evictExpired(System.currentTimeMillis());
+            if(index < 0 || index >= size)
+            {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return messages[(head + index) % messages.length];
+        }
+
+        private synchronized int size()
+        {
+            evictExpired(System.currentTimeMillis());
+            return size;
+        }
+
+        private void evictExpired(long now)
+        {
+            if(null == timestamps) return;
+            while(size > 0 && now - timestamps[head] > windowMillis)
+            {
+                messages[head] = null;
+                head = (head + 1) % messages.length;
+                size--;
+            }
+        }
+
+        private void grow()
+        {
+            int capacity = (int)Math.min(maxMessages, messages.length * 2L);
+            Message[] newMessages = new Message[capacity];
+            long[] newTimestamps = (null != timestamps) ? new long[capacity] : null;
+            for(int ii = 0; ii < size; ii++)
+            {
+                int index = (head + ii) % messages.length;
+                newMessages[ii] = messages[index];
+                if(null != timestamps) newTimestamps[ii] = timestamps[index];
+            }
+            messages = newMessages;
+            timestamps = newTimestamps;
+            head = 0;
+        }
+
+        private class MessageList extends AbstractList implements Serializable
+        {
+            public Object get(int index)
+            {
+                return RetainingHistory.this.get(index);
+            }
+
+            public int size()
+            {
+                return RetainingHistory.this.size();
+            }
+        }
+    }
+
+    /**
+     * Passes the messages to a {@link ReceivedMessageSink}
+     * and keeps none of them.
+     */
+    static class StreamingHistory extends ReceivedMessageHistory
+    {
+        private MockDestination destination;
+        private ReceivedMessageSink sink;
+
+        public StreamingHistory(MessageRetentionPolicy policy, MockDestination destination, ReceivedMessageSink sink)
+        {
+            super(policy);
+            this.destination = destination;
+            this.sink = sink;
+        }
+
+        public List getMessages()
+        {
+            return Collections.EMPTY_LIST;
+        }
+
+        protected void store(Message message)
+        {
+            sink.messageReceived(destination, message);
+        }
+
+        protected void removeAll()
+        {
+
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.mockrunner.jms;
+
+import javax.jms.Message;
+
+import com.mockrunner.mock.jms.MockDestination;
+
+/**
+ * Callback for {@link MessageRetentionPolicy#streaming}. The sink
+ * gets every message that is received by a destination, the
+ * destination itself does not keep the message.
+ */
+public interface ReceivedMessageSink
+{
+    /**
+     * Called for every message received by the destination.
+     * @param destination the destination
+     * @param message the received message
+     */
+    public void messageReceived(MockDestination destination, Message message);
+}
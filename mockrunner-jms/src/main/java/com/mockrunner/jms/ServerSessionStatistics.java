@@ -0,0 +1,117 @@
+package com.mockrunner.jms;
+
+import java.io.Serializable;
+
+/**
+ * Statistics about the messages processed by one
+ * {@link com.mockrunner.mock.jms.MockServerSession}.
+ * The queue wait is the time between loading a message into the
+ * session and calling the <code>MessageListener</code>. The processing
+ * time is the time spent in the <code>MessageListener</code>.
+ * <br>
+ * This class is thread safe.
+ */
+public class ServerSessionStatistics implements Serializable
+{
+    private long numberOfMessages;
+    private long numberOfRuns;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+    private long totalProcessingNanos;
+
+    /**
+     * Records a processed message.
+     * @param waitNanos the queue wait in nanoseconds
+     * @param processingNanos the processing time in nanoseconds
+     */
+    public synchronized void recordMessage(long waitNanos, long processingNanos)
+    {
+        numberOfMessages++;
+        totalWaitNanos += waitNanos;
+        maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+        totalProcessingNanos += processingNanos;
+    }
+
+    /**
+     * Records that the session was run by a worker.
+     */
+    public synchronized void recordRun()
+    {
+        numberOfRuns++;
+    }
+
+    /**
+     * Returns the number of processed messages.
+     * @return the number of processed messages
+     */
+    public synchronized long getNumberOfMessages()
+    {
+        return numberOfMessages;
+    }
+
+    /**
+     * Returns how often the session was run by a worker.
+     * @return the number of runs
+     */
+    public synchronized long getNumberOfRuns()
+    {
+        return numberOfRuns;
+    }
+
+    /**
+     * Returns the average queue wait in nanoseconds.
+     * @return the average queue wait
+     */
+    public synchronized long getAverageWaitNanos()
+    {
+        if(numberOfMessages == 0) return 0;
+        return totalWaitNanos / numberOfMessages;
+    }
+
+    /**
+     * Returns the maximum queue wait in nanoseconds.
+     * @return the maximum queue wait
+     */
+    public synchronized long getMaxWaitNanos()
+    {
+        return maxWaitNanos;
+    }
+
+    /**
+     * Returns the time spent in the <code>MessageListener</code>
+     * in nanoseconds.
+     * @return the processing time
+     */
+    public synchronized long getTotalProcessingNanos()
+    {
+        return totalProcessingNanos;
+    }
+
+    /**
+     * Returns the number of messages processed per second of
+     * processing time.
+     * @return the throughput
+     */
+    public synchronized double getThroughput()
+    {
+        if(totalProcessingNanos == 0) return 0;
+        return numberOfMessages * 1000000000.0 / totalProcessingNanos;
+    }
+
+    /**
+     * Resets the statistics.
+     */
+    public synchronized void reset()
+    {
+        numberOfMessages = 0;
+        numberOfRuns = 0;
+        totalWaitNanos = 0;
+        maxWaitNanos = 0;
+        totalProcessingNanos = 0;
+    }
+
+    public synchronized String toString()
+    {
+        return "ServerSessionStatistics: " + numberOfMessages + " messages in " + numberOfRuns + " runs, average wait " + getAverageWaitNanos() + " ns, throughput " + getThroughput() + " messages/s";
+    }
+}
@@ -0,0 +1,207 @@
+package com.mockrunner.jms;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jms.InvalidSelectorException;
+import javax.jms.Message;
+
+import org.activemq.filter.mockrunner.Expression;
+import org.activemq.filter.mockrunner.ExpressionFilter;
+import org.activemq.filter.mockrunner.MultiExpressionEvaluator;
+import org.activemq.selector.mockrunner.SelectorParser;
+
+/**
+ * Evaluates the selectors of all subscribers of a topic with one
+ * <code>MultiExpressionEvaluator</code>. Each distinct selector is
+ * evaluated once per message, regardless of the number of subscribers
+ * using it. Sub expressions that are common to several selectors,
+ * e.g. the same property, are evaluated only once, too.
+ * <br>
+ * This class is thread safe. The evaluator is rebuilt when the
+ * selectors change and is otherwise shared without locking,
+ * so messages can be evaluated concurrently.
+ */
+public class SharedSelectorEvaluator
+{
+    private volatile Selectors selectors;
+
+    public SharedSelectorEvaluator()
+    {
+        selectors = new Selectors();
+    }
+
+    /**
+     * Evaluates the specified selectors against a message. If
+     * <code>selectorCollection</code> differs from the selectors of
+     * the previous call, the evaluator is rebuilt and selectors that
+     * are not used anymore are released.
+     * The returned <code>Map</code> contains the selector strings
+     * as keys. The values are <code>Boolean.TRUE</code>, if the message
+     * matches the selector, and <code>Boolean.FALSE</code>, if it doesn't
+     * match. If the evaluation of a selector failed, the value is the
+     * <code>Throwable</code> that was thrown.
+     * @param selectorCollection the <code>Collection</code> of selector strings
+     * @param message the message
+     * @return the <code>Map</code> of results
+     * @throws InvalidSelectorException if a selector cannot be parsed
+     */
+    public Map evaluate(Collection selectorCollection, Message message) throws InvalidSelectorException
+    {
+        Selectors currentSelectors = getSelectors(selectorCollection);
+        Map expressionResults = currentSelectors.evaluator.evaluate(message);
+        Map results = new HashMap();
+        for(Object currentEntry : currentSelectors.expressionKeys.entrySet())
+        {
+            Map.Entry entry = (Map.Entry)currentEntry;
+            results.put(entry.getKey(), toResult(expressionResults.get(entry.getValue())));
+        }
+        return results;
+    }
+
+    /**
+     * Evaluates the specified distinct selectors against a message and
+     * stores the results in the array at the index of the selector.
+     * The results are the same as the values of the <code>Map</code>
+     * returned by {@link #evaluate(Collection, Message)}. If the array
+     * of selectors is the one passed to the previous call, the selectors
+     * are not compared and nothing is allocated, so callers should keep
+     * the array as long as their selectors don't change.
+     * @param selectorArray the distinct selector strings
+     * @param message the message
+     * @param results the array of results, at least as long as the selectors
+     * @throws InvalidSelectorException if a selector cannot be parsed
+     */
+    public void evaluate(String[] selectorArray, Message message, Object[] results) throws InvalidSelectorException
+    {
+        Selectors currentSelectors = getSelectors(selectorArray);
+        currentSelectors.evaluator.evaluate(message, currentSelectors.roots, results);
+        for(int ii = 0; ii < selectorArray.length; ii++)
+        {
+            results[ii] = toResult(results[ii]);
+        }
+    }
+
+    /**
+     * Returns the number of distinct selectors, that are currently
+     * evaluated.
+     * @return the number of selectors
+     */
+    public int getNumberOfSelectors()
+    {
+        return selectors.expressionKeys.size();
+    }
+
+    private Selectors getSelectors(Collection selectorCollection) throws InvalidSelectorException
+    {
+        Selectors currentSelectors = selectors;
+        if(currentSelectors.matches(selectorCollection)) return currentSelectors;
+        synchronized(this)
+        {
+            currentSelectors = selectors;
+            if(currentSelectors.matches(selectorCollection)) return currentSelectors;
+            currentSelectors = new Selectors();
+            for(Object selector : selectorCollection)
+            {
+                currentSelectors.addSelector((String)selector);
+            }
+            selectors = currentSelectors;
+            return currentSelectors;
+        }
+    }
+
+    private Selectors getSelectors(String[] selectorArray) throws InvalidSelectorException
+    {
+        Selectors currentSelectors = selectors;
+        if(currentSelectors.order == selectorArray) return currentSelectors;
+        synchronized(this)
+        {
+            currentSelectors = selectors;
+            if(currentSelectors.order == selectorArray) return currentSelectors;
+            if(null == currentSelectors.order || !Arrays.equals(currentSelectors.order, selectorArray))
+            {
+                Selectors newSelectors = new Selectors();
+                for(String selector : selectorArray)
+                {
+                    newSelectors.addSelector(selector);
+                }
+                currentSelectors = newSelectors;
+            }
+            selectors = currentSelectors.withOrder(selectorArray);
+            return selectors;
+        }
+    }
+
+    private Object toResult(Object result)
+    {
+        if(result instanceof Throwable)
+        {
+            return result;
+        }
+        return Boolean.valueOf(Boolean.TRUE.equals(result));
+    }
+
+    private static class Selectors
+    {
+        private MultiExpressionEvaluator evaluator;
+        private Map expressionKeys;
+        private String[] order;
+        private Expression[] roots;
+
+        public Selectors()
+        {
+            this(new MultiExpressionEvaluator(), new HashMap());
+        }
+
+        private Selectors(MultiExpressionEvaluator evaluator, Map expressionKeys)
+        {
+            this.evaluator = evaluator;
+            this.expressionKeys = expressionKeys;
+        }
+
+        /**
+         * Returns selectors that share the evaluator of this one and
+         * know the root expressions of the specified selectors
+         * in the specified order.
+         */
+        public Selectors withOrder(String[] selectorArray)
+        {
+            Selectors ordered = new Selectors(evaluator, expressionKeys);
+            ordered.order = selectorArray;
+            ordered.roots = new Expression[selectorArray.length];
+            for(int ii = 0; ii < selectorArray.length; ii++)
+            {
+                ordered.roots[ii] = evaluator.getRootExpression((String)expressionKeys.get(selectorArray[ii]));
+            }
+            return ordered;
+        }
+
+        public void addSelector(String selector) throws InvalidSelectorException
+        {
+            if(expressionKeys.containsKey(selector)) return;
+            Expression expression = ((ExpressionFilter)new SelectorParser().parse(selector)).getExpression();
+            String expressionKey = expression.toString();
+            evaluator.addExpressionListner(expression, SelectorListener.INSTANCE);
+            expressionKeys.put(selector, expressionKey);
+        }
+
+        public boolean matches(Collection selectorCollection)
+        {
+            Set selectorSet = (selectorCollection instanceof Set) ? (Set)selectorCollection : new HashSet(selectorCollection);
+            return selectorSet.size() == expressionKeys.size() && expressionKeys.keySet().containsAll(selectorSet);
+        }
+    }
+
+    private static class SelectorListener implements MultiExpressionEvaluator.ExpressionListener
+    {
+        private static final SelectorListener INSTANCE = new SelectorListener();
+
+        public void evaluateResultEvent(Expression selector, Message message, Object result)
+        {
+        }
+    }
+}
@@ -4,14 +4,16 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.jms.JMSException;
 import javax.jms.TopicPublisher;
 import javax.jms.TopicSubscriber;
 
+import com.mockrunner.base.NestedApplicationException;
 import com.mockrunner.mock.jms.MockConnection;
 import com.mockrunner.mock.jms.MockSession;
 import com.mockrunner.mock.jms.MockTopic;
@@ -29,14 +31,18 @@ public class TopicTransmissionManager implements Serializable
     private List topicPublisherList;
     private List topicSubscriberList;
     private Map topicDurableSubscriberMap;
+    private ConsumerIndex openTopicSubscribers;
+    private ConsumerIndex openDurableTopicSubscribers;
 
     public TopicTransmissionManager(MockConnection connection, MockSession session)
     {
         this.connection = connection;
         this.session = session;
-        topicPublisherList = new ArrayList();
-        topicSubscriberList = new ArrayList();
-        topicDurableSubscriberMap = new HashMap();
+        topicPublisherList = new CopyOnWriteArrayList();
+        topicSubscriberList = new CopyOnWriteArrayList();
+        topicDurableSubscriberMap = new ConcurrentHashMap();
+        openTopicSubscribers = new ConsumerIndex(MockTopicSubscriber.class);
+        openDurableTopicSubscribers = new ConsumerIndex(MockTopicSubscriber.class);
     }
 
     /**
@@ -181,8 +187,36 @@ public class TopicTransmissionManager implements Serializable
         MockTopicSubscriber subscriber = new MockTopicSubscriber(connection, session, topic, messageSelector, noLocal);
         subscriber.setDurable(false);
         topicSubscriberList.add(subscriber);
+        openTopicSubscribers.add(getTopicName(topic), subscriber);
         return subscriber;
     }
+    
+    /**
+     * Removes a closed <code>TopicSubscriber</code> from the open
+     * subscribers. This method is called by
+     * {@link com.mockrunner.mock.jms.MockTopicSubscriber#close}.
+     * @param subscriber the closed <code>TopicSubscriber</code>
+     */
+    public void topicSubscriberClosed(MockTopicSubscriber subscriber)
+    {
+        String topicName = getTopicName(subscriber);
+        openTopicSubscribers.remove(topicName, subscriber);
+        openDurableTopicSubscribers.remove(topicName, subscriber);
+    }
+    
+    /**
+     * Returns the <code>TopicSubscriber</code> objects for a specific
+     * <code>Topic</code>, that are not closed. Unlike
+     * {@link #getTopicSubscriberList(String)}, this method does not
+     * create a new list. The returned array is shared and must
+     * not be modified.
+     * @param topicName the name of the <code>Topic</code>
+     * @return the array of open <code>TopicSubscriber</code> objects
+     */
+    public MockTopicSubscriber[] getOpenTopicSubscribers(String topicName)
+    {
+        return (MockTopicSubscriber[])openTopicSubscribers.getConsumers(topicName);
+    }
 
     /**
      * Returns a <code>TopicSubscriber</code> by its index or
@@ -258,9 +292,28 @@ public class TopicTransmissionManager implements Serializable
         MockTopicSubscriber subscriber = new MockTopicSubscriber(connection, session, topic, messageSelector, noLocal);
         subscriber.setDurable(true);
         subscriber.setName(name);
-        topicDurableSubscriberMap.put(name, subscriber);
+        MockTopicSubscriber oldSubscriber = (MockTopicSubscriber)topicDurableSubscriberMap.put(name, subscriber);
+        if(null != oldSubscriber)
+        {
+            openDurableTopicSubscribers.remove(getTopicName(oldSubscriber), oldSubscriber);
+        }
+        openDurableTopicSubscribers.add(getTopicName(topic), subscriber);
         return subscriber;
     }
+    
+    /**
+     * Returns the durable <code>TopicSubscriber</code> objects for a
+     * specific <code>Topic</code>, that are not closed. Unlike
+     * {@link #getDurableTopicSubscriberMap(String)}, this method does
+     * not create a new map. The returned array is shared and must
+     * not be modified.
+     * @param topicName the name of the <code>Topic</code>
+     * @return the array of open durable <code>TopicSubscriber</code> objects
+     */
+    public MockTopicSubscriber[] getOpenDurableTopicSubscribers(String topicName)
+    {
+        return (MockTopicSubscriber[])openDurableTopicSubscribers.getConsumers(topicName);
+    }
 
     /**
      * Returns a durable <code>TopicSubscriber</code> by its name or
@@ -280,7 +333,11 @@ public class TopicTransmissionManager implements Serializable
      */
     public void removeTopicDurableSubscriber(String name)
     {
-        topicDurableSubscriberMap.remove(name);
+        MockTopicSubscriber subscriber = (MockTopicSubscriber)topicDurableSubscriberMap.remove(name);
+        if(null != subscriber)
+        {
+            openDurableTopicSubscribers.remove(getTopicName(subscriber), subscriber);
+        }
     }
     
     /**
@@ -313,4 +370,28 @@ public class TopicTransmissionManager implements Serializable
     {
         return Collections.unmodifiableMap(topicDurableSubscriberMap);
     }
+    
+    private String getTopicName(MockTopicSubscriber subscriber)
+    {
+        try
+        {
+            return getTopicName((MockTopic)subscriber.getTopic());
+        }
+        catch(JMSException exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+    }
+    
+    private String getTopicName(MockTopic topic)
+    {
+        try
+        {
+            return topic.getTopicName();
+        }
+        catch(JMSException exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+    }
 }
@@ -25,8 +25,8 @@ public class JMSMockObjectFactory
      */
     public JMSMockObjectFactory()
     {
-        destinationManager = new DestinationManager();
         configurationManager = new ConfigurationManager();
+        destinationManager = new DestinationManager(configurationManager);
         queueConnectionFactory = createMockQueueConnectionFactory();
         topicConnectionFactory = createMockTopicConnectionFactory();
         connectionFactory = createMockConnectionFactory();
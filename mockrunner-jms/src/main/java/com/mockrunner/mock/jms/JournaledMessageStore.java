@@ -0,0 +1,92 @@
+package com.mockrunner.mock.jms;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.jms.Message;
+
+import org.activemq.filter.mockrunner.Filter;
+
+/**
+ * Storage for the current messages of a {@link MockDestination}
+ * that keeps the messages in a {@link MessageJournal}.
+ */
+class JournaledMessageStore extends MessageStore
+{
+    private transient MessageJournal journal;
+
+    public JournaledMessageStore(MessageJournal journal)
+    {
+        this.journal = journal;
+    }
+
+    public MessageJournal getJournal()
+    {
+        return journal;
+    }
+
+    public void add(Message message)
+    {
+        journal.append(message);
+    }
+
+    /**
+     * The journal can only be appended to, so the messages
+     * are added after the other messages.
+     * @param messages the messages
+     */
+    public void addFirst(List<Message> messages)
+    {
+        for(Message message : messages)
+        {
+            journal.append(message);
+        }
+    }
+
+    /**
+     * The journal reads copies of the messages, so a message
+     * added before cannot be found. The message stays in the
+     * journal for the receivers.
+     * @param message the message
+     * @return always <code>false</code>
+     */
+    public boolean remove(Message message)
+    {
+        return false;
+    }
+
+    public Message poll()
+    {
+        return journal.poll();
+    }
+
+    public Message poll(Filter filter)
+    {
+        return journal.poll(filter);
+    }
+
+    public boolean isEmpty()
+    {
+        return journal.isEmpty();
+    }
+
+    public int size()
+    {
+        return journal.size();
+    }
+
+    public void clear()
+    {
+        journal.clear();
+    }
+
+    /**
+     * Returns the current messages. The messages are read from
+     * the journal, so the list is a snapshot.
+     * @return the messages
+     */
+    public List<Message> asList()
+    {
+        return Collections.unmodifiableList(journal.getMessages());
+    }
+}
@@ -0,0 +1,905 @@
+package com.mockrunner.mock.jms;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Queue;
+import javax.jms.TemporaryQueue;
+import javax.jms.TemporaryTopic;
+import javax.jms.Topic;
+
+import org.activemq.filter.mockrunner.Filter;
+
+import com.mockrunner.base.NestedApplicationException;
+import com.mockrunner.jms.DestinationManager;
+import com.mockrunner.jms.PooledSerializer;
+
+/**
+ * Stores the current messages of a {@link MockDestination} in
+ * memory-mapped files instead of the heap. The messages are
+ * appended to segment files in a directory. Only the positions of
+ * the messages are kept in memory. Consuming a message marks its
+ * record as consumed and advances a cursor, the record is not
+ * copied or moved. Segments whose messages are all consumed are
+ * deleted. A journal that is opened on an existing directory
+ * contains the messages that were not consumed before, so tests
+ * can simulate the restart of a broker.
+ * <br>
+ * The bodies of text and bytes messages are not copied when a message
+ * is read from the journal. They are read from the mapped segment when
+ * the text is requested or the message is read. Other messages are
+ * stored with Java serialization. The <code>JMSDestination</code>
+ * of a message read from the journal is the destination of the journal.
+ * The <code>JMSReplyTo</code> is resolved with the
+ * {@link DestinationManager}, if one is set. Temporary destinations
+ * have no stable name, so they are stored with an id that is unique
+ * within the journal directory. They are only resolved by the journal
+ * instance that stored them, as long as a message that refers to
+ * them is not consumed. A replayed message that refers to a temporary
+ * destination has no <code>JMSReplyTo</code>.
+ * <br>
+ * Journals are created by the {@link DestinationManager}, if a journal
+ * directory is set with
+ * {@link com.mockrunner.jms.ConfigurationManager#setJournalDirectory}.
+ * Use {@link MockDestination#setJournal} to attach a journal to a
+ * single destination.
+ */
+public class MessageJournal
+{
+    /**
+     * The default size of a segment file.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int RECORD_HEADER_SIZE = 6;
+    private static final byte LIVE = 0;
+    private static final byte CONSUMED = 1;
+    private static final byte PLAIN = 0;
+    private static final byte TEXT = 1;
+    private static final byte BYTES = 2;
+    private static final byte SERIALIZED = 3;
+    private static final byte NO_DESTINATION = 0;
+    private static final byte QUEUE = 1;
+    private static final byte TOPIC = 2;
+    private static final byte TEMPORARY = 3;
+
+    private File directory;
+    private int segmentSize;
+    private List<Segment> segments;
+    private long[] positions;
+    private int head;
+    private int tail;
+    private int size;
+    private Destination destination;
+    private DestinationManager destinationManager;
+    private Map<String, Destination> replyToDestinations;
+    private Map<Integer, TemporaryReplyTo> temporaryReplyTos;
+    private Map<Destination, TemporaryReplyTo> temporaryIds;
+    private int nextTemporaryId;
+    private ByteArrayOutputStream headerBuffer;
+    private boolean closed;
+
+    /**
+     * Opens a journal with the default segment size.
+     * @param directory the directory of the segment files
+     */
+    public MessageJournal(File directory)
+    {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens a journal. The directory is created, if it does not exist.
+     * Existing segment files in the directory are replayed. Segments
+     * are larger than the specified size, if a single message does
+     * not fit.
+     * @param directory the directory of the segment files
+     * @param segmentSize the size of new segment files
+     */
+    public MessageJournal(File directory, int segmentSize)
+    {
+        if(segmentSize <= RECORD_HEADER_SIZE + 4)
+        {
+            throw new IllegalArgumentException("segmentSize too small");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        segments = new ArrayList<Segment>();
+        positions = new long[64];
+        head = 0;
+        tail = 0;
+        size = 0;
+        replyToDestinations = new HashMap<String, Destination>();
+        temporaryReplyTos = new HashMap<Integer, TemporaryReplyTo>();
+        temporaryIds = new IdentityHashMap<Destination, TemporaryReplyTo>();
+        nextTemporaryId = 0;
+        headerBuffer = new ByteArrayOutputStream(256);
+        closed = false;
+        if(!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new NestedApplicationException(new IOException("Cannot create journal directory " + directory));
+        }
+        replay();
+    }
+
+    /**
+     * Returns the directory of the segment files.
+     * @return the directory
+     */
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Sets the destination that is set as <code>JMSDestination</code>
+     * of the messages read from this journal. Called by
+     * {@link MockDestination#setJournal}.
+     * @param destination the destination
+     */
+    public synchronized void setDestination(Destination destination)
+    {
+        this.destination = destination;
+    }
+
+    /**
+     * Sets the <code>DestinationManager</code> that resolves the
+     * <code>JMSReplyTo</code> of the messages read from this journal.
+     * @param destinationManager the <code>DestinationManager</code>
+     */
+    public synchronized void setDestinationManager(DestinationManager destinationManager)
+    {
+        this.destinationManager = destinationManager;
+    }
+
+    /**
+     * Appends a message.
+     * @param message the message
+     */
+    public synchronized void append(Message message)
+    {
+        checkOpen();
+        try
+        {
+            headerBuffer.reset();
+            DataOutputStream header = new DataOutputStream(headerBuffer);
+            ByteBuffer body;
+            byte kind;
+            TemporaryReplyTo temporaryReplyTo = writeDestination(header, message.getJMSReplyTo());
+            if(message instanceof MockTextMessage)
+            {
+                kind = TEXT;
+                writeHeaders(header, (MockMessage)message);
+                String text = ((MockTextMessage)message).getText();
+                body = (null == text) ? null : StandardCharsets.UTF_8.encode(text);
+            }
+            else if(message instanceof MockBytesMessage)
+            {
+                kind = BYTES;
+                writeHeaders(header, (MockMessage)message);
+                body = ((MockBytesMessage)message).getBodyBuffer();
+            }
+            else if(message.getClass() == MockMessage.class)
+            {
+                kind = PLAIN;
+                writeHeaders(header, (MockMessage)message);
+                body = null;
+            }
+            else
+            {
+                kind = SERIALIZED;
+                body = ByteBuffer.wrap(PooledSerializer.serialize(detach(message)));
+            }
+            header.flush();
+            int bodyLength = (null == body) ? -1 : body.remaining();
+            int length = headerBuffer.size() + 4 + Math.max(bodyLength, 0);
+            if(length < 0)
+            {
+                throw new IllegalArgumentException("Message too large");
+            }
+            Segment segment = getWritableSegment(length);
+            int offset = segment.buffer.position();
+            segment.buffer.putInt(length);
+            segment.buffer.put(LIVE);
+            segment.buffer.put(kind);
+            segment.buffer.put(headerBuffer.toByteArray());
+            segment.buffer.putInt(bodyLength);
+            if(null != body) segment.buffer.put(body);
+            segment.live++;
+            addPosition(segment.id, offset);
+            size++;
+            if(null != temporaryReplyTo) retain(temporaryReplyTo);
+        }
+        catch(JMSException exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+        catch(IOException exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+    }
+
+    /**
+     * Removes and returns the oldest message.
+     * @return the message or <code>null</code>, if there's no message
+     */
+    public synchronized Message poll()
+    {
+        checkOpen();
+        while(head < tail)
+        {
+            long position = positions[head++];
+            Segment segment = getSegment(position);
+            int offset = getOffset(position);
+            if(LIVE == segment.buffer.get(offset + 4))
+            {
+                Message message = read(segment, offset);
+                consume(segment, offset);
+                return message;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes and returns the oldest message that matches the filter.
+     * @param filter the filter
+     * @return the message or <code>null</code>, if there's no matching message
+     */
+    public synchronized Message poll(Filter filter)
+    {
+        checkOpen();
+        for(int ii = head; ii < tail; ii++)
+        {
+            Segment segment = getSegment(positions[ii]);
+            int offset = getOffset(positions[ii]);
+            if(LIVE != segment.buffer.get(offset + 4)) continue;
+            Message message = read(segment, offset);
+            try
+            {
+                if(filter.matches(message))
+                {
+                    consume(segment, offset);
+                    return message;
+                }
+            }
+            catch(JMSException exc)
+            {
+                throw new NestedApplicationException(exc);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of messages that are not consumed.
+     * @return the number of messages
+     */
+    public synchronized int size()
+    {
+        return size;
+    }
+
+    public synchronized boolean isEmpty()
+    {
+        return 0 == size;
+    }
+
+    /**
+     * Returns the messages that are not consumed. The messages are read
+     * from the journal, so the returned messages are not the same
+     * objects that were appended.
+     * @return the messages
+     */
+    public synchronized List<Message> getMessages()
+    {
+        checkOpen();
+        List<Message> messages = new ArrayList<Message>(size);
+        for(int ii = head; ii < tail; ii++)
+        {
+            Segment segment = getSegment(positions[ii]);
+            int offset = getOffset(positions[ii]);
+            if(LIVE == segment.buffer.get(offset + 4))
+            {
+                messages.add(read(segment, offset));
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Removes all messages and deletes all segment files.
+     */
+    public synchronized void clear()
+    {
+        checkOpen();
+        for(Segment segment : segments)
+        {
+            segment.delete();
+        }
+        segments.clear();
+        head = 0;
+        tail = 0;
+        size = 0;
+        clearReplyToDestinations();
+    }
+
+    /**
+     * Returns the number of segment files.
+     * @return the number of segment files
+     */
+    public synchronized int getNumberSegments()
+    {
+        return segments.size();
+    }
+
+    /**
+     * Deletes the segments whose messages are all consumed, except the
+     * segment that is currently written, and removes their positions
+     * from the index. Called when the last message of a segment is
+     * consumed, so it is usually not necessary to call this method.
+     * The cached <code>JMSReplyTo</code> destinations are dropped,
+     * if there are no messages anymore.
+     */
+    public synchronized void compact()
+    {
+        checkOpen();
+        if(0 == size) replyToDestinations.clear();
+        int lastIndex = segments.size() - 1;
+        boolean deleted = false;
+        for(int ii = lastIndex - 1; ii >= 0; ii--)
+        {
+            Segment segment = segments.get(ii);
+            if(segment.live <= 0)
+            {
+                segment.delete();
+                segments.remove(ii);
+                deleted = true;
+            }
+        }
+        if(!deleted) return;
+        int newTail = 0;
+        for(int ii = head; ii < tail; ii++)
+        {
+            if(null != findSegment(getSegmentId(positions[ii])))
+            {
+                positions[newTail++] = positions[ii];
+            }
+        }
+        head = 0;
+        tail = newTail;
+    }
+
+    /**
+     * Writes the segments to disk and releases the files. The
+     * messages stay in the directory and can be replayed by
+     * opening a new journal on it.
+     */
+    public synchronized void close()
+    {
+        if(closed) return;
+        for(Segment segment : segments)
+        {
+            segment.buffer.force();
+            segment.close();
+        }
+        clearReplyToDestinations();
+        closed = true;
+    }
+
+    /**
+     * Closes the journal and deletes all segment files.
+     */
+    public synchronized void delete()
+    {
+        if(!closed) clear();
+        close();
+        directory.delete();
+    }
+
+    private void replay()
+    {
+        File[] files = directory.listFiles();
+        if(null == files) return;
+        Arrays.sort(files);
+        for(File file : files)
+        {
+            if(!file.getName().endsWith(SEGMENT_SUFFIX)) continue;
+            int id;
+            try
+            {
+                id = Integer.parseInt(file.getName().substring(0, file.getName().length() - SEGMENT_SUFFIX.length()));
+            }
+            catch(NumberFormatException exc)
+            {
+                continue;
+            }
+            Segment segment = new Segment(id, file, (int)file.length());
+            scan(segment);
+            segments.add(segment);
+        }
+        for(int ii = segments.size() - 2; ii >= 0; ii--)
+        {
+            if(segments.get(ii).live <= 0) segments.remove(ii).delete();
+        }
+    }
+
+    private void scan(Segment segment)
+    {
+        MappedByteBuffer buffer = segment.buffer;
+        while(buffer.remaining() >= RECORD_HEADER_SIZE)
+        {
+            int offset = buffer.position();
+            int length = buffer.getInt();
+            if(length <= 0 || length > buffer.remaining() - 2)
+            {
+                buffer.position(offset);
+                return;
+            }
+            byte status = buffer.get();
+            buffer.position(buffer.position() + 1 + length);
+            if(LIVE == status)
+            {
+                if(TEMPORARY == buffer.get(offset + RECORD_HEADER_SIZE))
+                {
+                    int id = buffer.getInt(offset + RECORD_HEADER_SIZE + 1);
+                    nextTemporaryId = Math.max(nextTemporaryId, id + 1);
+                }
+                segment.live++;
+                addPosition(segment.id, offset);
+                size++;
+            }
+        }
+    }
+
+    private Segment getWritableSegment(int length) throws IOException
+    {
+        int required = RECORD_HEADER_SIZE + length + 4;
+        if(!segments.isEmpty())
+        {
+            Segment last = segments.get(segments.size() - 1);
+            if(last.buffer.remaining() >= required) return last;
+        }
+        int id = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).id + 1;
+        File file = new File(directory, String.format("%010d", id) + SEGMENT_SUFFIX);
+        Segment segment = new Segment(id, file, Math.max(segmentSize, required));
+        segments.add(segment);
+        return segment;
+    }
+
+    private void consume(Segment segment, int offset)
+    {
+        segment.buffer.put(offset + 4, CONSUMED);
+        if(TEMPORARY == segment.buffer.get(offset + RECORD_HEADER_SIZE))
+        {
+            release(segment.buffer.getInt(offset + RECORD_HEADER_SIZE + 1));
+        }
+        segment.live--;
+        size--;
+        if(segment.live <= 0 && segment != segments.get(segments.size() - 1))
+        {
+            compact();
+        }
+    }
+
+    private void addPosition(int segmentId, int offset)
+    {
+        if(tail == positions.length)
+        {
+            if(head > positions.length / 2)
+            {
+                System.arraycopy(positions, head, positions, 0, tail - head);
+                tail -= head;
+                head = 0;
+            }
+            else
+            {
+                positions = Arrays.copyOf(positions, positions.length * 2);
+            }
+        }
+        positions[tail++] = ((long)segmentId << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private Segment getSegment(long position)
+    {
+        return findSegment(getSegmentId(position));
+    }
+
+    private Segment findSegment(int id)
+    {
+        if(segments.isEmpty()) return null;
+        int index = id - segments.get(0).id;
+        if(index >= 0 && index < segments.size() && segments.get(index).id == id)
+        {
+            return segments.get(index);
+        }
+        for(Segment segment : segments)
+        {
+            if(segment.id == id) return segment;
+        }
+        return null;
+    }
+
+    private static int getSegmentId(long position)
+    {
+        return (int)(position >>> 32);
+    }
+
+    private static int getOffset(long position)
+    {
+        return (int)position;
+    }
+
+    private void checkOpen()
+    {
+        if(closed)
+        {
+            throw new IllegalStateException("Journal is closed");
+        }
+    }
+
+    private MockMessage detach(Message message) throws JMSException
+    {
+        MockMessage clone = ((MockMessage)message).copyOnWriteClone();
+        clone.setJMSDestination(null);
+        clone.setJMSReplyTo(null);
+        return clone;
+    }
+
+    private Message read(Segment segment, int offset)
+    {
+        ByteBuffer record = segment.buffer.duplicate();
+        int length = record.getInt(offset);
+        byte kind = record.get(offset + 5);
+        record.limit(offset + RECORD_HEADER_SIZE + length);
+        record.position(offset + RECORD_HEADER_SIZE);
+        try
+        {
+            Destination replyTo = readDestination(record);
+            MockMessage message;
+            if(SERIALIZED == kind)
+            {
+                int bodyLength = record.getInt();
+                byte[] data = new byte[bodyLength];
+                record.get(data);
+                message = (MockMessage)PooledSerializer.deserialize(data);
+                message.setJMSReplyTo(replyTo);
+                message.setJMSDestination(destination);
+                return message;
+            }
+            if(TEXT == kind) message = new MockTextMessage();
+            else if(BYTES == kind) message = new MockBytesMessage();
+            else message = new MockMessage();
+            byte flags = readHeaders(record, message);
+            message.setJMSReplyTo(replyTo);
+            message.setJMSDestination(destination);
+            int bodyLength = record.getInt();
+            ByteBuffer body = null;
+            if(bodyLength >= 0)
+            {
+                body = record.slice();
+                body.limit(bodyLength);
+                body = body.asReadOnlyBuffer();
+            }
+            if(TEXT == kind && null != body)
+            {
+                ((MockTextMessage)message).setEncodedText(body);
+            }
+            else if(BYTES == kind)
+            {
+                ((MockBytesMessage)message).setBodyBuffer(body);
+            }
+            message.setReadOnly(0 == (flags & 1));
+            message.setReadOnlyProperties(0 == (flags & 2));
+            if(0 != (flags & 4)) message.acknowledge();
+            return message;
+        }
+        catch(JMSException exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+        catch(BufferUnderflowException exc)
+        {
+            throw new NestedApplicationException("Corrupt journal record in " + segment.file, exc);
+        }
+    }
+
+    private void writeHeaders(DataOutputStream out, MockMessage message) throws JMSException, IOException
+    {
+        writeString(out, message.getJMSMessageID());
+        out.writeLong(message.getJMSTimestamp());
+        writeString(out, message.getJMSCorrelationID());
+        out.writeInt(message.getJMSDeliveryMode());
+        out.writeBoolean(message.getJMSRedelivered());
+        writeString(out, message.getJMSType());
+        out.writeLong(message.getJMSExpiration());
+        out.writeInt(message.getJMSPriority());
+        int flags = 0;
+        if(message.isInWriteMode()) flags |= 1;
+        if(message.isInWriteModeProperties()) flags |= 2;
+        if(message.isAcknowledged()) flags |= 4;
+        out.writeByte(flags);
+        List<String> names = new ArrayList<String>();
+        Enumeration propertyNames = message.getPropertyNames();
+        while(propertyNames.hasMoreElements())
+        {
+            names.add((String)propertyNames.nextElement());
+        }
+        out.writeInt(names.size());
+        for(String name : names)
+        {
+            writeString(out, name);
+            writeValue(out, message.getObjectProperty(name));
+        }
+    }
+
+    private byte readHeaders(ByteBuffer in, MockMessage message) throws JMSException
+    {
+        message.setJMSMessageID(readString(in));
+        message.setJMSTimestamp(in.getLong());
+        message.setJMSCorrelationID(readString(in));
+        message.setJMSDeliveryMode(in.getInt());
+        message.setJMSRedelivered(0 != in.get());
+        message.setJMSType(readString(in));
+        message.setJMSExpiration(in.getLong());
+        message.setJMSPriority(in.getInt());
+        byte flags = in.get();
+        int numberProperties = in.getInt();
+        for(int ii = 0; ii < numberProperties; ii++)
+        {
+            String name = readString(in);
+            message.setObjectProperty(name, readValue(in));
+        }
+        return flags;
+    }
+
+    private void writeValue(DataOutputStream out, Object value) throws IOException
+    {
+        if(value instanceof String)
+        {
+            out.writeByte(PropertyStore.STRING);
+            writeString(out, (String)value);
+        }
+        else if(value instanceof Integer)
+        {
+            out.writeByte(PropertyStore.INT);
+            out.writeInt((Integer)value);
+        }
+        else if(value instanceof Long)
+        {
+            out.writeByte(PropertyStore.LONG);
+            out.writeLong((Long)value);
+        }
+        else if(value instanceof Boolean)
+        {
+            out.writeByte(PropertyStore.BOOLEAN);
+            out.writeBoolean((Boolean)value);
+        }
+        else if(value instanceof Double)
+        {
+            out.writeByte(PropertyStore.DOUBLE);
+            out.writeDouble((Double)value);
+        }
+        else if(value instanceof Float)
+        {
+            out.writeByte(PropertyStore.FLOAT);
+            out.writeFloat((Float)value);
+        }
+        else if(value instanceof Short)
+        {
+            out.writeByte(PropertyStore.SHORT);
+            out.writeShort((Short)value);
+        }
+        else if(value instanceof Byte)
+        {
+            out.writeByte(PropertyStore.BYTE);
+            out.writeByte((Byte)value);
+        }
+        else
+        {
+            out.writeByte(PropertyStore.NULL);
+        }
+    }
+
+    private Object readValue(ByteBuffer in)
+    {
+        byte type = in.get();
+        switch(type)
+        {
+            case PropertyStore.STRING: return readString(in);
+            case PropertyStore.INT: return in.getInt();
+            case PropertyStore.LONG: return in.getLong();
+            case PropertyStore.BOOLEAN: return 0 != in.get();
+            case PropertyStore.DOUBLE: return in.getDouble();
+            case PropertyStore.FLOAT: return in.getFloat();
+            case PropertyStore.SHORT: return in.getShort();
+            case PropertyStore.BYTE: return in.get();
+            default: return null;
+        }
+    }
+
+    private TemporaryReplyTo writeDestination(DataOutputStream out, Destination replyTo) throws JMSException, IOException
+    {
+        if(replyTo instanceof TemporaryQueue || replyTo instanceof TemporaryTopic)
+        {
+            TemporaryReplyTo temporaryReplyTo = temporaryIds.get(replyTo);
+            if(null == temporaryReplyTo)
+            {
+                temporaryReplyTo = new TemporaryReplyTo(nextTemporaryId, replyTo);
+            }
+            out.writeByte(TEMPORARY);
+            out.writeInt(temporaryReplyTo.id);
+            return temporaryReplyTo;
+        }
+        if(replyTo instanceof Queue)
+        {
+            String name = ((Queue)replyTo).getQueueName();
+            out.writeByte(QUEUE);
+            writeString(out, name);
+            if(null == destinationManager) replyToDestinations.put(QUEUE + name, replyTo);
+        }
+        else if(replyTo instanceof Topic)
+        {
+            String name = ((Topic)replyTo).getTopicName();
+            out.writeByte(TOPIC);
+            writeString(out, name);
+            if(null == destinationManager) replyToDestinations.put(TOPIC + name, replyTo);
+        }
+        else
+        {
+            out.writeByte(NO_DESTINATION);
+        }
+        return null;
+    }
+
+    private void retain(TemporaryReplyTo temporaryReplyTo)
+    {
+        if(0 == temporaryReplyTo.references++)
+        {
+            temporaryReplyTos.put(temporaryReplyTo.id, temporaryReplyTo);
+            temporaryIds.put(temporaryReplyTo.destination, temporaryReplyTo);
+            if(temporaryReplyTo.id == nextTemporaryId) nextTemporaryId++;
+        }
+    }
+
+    private void release(int id)
+    {
+        TemporaryReplyTo temporaryReplyTo = temporaryReplyTos.get(id);
+        if(null == temporaryReplyTo || 0 != --temporaryReplyTo.references) return;
+        temporaryReplyTos.remove(id);
+        temporaryIds.remove(temporaryReplyTo.destination);
+    }
+
+    private void clearReplyToDestinations()
+    {
+        replyToDestinations.clear();
+        temporaryReplyTos.clear();
+        temporaryIds.clear();
+    }
+
+    private Destination readDestination(ByteBuffer in)
+    {
+        byte kind = in.get();
+        if(NO_DESTINATION == kind) return null;
+        if(TEMPORARY == kind)
+        {
+            TemporaryReplyTo temporaryReplyTo = temporaryReplyTos.get(in.getInt());
+            return (null == temporaryReplyTo) ? null : temporaryReplyTo.destination;
+        }
+        String name = readString(in);
+        Destination replyTo = replyToDestinations.get(kind + name);
+        if(null != replyTo) return replyTo;
+        if(QUEUE == kind)
+        {
+            return (null != destinationManager) ? destinationManager.getQueue(name) : new MockQueue(name);
+        }
+        return (null != destinationManager) ? destinationManager.getTopic(name) : new MockTopic(name);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        if(null == value)
+        {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] data = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static String readString(ByteBuffer in)
+    {
+        int length = in.getInt();
+        if(length < 0) return null;
+        byte[] data = new byte[length];
+        in.get(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A temporary <code>JMSReplyTo</code> destination and the number
+     * of live records that refer to it.
+     */
+    private static class TemporaryReplyTo
+    {
+        private final int id;
+        private final Destination destination;
+        private int references;
+
+        public TemporaryReplyTo(int id, Destination destination)
+        {
+            this.id = id;
+            this.destination = destination;
+            references = 0;
+        }
+    }
+
+    private static class Segment
+    {
+        private final int id;
+        private final File file;
+        private RandomAccessFile randomAccessFile;
+        private MappedByteBuffer buffer;
+        private int live;
+
+        public Segment(int id, File file, int size)
+        {
+            this.id = id;
+            this.file = file;
+            live = 0;
+            try
+            {
+                randomAccessFile = new RandomAccessFile(file, "rw");
+                if(randomAccessFile.length() < size)
+                {
+                    randomAccessFile.setLength(size);
+                }
+                buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+            catch(IOException exc)
+            {
+                close();
+                throw new NestedApplicationException(exc);
+            }
+        }
+
+        public void close()
+        {
+            try
+            {
+                if(null != randomAccessFile) randomAccessFile.close();
+            }
+            catch(IOException exc)
+            {
+                throw new NestedApplicationException(exc);
+            }
+        }
+
+        public void delete()
+        {
+            close();
+            file.delete();
+        }
+    }
+}
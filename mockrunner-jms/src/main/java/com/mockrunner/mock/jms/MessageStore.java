@@ -0,0 +1,513 @@
+package com.mockrunner.mock.jms;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import org.activemq.filter.mockrunner.ComparisonExpression;
+import org.activemq.filter.mockrunner.ConstantExpression;
+import org.activemq.filter.mockrunner.Expression;
+import org.activemq.filter.mockrunner.ExpressionFilter;
+import org.activemq.filter.mockrunner.Filter;
+import org.activemq.filter.mockrunner.LogicExpression;
+import org.activemq.filter.mockrunner.PropertyExpression;
+
+import com.mockrunner.base.NestedApplicationException;
+
+/**
+ * Storage for the current messages of a {@link MockDestination}.
+ * The messages are kept in a lock-free FIFO deque. Removing
+ * a message only marks it as consumed, consumed messages are
+ * skipped and purged lazily, so taking the next message is O(1).
+ * <br>
+ * Selectors that require a property to be equal to a string
+ * (e.g. <code>JMSType = 'order' AND priority &gt; 3</code>) are
+ * served from a secondary index on that property, which is built
+ * when the first such selector is used. Messages that cannot match
+ * the equality are never evaluated. The index reflects the property
+ * values at the time the message was stored. Consumed messages are
+ * purged from the index in bulk, like consumed messages in the queue.
+ * Adding messages is blocked while a new index is built, so every
+ * message is indexed exactly once.
+ */
+class MessageStore implements Serializable
+{
+    private static final int PURGE_THRESHOLD = 64;
+
+    private final Deque<Entry> entries = new ConcurrentLinkedDeque<Entry>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger consumedEntries = new AtomicInteger();
+    private final AtomicInteger consumedIndexEntries = new AtomicInteger();
+    private final AtomicLong version = new AtomicLong();
+    private final ConcurrentMap<String, PropertyIndex> indexes = new ConcurrentHashMap<String, PropertyIndex>();
+    private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+    private final List<Message> messageList = new MessageList();
+
+    /**
+     * Appends a message.
+     * @param message the message
+     */
+    public void add(Message message)
+    {
+        Entry entry = new Entry(message);
+        indexLock.readLock().lock();
+        try
+        {
+            entries.add(entry);
+            size.incrementAndGet();
+            for(PropertyIndex index : indexes.values())
+            {
+                index.add(entry);
+            }
+        }
+        finally
+        {
+            indexLock.readLock().unlock();
+        }
+        version.incrementAndGet();
+    }
+
+    /**
+     * Inserts messages before all other messages, e.g. messages that
+     * are redelivered. The messages keep their order. Messages that
+     * are added or taken concurrently may be interleaved with them.
+     * @param messages the messages
+     */
+    public void addFirst(List<Message> messages)
+    {
+        ListIterator<Message> iterator = messages.listIterator(messages.size());
+        indexLock.readLock().lock();
+        try
+        {
+            while(iterator.hasPrevious())
+            {
+                Entry entry = new Entry(iterator.previous());
+                entries.addFirst(entry);
+                size.incrementAndGet();
+                for(PropertyIndex index : indexes.values())
+                {
+                    index.addFirst(entry);
+                }
+            }
+        }
+        finally
+        {
+            indexLock.readLock().unlock();
+        }
+        version.incrementAndGet();
+    }
+
+    /**
+     * Removes the specified message, if it's still contained.
+     * @param message the message
+     * @return <code>true</code> if the message was removed,
+     *         <code>false</code> if it was taken by someone else
+     */
+    public boolean remove(Message message)
+    {
+        for(Entry entry : entries)
+        {
+            if(entry.message == message && consume(entry))
+            {
+                consumedEntries.incrementAndGet();
+                purgeIfNecessary();
+                purgeIndexesIfNecessary();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes and returns the oldest message.
+     * @return the message or <code>null</code>, if there's no message
+     */
+    public Message poll()
+    {
+        Entry entry;
+        while(null != (entry = entries.poll()))
+        {
+            if(consume(entry))
+            {
+                purgeIndexesIfNecessary();
+                return entry.message;
+            }
+            consumedEntries.decrementAndGet();
+        }
+        return null;
+    }
+
+    /**
+     * Removes and returns the oldest message that matches the filter.
+     * @param filter the filter
+     * @return the message or <code>null</code>, if there's no matching message
+     */
+    public Message poll(Filter filter)
+    {
+        Iterable<Entry> candidates = entries;
+        IndexKey key = getIndexKey(filter);
+        if(null != key)
+        {
+            candidates = getIndex(key.propertyName).getEntries(key.value);
+        }
+        for(Entry entry : candidates)
+        {
+            if(entry.isConsumed()) continue;
+            try
+            {
+                if(filter.matches(entry.message) && consume(entry))
+                {
+                    consumedEntries.incrementAndGet();
+                    purgeIfNecessary();
+                    purgeIndexesIfNecessary();
+                    return entry.message;
+                }
+            }
+            catch(JMSException exc)
+            {
+                throw new NestedApplicationException(exc);
+            }
+        }
+        return null;
+    }
+
+    public boolean isEmpty()
+    {
+        return size.get() <= 0;
+    }
+
+    public int size()
+    {
+        return Math.max(0, size.get());
+    }
+
+    /**
+     * Removes all messages.
+     */
+    public void clear()
+    {
+        Entry entry;
+        while(null != (entry = entries.poll()))
+        {
+            consume(entry);
+        }
+        consumedEntries.set(0);
+        indexes.clear();
+        consumedIndexEntries.set(0);
+        version.incrementAndGet();
+    }
+
+    /**
+     * Returns an unmodifiable view of the current messages.
+     * @return the messages
+     */
+    public List<Message> asList()
+    {
+        return messageList;
+    }
+
+    private boolean consume(Entry entry)
+    {
+        if(!entry.consume()) return false;
+        if(!indexes.isEmpty()) consumedIndexEntries.incrementAndGet();
+        size.decrementAndGet();
+        version.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * A new index is built and published while no message is
+     * added, so the messages added concurrently are either
+     * indexed by the builder or by {@link #add}, but not by both.
+     */
+    private PropertyIndex getIndex(String propertyName)
+    {
+        PropertyIndex index = indexes.get(propertyName);
+        if(null != index) return index;
+        indexLock.writeLock().lock();
+        try
+        {
+            index = indexes.get(propertyName);
+            if(null != index) return index;
+            index = new PropertyIndex(propertyName);
+            for(Entry entry : entries)
+            {
+                if(!entry.isConsumed()) index.add(entry);
+            }
+            indexes.put(propertyName, index);
+            return index;
+        }
+        finally
+        {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Consumed entries stay in the queues until they are polled.
+     * If selective receivers consume most of the messages, they
+     * are purged here, so the queues don't grow without bounds.
+     */
+    private void purgeIfNecessary()
+    {
+        int consumed = consumedEntries.get();
+        if(consumed < PURGE_THRESHOLD || consumed < size()) return;
+        if(!consumedEntries.compareAndSet(consumed, 0)) return;
+        removeConsumed(entries);
+    }
+
+    /**
+     * Consumed entries stay in the property indexes, no matter if
+     * they were consumed by a selective or an unfiltered receiver.
+     * They are purged here once they outnumber the current messages,
+     * and as soon as the store is empty.
+     */
+    private void purgeIndexesIfNecessary()
+    {
+        int consumed = consumedIndexEntries.get();
+        if(0 == consumed || consumed < size()) return;
+        if(consumed < PURGE_THRESHOLD && !isEmpty()) return;
+        if(!consumedIndexEntries.compareAndSet(consumed, 0)) return;
+        for(PropertyIndex index : indexes.values())
+        {
+            index.purge();
+        }
+    }
+
+    private static void removeConsumed(Iterable<Entry> entries)
+    {
+        Iterator<Entry> iterator = entries.iterator();
+        while(iterator.hasNext())
+        {
+            if(iterator.next().isConsumed()) iterator.remove();
+        }
+    }
+
+    /**
+     * Returns the property and the value a message must have to
+     * match the filter, if the filter contains a string equality
+     * on the top level, or <code>null</code> otherwise.
+     */
+    private static IndexKey getIndexKey(Filter filter)
+    {
+        if(!(filter instanceof ExpressionFilter)) return null;
+        return getIndexKey(((ExpressionFilter)filter).getExpression());
+    }
+
+    private static IndexKey getIndexKey(Expression expression)
+    {
+        if(expression instanceof LogicExpression && "AND".equals(((LogicExpression)expression).getExpressionSymbol()))
+        {
+            IndexKey key = getIndexKey(((LogicExpression)expression).getLeft());
+            if(null != key) return key;
+            return getIndexKey(((LogicExpression)expression).getRight());
+        }
+        if(expression instanceof ComparisonExpression && "=".equals(((ComparisonExpression)expression).getExpressionSymbol()))
+        {
+            Expression left = ((ComparisonExpression)expression).getLeft();
+            Expression right = ((ComparisonExpression)expression).getRight();
+            if(left instanceof ConstantExpression)
+            {
+                Expression swap = left;
+                left = right;
+                right = swap;
+            }
+            if(left instanceof PropertyExpression && right instanceof ConstantExpression)
+            {
+                Object value = ((ConstantExpression)right).getValue();
+                if(value instanceof String)
+                {
+                    return new IndexKey(((PropertyExpression)left).getName(), (String)value);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static class IndexKey
+    {
+        private final String propertyName;
+        private final String value;
+
+        public IndexKey(String propertyName, String value)
+        {
+            this.propertyName = propertyName;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Maps the string values of one property to the entries
+     * having this value, in the order they were added.
+     * Entries with other values are not indexed, because they
+     * can never match a string equality.
+     */
+    private static class PropertyIndex implements Serializable
+    {
+        private final String propertyName;
+        private final ConcurrentMap<String, Deque<Entry>> entriesByValue = new ConcurrentHashMap<String, Deque<Entry>>();
+
+        public PropertyIndex(String propertyName)
+        {
+            this.propertyName = propertyName;
+        }
+
+        public void add(Entry entry)
+        {
+            Deque<Entry> valueEntries = getValueEntries(entry);
+            if(null != valueEntries) valueEntries.addLast(entry);
+        }
+
+        public void addFirst(Entry entry)
+        {
+            Deque<Entry> valueEntries = getValueEntries(entry);
+            if(null != valueEntries) valueEntries.addFirst(entry);
+        }
+
+        private Deque<Entry> getValueEntries(Entry entry)
+        {
+            Object value;
+            try
+            {
+                value = new PropertyExpression(propertyName).evaluate(entry.message);
+            }
+            catch(JMSException exc)
+            {
+                return null;
+            }
+            if(!(value instanceof String)) return null;
+            Deque<Entry> valueEntries = entriesByValue.get(value);
+            if(null == valueEntries)
+            {
+                Deque<Entry> newEntries = new ConcurrentLinkedDeque<Entry>();
+                valueEntries = entriesByValue.putIfAbsent((String)value, newEntries);
+                if(null == valueEntries) valueEntries = newEntries;
+            }
+            return valueEntries;
+        }
+
+        public Iterable<Entry> getEntries(String value)
+        {
+            Deque<Entry> valueEntries = entriesByValue.get(value);
+            if(null == valueEntries) return Collections.<Entry>emptyList();
+            Entry head;
+            while(null != (head = valueEntries.peek()) && head.isConsumed())
+            {
+                valueEntries.remove(head);
+            }
+            return valueEntries;
+        }
+
+        public void purge()
+        {
+            for(Deque<Entry> valueEntries : entriesByValue.values())
+            {
+                removeConsumed(valueEntries);
+            }
+        }
+    }
+
+    private static class Entry implements Serializable
+    {
+        private static final AtomicIntegerFieldUpdater<Entry> CONSUMED = AtomicIntegerFieldUpdater.newUpdater(Entry.class, "consumed");
+
+        private final Message message;
+        private volatile int consumed;
+
+        public Entry(Message message)
+        {
+            this.message = message;
+        }
+
+        public boolean isConsumed()
+        {
+            return consumed != 0;
+        }
+
+        public boolean consume()
+        {
+            return CONSUMED.compareAndSet(this, 0, 1);
+        }
+    }
+
+    /**
+     * Live view of the current messages. The messages are copied
+     * to an array on the first access after a modification.
+     * Iterators work on the array of their creation, so they are
+     * not affected by messages that are added or taken while
+     * iterating.
+     */
+    private class MessageList extends AbstractList<Message> implements Serializable
+    {
+        private transient volatile Snapshot snapshot;
+
+        public Message get(int index)
+        {
+            return getSnapshot()[index];
+        }
+
+        public int size()
+        {
+            return getSnapshot().length;
+        }
+
+        public Iterator<Message> iterator()
+        {
+            return listIterator(0);
+        }
+
+        public ListIterator<Message> listIterator()
+        {
+            return listIterator(0);
+        }
+
+        public ListIterator<Message> listIterator(int index)
+        {
+            return Collections.unmodifiableList(Arrays.asList(getSnapshot())).listIterator(index);
+        }
+
+        private Message[] getSnapshot()
+        {
+            long currentVersion = version.get();
+            Snapshot currentSnapshot = snapshot;
+            if(null != currentSnapshot && currentSnapshot.version == currentVersion) return currentSnapshot.messages;
+            List<Message> messages = new ArrayList<Message>(MessageStore.this.size());
+            for(Entry entry : entries)
+            {
+                if(!entry.isConsumed()) messages.add(entry.message);
+            }
+            currentSnapshot = new Snapshot(currentVersion, messages.toArray(new Message[messages.size()]));
+            snapshot = currentSnapshot;
+            return currentSnapshot.messages;
+        }
+    }
+
+    private static class Snapshot
+    {
+        private final long version;
+        private final Message[] messages;
+
+        public Snapshot(long version, Message[] messages)
+        {
+            this.version = version;
+            this.messages = messages;
+        }
+    }
+}
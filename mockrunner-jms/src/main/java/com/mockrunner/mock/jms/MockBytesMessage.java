@@ -1,12 +1,13 @@
 package com.mockrunner.mock.jms;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
-import java.util.Arrays;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import javax.jms.BytesMessage;
 import javax.jms.JMSException;
@@ -19,11 +20,17 @@ import com.mockrunner.base.NestedApplicationException;
 
 /**
  * Mock implementation of JMS <code>BytesMessage</code>.
+ * The body is kept in a <code>ByteBuffer</code> that grows when
+ * data is written. In read mode the message reads from a view of this
+ * buffer, i.e. {@link #reset} does not copy the body. Use
+ * {@link #MockBytesMessage(ByteBuffer)} or
+ * {@link #MockBytesMessage(FileChannel, long, long)} to create a
+ * message over existing data, e.g. for tests with large payloads.
  */
 public class MockBytesMessage extends MockMessage implements BytesMessage
 {
     private DataOutputStream outStream;
-    private ByteArrayOutputStream byteOutStream;
+    private ByteBufferOutputStream byteOutStream;
     private DataInputStream inStream;
     
     public MockBytesMessage()
@@ -38,13 +45,73 @@ public class MockBytesMessage extends MockMessage implements BytesMessage
         }
     }
     
+    /**
+     * Creates a message in read mode, whose body is the
+     * remaining content of the specified buffer. The content is not
+     * copied, so the buffer must not be changed while the message is
+     * used. The content is copied, if data is written to the message
+     * after {@link #clearBody} was called, the buffer itself
+     * is never changed.
+     * @param body the body
+     */
+    public MockBytesMessage(ByteBuffer body)
+    {
+        this();
+        setBodyBuffer(body);
+    }
+    
+    /**
+     * Replaces the body with the remaining content of the specified
+     * buffer without copying it and puts the message in read mode.
+     * Used by {@link MessageJournal}.
+     * @param body the body
+     */
+    void setBodyBuffer(ByteBuffer body)
+    {
+        byteOutStream = new ByteBufferOutputStream(body);
+        outStream = new DataOutputStream(byteOutStream);
+        try
+        {
+            reset();
+        }
+        catch(JMSException exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+    }
+    
+    /**
+     * Creates a message in read mode, whose body is the
+     * specified region of a file. The region is mapped into
+     * memory and not copied.
+     * @param channel the file channel
+     * @param position the position of the region in the file
+     * @param size the size of the region
+     */
+    public MockBytesMessage(FileChannel channel, long position, long size)
+    {
+        this(map(channel, position, size));
+    }
+    
+    private static ByteBuffer map(FileChannel channel, long position, long size)
+    {
+        try
+        {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        }
+        catch(IOException exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+    }
+    
     public long getBodyLength() throws JMSException
     {
         if(isInWriteMode())
         {
             throw new MessageNotReadableException("Message is in write mode");
         }
-        return outStream.size();
+        return byteOutStream.size();
     }
 
     public boolean readBoolean() throws JMSException
@@ -553,13 +620,13 @@ public class MockBytesMessage extends MockMessage implements BytesMessage
         {
             throw new JMSException(exc.getMessage());
         }
-        inStream = new DataInputStream(new ByteArrayInputStream(byteOutStream.toByteArray()));
+        inStream = new DataInputStream(new ByteBufferInputStream(byteOutStream.view()));
     }
     
     public void clearBody() throws JMSException
     {
         super.clearBody();
-        byteOutStream = new ByteArrayOutputStream();
+        byteOutStream = new ByteBufferOutputStream();
         outStream = new DataOutputStream(byteOutStream);
     }
     
@@ -569,6 +636,20 @@ public class MockBytesMessage extends MockMessage implements BytesMessage
      * @return the byte data
      */
     public byte[] getBytes()
+    {
+        ByteBuffer body = getBodyBuffer();
+        byte[] data = new byte[body.remaining()];
+        body.get(data);
+        return data;
+    }
+    
+    /**
+     * Returns a read-only view of the underlying byte data regardless
+     * if the message is in read or write mode. The data is not copied.
+     * Data written to the message afterwards is not contained in the view.
+     * @return the byte data
+     */
+    public ByteBuffer getBodyBuffer()
     {
         try
         {
@@ -578,7 +659,7 @@ public class MockBytesMessage extends MockMessage implements BytesMessage
         {
             throw new RuntimeException(exc.getMessage());
         }
-        return byteOutStream.toByteArray();
+        return byteOutStream.view();
     }
     
     /**
@@ -589,17 +670,16 @@ public class MockBytesMessage extends MockMessage implements BytesMessage
         if(null == otherObject) return false;
         if(!(otherObject instanceof MockBytesMessage)) return false;
         MockBytesMessage otherMessage = (MockBytesMessage)otherObject;
-        byte[] firstData = getBytes();
-        byte[] secondData = otherMessage.getBytes();
-        return Arrays.equals(firstData, secondData);
+        return getBodyBuffer().equals(otherMessage.getBodyBuffer());
     }
 
     public int hashCode()
     {
         int value = 17;
-        byte[] data = getBytes();
-        for (byte aData : data) {
-            value = (31 * value) + aData;
+        ByteBuffer data = getBodyBuffer();
+        while(data.hasRemaining())
+        {
+            value = (31 * value) + data.get();
         }
         return value;
     }
@@ -610,7 +690,7 @@ public class MockBytesMessage extends MockMessage implements BytesMessage
         try
         {
             message.clearBody();
-            message.outStream.write(getBytes());
+            message.byteOutStream.write(getBodyBuffer());
             return message;
         }
         catch(Exception exc)
@@ -618,6 +698,27 @@ public class MockBytesMessage extends MockMessage implements BytesMessage
             throw new NestedApplicationException(exc);
         }
     }
+    
+    /**
+     * Clones this message and shares the byte data with the clone.
+     * The data is copied by the message that writes to it first.
+     */
+    public MockMessage copyOnWriteClone()
+    {
+        MockBytesMessage message = (MockBytesMessage)super.copyOnWriteClone();
+        try
+        {
+            outStream.flush();
+            message.clearBody();
+        }
+        catch(Exception exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+        message.byteOutStream = byteOutStream.share();
+        message.outStream = new DataOutputStream(message.byteOutStream);
+        return message;
+    }
 
     public String toString()
     {
@@ -635,4 +736,128 @@ public class MockBytesMessage extends MockMessage implements BytesMessage
         buffer.append("]");
         return buffer.toString();
     }
+    
+    /**
+     * Writes to a <code>ByteBuffer</code>, that grows if necessary.
+     * The buffer may be shared with other messages. It is copied
+     * before the first write in this case.
+     */
+    private static class ByteBufferOutputStream extends OutputStream
+    {
+        private static final int INITIAL_CAPACITY = 32;
+        
+        private ByteBuffer buffer;
+        private boolean shared;
+        
+        public ByteBufferOutputStream()
+        {
+            buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+            shared = false;
+        }
+        
+        public ByteBufferOutputStream(ByteBuffer content)
+        {
+            buffer = content.slice();
+            buffer.position(buffer.limit());
+            shared = true;
+        }
+        
+        public synchronized ByteBufferOutputStream share()
+        {
+            ByteBufferOutputStream copy = new ByteBufferOutputStream(view());
+            shared = true;
+            return copy;
+        }
+        
+        public synchronized void write(int data)
+        {
+            ensureCapacity(1);
+            buffer.put((byte)data);
+        }
+        
+        public synchronized void write(byte[] data, int offset, int length)
+        {
+            ensureCapacity(length);
+            buffer.put(data, offset, length);
+        }
+        
+        public synchronized void write(ByteBuffer data)
+        {
+            ensureCapacity(data.remaining());
+            buffer.put(data);
+        }
+        
+        public synchronized int size()
+        {
+            return buffer.position();
+        }
+        
+        /**
+         * Returns a read-only view of the written data.
+         * @return the view
+         */
+        public synchronized ByteBuffer view()
+        {
+            ByteBuffer view = buffer.asReadOnlyBuffer();
+            view.flip();
+            return view;
+        }
+        
+        private void ensureCapacity(int length)
+        {
+            if(!shared && buffer.remaining() >= length) return;
+            int required = buffer.position() + length;
+            if(required < 0)
+            {
+                throw new OutOfMemoryError("Message body too large");
+            }
+            int capacity = Math.max(required, shared ? buffer.capacity() : buffer.capacity() * 2);
+            if(capacity < 0) capacity = required;
+            ByteBuffer grown = ByteBuffer.allocate(capacity);
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+            shared = false;
+        }
+    }
+    
+    /**
+     * Reads from a <code>ByteBuffer</code>.
+     */
+    private static class ByteBufferInputStream extends InputStream
+    {
+        private ByteBuffer buffer;
+        
+        public ByteBufferInputStream(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+        
+        public int read()
+        {
+            if(!buffer.hasRemaining()) return -1;
+            return buffer.get() & 0xFF;
+        }
+        
+        public int read(byte[] data, int offset, int length)
+        {
+            if(0 == length) return 0;
+            if(!buffer.hasRemaining()) return -1;
+            int number = Math.min(length, buffer.remaining());
+            buffer.get(data, offset, number);
+            return number;
+        }
+        
+        public long skip(long number)
+        {
+            int skipped = (int)Math.max(0, Math.min(number, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+        
+        public int available()
+        {
+            return buffer.remaining();
+        }
+    }
 }
@@ -4,6 +4,8 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.jms.Connection;
 import javax.jms.ConnectionConsumer;
@@ -25,8 +27,10 @@ import com.mockrunner.jms.DestinationManager;
  * Mock implementation of JMS <code>Connection</code>.
  * Please note: The interfaces <code>ConnectionConsumer</code>,
  * <code>ServerSessionPool</code> and <code>ServerSession</code>
- * are not meant for application use. Mockrunner provides very
- * simple mock implementations but usually you won't need them.
+ * are not meant for application use. Mockrunner provides
+ * simple mock implementations, that can be used to test message
+ * driven beans with parallel server sessions, see
+ * {@link MockConnectionConsumer} and {@link MockServerSessionPool}.
  */
 public class MockConnection implements Connection, Serializable
 {
@@ -35,6 +39,8 @@ public class MockConnection implements Connection, Serializable
 	
     private ConnectionMetaData metaData;
     private List sessions;
+    private List connectionConsumers;
+    private Set temporaryDestinations;
     private String clientId;
     private boolean started;
     private boolean closed;
@@ -59,6 +65,8 @@ public class MockConnection implements Connection, Serializable
         this.destinationManager = destinationManager;
         this.configurationManager = configurationManager;
         sessions = new ArrayList();
+        connectionConsumers = new ArrayList();
+        temporaryDestinations = Collections.newSetFromMap(new ConcurrentHashMap());
         this.userName = userName;
         this.password = password;
         if(logger.isDebugEnabled())
@@ -122,6 +130,28 @@ public class MockConnection implements Connection, Serializable
         return (MockSession)sessions.get(index);
     }
     
+    /**
+     * Returns the temporary queues and topics created by the
+     * sessions of this connection that are not freed yet.
+     * A temporary destination is freed when it is deleted and
+     * all its consumers are closed.
+     * @return the list of temporary destinations
+     */
+    public List getTemporaryDestinationList()
+    {
+        return new ArrayList(temporaryDestinations);
+    }
+    
+    void addTemporaryDestination(MockDestination destination)
+    {
+        temporaryDestinations.add(destination);
+    }
+    
+    void removeTemporaryDestination(MockDestination destination)
+    {
+        temporaryDestinations.remove(destination);
+    }
+    
     /**
      * Set an exception that will be thrown when calling one
      * of the interface methods. Since the mock implementation
@@ -196,7 +226,9 @@ public class MockConnection implements Connection, Serializable
     public ConnectionConsumer createConnectionConsumer(Destination destination, String messageSelector, ServerSessionPool sessionPool, int maxMessages) throws JMSException
     {
         throwJMSException();
-        return new MockConnectionConsumer(this, sessionPool);
+        MockConnectionConsumer consumer = new MockConnectionConsumer(this, destination, messageSelector, sessionPool, maxMessages);
+        connectionConsumers.add(consumer);
+        return consumer;
     }
 
     public ConnectionConsumer createDurableConnectionConsumer(Topic topic, String subscriptionName, String messageSelector, ServerSessionPool sessionPool, int maxMessages) throws JMSException
@@ -253,6 +285,16 @@ public class MockConnection implements Connection, Serializable
             Session session = (Session) session1;
             session.close();
         }
+        for (Object consumer : connectionConsumers) {
+            ((MockConnectionConsumer) consumer).close();
+        }
+        for (Object destination : temporaryDestinations) {
+            if (destination instanceof MockTemporaryQueue) {
+                ((MockTemporaryQueue) destination).delete();
+            } else {
+                ((MockTemporaryTopic) destination).delete();
+            }
+        }
         closed = true;
         if(logger.isDebugEnabled())
         	logger.debug("Closed mock connection");
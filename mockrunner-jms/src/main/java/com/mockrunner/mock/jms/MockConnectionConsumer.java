@@ -1,29 +1,91 @@
 package com.mockrunner.mock.jms;
 
+import java.util.concurrent.TimeUnit;
+
 import javax.jms.ConnectionConsumer;
+import javax.jms.Destination;
+import javax.jms.InvalidSelectorException;
 import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.ServerSession;
 import javax.jms.ServerSessionPool;
+import javax.jms.Session;
+
+import org.activemq.filter.mockrunner.Filter;
+import org.activemq.filter.mockrunner.SelectorCompiler;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 /**
  * Mock implementation of JMS <code>ConnectionConsumer</code>.
+ * If the consumer is created for a {@link MockDestination} with a
+ * <code>ServerSessionPool</code>, it works like the consumer of an
+ * application server. A background thread takes the messages of
+ * the destination, gets a <code>ServerSession</code> from the pool,
+ * loads up to <code>maxMessages</code> messages into its session and
+ * starts the server session. Use a {@link MockServerSessionPool}
+ * with worker threads to process the messages in parallel.
+ * The messages are only loaded into sessions with a
+ * <code>MessageListener</code>, otherwise they stay in the destination.
+ * A server session of a {@link MockServerSessionPool} is only started,
+ * if messages were loaded into its session, otherwise it's returned to
+ * the pool. Server sessions of other pools are always started, because
+ * that's the only way to return them.
  */
 public class MockConnectionConsumer implements ConnectionConsumer
 {
+    private static final Log logger = LogFactory.getLog(MockConnectionConsumer.class);
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
     private MockConnection connection;
     private ServerSessionPool sessionPool;
-    private boolean closed;
-    
+    private MockDestination destination;
+    private Filter messageFilter;
+    private int maxMessages;
+    private volatile boolean closed;
+    private Thread consumerThread;
+
     public MockConnectionConsumer(MockConnection connection, ServerSessionPool serverSessionPool)
+    {
+        this(connection, null, null, serverSessionPool, 1);
+    }
+
+    public MockConnectionConsumer(MockConnection connection, Destination destination, String messageSelector, ServerSessionPool serverSessionPool, int maxMessages)
     {
         this.connection = connection;
         closed = false;
         sessionPool = serverSessionPool;
+        this.maxMessages = Math.max(1, maxMessages);
         if(null == sessionPool)
         {
             sessionPool = new MockServerSessionPool(connection);
         }
+        if(null != messageSelector && messageSelector.length() > 0)
+        {
+            try
+            {
+                messageFilter = SelectorCompiler.compile(messageSelector);
+            }
+            catch(InvalidSelectorException exc)
+            {
+                throw new RuntimeException("Error parsing message selector: " + exc.getMessage());
+            }
+        }
+        if((destination instanceof MockDestination) && null != serverSessionPool)
+        {
+            this.destination = (MockDestination)destination;
+            consumerThread = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    consumeMessages();
+                }
+            }, "mockrunner-connection-consumer-" + System.identityHashCode(this));
+            consumerThread.setDaemon(true);
+            consumerThread.start();
+        }
     }
-    
+
     /**
      * Returns if this connection consumer was closed.
      * @return <code>true</code> if this connection consumer is closed
@@ -32,12 +94,22 @@ public class MockConnectionConsumer implements ConnectionConsumer
     {
         return closed;
     }
-    
+
+    /**
+     * Returns the maximum number of messages that are loaded
+     * into a server session at once.
+     * @return the maximum number of messages
+     */
+    public int getMaxMessages()
+    {
+        return maxMessages;
+    }
+
     public void setServerSessionPool(ServerSessionPool serverSessionPool)
     {
         sessionPool = serverSessionPool;
     }
-    
+
     public ServerSessionPool getServerSessionPool() throws JMSException
     {
         connection.throwJMSException();
@@ -48,5 +120,71 @@ public class MockConnectionConsumer implements ConnectionConsumer
     {
         connection.throwJMSException();
         closed = true;
+        if(null != consumerThread)
+        {
+            consumerThread.interrupt();
+        }
+    }
+
+    private void consumeMessages()
+    {
+        try
+        {
+            while(!closed)
+            {
+                long sequence = destination.getMessageSequence();
+                if(destination.isEmpty() || !loadAndStart())
+                {
+                    destination.awaitMessage(sequence, POLL_NANOS);
+                }
+            }
+        }
+        catch(InterruptedException exc)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch(JMSException exc)
+        {
+            if(!closed)
+            {
+                connection.callExceptionListener(exc);
+                logger.error("Connection consumer stopped", exc);
+            }
+        }
+    }
+
+    private boolean loadAndStart() throws JMSException
+    {
+        ServerSession serverSession = sessionPool.getServerSession();
+        Session session = serverSession.getSession();
+        int loaded = 0;
+        if((session instanceof MockSession) && null != session.getMessageListener())
+        {
+            while(loaded < maxMessages && !closed)
+            {
+                Message message = getMessage();
+                if(null == message) break;
+                ((MockSession)session).loadMessage(message);
+                loaded++;
+            }
+        }
+        if(loaded > 0 || !(sessionPool instanceof MockServerSessionPool))
+        {
+            serverSession.start();
+        }
+        else
+        {
+            ((MockServerSessionPool)sessionPool).returnServerSession(serverSession);
+        }
+        return loaded > 0;
+    }
+
+    private Message getMessage()
+    {
+        if((!connection.getConfigurationManager().getUseMessageSelectors()) || (null == messageFilter))
+        {
+            return destination.getMessage();
+        }
+        return destination.getMatchingMessage(messageFilter);
     }
 }
@@ -1,33 +1,66 @@
 package com.mockrunner.mock.jms;
 
-import com.mockrunner.base.NestedApplicationException;
 import org.activemq.filter.mockrunner.Filter;
 
+import com.mockrunner.base.NestedApplicationException;
+import com.mockrunner.jms.MessageDispatchMode;
+import com.mockrunner.jms.MessageDispatcher;
+import com.mockrunner.jms.MessageRetentionPolicy;
+import com.mockrunner.jms.ReceivedMessageHistory;
+
 import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.Message;
+import javax.jms.MessageListener;
 import javax.jms.Session;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Mock implementation of JMS <code>Destination</code>.
  */
 public abstract class MockDestination implements Destination, Serializable
 {
+    private static final ThreadLocal CURRENT_DELIVERY = new ThreadLocal()
+    {
+        protected Object initialValue()
+        {
+            return new CurrentDelivery();
+        }
+    };
+    
     private Set sessions;
-    private List currentMessages;
-    private List receivedMessages;
+    private AtomicLong sessionVersion;
+    private volatile MessageStore currentMessages;
+    private ReceivedMessageHistory receivedMessages;
+    private volatile MessageDispatchMode dispatchMode;
+    private volatile MessageDispatcher dispatcher;
+    private ReentrantLock waitLock;
+    private Condition messageAdded;
+    private AtomicLong messageSequence;
+    private AtomicInteger waitingConsumers;
+    private volatile long lastActivityTime;
 
     public MockDestination()
     {
         sessions = new CopyOnWriteArraySet();
-        currentMessages = new CopyOnWriteArrayList();
-        receivedMessages = new CopyOnWriteArrayList();
+        sessionVersion = new AtomicLong();
+        currentMessages = new MessageStore();
+        receivedMessages = MessageRetentionPolicy.unbounded().createHistory(this);
+        dispatchMode = MessageDispatchMode.synchronous();
+        waitLock = new ReentrantLock(true);
+        messageAdded = waitLock.newCondition();
+        messageSequence = new AtomicLong();
+        waitingConsumers = new AtomicInteger();
+        lastActivityTime = System.currentTimeMillis();
     }
     
     /**
@@ -37,6 +70,23 @@ public abstract class MockDestination implements Destination, Serializable
      * @throws JMSException os case the message can not be added
      */
     public abstract void addMessage(Message message) throws JMSException;
+    
+    /**
+     * Adds messages and delivers them to the corresponding consumers.
+     * Used by transacted sessions to deliver the messages of a committed
+     * transaction. The default implementation calls {@link #addMessage}
+     * for each message. {@link MockQueue} and {@link MockTopic} look up
+     * the consumers only once for all messages.
+     * @param messages the messages
+     * @throws JMSException os case the messages can not be added
+     */
+    public void addMessages(List messages) throws JMSException
+    {
+        for(Object message : messages)
+        {
+            addMessage((Message)message);
+        }
+    }
  
     /**
      * Adds a message to the list of current messages in this
@@ -50,6 +100,87 @@ public abstract class MockDestination implements Destination, Serializable
         addCurrentMessage(message);
     }
     
+    /**
+     * Called when a consumer for this destination is created.
+     * Temporary destinations count their consumers.
+     */
+    void retain()
+    {
+        
+    }
+    
+    /**
+     * Called when a consumer for this destination is closed.
+     */
+    void release()
+    {
+        
+    }
+    
+    /**
+     * Removes the queue of a closed consumer from the dispatcher.
+     * The consumer is either a <code>MessageListener</code> or a
+     * {@link MockMessageConsumer}.
+     * @param consumer the consumer
+     */
+    void removeConsumer(Object consumer)
+    {
+        MessageDispatcher currentDispatcher = dispatcher;
+        if(null != currentDispatcher) currentDispatcher.removeConsumer(consumer);
+    }
+    
+    /**
+     * Keeps the current messages of this destination in the specified
+     * journal instead of the heap. The current messages are moved to
+     * the journal. Messages that are already contained in the journal,
+     * e.g. if it was opened on the directory of an earlier journal,
+     * become current messages of this destination. If <code>null</code>
+     * is specified, the messages of the journal are moved back to the
+     * heap and the journal is closed.
+     * Destinations created by the {@link com.mockrunner.jms.DestinationManager}
+     * use a journal, if a journal directory is set with
+     * {@link com.mockrunner.jms.ConfigurationManager#setJournalDirectory}.
+     * @param journal the journal or <code>null</code>
+     */
+    public synchronized void setJournal(MessageJournal journal)
+    {
+        MessageJournal currentJournal = getJournal();
+        if(journal == currentJournal) return;
+        MessageStore newMessages;
+        if(null == journal)
+        {
+            newMessages = new MessageStore();
+        }
+        else
+        {
+            journal.setDestination(this);
+            newMessages = new JournaledMessageStore(journal);
+        }
+        Message message;
+        while(null != (message = currentMessages.poll()))
+        {
+            newMessages.add(message);
+        }
+        currentMessages = newMessages;
+        if(null != currentJournal) currentJournal.close();
+        wakeUpWaitingConsumers();
+    }
+    
+    /**
+     * Returns the journal that keeps the current messages or
+     * <code>null</code>, if the messages are kept on the heap.
+     * @return the journal or <code>null</code>
+     */
+    public MessageJournal getJournal()
+    {
+        MessageStore messages = currentMessages;
+        if(messages instanceof JournaledMessageStore)
+        {
+            return ((JournaledMessageStore)messages).getJournal();
+        }
+        return null;
+    }
+    
     /**
      * Returns if this destination contains messages.
      * @return <code>false</code> if there's at least one message,
@@ -57,24 +188,28 @@ public abstract class MockDestination implements Destination, Serializable
      */
     public boolean isEmpty()
     {
-        return currentMessages.size() <= 0;
+        return currentMessages.isEmpty();
     }
 
     /**
-     * Clears all current messages.
+     * Clears all current messages and shuts down the dispatcher,
+     * see {@link #shutdownMessageDispatcher}.
      */
     public void clear()
     {
         currentMessages.clear();
+        shutdownMessageDispatcher();
     }
 
     /**
-     * Clears all current messages and resets the list of received messages.
+     * Clears all current messages, resets the list of received messages
+     * and shuts down the dispatcher, see {@link #shutdownMessageDispatcher}.
      */
     public void reset()
     {
         currentMessages.clear();
         receivedMessages.clear();
+        shutdownMessageDispatcher();
     }
 
     /**
@@ -85,36 +220,21 @@ public abstract class MockDestination implements Destination, Serializable
      */
     public Message getMessage()
     {
-        if(currentMessages.size() <= 0) return null;
-        return (Message)currentMessages.remove(0);
+        return touch(currentMessages.poll());
     }
     
     /**
      * Returns the next message that matches the filter. 
      * The message will be removed from the list of current messages. 
      * If there's no matching message, <code>null</code> will be returned.
+     * If the filter requires a property to be equal to a string,
+     * only messages with this property value are evaluated.
      * @param filter the message filter
      * @return the <code>Message</code>
      */
     public Message getMatchingMessage(Filter filter)
     {
-        for(int ii = 0; ii < currentMessages.size(); ii++)
-        {
-            Message currentMessage = (Message)currentMessages.get(ii);
-            try
-            {
-                if(filter.matches(currentMessage))
-                {
-                    currentMessages.remove(ii);
-                    return currentMessage;
-                }
-            }
-            catch(JMSException exc)
-            {
-                throw new NestedApplicationException(exc);
-            }
-        }
-        return null;
+        return touch(currentMessages.poll(filter));
     }
 
     /**
@@ -123,25 +243,142 @@ public abstract class MockDestination implements Destination, Serializable
      */
     public List getCurrentMessageList()
     {
-        return Collections.unmodifiableList(currentMessages);
+        return currentMessages.asList();
     }
 
     /**
      * Returns a <code>List</code> of all received messages.
+     * Depending on the {@link MessageRetentionPolicy}, the
+     * list may not contain all received messages, see
+     * {@link #getEvictedMessageCount}.
+     * The list is a live view, use {@link #getReceivedMessageSnapshot}
+     * if messages are received by other threads while the list is used.
      * @return the <code>List</code> of messages
      */
     public List getReceivedMessageList()
     {
-        return Collections.unmodifiableList(receivedMessages);
+        return receivedMessages.getMessages();
+    }
+
+    /**
+     * Returns a copy of the <code>List</code> of received messages.
+     * In contrast to {@link #getReceivedMessageList}, the copy can
+     * be iterated while other threads receive messages.
+     * @return the <code>List</code> of messages
+     */
+    public List getReceivedMessageSnapshot()
+    {
+        return receivedMessages.getMessageSnapshot();
+    }
+
+    /**
+     * Returns the total number of received messages, including
+     * the messages that were evicted from the list of received messages.
+     * @return the number of received messages
+     */
+    public long getReceivedMessageCount()
+    {
+        return receivedMessages.getReceivedCount();
+    }
+    
+    /**
+     * Returns the number of received messages that are not
+     * contained in the list of received messages anymore,
+     * because of the {@link MessageRetentionPolicy}.
+     * @return the number of evicted messages
+     */
+    public long getEvictedMessageCount()
+    {
+        return receivedMessages.getEvictedCount();
+    }
+    
+    /**
+     * Returns the policy for the list of received messages.
+     * @return the policy
+     */
+    public MessageRetentionPolicy getMessageRetentionPolicy()
+    {
+        return receivedMessages.getPolicy();
+    }
+    
+    /**
+     * Sets the policy for the list of received messages.
+     * The current list of received messages is reset.
+     * Destinations created by the {@link com.mockrunner.jms.DestinationManager}
+     * or by a session use the policy of the
+     * {@link com.mockrunner.jms.ConfigurationManager}.
+     * @param policy the policy
+     */
+    public void setMessageRetentionPolicy(MessageRetentionPolicy policy)
+    {
+        receivedMessages = policy.createHistory(this);
     }
 
+    /**
+     * Returns the mode for delivering messages to listeners.
+     * @return the mode
+     */
+    public MessageDispatchMode getMessageDispatchMode()
+    {
+        return dispatchMode;
+    }
+    
+    /**
+     * Sets the mode for delivering messages to listeners.
+     * Destinations created by the {@link com.mockrunner.jms.DestinationManager}
+     * or by a session use the mode of the
+     * {@link com.mockrunner.jms.ConfigurationManager}.
+     * @param dispatchMode the mode
+     */
+    public void setMessageDispatchMode(MessageDispatchMode dispatchMode)
+    {
+        MessageDispatcher oldDispatcher;
+        synchronized(this)
+        {
+            this.dispatchMode = dispatchMode;
+            oldDispatcher = dispatcher;
+            dispatcher = null;
+        }
+        if(null != oldDispatcher) oldDispatcher.shutdown();
+    }
+    
+    /**
+     * Returns the dispatcher that delivers messages asynchronously
+     * or <code>null</code>, if the messages are delivered synchronously
+     * or no message was delivered yet.
+     * @return the dispatcher
+     */
+    public MessageDispatcher getMessageDispatcher()
+    {
+        return dispatcher;
+    }
+    
+    /**
+     * Shuts down the executor of the dispatcher, if there is one.
+     * Messages that are already dispatched are still delivered.
+     * The next message creates a new dispatcher. Called by
+     * {@link #clear}, {@link #reset} and by the
+     * {@link com.mockrunner.jms.DestinationManager}, when the
+     * destination is removed.
+     */
+    public void shutdownMessageDispatcher()
+    {
+        MessageDispatcher oldDispatcher;
+        synchronized(this)
+        {
+            oldDispatcher = dispatcher;
+            dispatcher = null;
+        }
+        if(null != oldDispatcher) oldDispatcher.shutdown();
+    }
+    
     /**
      * Adds a <code>Session</code>.
      * @param session the session
      */
     public void addSession(Session session)
     {
-        sessions.add(session);
+        if(sessions.add(session)) sessionVersion.incrementAndGet();
     }
     
     /**
@@ -150,7 +387,7 @@ public abstract class MockDestination implements Destination, Serializable
      */
     public void removeSession(Session session)
     {
-        sessions.remove(session);
+        if(sessions.remove(session)) sessionVersion.incrementAndGet();
     }
     
     /**
@@ -162,14 +399,349 @@ public abstract class MockDestination implements Destination, Serializable
         return Collections.unmodifiableSet(sessions);
     }
     
+    /**
+     * Returns if there are sessions, i.e. if a message may
+     * be delivered immediately.
+     * @return <code>true</code> if there are sessions
+     */
+    boolean hasSessions()
+    {
+        return !sessions.isEmpty();
+    }
+    
+    /**
+     * Returns a number that changes whenever a session is added
+     * or removed, so routing information that was built from the
+     * sessions can be reused until the number changes.
+     * @return the session version
+     */
+    long getSessionVersion()
+    {
+        return sessionVersion.get();
+    }
+    
+    /**
+     * Returns the number of current messages.
+     * @return the number of current messages
+     */
+    public int getNumberCurrentMessages()
+    {
+        return currentMessages.size();
+    }
+    
+    /**
+     * Returns the time of the last message that was received by
+     * this destination or removed from it. Used by the
+     * {@link com.mockrunner.jms.DestinationManager} to evict
+     * idle destinations.
+     * @return the time in milliseconds
+     */
+    public long getLastActivityTime()
+    {
+        return lastActivityTime;
+    }
+    
     protected void addReceivedMessage(Message message)
     {
+        lastActivityTime = System.currentTimeMillis();
         receivedMessages.add(message);
     }
     
+    private Message touch(Message message)
+    {
+        if(null != message) lastActivityTime = System.currentTimeMillis();
+        return message;
+    }
+    
     protected void addCurrentMessage(Message message)
     {
         currentMessages.add(message);
+        signalMessagesAdded(1);
+    }
+    
+    protected void addCurrentMessages(List messages)
+    {
+        if(messages.isEmpty()) return;
+        for(Object message : messages)
+        {
+            currentMessages.add((Message)message);
+        }
+        signalMessagesAdded(messages.size());
+    }
+    
+    /**
+     * Puts messages back before all other current messages,
+     * in their order, e.g. when a transaction is rolled back.
+     * @param messages the messages
+     */
+    void requeueMessages(List messages)
+    {
+        if(messages.isEmpty()) return;
+        currentMessages.addFirst(messages);
+        signalMessagesAdded(messages.size());
+    }
+    
+    /**
+     * Redelivers a message, that was put back with {@link #requeueMessages},
+     * to a consumer. If the current thread is delivering a message,
+     * e.g. because a <code>MessageListener</code> rolled back its session,
+     * the message is redelivered after the current delivery, so the listener
+     * is not called recursively. The message is not redelivered, if it was
+     * taken from the destination in the meantime.
+     * @param consumer the consumer
+     * @param message the message
+     * @param session the session
+     * @throws JMSException if the message cannot be delivered
+     */
+    void redeliverMessage(Object consumer, Message message, MockSession session) throws JMSException
+    {
+        CurrentDelivery currentDelivery = (CurrentDelivery)CURRENT_DELIVERY.get();
+        if(currentDelivery.depth > 0)
+        {
+            currentDelivery.pending.add(new PendingDelivery(this, consumer, message, session));
+            return;
+        }
+        redeliverNow(consumer, message, session);
+    }
+    
+    private void redeliverNow(Object consumer, Message message, MockSession session) throws JMSException
+    {
+        if(consumer instanceof MockMessageConsumer && !((MockMessageConsumer)consumer).isListening()) return;
+        if(!currentMessages.remove(message)) return;
+        deliverMessage(consumer, message, session);
+    }
+    
+    /**
+     * Returns a number that changes whenever a message is added
+     * to the list of current messages. A consumer gets the number
+     * before it looks for a message and passes it to
+     * {@link #awaitMessage}, so it does not miss a message that is
+     * added in between.
+     * @return the message sequence number
+     */
+    long getMessageSequence()
+    {
+        return messageSequence.get();
+    }
+    
+    /**
+     * Waits until a message is added after the specified
+     * sequence number was obtained, the consumers are woken up
+     * with {@link #wakeUpWaitingConsumers} or the timeout elapses.
+     * Waiting consumers are woken up in the order they started waiting.
+     * @param sequence the sequence number obtained with {@link #getMessageSequence}
+     * @param timeoutNanos the maximum time to wait in nanoseconds
+     * @return <code>true</code> if a message was added or the consumers
+     *         were woken up, <code>false</code> if the timeout elapsed
+     * @throws InterruptedException if the thread is interrupted
+     */
+    boolean awaitMessage(long sequence, long timeoutNanos) throws InterruptedException
+    {
+        waitingConsumers.incrementAndGet();
+        try
+        {
+            waitLock.lockInterruptibly();
+            try
+            {
+                while(sequence == messageSequence.get())
+                {
+                    if(timeoutNanos <= 0) return false;
+                    timeoutNanos = messageAdded.awaitNanos(timeoutNanos);
+                }
+                return true;
+            }
+            finally
+            {
+                waitLock.unlock();
+            }
+        }
+        finally
+        {
+            waitingConsumers.decrementAndGet();
+        }
+    }
+    
+    /**
+     * Wakes up one consumer waiting in {@link #awaitMessage} per
+     * added message, because each message is taken by one consumer.
+     * The lock is only acquired if there are waiting consumers.
+     * @param numberOfMessages the number of added messages
+     */
+    void signalMessagesAdded(int numberOfMessages)
+    {
+        messageSequence.incrementAndGet();
+        int waiting = waitingConsumers.get();
+        if(waiting == 0) return;
+        waitLock.lock();
+        try
+        {
+            for(int ii = 0; ii < Math.min(waiting, numberOfMessages); ii++)
+            {
+                messageAdded.signal();
+            }
+        }
+        finally
+        {
+            waitLock.unlock();
+        }
+    }
+    
+    /**
+     * Passes a wake up on to the next waiting consumer. Called by
+     * a consumer that was woken up, but did not take a message,
+     * e.g. because the message does not match its selector.
+     */
+    void signalNextConsumer()
+    {
+        if(waitingConsumers.get() == 0) return;
+        waitLock.lock();
+        try
+        {
+            messageAdded.signal();
+        }
+        finally
+        {
+            waitLock.unlock();
+        }
+    }
+    
+    /**
+     * Wakes up all consumers waiting in {@link #awaitMessage},
+     * e.g. when a consumer is closed.
+     * The lock is only acquired if there are waiting consumers.
+     */
+    void wakeUpWaitingConsumers()
+    {
+        messageSequence.incrementAndGet();
+        if(waitingConsumers.get() == 0) return;
+        waitLock.lock();
+        try
+        {
+            messageAdded.signalAll();
+        }
+        finally
+        {
+            waitLock.unlock();
+        }
+    }
+    
+    /**
+     * Delivers a message to a consumer and acknowledges it, if the
+     * session is auto acknowledge. If the session batches transactions,
+     * the message is added to the transaction before the consumer is
+     * called and acknowledged when the transaction is committed.
+     * The consumer is either a
+     * <code>MessageListener</code> or a {@link MockMessageConsumer}.
+     * Depending on the {@link MessageDispatchMode}, the message is
+     * delivered by the current thread or asynchronously.
+     * @param consumer the consumer
+     * @param message the message
+     * @param session the session
+     * @throws JMSException if the message cannot be delivered
+     */
+    protected void deliverMessage(final Object consumer, final Message message, final MockSession session) throws JMSException
+    {
+        MessageDispatcher currentDispatcher = getOrCreateDispatcher();
+        if(null == currentDispatcher)
+        {
+            deliverNow(consumer, message, session);
+            return;
+        }
+        try
+        {
+            currentDispatcher.dispatch(consumer, new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        deliverNow(consumer, message, session);
+                    }
+                    catch(JMSException exc)
+                    {
+                        throw new NestedApplicationException(exc);
+                    }
+                }
+            });
+        }
+        catch(InterruptedException exc)
+        {
+            Thread.currentThread().interrupt();
+            throw new JMSException("Interrupted while waiting for the consumer");
+        }
+    }
+    
+    private MessageDispatcher getOrCreateDispatcher()
+    {
+        if(dispatchMode.isSynchronous()) return null;
+        MessageDispatcher currentDispatcher = dispatcher;
+        if(null != currentDispatcher) return currentDispatcher;
+        synchronized(this)
+        {
+            if(dispatchMode.isSynchronous()) return null;
+            if(null == dispatcher)
+            {
+                dispatcher = dispatchMode.createDispatcher(getDispatcherName());
+            }
+            return dispatcher;
+        }
+    }
+    
+    private String getDispatcherName()
+    {
+        try
+        {
+            if(this instanceof MockQueue) return ((MockQueue)this).getQueueName();
+            if(this instanceof MockTopic) return ((MockTopic)this).getTopicName();
+        }
+        catch(JMSException exc)
+        {
+            
+        }
+        return getClass().getSimpleName();
+    }
+    
+    /**
+     * Messages that are redelivered while the consumer is called
+     * are delivered by the outermost delivery of the thread,
+     * after the consumer returned. The state of the thread is
+     * reused, so a delivery does not allocate it.
+     */
+    private void deliverNow(Object consumer, Message message, MockSession session) throws JMSException
+    {
+        boolean staged = session.stageConsumedMessage(this, consumer, message);
+        CurrentDelivery currentDelivery = (CurrentDelivery)CURRENT_DELIVERY.get();
+        boolean outermost = (0 == currentDelivery.depth);
+        currentDelivery.depth++;
+        try
+        {
+            invokeConsumer(consumer, message);
+            if(!staged) acknowledgeMessage(message, session);
+            if(!outermost) return;
+            List pending = currentDelivery.pending;
+            while(!pending.isEmpty())
+            {
+                PendingDelivery delivery = (PendingDelivery)pending.remove(0);
+                delivery.destination.redeliverNow(delivery.consumer, delivery.message, delivery.session);
+            }
+        }
+        finally
+        {
+            currentDelivery.depth--;
+            if(outermost) currentDelivery.pending.clear();
+        }
+    }
+    
+    private static void invokeConsumer(Object consumer, Message message)
+    {
+        if(consumer instanceof MockMessageConsumer)
+        {
+            ((MockMessageConsumer)consumer).receiveMessage(message);
+        }
+        else
+        {
+            ((MessageListener)consumer).onMessage(message);
+        }
     }
     
     protected void acknowledgeMessage(Message message, MockSession session) throws JMSException
@@ -179,4 +751,26 @@ public abstract class MockDestination implements Destination, Serializable
             message.acknowledge();
         }
     }
+    
+    private static class CurrentDelivery
+    {
+        private int depth = 0;
+        private List pending = new ArrayList();
+    }
+    
+    private static class PendingDelivery
+    {
+        private MockDestination destination;
+        private Object consumer;
+        private Message message;
+        private MockSession session;
+        
+        public PendingDelivery(MockDestination destination, Object consumer, Message message, MockSession session)
+        {
+            this.destination = destination;
+            this.consumer = consumer;
+            this.message = message;
+            this.session = session;
+        }
+    }
 }
@@ -1,11 +1,8 @@
 package com.mockrunner.mock.jms;
 
-import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Vector;
 
 import javax.jms.JMSException;
 import javax.jms.MapMessage;
@@ -19,179 +16,139 @@ import com.mockrunner.util.common.ArrayUtil;
  */
 public class MockMapMessage extends MockMessage implements MapMessage
 {
-    private Map data;
+    private PropertyStore data;
+    private boolean dataShared;
     
     public MockMapMessage()
     {
-        data = new HashMap();
+        data = new PropertyStore();
+        dataShared = false;
     }
 
     public boolean getBoolean(String name) throws JMSException
     {
-        Object value = getObject(name);
-        if(null == value)
+        int index = getExistingIndex(name);
+        switch(data.getType(index))
         {
-            throw new MessageFormatException(getNullPropertyMessage(name));
-        }
-        if(value instanceof Boolean)
-        {
-            return (Boolean) value;
-        }
-        if(value instanceof String)
-        {
-            return Boolean.valueOf((String) value);
+            case PropertyStore.BOOLEAN: return data.getBoolean(index);
+            case PropertyStore.STRING: return Boolean.valueOf((String)data.getObject(index));
         }
-        throw new MessageFormatException(value.getClass().getName() + " cannot be converted to boolean");
+        throw new MessageFormatException(data.getTypeName(index) + " cannot be converted to boolean");
     }
 
     public byte getByte(String name) throws JMSException
     {
-        Object value = getObject(name);
-        if(null == value)
-        {
-            throw new MessageFormatException(getNullPropertyMessage(name));
-        }
-        if(value instanceof Byte)
-        {
-            return (Byte) value;
-        }
-        if(value instanceof String)
+        int index = getExistingIndex(name);
+        switch(data.getType(index))
         {
-            return Byte.valueOf((String) value);
+            case PropertyStore.BYTE: return (byte)data.getLong(index);
+            case PropertyStore.STRING: return Byte.valueOf((String)data.getObject(index));
         }
-        throw new MessageFormatException(value.getClass().getName() + " cannot be converted to byte");
+        throw new MessageFormatException(data.getTypeName(index) + " cannot be converted to byte");
     }
 
     public short getShort(String name) throws JMSException
     {
-        Object value = getObject(name);
-        if(null == value)
+        int index = getExistingIndex(name);
+        switch(data.getType(index))
         {
-            throw new MessageFormatException(getNullPropertyMessage(name));
-        }
-        if((value instanceof Byte) || (value instanceof Short))
-        {
-            return ((Number)value).shortValue();
-        }
-        if(value instanceof String)
-        {
-            return Short.valueOf((String) value);
+            case PropertyStore.BYTE:
+            case PropertyStore.SHORT: return (short)data.getLong(index);
+            case PropertyStore.STRING: return Short.valueOf((String)data.getObject(index));
         }
-        throw new MessageFormatException(value.getClass().getName() + " cannot be converted to short");
+        throw new MessageFormatException(data.getTypeName(index) + " cannot be converted to short");
     }
 
     public char getChar(String name) throws JMSException
     {
-        Object value = getObject(name);
-        if(null == value)
+        int index = data.indexOf(name);
+        if(index < 0 || PropertyStore.NULL == data.getType(index))
         {
             throw new NullPointerException();
         }
-        if(!(value instanceof Character))
+        if(PropertyStore.CHAR != data.getType(index))
         {
-            throw new MessageFormatException(value.getClass().getName() + " cannot be converted to char");
+            throw new MessageFormatException(data.getTypeName(index) + " cannot be converted to char");
         }
-        return (Character) value;
+        return (char)data.getLong(index);
     }
 
     public int getInt(String name) throws JMSException
     {
-        Object value = getObject(name);
-        if(null == value)
-        {
-            throw new MessageFormatException(getNullPropertyMessage(name));
-        }
-        if((value instanceof Byte) || (value instanceof Short) || (value instanceof Integer))
-        {
-            return ((Number)value).intValue();
-        }
-        if(value instanceof String)
+        int index = getExistingIndex(name);
+        switch(data.getType(index))
         {
-            return Integer.valueOf((String) value);
+            case PropertyStore.BYTE:
+            case PropertyStore.SHORT:
+            case PropertyStore.INT: return (int)data.getLong(index);
+            case PropertyStore.STRING: return Integer.valueOf((String)data.getObject(index));
         }
-        throw new MessageFormatException(value.getClass().getName() + " cannot be converted to int");
+        throw new MessageFormatException(data.getTypeName(index) + " cannot be converted to int");
     }
 
     public long getLong(String name) throws JMSException
     {
-        Object value = getObject(name);
-        if(null == value)
+        int index = getExistingIndex(name);
+        switch(data.getType(index))
         {
-            throw new MessageFormatException(getNullPropertyMessage(name));
-        }
-        if((value instanceof Byte) || (value instanceof Short) || (value instanceof Integer) || (value instanceof Long))
-        {
-            return ((Number)value).longValue();
-        }
-        if(value instanceof String)
-        {
-            return Long.valueOf((String) value);
+            case PropertyStore.BYTE:
+            case PropertyStore.SHORT:
+            case PropertyStore.INT:
+            case PropertyStore.LONG: return data.getLong(index);
+            case PropertyStore.STRING: return Long.valueOf((String)data.getObject(index));
         }
-        throw new MessageFormatException(value.getClass().getName() + " cannot be converted to long");
+        throw new MessageFormatException(data.getTypeName(index) + " cannot be converted to long");
     }
 
     public float getFloat(String name) throws JMSException
     {
-        Object value = getObject(name);
-        if(null == value)
-        {
-            throw new MessageFormatException(getNullPropertyMessage(name));
-        }
-        if(value instanceof Float)
-        {
-            return (Float) value;
-        }
-        if(value instanceof String)
+        int index = getExistingIndex(name);
+        switch(data.getType(index))
         {
-            return Float.valueOf((String) value);
+            case PropertyStore.FLOAT: return (float)data.getDouble(index);
+            case PropertyStore.STRING: return Float.valueOf((String)data.getObject(index));
         }
-        throw new MessageFormatException(value.getClass().getName() + " cannot be converted to float");
+        throw new MessageFormatException(data.getTypeName(index) + " cannot be converted to float");
     }
 
     public double getDouble(String name) throws JMSException
     {
-        Object value = getObject(name);
-        if(null == value)
+        int index = getExistingIndex(name);
+        switch(data.getType(index))
         {
-            throw new MessageFormatException(getNullPropertyMessage(name));
-        }
-        if((value instanceof Double) || (value instanceof Float))
-        {
-            return ((Number)value).doubleValue();
-        }
-        if(value instanceof String)
-        {
-            return Double.valueOf((String) value);
+            case PropertyStore.DOUBLE:
+            case PropertyStore.FLOAT: return data.getDouble(index);
+            case PropertyStore.STRING: return Double.valueOf((String)data.getObject(index));
         }
-        throw new MessageFormatException(value.getClass().getName() + " cannot be converted to double");
+        throw new MessageFormatException(data.getTypeName(index) + " cannot be converted to double");
     }
 
     public String getString(String name) throws JMSException
     {
-        Object value = getObject(name);
-        if(null == value)
+        int index = data.indexOf(name);
+        if(index < 0 || PropertyStore.NULL == data.getType(index))
         {
             return null;
         }
-        if(value instanceof byte[])
+        if(PropertyStore.BYTES == data.getType(index))
         {
-            throw new MessageFormatException(value.getClass().getName() + " cannot be converted to String");
+            throw new MessageFormatException(data.getTypeName(index) + " cannot be converted to String");
         }
-        return value.toString();
+        return data.getObject(index).toString();
     }
 
     public byte[] getBytes(String name) throws JMSException
     {
-        Object value = getObject(name);
-        if(null == value)
+        int index = data.indexOf(name);
+        if(index < 0 || PropertyStore.NULL == data.getType(index))
         {
             throw new NullPointerException();
         }
-        if(!(value instanceof byte[]))
+        if(PropertyStore.BYTES != data.getType(index))
         {
-            throw new MessageFormatException(value.getClass().getName() + " cannot be converted to byte[]");
+            throw new MessageFormatException(data.getTypeName(index) + " cannot be converted to byte[]");
         }
-        return (byte[])value;
+        return (byte[])data.getObject(index);
     }
 
     public Object getObject(String name) throws JMSException
@@ -201,47 +158,55 @@ public class MockMapMessage extends MockMessage implements MapMessage
 
     public Enumeration getMapNames() throws JMSException
     {
-        return new Vector(data.keySet()).elements();
+        return data.names();
     }
 
     public void setBoolean(String name, boolean value) throws JMSException
     {
-        setObject(name, value);
+        checkWrite(name);
+        getWritableData().putBoolean(name, value);
     }
 
     public void setByte(String name, byte value) throws JMSException
     {
-        setObject(name, value);
+        checkWrite(name);
+        getWritableData().putByte(name, value);
     }
 
     public void setShort(String name, short value) throws JMSException
     {
-        setObject(name, value);
+        checkWrite(name);
+        getWritableData().putShort(name, value);
     }
 
     public void setChar(String name, char value) throws JMSException
     {
-        setObject(name, value);
+        checkWrite(name);
+        getWritableData().putChar(name, value);
     }
 
     public void setInt(String name, int value) throws JMSException
     {
-        setObject(name, value);
+        checkWrite(name);
+        getWritableData().putInt(name, value);
     }
 
     public void setLong(String name, long value) throws JMSException
     {
-        setObject(name, value);
+        checkWrite(name);
+        getWritableData().putLong(name, value);
     }
 
     public void setFloat(String name, float value) throws JMSException
     {
-        setObject(name, value);
+        checkWrite(name);
+        getWritableData().putFloat(name, value);
     }
 
     public void setDouble(String name, double value) throws JMSException
     {
-        setObject(name, value);
+        checkWrite(name);
+        getWritableData().putDouble(name, value);
     }
 
     public void setString(String name, String value) throws JMSException
@@ -267,17 +232,10 @@ public class MockMapMessage extends MockMessage implements MapMessage
 
     public void setObject(String name, Object object) throws JMSException
     {
-        if(!isInWriteMode())
-        {
-            throw new MessageNotWriteableException("Message is in read mode");
-        }
-        if(null == name || name.length() <= 0)
-        {
-            throw new IllegalArgumentException("Property names must not be null or empty strings");
-        }
+        checkWrite(name);
         if((null == object) || (object instanceof Number) || (object instanceof Boolean) || (object instanceof Character) || (object instanceof String) || (object instanceof byte[]))
         {
-            data.put(name, object);
+            getWritableData().put(name, object);
             return;
         }
         throw new MessageFormatException(object.getClass().getName() + " not a valid type");
@@ -285,13 +243,14 @@ public class MockMapMessage extends MockMessage implements MapMessage
 
     public boolean itemExists(String name) throws JMSException
     {
-        return data.containsKey(name);
+        return data.contains(name);
     }
     
     public void clearBody() throws JMSException
     {
         super.clearBody();
-        data.clear();
+        data = new PropertyStore();
+        dataShared = false;
     }
     
     /**
@@ -303,7 +262,7 @@ public class MockMapMessage extends MockMessage implements MapMessage
     public Map getMap()
     {
         Map map = new HashMap();
-        copyDataToMap(map);
+        data.copyTo(map, true);
         return map;
     }
     
@@ -315,56 +274,66 @@ public class MockMapMessage extends MockMessage implements MapMessage
         if(null == otherObject) return false;
         if(!(otherObject instanceof MockMapMessage)) return false;
         MockMapMessage otherMessage = (MockMapMessage)otherObject;
-        if(data.size() != otherMessage.data.size()) return false;
-        for (Object nextKey : data.keySet()) {
-            Object nextValue = data.get(nextKey);
-            Object otherValue = otherMessage.data.get(nextKey);
-            if (null == nextValue) {
-                if (null != otherValue) return false;
-            } else if (nextValue instanceof byte[]) {
-                if (null == otherValue) return false;
-                if (!(otherValue instanceof byte[])) return false;
-                if (!Arrays.equals((byte[]) nextValue, (byte[]) otherValue)) return false;
-            } else {
-                if (!nextValue.equals(otherValue)) return false;
-            }
-        }
-        return true;
+        return data.equalEntries(otherMessage.data);
     }
 
     public int hashCode()
     {
-        int value = 17;
-        for (Object nextValue : data.values()) {
-            if (nextValue instanceof byte[]) {
-                for (int ii = 0; ii < ((byte[]) nextValue).length; ii++) {
-                    value = (31 * value) + ((byte[]) nextValue)[ii];
-                }
-            } else if (nextValue != null) {
-                value = (31 * value) + nextValue.hashCode();
-            }
-        }
-        return value;
+        return data.valueHashCode();
     }
     
     public Object clone()
     {
         MockMapMessage message = (MockMapMessage)super.clone();
-        message.data = new HashMap(data.size());
-        copyDataToMap(message.data);
+        message.data = data.copy();
+        message.data.cloneBytes();
+        message.dataShared = false;
+        return message;
+    }
+    
+    /**
+     * Clones this message and shares the map data with the clone.
+     * The data is copied by the message that changes it first.
+     * Byte arrays returned by {@link #getObject} are shared, too.
+     */
+    public MockMessage copyOnWriteClone()
+    {
+        MockMapMessage message = (MockMapMessage)super.copyOnWriteClone();
+        dataShared = true;
+        message.dataShared = true;
         return message;
     }
     
-    private void copyDataToMap(Map target)
-    {
-        for (Object nextKey : data.keySet()) {
-            Object nextValue = data.get(nextKey);
-            if (nextValue instanceof byte[]) {
-                target.put(nextKey, ((byte[]) nextValue).clone());
-            } else {
-                target.put(nextKey, nextValue);
-            }
+    private PropertyStore getWritableData()
+    {
+        if(dataShared)
+        {
+            data = data.copy();
+            dataShared = false;
+        }
+        return data;
+    }
+    
+    private void checkWrite(String name) throws JMSException
+    {
+        if(!isInWriteMode())
+        {
+            throw new MessageNotWriteableException("Message is in read mode");
+        }
+        if(null == name || name.length() <= 0)
+        {
+            throw new IllegalArgumentException("Property names must not be null or empty strings");
+        }
+    }
+    
+    private int getExistingIndex(String name) throws JMSException
+    {
+        int index = data.indexOf(name);
+        if(index < 0 || PropertyStore.NULL == data.getType(index))
+        {
+            throw new MessageFormatException(getNullPropertyMessage(name));
         }
+        return index;
     }
     
     public String toString()
@@ -3,9 +3,6 @@ package com.mockrunner.mock.jms;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Vector;
 
 import javax.jms.DeliveryMode;
 import javax.jms.Destination;
@@ -15,6 +12,7 @@ import javax.jms.MessageFormatException;
 import javax.jms.MessageNotWriteableException;
 
 import com.mockrunner.base.NestedApplicationException;
+import com.mockrunner.jms.MessageIdGenerator;
 
 /**
  * Mock implementation of JMS <code>Message</code>.
@@ -22,17 +20,21 @@ import com.mockrunner.base.NestedApplicationException;
 public class MockMessage implements Message, Cloneable, Serializable
 {
     private String messageId;
+    private MessageIdGenerator messageIdGenerator;
+    private long messageIdSequence;
     private long timestamp;
     private String correlationId;
     private Destination replyTo;
     private Destination destination;
     private int deliveryMode;
     private boolean redelivered;
+    private int redeliveryCount;
     private String type;
     private long expiration;
     private int priority;
     private boolean acknowledged;
-    private Map properties;
+    private PropertyStore properties;
+    private boolean propertiesShared;
     private boolean isInWriteMode;
     private boolean isInWriteModeProperties;
     
@@ -42,10 +44,12 @@ public class MockMessage implements Message, Cloneable, Serializable
         timestamp = System.currentTimeMillis();
         deliveryMode = DeliveryMode.PERSISTENT;
         redelivered = false;
+        redeliveryCount = 0;
         expiration = 0;
         priority = 4;
         acknowledged = false;
-        properties = new HashMap();
+        properties = new PropertyStore();
+        propertiesShared = false;
         isInWriteMode = true;
         isInWriteModeProperties = true;
     }
@@ -57,12 +61,32 @@ public class MockMessage implements Message, Cloneable, Serializable
     
     public String getJMSMessageID() throws JMSException
     {
+        if(null == messageId && null != messageIdGenerator)
+        {
+            messageId = messageIdGenerator.format(messageIdSequence);
+        }
         return messageId;
     }
 
     public void setJMSMessageID(String messageId) throws JMSException
     {
         this.messageId = messageId;
+        messageIdGenerator = null;
+    }
+    
+    /**
+     * Sets the <code>JMSMessageID</code> to the id with the specified
+     * sequence number. The id is created with
+     * {@link MessageIdGenerator#format}, when it is requested
+     * with {@link #getJMSMessageID}.
+     * @param generator the generator
+     * @param sequence the sequence number
+     */
+    public void setJMSMessageID(MessageIdGenerator generator, long sequence)
+    {
+        messageId = null;
+        messageIdGenerator = generator;
+        messageIdSequence = sequence;
     }
 
     public long getJMSTimestamp() throws JMSException
@@ -156,6 +180,21 @@ public class MockMessage implements Message, Cloneable, Serializable
     {
         this.redelivered = redelivered;
     }
+    
+    /**
+     * Returns how often this message was put back to its
+     * destination, because a transacted session was rolled back.
+     * @return the number of redeliveries
+     */
+    public int getRedeliveryCount()
+    {
+        return redeliveryCount;
+    }
+    
+    int incrementRedeliveryCount()
+    {
+        return ++redeliveryCount;
+    }
 
     public String getJMSType() throws JMSException
     {
@@ -190,138 +229,101 @@ public class MockMessage implements Message, Cloneable, Serializable
     public void clearProperties() throws JMSException
     {
         isInWriteModeProperties = true;
-        properties.clear();
+        properties = new PropertyStore();
+        propertiesShared = false;
     }
 
     public boolean propertyExists(String name) throws JMSException
     {
-        return properties.containsKey(name);
+        return properties.contains(name);
     }
 
     public boolean getBooleanProperty(String name) throws JMSException
     {
-        Object value = getObjectProperty(name);
-        if(value == null)
+        int index = properties.indexOf(name);
+        if(index < 0)
         {
             return false;
         }
-        if(value instanceof String)
-        {
-            return Boolean.valueOf((String) value);
-        }
-        if(value instanceof Boolean)
+        switch(properties.getType(index))
         {
-            return (Boolean) value;
+            case PropertyStore.STRING: return Boolean.valueOf((String)properties.getObject(index));
+            case PropertyStore.BOOLEAN: return properties.getBoolean(index);
         }
-        throw new MessageFormatException("Cannot convert property " + name + " of type " + value.getClass().getName() + " to boolean");
+        throw new MessageFormatException(getConversionMessage(name, index, "boolean"));
     }
 
     public byte getByteProperty(String name) throws JMSException
     {
-        Object value = getObjectProperty(name);
-        if(value == null)
-        {
-            throw new MessageFormatException(getNullPropertyMessage(name));
-        }
-        if(value instanceof String)
+        int index = getExistingPropertyIndex(name);
+        switch(properties.getType(index))
         {
-            return Byte.valueOf((String) value);
+            case PropertyStore.STRING: return Byte.valueOf((String)properties.getObject(index));
+            case PropertyStore.BYTE: return (byte)properties.getLong(index);
         }
-        if(value instanceof Byte)
-        {
-            return ((Number)value).byteValue();
-        }
-        throw new MessageFormatException("Cannot convert property " + name + " of type " + value.getClass().getName() + " to byte");
+        throw new MessageFormatException(getConversionMessage(name, index, "byte"));
     }
 
     public short getShortProperty(String name) throws JMSException
     {
-        Object value = getObjectProperty(name);
-        if(value == null)
+        int index = getExistingPropertyIndex(name);
+        switch(properties.getType(index))
         {
-            throw new MessageFormatException(getNullPropertyMessage(name));
-        }
-        if(value instanceof String)
-        {
-            return Short.valueOf((String) value);
+            case PropertyStore.STRING: return Short.valueOf((String)properties.getObject(index));
+            case PropertyStore.SHORT:
+            case PropertyStore.BYTE: return (short)properties.getLong(index);
         }
-        if((value instanceof Short) || (value instanceof Byte))
-        {
-            return ((Number)value).shortValue();
-        }
-        throw new MessageFormatException("Cannot convert property " + name + " of type " + value.getClass().getName() + " to short");
+        throw new MessageFormatException(getConversionMessage(name, index, "short"));
     }
 
     public int getIntProperty(String name) throws JMSException
     {
-        Object value = getObjectProperty(name);
-        if(value == null)
-        {
-            throw new MessageFormatException(getNullPropertyMessage(name));
-        }
-        if(value instanceof String)
-        {
-            return Integer.valueOf((String) value);
-        }
-        if((value instanceof Integer) || (value instanceof Short) || (value instanceof Byte))
+        int index = getExistingPropertyIndex(name);
+        switch(properties.getType(index))
         {
-            return ((Number)value).intValue();
+            case PropertyStore.STRING: return Integer.valueOf((String)properties.getObject(index));
+            case PropertyStore.INT:
+            case PropertyStore.SHORT:
+            case PropertyStore.BYTE: return (int)properties.getLong(index);
         }
-        throw new MessageFormatException("Cannot convert property " + name + " of type " + value.getClass().getName() + " to int");
+        throw new MessageFormatException(getConversionMessage(name, index, "int"));
     }
 
     public long getLongProperty(String name) throws JMSException
     {
-        Object value = getObjectProperty(name);
-        if(value == null)
-        {
-            throw new MessageFormatException(getNullPropertyMessage(name));
-        }
-        if(value instanceof String)
+        int index = getExistingPropertyIndex(name);
+        switch(properties.getType(index))
         {
-            return Long.valueOf((String) value);
+            case PropertyStore.STRING: return Long.valueOf((String)properties.getObject(index));
+            case PropertyStore.LONG:
+            case PropertyStore.INT:
+            case PropertyStore.SHORT:
+            case PropertyStore.BYTE: return properties.getLong(index);
         }
-        if((value instanceof Long) || (value instanceof Integer) || (value instanceof Short) || (value instanceof Byte))
-        {
-            return ((Number)value).longValue();
-        }
-        throw new MessageFormatException("Cannot convert property " + name + " of type " + value.getClass().getName() + " to long");
+        throw new MessageFormatException(getConversionMessage(name, index, "long"));
     }
 
     public float getFloatProperty(String name) throws JMSException
     {
-        Object value = getObjectProperty(name);
-        if(value == null)
+        int index = getExistingPropertyIndex(name);
+        switch(properties.getType(index))
         {
-            throw new MessageFormatException(getNullPropertyMessage(name));
+            case PropertyStore.STRING: return Float.valueOf((String)properties.getObject(index));
+            case PropertyStore.FLOAT: return (float)properties.getDouble(index);
         }
-        if(value instanceof String)
-        {
-            return Float.valueOf((String) value);
-        }
-        if(value instanceof Float)
-        {
-            return ((Number)value).floatValue();
-        }
-        throw new MessageFormatException("Cannot convert property " + name + " of type " + value.getClass().getName() + " to float");
+        throw new MessageFormatException(getConversionMessage(name, index, "float"));
     }
 
     public double getDoubleProperty(String name) throws JMSException
     {
-        Object value = getObjectProperty(name);
-        if(value == null)
-        {
-            throw new MessageFormatException(getNullPropertyMessage(name));
-        }
-        if(value instanceof String)
-        {
-           return Double.valueOf((String) value);
-        }
-        if((value instanceof Double) || (value instanceof Float))
+        int index = getExistingPropertyIndex(name);
+        switch(properties.getType(index))
         {
-            return ((Number)value).doubleValue();
+            case PropertyStore.STRING: return Double.valueOf((String)properties.getObject(index));
+            case PropertyStore.DOUBLE:
+            case PropertyStore.FLOAT: return properties.getDouble(index);
         }
-        throw new MessageFormatException("Cannot convert property " + name + " of type " + value.getClass().getName() + " to double");
+        throw new MessageFormatException(getConversionMessage(name, index, "double"));
     }
 
     public String getStringProperty(String name) throws JMSException
@@ -338,42 +340,49 @@ public class MockMessage implements Message, Cloneable, Serializable
 
     public Enumeration getPropertyNames() throws JMSException
     {
-        return new Vector(properties.keySet()).elements();
+        return properties.names();
     }
 
     public void setBooleanProperty(String name, boolean value) throws JMSException
     {
-        setObjectProperty(name, value);
+        checkPropertyWrite(name);
+        getWritableProperties().putBoolean(name, value);
     }
 
     public void setByteProperty(String name, byte value) throws JMSException
     {
-        setObjectProperty(name, value);
+        checkPropertyWrite(name);
+        getWritableProperties().putByte(name, value);
     }
 
     public void setShortProperty(String name, short value) throws JMSException
     {
-        setObjectProperty(name, value);
+        checkPropertyWrite(name);
+        getWritableProperties().putShort(name, value);
     }
 
     public void setIntProperty(String name, int value) throws JMSException
     {
-        setObjectProperty(name, value);
+        checkPropertyWrite(name);
+        getWritableProperties().putInt(name, value);
     }
 
     public void setLongProperty(String name, long value) throws JMSException
     {
-        setObjectProperty(name, value);
+        checkPropertyWrite(name);
+        getWritableProperties().putLong(name, value);
     }
 
     public void setFloatProperty(String name, float value) throws JMSException
     {
-        setObjectProperty(name, value);
+        checkPropertyWrite(name);
+        getWritableProperties().putFloat(name, value);
     }
 
     public void setDoubleProperty(String name, double value) throws JMSException
     {
-        setObjectProperty(name, value);
+        checkPropertyWrite(name);
+        getWritableProperties().putDouble(name, value);
     }
 
     public void setStringProperty(String name, String value) throws JMSException
@@ -382,6 +391,18 @@ public class MockMessage implements Message, Cloneable, Serializable
     }
 
     public void setObjectProperty(String name, Object object) throws JMSException
+    {
+        checkPropertyWrite(name);
+        if(null == object) return;
+        if((object instanceof String) || (object instanceof Number) || (object instanceof Boolean))
+        {
+            getWritableProperties().put(name, object);
+            return;
+        }
+        throw new MessageFormatException(object.getClass().getName() + " not a valid type");
+    }
+
+    private void checkPropertyWrite(String name) throws JMSException
     {
         if(!isInWriteModeProperties)
         {
@@ -391,13 +412,21 @@ public class MockMessage implements Message, Cloneable, Serializable
         {
             throw new IllegalArgumentException("Property names must not be null or empty strings");
         }
-        if(null == object) return;
-        if((object instanceof String) || (object instanceof Number) || (object instanceof Boolean))
+    }
+
+    private int getExistingPropertyIndex(String name) throws JMSException
+    {
+        int index = properties.indexOf(name);
+        if(index < 0)
         {
-            properties.put(name, object);
-            return;
+            throw new MessageFormatException(getNullPropertyMessage(name));
         }
-        throw new MessageFormatException(object.getClass().getName() + " not a valid type");
+        return index;
+    }
+
+    private String getConversionMessage(String name, int index, String type)
+    {
+        return "Cannot convert property " + name + " of type " + properties.getTypeName(index) + " to " + type;
     }
 
     public void acknowledge() throws JMSException
@@ -425,7 +454,8 @@ public class MockMessage implements Message, Cloneable, Serializable
         try
         {
             MockMessage clone = (MockMessage)super.clone();
-            clone.properties = new HashMap(properties);
+            clone.properties = properties.copy();
+            clone.propertiesShared = false;
             return clone;
         }
         catch(CloneNotSupportedException exc)
@@ -434,10 +464,82 @@ public class MockMessage implements Message, Cloneable, Serializable
         }
     }
     
+    /**
+     * Clones this message like {@link #clone}, but the clone shares
+     * the properties and the body with this message. The shared
+     * data is copied by the message that changes it first.
+     * Subclasses that hold additional mutable data must override
+     * this method.
+     * @return the clone
+     */
+    public MockMessage copyOnWriteClone()
+    {
+        try
+        {
+            MockMessage clone = (MockMessage)super.clone();
+            propertiesShared = true;
+            clone.propertiesShared = true;
+            return clone;
+        }
+        catch(CloneNotSupportedException exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+    }
+    
+    /**
+     * Resets the headers, the properties and the body of this message,
+     * so that it can be reused like a new message. Used by the
+     * message pool of {@link com.mockrunner.jms.MessageManager}.
+     */
+    public void recycle()
+    {
+        messageId = null;
+        messageIdGenerator = null;
+        messageIdSequence = 0;
+        timestamp = System.currentTimeMillis();
+        correlationId = null;
+        replyTo = null;
+        destination = null;
+        deliveryMode = DeliveryMode.PERSISTENT;
+        redelivered = false;
+        redeliveryCount = 0;
+        type = null;
+        expiration = 0;
+        priority = 4;
+        acknowledged = false;
+        properties = new PropertyStore();
+        propertiesShared = false;
+        isInWriteModeProperties = true;
+        try
+        {
+            clearBody();
+        }
+        catch(JMSException exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+    }
+    
+    private PropertyStore getWritableProperties()
+    {
+        if(propertiesShared)
+        {
+            properties = properties.copy();
+            propertiesShared = false;
+        }
+        return properties;
+    }
+    
     protected boolean isInWriteMode()
     {
         return isInWriteMode;
     }
+    
+    boolean isInWriteModeProperties()
+    {
+        return isInWriteModeProperties;
+    }
 
     protected String getNullPropertyMessage(String name) {
       return String.format("Property %s was null", name);
@@ -1,7 +1,7 @@
 package com.mockrunner.mock.jms;
 
 import java.io.Serializable;
-import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 import javax.jms.InvalidSelectorException;
 import javax.jms.JMSException;
@@ -10,7 +10,7 @@ import javax.jms.MessageConsumer;
 import javax.jms.MessageListener;
 
 import org.activemq.filter.mockrunner.Filter;
-import org.activemq.selector.mockrunner.SelectorParser;
+import org.activemq.filter.mockrunner.SelectorCompiler;
 
 /**
  * Mock implementation of JMS <code>MessageConsumer</code>.
@@ -20,7 +20,7 @@ public abstract class MockMessageConsumer implements MessageConsumer, Serializab
     private MockConnection connection;
     private String messageSelector;
     private Filter messageSelectorFilter;
-    private boolean closed;
+    private volatile boolean closed;
     private MessageListener messageListener;
         
     public MockMessageConsumer(MockConnection connection, String messageSelector)
@@ -42,7 +42,7 @@ public abstract class MockMessageConsumer implements MessageConsumer, Serializab
         {
             try
             {
-                this.messageSelectorFilter = new SelectorParser().parse(messageSelector);
+                this.messageSelectorFilter = SelectorCompiler.compile(messageSelector);
             }
             catch(InvalidSelectorException exc)
             {
@@ -74,6 +74,30 @@ public abstract class MockMessageConsumer implements MessageConsumer, Serializab
         return matchesMessageSelector(message);
     }
     
+    /**
+     * Returns if this consumer has a <code>MessageListener</code>
+     * and isn't closed. Such a consumer can consume all incoming
+     * messages that match {@link #getEffectiveMessageSelector}.
+     * @return <code>true</code> if this consumer listens for messages
+     */
+    boolean isListening()
+    {
+        return null != messageListener && !isClosed();
+    }
+    
+    /**
+     * Returns the selector incoming messages are matched against.
+     * Returns <code>null</code>, if this consumer has no selector
+     * or if selectors are disabled.
+     * @return the selector or <code>null</code>
+     */
+    String getEffectiveMessageSelector()
+    {
+        if(!connection.getConfigurationManager().getUseMessageSelectors()) return null;
+        if(null == messageSelectorFilter) return null;
+        return messageSelector;
+    }
+    
     /**
      * Adds a message that is immediately propagated to the
      * message listener. If there's no message listener,
@@ -104,58 +128,154 @@ public abstract class MockMessageConsumer implements MessageConsumer, Serializab
         this.messageListener = messageListener;
     }
 
-    /** 
-     * wait until: 
-     * 
-     * * a message is ready
-     * * the timeout elapses
-     * * some other event happens (@see Object.wait)
-     * 
-     * if the timeout is 0, the function will not timeout.
-     * 
-     * @param timeout - max milliseconds to wait. 
+    /**
+     * Returns the destination this consumer receives messages from.
+     * Blocking receive calls wait for messages added to this destination.
+     * Returns <code>null</code> by default. In this case, blocking
+     * receive calls wait with {@link #waitOnMessage}, which subclasses
+     * may override.
+     * @return the destination or <code>null</code>
      */
-    protected abstract void waitOnMessage(long timeout);
+    protected MockDestination getMockDestination()
+    {
+        return null;
+    }
 
-    
+    /**
+     * Waits until a message is available or the timeout elapses.
+     * Returns <code>null</code>, if the consumer is closed or the
+     * thread is interrupted while waiting. The interrupt status
+     * of the thread is preserved in this case.
+     * @param timeout the maximum time to wait in milliseconds,
+     *        0 waits without a timeout
+     * @return the message or <code>null</code>
+     */
     public Message receive(long timeout) throws JMSException
     {
-    	if(timeout == 0) return receive();
-    	getConnection().throwJMSException();
-    	Message message=null; 
-    
-    	Date waitTill = new Date((new Date()).getTime()+timeout);
-    	
-   		for(;;){
-    		message = receiveNoWait();
-   			if(message!=null) return message;
-   			timeout= waitTill.getTime()-(new Date()).getTime();
-   			if(timeout>0)
-   			{
-				waitOnMessage(timeout);
-   			}
-   			else
-   			{
-   				return null;
-   			}
-    	}	
-	}
+        if(timeout == 0) return receive();
+        getConnection().throwJMSException();
+        return receiveUntil(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout), true);
+    }
 
+    /**
+     * Waits until a message is available. Returns <code>null</code>,
+     * if the consumer is closed or the thread is interrupted while
+     * waiting. The interrupt status of the thread is preserved in this case.
+     * @return the message or <code>null</code>
+     */
     public Message receive() throws JMSException
     {
-    	getConnection().throwJMSException();
-    	
-    	Message message = null;
-   		for(;;){
-    		message = receiveNoWait();
-   			if(message!=null) return message;   
-   			waitOnMessage(0);
-    	}	
+        getConnection().throwJMSException();
+        return receiveUntil(0, false);
+    }
+    
+    /**
+     * A consumer that is woken up for a message, but does not take
+     * it, passes the wake up on, so a consumer whose selector matches
+     * the message is not left waiting. The wake up is passed on only
+     * once per added message, so consumers that don't match don't
+     * wake each other up forever.
+     */
+    private Message receiveUntil(long deadline, boolean timed) throws JMSException
+    {
+        MockDestination destination = getMockDestination();
+        if(null == destination) return pollUntil(deadline, timed);
+        boolean woken = false;
+        long passedSequence = -1;
+        for(;;)
+        {
+            long sequence = destination.getMessageSequence();
+            Message message = receiveNoWait();
+            if(null != message) return message;
+            if(woken && sequence != passedSequence && !destination.isEmpty())
+            {
+                destination.signalNextConsumer();
+                passedSequence = sequence;
+            }
+            long remaining = timed ? deadline - System.nanoTime() : Long.MAX_VALUE;
+            if(remaining <= 0) return null;
+            try
+            {
+                woken = destination.awaitMessage(sequence, remaining);
+            }
+            catch(InterruptedException exc)
+            {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            if(isClosed()) return null;
+        }
+    }
+    
+    /**
+     * Used by consumers without a destination. Calls
+     * {@link #waitOnMessage} until a message is available.
+     */
+    private Message pollUntil(long deadline, boolean timed) throws JMSException
+    {
+        for(;;)
+        {
+            Message message = receiveNoWait();
+            if(null != message) return message;
+            long timeout = 0;
+            if(timed)
+            {
+                long remaining = deadline - System.nanoTime();
+                if(remaining <= 0) return null;
+                timeout = Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining));
+            }
+            waitOnMessage(timeout);
+            if(Thread.currentThread().isInterrupted() || isClosed()) return null;
+        }
     }
+    
+    /**
+     * Waits until a message is added to the destination,
+     * the timeout elapses or the consumer is closed.
+     * The receive methods call this method only, if
+     * {@link #getMockDestination} returns <code>null</code>.
+     * Without a destination, this method waits at most 10 ms,
+     * so the receive methods poll for messages.
+     * @param timeout the maximum time to wait in milliseconds,
+     *        0 waits without a timeout
+     */
+    protected void waitOnMessage(long timeout)
+    {
+        MockDestination destination = getMockDestination();
+        if(null == destination)
+        {
+            try
+            {
+                Thread.sleep((timeout == 0) ? 10 : Math.min(timeout, 10));
+            }
+            catch(InterruptedException exc)
+            {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+        long timeoutNanos = (timeout == 0) ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(timeout);
+        try
+        {
+            destination.awaitMessage(destination.getMessageSequence(), timeoutNanos);
+        }
+        catch(InterruptedException exc)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
     public void close() throws JMSException
     {
         connection.throwJMSException();
+        boolean wasClosed = closed;
         closed = true;
+        MockDestination destination = getMockDestination();
+        if(null == destination) return;
+        destination.wakeUpWaitingConsumers();
+        if(wasClosed) return;
+        destination.removeConsumer(this);
+        destination.release();
     }
     
     private boolean matchesMessageSelector(Message message)
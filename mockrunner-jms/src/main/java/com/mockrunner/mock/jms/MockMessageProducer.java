@@ -11,6 +11,8 @@ import javax.jms.Message;
 import javax.jms.MessageProducer;
 import javax.jms.StreamMessage;
 
+import com.mockrunner.jms.MessageIdGenerator;
+
 /**
  * Mock implementation of JMS <code>MessageProducer</code>.
  */
@@ -76,19 +78,25 @@ public class MockMessageProducer implements MessageProducer, Serializable
         }
         if((message instanceof MockMessage) && connection.getConfigurationManager().getDoCloneOnSend())
         {
-            message = (MockMessage)((MockMessage)message).clone();
+            message = connection.getConfigurationManager().getMessageCloner().cloneMessage((MockMessage)message);
         }
         if(destination instanceof MockQueue)
         {
             setJMSMessageHeaders(message, destination, deliveryMode, priority, timeToLive);
             session.addSessionToQueue((MockQueue)destination);
-            ((MockQueue)destination).addMessage(message);
+            if(!session.stageSentMessage((MockQueue)destination, message))
+            {
+                ((MockQueue)destination).addMessage(message);
+            }
         }
         else if(destination instanceof MockTopic)
         {
             setJMSMessageHeaders(message, destination, deliveryMode, priority, timeToLive);
             session.addSessionToTopic((MockTopic)destination);
-            ((MockTopic)destination).addMessage(message);
+            if(!session.stageSentMessage((MockTopic)destination, message))
+            {
+                ((MockTopic)destination).addMessage(message);
+            }
         }
         else
         {
@@ -173,7 +181,7 @@ public class MockMessageProducer implements MessageProducer, Serializable
         message.setJMSDeliveryMode(deliveryMode);
         message.setJMSPriority(priority);
         message.setJMSDestination(destination);
-        long currentTime = System.currentTimeMillis();
+        long currentTime = (disableTimestamp && 0 == timeToLive) ? 0 : System.currentTimeMillis();
         if(!disableTimestamp)
         {
             message.setJMSTimestamp(currentTime);
@@ -188,7 +196,15 @@ public class MockMessageProducer implements MessageProducer, Serializable
         }
         if(!disableMessageId)
         {
-            message.setJMSMessageID("ID:" + String.valueOf(Math.random()));
+            MessageIdGenerator generator = connection.getConfigurationManager().getMessageIdGenerator();
+            if(message instanceof MockMessage)
+            {
+                ((MockMessage)message).setJMSMessageID(generator, generator.nextSequence());
+            }
+            else
+            {
+                message.setJMSMessageID(generator.nextId());
+            }
         }
         if(message instanceof MockMessage)
         {
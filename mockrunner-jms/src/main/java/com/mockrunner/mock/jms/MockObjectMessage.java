@@ -1,16 +1,12 @@
 package com.mockrunner.mock.jms;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 import javax.jms.JMSException;
 import javax.jms.MessageNotWriteableException;
 import javax.jms.ObjectMessage;
 
-import com.mockrunner.base.NestedApplicationException;
+import com.mockrunner.jms.PooledSerializer;
 
 /**
  * Mock implementation of JMS <code>ObjectMessage</code>.
@@ -18,6 +14,7 @@ import com.mockrunner.base.NestedApplicationException;
 public class MockObjectMessage extends MockMessage implements ObjectMessage
 {
     private Serializable object;
+    private byte[] serializedObject;
     
     public MockObjectMessage()
     {
@@ -36,17 +33,19 @@ public class MockObjectMessage extends MockMessage implements ObjectMessage
             throw new MessageNotWriteableException("Message is in read mode");
         }
         this.object = object;
+        serializedObject = null;
     }
 
     public Serializable getObject() throws JMSException
     {
-        return object;
+        return getDeserializedObject();
     }
 
     public void clearBody() throws JMSException
     {
         super.clearBody();
         object = null;
+        serializedObject = null;
     }
     
     /**
@@ -59,38 +58,65 @@ public class MockObjectMessage extends MockMessage implements ObjectMessage
         if(null == otherObject) return false;
         if(!(otherObject instanceof MockObjectMessage)) return false;
         MockObjectMessage otherMessage = (MockObjectMessage)otherObject;
-        if(null == object && null == otherMessage.object) return true;
-        return object.equals(otherMessage.object);
+        Serializable thisObject = getDeserializedObject();
+        Serializable otherMessageObject = otherMessage.getDeserializedObject();
+        if(null == thisObject && null == otherMessageObject) return true;
+        return thisObject.equals(otherMessageObject);
     }
 
     public int hashCode()
     {
-        if(null == object) return 0;
-        return object.hashCode();
+        Serializable thisObject = getDeserializedObject();
+        if(null == thisObject) return 0;
+        return thisObject.hashCode();
     }
     
     public Object clone()
+    {
+        return cloneWithObject(PooledSerializer.copy(getDeserializedObject()));
+    }
+    
+    /**
+     * Clones this message and uses the specified object
+     * as the object of the clone.
+     * @param object the object of the clone
+     * @return the clone
+     */
+    public MockObjectMessage cloneWithObject(Serializable object)
     {
         MockObjectMessage message = (MockObjectMessage)super.clone();
-        try
+        message.object = object;
+        message.serializedObject = null;
+        return message;
+    }
+    
+    /**
+     * Clones this message. The object is serialized, but the clone
+     * deserializes it not until it is accessed for the first time.
+     */
+    public MockMessage copyOnWriteClone()
+    {
+        MockObjectMessage message = (MockObjectMessage)super.copyOnWriteClone();
+        if(null == serializedObject && null != object)
         {
-            ByteArrayOutputStream byteOutStream = new ByteArrayOutputStream();
-            ObjectOutputStream objectOutStream = new ObjectOutputStream(byteOutStream);
-            objectOutStream.writeObject(object);
-            objectOutStream.flush();
-            ByteArrayInputStream byteInStream = new ByteArrayInputStream(byteOutStream.toByteArray());
-            ObjectInputStream objectInStream = new ObjectInputStream(byteInStream);
-            message.object = (Serializable)objectInStream.readObject();
-            return message;
+            message.serializedObject = PooledSerializer.serialize(object);
+            message.object = null;
         }
-        catch(Exception exc)
+        return message;
+    }
+    
+    private synchronized Serializable getDeserializedObject()
+    {
+        if(null != serializedObject)
         {
-            throw new NestedApplicationException(exc);
+            object = PooledSerializer.deserialize(serializedObject);
+            serializedObject = null;
         }
+        return object;
     }
 
     public String toString()
     {
-        return this.getClass().getName() + ": " + object;
+        return this.getClass().getName() + ": " + getDeserializedObject();
     }
 }
@@ -1,6 +1,6 @@
 package com.mockrunner.mock.jms;
 
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.jms.JMSException;
@@ -34,40 +34,108 @@ public class MockQueue extends MockDestination implements Queue
      */
     public void addMessage(Message message) throws JMSException
     {
-        addReceivedMessage(message);    
-        boolean isConsumed = false;
-        Iterator sessionsIterator = sessionSet().iterator();
-        while(sessionsIterator.hasNext() && !isConsumed)
+        addReceivedMessage(message);
+        if(hasSessions() && deliverMessage(message)) return;
+        addCurrentMessage(message);
+    }
+    
+    /**
+     * Adds messages to this <code>Queue</code> that will
+     * be propagated to the corresponding receivers. Each
+     * message is consumed by only one receiver. The receivers
+     * are looked up once for all messages. The messages that
+     * are not consumed are added to the current messages together.
+     * @param messages the messages
+     */
+    public void addMessages(List messages) throws JMSException
+    {
+        if(!hasSessions())
         {
-            MockSession session = (MockSession)sessionsIterator.next();
-            MessageListener globalListener = session.getMessageListener();
-            if(null != globalListener)
+            for(Object message : messages)
             {
-                globalListener.onMessage(message);
-                isConsumed = true;
-                acknowledgeMessage(message, session);
+                addReceivedMessage((Message)message);
             }
-            else
-            {
-                List receivers = session.getQueueTransmissionManager().getQueueReceiverList(name);
-                for(int ii = 0; ii < receivers.size() && !isConsumed; ii++)
-                {
-                    MockQueueReceiver receiver = (MockQueueReceiver)receivers.get(ii);
-                    if(receiver.canConsume(message))
-                    {
-                        receiver.receiveMessage(message);
-                        isConsumed = true;
-                        acknowledgeMessage(message, session);
-                    }
-                }
+            addCurrentMessages(messages);
+            return;
+        }
+        List routes = new ArrayList();
+        for (Object currentSession : sessionSet()) {
+            MockSession session = (MockSession) currentSession;
+            MessageListener globalListener = session.getMessageListener();
+            if (null != globalListener) {
+                routes.add(new Route(session, globalListener, null));
+            } else {
+                routes.add(new Route(session, null, session.getQueueTransmissionManager().getOpenQueueReceivers(name)));
             }
         }
-        if(!isConsumed)
+        List unconsumed = null;
+        for (Object currentMessage : messages) {
+            Message message = (Message) currentMessage;
+            addReceivedMessage(message);
+            if (!deliverMessage(routes, message)) {
+                if (null == unconsumed) unconsumed = new ArrayList();
+                unconsumed.add(message);
+            }
+        }
+        if(null != unconsumed)
         {
-            addCurrentMessage(message);
-            synchronized (this){	
-            	this.notify();
+            addCurrentMessages(unconsumed);
+        }
+    }
+    
+    private boolean deliverMessage(Message message) throws JMSException
+    {
+        for (Object currentSession : sessionSet()) {
+            MockSession session = (MockSession) currentSession;
+            MessageListener globalListener = session.getMessageListener();
+            if (null != globalListener) {
+                deliverMessage(globalListener, message, session);
+                return true;
+            }
+            if (deliverToReceivers(session, session.getQueueTransmissionManager().getOpenQueueReceivers(name), message)) {
+                return true;
             }
         }
+        return false;
+    }
+    
+    private boolean deliverMessage(List routes, Message message) throws JMSException
+    {
+        for (Object currentRoute : routes) {
+            Route route = (Route) currentRoute;
+            if (null != route.globalListener) {
+                deliverMessage(route.globalListener, message, route.session);
+                return true;
+            }
+            if (deliverToReceivers(route.session, route.receivers, message)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private boolean deliverToReceivers(MockSession session, MockQueueReceiver[] receivers, Message message) throws JMSException
+    {
+        for (MockQueueReceiver receiver : receivers) {
+            if (receiver.canConsume(message)) {
+                deliverMessage(receiver, message, session);
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static class Route
+    {
+        private MockSession session;
+        private MessageListener globalListener;
+        private MockQueueReceiver[] receivers;
+        
+        public Route(MockSession session, MessageListener globalListener, MockQueueReceiver[] receivers)
+        {
+            this.session = session;
+            this.globalListener = globalListener;
+            this.receivers = receivers;
+        }
     }
 }
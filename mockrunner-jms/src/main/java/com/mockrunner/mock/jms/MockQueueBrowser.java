@@ -13,7 +13,7 @@ import javax.jms.Queue;
 import javax.jms.QueueBrowser;
 
 import org.activemq.filter.mockrunner.Filter;
-import org.activemq.selector.mockrunner.SelectorParser;
+import org.activemq.filter.mockrunner.SelectorCompiler;
 
 /**
  * Mock implementation of JMS <code>QueueBrowser</code>.
@@ -50,7 +50,7 @@ public class MockQueueBrowser implements QueueBrowser, Serializable
         {
             try
             {
-                this.messageSelectorFilter = new SelectorParser().parse(messageSelector);
+                this.messageSelectorFilter = SelectorCompiler.compile(messageSelector);
             }
             catch(InvalidSelectorException exc)
             {
@@ -23,6 +23,7 @@ public class MockQueueReceiver extends MockMessageConsumer implements QueueRecei
         super(connection, messageSelector);
         this.session = session;
         this.queue = queue;
+        if(null != queue) queue.retain();
     }
 
     public Queue getQueue() throws JMSException
@@ -49,18 +50,18 @@ public class MockQueueReceiver extends MockMessageConsumer implements QueueRecei
             message = queue.getMatchingMessage(getMessageFilter());
         }
         if(null == message) return null;
-        if(session.isAutoAcknowledge()) message.acknowledge();
+        if(!session.stageConsumedMessage(queue, this, message) && session.isAutoAcknowledge()) message.acknowledge();
         return message;
     }
     
-    protected void waitOnMessage(long timeout)
+    public void close() throws JMSException
     {
-    	try {
-    		//todo, notify on topic. 
-    		synchronized(queue) {
-    			queue.wait(timeout);
-    		}
-		} catch (InterruptedException ignored) {
-		}
+        super.close();
+        if(null != session) session.getQueueTransmissionManager().queueReceiverClosed(this);
+    }
+    
+    protected MockDestination getMockDestination()
+    {
+        return queue;
     }
 }
@@ -7,24 +7,39 @@ import javax.jms.QueueSession;
 import javax.jms.ServerSession;
 import javax.jms.Session;
 
+import com.mockrunner.jms.ServerSessionStatistics;
+
 /**
  * Mock implementation of JMS <code>ServerSession</code>.
  * The <code>ServerSession</code> is not meant for application
  * use.
+ * If the server session belongs to a {@link MockServerSessionPool}
+ * with worker threads, {@link #start} runs the session with
+ * one of the workers and returns the server session to the pool
+ * afterwards. Otherwise the session is run by the calling thread.
  */
 public class MockServerSession implements ServerSession, Serializable
 {
     private MockConnection connection;
     private Session session;
-    private boolean started;
-    
+    private volatile boolean started;
+    private transient MockServerSessionPool pool;
+    private ServerSessionStatistics statistics;
+
     public MockServerSession(MockConnection connection)
+    {
+        this(connection, new MockSession(connection, false, QueueSession.AUTO_ACKNOWLEDGE), null);
+    }
+
+    MockServerSession(MockConnection connection, Session session, MockServerSessionPool pool)
     {
         this.connection = connection;
-        session = new MockSession(connection, false, QueueSession.AUTO_ACKNOWLEDGE);
+        this.session = session;
+        this.pool = pool;
         started = false;
+        statistics = new ServerSessionStatistics();
     }
-    
+
     /**
      * Returns if this server session was started.
      * @return <code>true</code> if this server session is started
@@ -33,12 +48,22 @@ public class MockServerSession implements ServerSession, Serializable
     {
         return started;
     }
-    
+
+    /**
+     * Returns the statistics of the messages processed
+     * by this server session.
+     * @return the statistics
+     */
+    public ServerSessionStatistics getStatistics()
+    {
+        return statistics;
+    }
+
     public void setSession(Session session)
     {
         this.session = session;
     }
-    
+
     public Session getSession() throws JMSException
     {
         connection.throwJMSException();
@@ -49,5 +74,30 @@ public class MockServerSession implements ServerSession, Serializable
     {
         connection.throwJMSException();
         started = true;
+        if(null == pool)
+        {
+            runSession();
+            return;
+        }
+        pool.execute(this, new Runnable()
+        {
+            public void run()
+            {
+                runSession();
+            }
+        });
+    }
+
+    private void runSession()
+    {
+        statistics.recordRun();
+        if(session instanceof MockSession)
+        {
+            ((MockSession)session).run(statistics);
+        }
+        else
+        {
+            session.run();
+        }
     }
 }
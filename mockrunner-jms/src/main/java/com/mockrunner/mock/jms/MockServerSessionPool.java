@@ -1,31 +1,245 @@
 package com.mockrunner.mock.jms;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.jms.JMSException;
+import javax.jms.MessageListener;
 import javax.jms.ServerSession;
 import javax.jms.ServerSessionPool;
+import javax.jms.Session;
 
 /**
  * Mock implementation of JMS <code>ServerSessionPool</code>.
+ * A pool created with {@link #MockServerSessionPool(MockConnection)}
+ * always returns the same {@link MockServerSession}.
+ * A pool created with
+ * {@link #MockServerSessionPool(MockConnection, MessageListener, int)}
+ * works like the pool of an application server. It has the specified
+ * number of server sessions and worker threads. Each session delivers
+ * the messages loaded by a {@link MockConnectionConsumer} to the
+ * <code>MessageListener</code>. {@link #getServerSession} blocks
+ * until a server session is idle.
  */
 public class MockServerSessionPool implements ServerSessionPool
 {
+    private static final AtomicInteger poolNumber = new AtomicInteger();
+
     private MockConnection connection;
     private ServerSession session;
-    
+    private List serverSessions;
+    private BlockingQueue idleSessions;
+    private ExecutorService workers;
+    private List exceptions;
+
     public MockServerSessionPool(MockConnection connection)
     {
         this.connection = connection;
         session = new MockServerSession(connection);
+        serverSessions = Collections.singletonList(session);
+        exceptions = new ArrayList();
     }
-    
+
+    /**
+     * Creates a pool with the specified number of server sessions
+     * and worker threads.
+     * @param connection the connection
+     * @param listener the listener that receives the messages
+     * @param poolSize the number of server sessions and worker threads
+     * @throws JMSException if the listener cannot be set
+     */
+    public MockServerSessionPool(MockConnection connection, MessageListener listener, int poolSize) throws JMSException
+    {
+        if(poolSize <= 0)
+        {
+            throw new IllegalArgumentException("poolSize must be greater than 0");
+        }
+        this.connection = connection;
+        session = null;
+        serverSessions = new ArrayList();
+        idleSessions = new LinkedBlockingQueue();
+        exceptions = new ArrayList();
+        for(int ii = 0; ii < poolSize; ii++)
+        {
+            MockSession currentSession = new MockSession(connection, false, Session.AUTO_ACKNOWLEDGE);
+            currentSession.setMessageListener(listener);
+            MockServerSession serverSession = new MockServerSession(connection, currentSession, this);
+            serverSessions.add(serverSession);
+            idleSessions.add(serverSession);
+        }
+        workers = Executors.newFixedThreadPool(poolSize, new WorkerThreadFactory(poolNumber.incrementAndGet()));
+    }
+
+    /**
+     * Sets the server session that is returned by
+     * {@link #getServerSession}. The pooled server sessions
+     * are not used afterwards.
+     * @param session the server session
+     */
     public void setServerSession(ServerSession session)
     {
         this.session = session;
     }
-    
+
     public ServerSession getServerSession() throws JMSException
     {
         connection.throwJMSException();
-        return session;
+        if(null != session) return session;
+        try
+        {
+            return (ServerSession)idleSessions.take();
+        }
+        catch(InterruptedException exc)
+        {
+            Thread.currentThread().interrupt();
+            throw new JMSException("Interrupted while waiting for a server session");
+        }
+    }
+
+    /**
+     * Returns the server sessions of this pool.
+     * @return the <code>List</code> of server sessions
+     */
+    public List getServerSessionList()
+    {
+        return Collections.unmodifiableList(serverSessions);
+    }
+
+    /**
+     * Returns the number of server sessions that are not running.
+     * @return the number of idle server sessions
+     */
+    public int getNumberIdleServerSessions()
+    {
+        if(null == idleSessions) return serverSessions.size();
+        return idleSessions.size();
+    }
+
+    /**
+     * Returns the total number of messages processed by
+     * the server sessions of this pool.
+     * @return the number of processed messages
+     */
+    public long getNumberProcessedMessages()
+    {
+        long number = 0;
+        for(Object serverSession : serverSessions)
+        {
+            if(serverSession instanceof MockServerSession)
+            {
+                number += ((MockServerSession)serverSession).getStatistics().getNumberOfMessages();
+            }
+        }
+        return number;
+    }
+
+    /**
+     * Returns the exceptions that were thrown by the
+     * <code>MessageListener</code> of the server sessions.
+     * @return the <code>List</code> of exceptions
+     */
+    public List getExceptionList()
+    {
+        synchronized(exceptions)
+        {
+            return new ArrayList(exceptions);
+        }
+    }
+
+    /**
+     * Waits until all server sessions are idle.
+     * @param timeoutMillis the maximum time to wait in milliseconds
+     * @return <code>true</code> if all server sessions are idle,
+     *         <code>false</code> if the timeout elapsed
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public synchronized boolean awaitQuiescence(long timeoutMillis) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while(getNumberIdleServerSessions() < serverSessions.size())
+        {
+            long remaining = deadline - System.currentTimeMillis();
+            if(remaining <= 0) return false;
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Stops the worker threads. Running sessions are finished.
+     */
+    public void close()
+    {
+        if(null != workers) workers.shutdown();
+    }
+
+    void execute(final MockServerSession serverSession, final Runnable run)
+    {
+        workers.execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    run.run();
+                }
+                catch(RuntimeException exc)
+                {
+                    synchronized(exceptions)
+                    {
+                        exceptions.add(exc);
+                    }
+                }
+                finally
+                {
+                    release(serverSession);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns a server session that was taken with
+     * {@link #getServerSession} but not started, because
+     * there was no message to load.
+     * @param serverSession the server session
+     */
+    void returnServerSession(ServerSession serverSession)
+    {
+        if(null != session || null == idleSessions || !serverSessions.contains(serverSession)) return;
+        release((MockServerSession)serverSession);
+    }
+
+    private synchronized void release(MockServerSession serverSession)
+    {
+        idleSessions.add(serverSession);
+        notifyAll();
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory
+    {
+        private int poolNumber;
+        private AtomicInteger threadNumber;
+
+        public WorkerThreadFactory(int poolNumber)
+        {
+            this.poolNumber = poolNumber;
+            threadNumber = new AtomicInteger();
+        }
+
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "mockrunner-server-session-" + poolNumber + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 }
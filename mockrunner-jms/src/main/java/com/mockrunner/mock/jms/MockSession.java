@@ -6,7 +6,9 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.jms.BytesMessage;
@@ -32,9 +34,13 @@ import javax.jms.TopicSubscriber;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.mockrunner.base.NestedApplicationException;
+import com.mockrunner.jms.CommitStatistics;
+import com.mockrunner.jms.ConfigurationManager;
 import com.mockrunner.jms.GenericTransmissionManager;
 import com.mockrunner.jms.MessageManager;
 import com.mockrunner.jms.QueueTransmissionManager;
+import com.mockrunner.jms.ServerSessionStatistics;
 import com.mockrunner.jms.TopicTransmissionManager;
 import com.mockrunner.jms.TransmissionManagerWrapper;
 
@@ -42,7 +48,7 @@ import com.mockrunner.jms.TransmissionManagerWrapper;
  * Mock implementation of JMS <code>Session</code>.
  * 
  * Please note that this implementation does not
- * implement transaction isolation at the moment.
+ * implement transaction isolation by default.
  * Messages are immediately sent. If acknowledge
  * mode is AUTO_ACKNOWLEDGE or DUPS_OK_ACKNOWLEDGE,
  * the message will be automatically acknowledged,
@@ -55,6 +61,12 @@ import com.mockrunner.jms.TransmissionManagerWrapper;
  * rolled back. However, the framework keeps track if a
  * transaction is committed or rolled back, so you can test 
  * this and rely on the container for the rest.
+ * If {@link com.mockrunner.jms.ConfigurationManager#setUseTransactionalBatching}
+ * is enabled, transacted sessions keep the sent and received
+ * messages until the transaction ends. On commit the received messages
+ * are acknowledged and the sent messages are delivered, one batch per
+ * destination. On rollback the sent messages are discarded and the
+ * received messages are redelivered.
  * You can set a <code>MessageListener</code> directly to
  * the session. This is an application server internal feature 
  * and not meant for application use in JMS. 
@@ -62,6 +74,9 @@ import com.mockrunner.jms.TransmissionManagerWrapper;
  * known <code>Queue</code> and <code>Topic</code> to the 
  * distinguished <code>MessageListener</code>, if such 
  * a <code>MessageListener</code> is registered.
+ * Messages loaded by a {@link MockConnectionConsumer}
+ * are delivered to this <code>MessageListener</code>, when
+ * the session is run by its {@link MockServerSession}.
  */
 public class MockSession implements Session, Serializable
 {
@@ -85,6 +100,10 @@ public class MockSession implements Session, Serializable
     private int numberRollbacks;
     private boolean recovered;
     private boolean closed;
+    private List stagedMessages;
+    private List consumedMessages;
+    private CommitStatistics commitStatistics;
+    private List loadedMessages;
     
     public MockSession(MockConnection connection, boolean transacted, int acknowledgeMode)
     {
@@ -95,9 +114,10 @@ public class MockSession implements Session, Serializable
         topicTransManager = new TopicTransmissionManager(connection, this);
         genericTransManager = new GenericTransmissionManager(connection, this);
         transManager = new TransmissionManagerWrapper(queueTransManager, topicTransManager, genericTransManager);
-        messageManager = new MessageManager();
-        tempQueues = new ArrayList();
-        tempTopics = new ArrayList();
+        ConfigurationManager configurationManager = connection.getConfigurationManager();
+        messageManager = new MessageManager(configurationManager.getMessageTrackingPolicy(), configurationManager.getMessagePoolSize());
+        tempQueues = Collections.synchronizedList(new ArrayList());
+        tempTopics = Collections.synchronizedList(new ArrayList());
         queues = new HashSet();
         topics = new HashSet();
         messageListener = null;
@@ -105,6 +125,10 @@ public class MockSession implements Session, Serializable
         numberRollbacks = 0;
         recovered = false;
         closed = false;
+        stagedMessages = new ArrayList();
+        consumedMessages = new ArrayList();
+        commitStatistics = new CommitStatistics();
+        loadedMessages = new ArrayList();
         if(logger.isDebugEnabled())
         	logger.debug("Created new mock session");
     }
@@ -271,6 +295,87 @@ public class MockSession implements Session, Serializable
         return acknowledgeMode != CLIENT_ACKNOWLEDGE;
     }
     
+    /**
+     * Returns if this session keeps sent and received messages until
+     * the transaction is committed or rolled back, i.e. if the session is
+     * transacted and
+     * {@link com.mockrunner.jms.ConfigurationManager#setUseTransactionalBatching}
+     * is enabled.
+     * @return <code>true</code> if messages are batched
+     */
+    public boolean isTransactionalBatching()
+    {
+        return transacted && connection.getConfigurationManager().getUseTransactionalBatching();
+    }
+    
+    /**
+     * Returns the statistics of the committed transactions.
+     * Commits are only recorded, if {@link #isTransactionalBatching}
+     * returns <code>true</code>.
+     * @return the commit statistics
+     */
+    public CommitStatistics getCommitStatistics()
+    {
+        return commitStatistics;
+    }
+    
+    /**
+     * Returns the number of messages sent in the current transaction,
+     * that are delivered on commit.
+     * @return the number of pending sent messages
+     */
+    public synchronized int getNumberPendingSentMessages()
+    {
+        return stagedMessages.size();
+    }
+    
+    /**
+     * Returns the number of messages received in the current transaction,
+     * that are acknowledged on commit.
+     * @return the number of pending received messages
+     */
+    public synchronized int getNumberPendingReceivedMessages()
+    {
+        return consumedMessages.size();
+    }
+    
+    /**
+     * Keeps a sent message until the transaction is committed,
+     * if {@link #isTransactionalBatching} returns <code>true</code>.
+     * @param destination the destination
+     * @param message the message
+     * @return <code>true</code> if the message was kept,
+     *         <code>false</code> if it has to be sent immediately
+     */
+    boolean stageSentMessage(MockDestination destination, Message message)
+    {
+        if(!isTransactionalBatching()) return false;
+        synchronized(this)
+        {
+            stagedMessages.add(new StagedMessage(destination, null, message));
+        }
+        return true;
+    }
+    
+    /**
+     * Keeps a received message until the transaction is committed,
+     * if {@link #isTransactionalBatching} returns <code>true</code>.
+     * @param destination the destination
+     * @param consumer the consumer that received the message
+     * @param message the message
+     * @return <code>true</code> if the message was kept,
+     *         <code>false</code> if it has to be acknowledged immediately
+     */
+    boolean stageConsumedMessage(MockDestination destination, Object consumer, Message message)
+    {
+        if(!isTransactionalBatching()) return false;
+        synchronized(this)
+        {
+            consumedMessages.add(new StagedMessage(destination, consumer, message));
+        }
+        return true;
+    }
+    
     /**
      * Note: Returns <code>0</code> if the session is transacted.
      * This method does not exist in JMS 1.0.2. In JMS 1.1 it
@@ -351,17 +456,88 @@ public class MockSession implements Session, Serializable
     public void setMessageListener(MessageListener messageListener) throws JMSException
     {
         connection.throwJMSException();
+        MessageListener oldListener = this.messageListener;
         this.messageListener = messageListener;
+        if(null != oldListener && oldListener != messageListener)
+        {
+            removeConsumerFromDestinations(oldListener);
+        }
     }
     
+    /**
+     * Delivers the messages loaded with {@link #loadMessage}
+     * to the <code>MessageListener</code> of this session.
+     */
     public void run()
     {
+        run(null);
+    }
+    
+    /**
+     * Loads a message that is delivered to the <code>MessageListener</code>
+     * of this session, when the session is run.
+     * @param message the message
+     */
+    synchronized void loadMessage(Message message)
+    {
+        loadedMessages.add(new LoadedMessage(message, System.nanoTime()));
+    }
     
+    /**
+     * Returns the number of messages loaded with {@link #loadMessage},
+     * that were not delivered yet.
+     * @return the number of loaded messages
+     */
+    public synchronized int getNumberLoadedMessages()
+    {
+        return loadedMessages.size();
+    }
+    
+    /**
+     * Delivers the loaded messages and records them in the
+     * specified statistics.
+     * @param statistics the statistics, may be <code>null</code>
+     */
+    void run(ServerSessionStatistics statistics)
+    {
+        List messages;
+        synchronized(this)
+        {
+            if(loadedMessages.isEmpty()) return;
+            messages = loadedMessages;
+            loadedMessages = new ArrayList();
+        }
+        MessageListener listener = messageListener;
+        for(Object currentMessage : messages)
+        {
+            LoadedMessage loaded = (LoadedMessage)currentMessage;
+            long start = System.nanoTime();
+            if(null != listener)
+            {
+                listener.onMessage(loaded.message);
+            }
+            try
+            {
+                if(isAutoAcknowledge()) loaded.message.acknowledge();
+            }
+            catch(JMSException exc)
+            {
+                throw new NestedApplicationException(exc);
+            }
+            if(null != statistics)
+            {
+                statistics.recordMessage(start - loaded.loadTime, System.nanoTime() - start);
+            }
+        }
     }
         
     public void commit() throws JMSException
     {
         connection.throwJMSException();
+        if(isTransactionalBatching())
+        {
+            commitBatch();
+        }
         numberCommits++;
         if(logger.isDebugEnabled())
         	logger.debug("Mock session commit");
@@ -371,6 +547,10 @@ public class MockSession implements Session, Serializable
     public void rollback() throws JMSException
     {
         connection.throwJMSException();
+        synchronized(this)
+        {
+            stagedMessages.clear();
+        }
         recover();
         numberRollbacks++;
         if(logger.isDebugEnabled())
@@ -380,6 +560,10 @@ public class MockSession implements Session, Serializable
     public void close() throws JMSException
     {
         connection.throwJMSException();
+        if(isTransactionalBatching())
+        {
+            discardBatch();
+        }
         if(getTransacted() && !isCommitted())
         {
             rollback();
@@ -387,8 +571,8 @@ public class MockSession implements Session, Serializable
         getQueueTransmissionManager().closeAll();
         getTopicTransmissionManager().closeAll();
         getGenericTransmissionManager().closeAll();
-        removeSessionFromDestinations(tempQueues);
-        removeSessionFromDestinations(tempTopics);
+        removeSessionFromDestinations(copyOf(tempQueues));
+        removeSessionFromDestinations(copyOf(tempTopics));
         removeSessionFromDestinations(queues);
         removeSessionFromDestinations(topics);
         queues.clear();
@@ -398,20 +582,191 @@ public class MockSession implements Session, Serializable
         	logger.debug("Mock session closed");
     }
     
+    /**
+     * Called by a temporary destination created by this session,
+     * when it is deleted and has no open consumers anymore.
+     * If {@link com.mockrunner.jms.ConfigurationManager#getDiscardFreedTemporaryDestinations}
+     * is set, the messages of the destination are cleared and it is
+     * removed from the list of temporary destinations. The list is
+     * searched from the end, because reply destinations are usually
+     * deleted shortly after they are created.
+     * @param destination the freed destination
+     */
+    void temporaryDestinationFreed(MockDestination destination)
+    {
+        connection.removeTemporaryDestination(destination);
+        if(!connection.getConfigurationManager().getDiscardFreedTemporaryDestinations()) return;
+        destination.reset();
+        destination.removeSession(this);
+        List list = (destination instanceof MockTemporaryQueue) ? tempQueues : tempTopics;
+        synchronized(list)
+        {
+            for(int ii = list.size() - 1; ii >= 0; ii--)
+            {
+                if(list.get(ii) == destination)
+                {
+                    list.remove(ii);
+                    return;
+                }
+            }
+        }
+    }
+    
+    private List copyOf(List list)
+    {
+        synchronized(list)
+        {
+            return new ArrayList(list);
+        }
+    }
+    
     private void removeSessionFromDestinations(Collection destinations)
     {
         for (Object currentDestination : destinations) {
-            if (currentDestination instanceof MockDestination)
+            if (currentDestination instanceof MockDestination) {
                 ((MockDestination) currentDestination).removeSession(this);
+                if (null != messageListener)
+                    ((MockDestination) currentDestination).removeConsumer(messageListener);
+            }
+        }
+    }
+
+    private void removeConsumerFromDestinations(Object consumer)
+    {
+        removeConsumerFromDestinations(copyOf(tempQueues), consumer);
+        removeConsumerFromDestinations(copyOf(tempTopics), consumer);
+        removeConsumerFromDestinations(queues, consumer);
+        removeConsumerFromDestinations(topics, consumer);
+    }
+
+    private void removeConsumerFromDestinations(Collection destinations, Object consumer)
+    {
+        for (Object currentDestination : destinations) {
+            if (currentDestination instanceof MockDestination)
+                ((MockDestination) currentDestination).removeConsumer(consumer);
         }
     }
 
     public void recover() throws JMSException
     {
         connection.throwJMSException();
+        if(isTransactionalBatching())
+        {
+            redeliverBatch();
+        }
         recovered = true;
     }
     
+    private void commitBatch() throws JMSException
+    {
+        long start = System.nanoTime();
+        List sent;
+        List consumed;
+        synchronized(this)
+        {
+            sent = stagedMessages;
+            consumed = consumedMessages;
+            stagedMessages = new ArrayList();
+            consumedMessages = new ArrayList();
+        }
+        for(Object currentConsumed : consumed)
+        {
+            ((StagedMessage)currentConsumed).message.acknowledge();
+        }
+        for(Object currentEntry : groupByDestination(sent).entrySet())
+        {
+            Map.Entry entry = (Map.Entry)currentEntry;
+            ((MockDestination)entry.getKey()).addMessages((List)entry.getValue());
+        }
+        commitStatistics.recordCommit(sent.size(), consumed.size(), System.nanoTime() - start);
+    }
+    
+    /**
+     * Puts the received messages back to the head of their destinations,
+     * in the order they were received, and marks them as redelivered.
+     * Messages of listening consumers are redelivered to them, but not
+     * before the current <code>MessageListener</code> returned, if the
+     * session is rolled back by a listener. Messages that were redelivered
+     * more often than {@link ConfigurationManager#getMaximumRedeliveries}
+     * stay in their destination.
+     */
+    private void redeliverBatch() throws JMSException
+    {
+        List consumed;
+        synchronized(this)
+        {
+            consumed = consumedMessages;
+            consumedMessages = new ArrayList();
+        }
+        requeue(consumed);
+        int maximumRedeliveries = connection.getConfigurationManager().getMaximumRedeliveries();
+        for(Object currentConsumed : consumed)
+        {
+            StagedMessage staged = (StagedMessage)currentConsumed;
+            if(maximumRedeliveries >= 0 && staged.message instanceof MockMessage && ((MockMessage)staged.message).getRedeliveryCount() > maximumRedeliveries)
+            {
+                continue;
+            }
+            if(isListening(staged.consumer))
+            {
+                staged.destination.redeliverMessage(staged.consumer, staged.message, this);
+            }
+        }
+    }
+    
+    private void discardBatch() throws JMSException
+    {
+        List consumed;
+        synchronized(this)
+        {
+            consumed = consumedMessages;
+            stagedMessages = new ArrayList();
+            consumedMessages = new ArrayList();
+        }
+        requeue(consumed);
+    }
+    
+    private void requeue(List consumed) throws JMSException
+    {
+        for(Object currentConsumed : consumed)
+        {
+            Message message = ((StagedMessage)currentConsumed).message;
+            message.setJMSRedelivered(true);
+            if(message instanceof MockMessage) ((MockMessage)message).incrementRedeliveryCount();
+        }
+        for(Object currentEntry : groupByDestination(consumed).entrySet())
+        {
+            Map.Entry entry = (Map.Entry)currentEntry;
+            ((MockDestination)entry.getKey()).requeueMessages((List)entry.getValue());
+        }
+    }
+    
+    private static Map groupByDestination(List stagedMessages)
+    {
+        Map batches = new LinkedHashMap();
+        for(Object currentStaged : stagedMessages)
+        {
+            StagedMessage staged = (StagedMessage)currentStaged;
+            List batch = (List)batches.get(staged.destination);
+            if(null == batch)
+            {
+                batch = new ArrayList();
+                batches.put(staged.destination, batch);
+            }
+            batch.add(staged.message);
+        }
+        return batches;
+    }
+    
+    private boolean isListening(Object consumer)
+    {
+        if(consumer instanceof MockMessageConsumer)
+        {
+            return ((MockMessageConsumer)consumer).isListening();
+        }
+        return null != consumer && consumer == messageListener;
+    }
+    
     public void unsubscribe(String name) throws JMSException
     {
         getConnection().throwJMSException();
@@ -434,7 +789,11 @@ public class MockSession implements Session, Serializable
     {
         getConnection().throwJMSException();
         MockTemporaryQueue queue = new MockTemporaryQueue();
+        queue.setMessageRetentionPolicy(getConnection().getConfigurationManager().getMessageRetentionPolicy());
+        queue.setMessageDispatchMode(getConnection().getConfigurationManager().getMessageDispatchMode());
+        queue.setOwner(this);
         tempQueues.add(queue);
+        connection.addTemporaryDestination(queue);
         addSessionToQueue(queue);
         return queue;
     }
@@ -455,7 +814,11 @@ public class MockSession implements Session, Serializable
     {
         getConnection().throwJMSException();
         MockTemporaryTopic topic = new MockTemporaryTopic();
+        topic.setMessageRetentionPolicy(getConnection().getConfigurationManager().getMessageRetentionPolicy());
+        topic.setMessageDispatchMode(getConnection().getConfigurationManager().getMessageDispatchMode());
+        topic.setOwner(this);
         tempTopics.add(topic);
+        connection.addTemporaryDestination(topic);
         addSessionToTopic(topic);
         return topic;
     }
@@ -579,4 +942,30 @@ public class MockSession implements Session, Serializable
     {
         return getGenericTransmissionManager().createMessageProducer();
     }
+    
+    private static class StagedMessage implements Serializable
+    {
+        private MockDestination destination;
+        private Object consumer;
+        private Message message;
+        
+        public StagedMessage(MockDestination destination, Object consumer, Message message)
+        {
+            this.destination = destination;
+            this.consumer = consumer;
+            this.message = message;
+        }
+    }
+    
+    private static class LoadedMessage implements Serializable
+    {
+        private Message message;
+        private long loadTime;
+        
+        public LoadedMessage(Message message, long loadTime)
+        {
+            this.message = message;
+            this.loadTime = loadTime;
+        }
+    }
 }
@@ -1,9 +1,7 @@
 package com.mockrunner.mock.jms;
 
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Stack;
-import java.util.Vector;
 
 import javax.jms.JMSException;
 import javax.jms.MessageEOFException;
@@ -20,12 +18,18 @@ import com.mockrunner.util.common.ArrayUtil;
 public class MockStreamMessage extends MockMessage implements StreamMessage
 {
     private Stack data;
-    private boolean remainingBytesPushed;
+    private boolean dataShared;
+    private int readIndex;
+    private int bytesOffset;
+    private boolean partiallyReadBytes;
     
     public MockStreamMessage()
     {
         data = new Stack();
-        remainingBytesPushed = false;
+        dataShared = false;
+        readIndex = 0;
+        bytesOffset = 0;
+        partiallyReadBytes = false;
     }
 
     public boolean readBoolean() throws JMSException
@@ -34,7 +38,7 @@ public class MockStreamMessage extends MockMessage implements StreamMessage
         {
             throw new MessageNotReadableException("Message is in write mode");
         }
-        if(data.empty())
+        if(isEndOfData())
         {
             throw new MessageEOFException("No more data");
         }
@@ -59,7 +63,7 @@ public class MockStreamMessage extends MockMessage implements StreamMessage
         {
             throw new MessageNotReadableException("Message is in write mode");
         }
-        if(data.empty())
+        if(isEndOfData())
         {
             throw new MessageEOFException("No more data");
         }
@@ -84,7 +88,7 @@ public class MockStreamMessage extends MockMessage implements StreamMessage
         {
             throw new MessageNotReadableException("Message is in write mode");
         }
-        if(data.empty())
+        if(isEndOfData())
         {
             throw new MessageEOFException("No more data");
         }
@@ -109,7 +113,7 @@ public class MockStreamMessage extends MockMessage implements StreamMessage
         {
             throw new MessageNotReadableException("Message is in write mode");
         }
-        if(data.empty())
+        if(isEndOfData())
         {
             throw new MessageEOFException("No more data");
         }
@@ -131,7 +135,7 @@ public class MockStreamMessage extends MockMessage implements StreamMessage
         {
             throw new MessageNotReadableException("Message is in write mode");
         }
-        if(data.empty())
+        if(isEndOfData())
         {
             throw new MessageEOFException("No more data");
         }
@@ -156,7 +160,7 @@ public class MockStreamMessage extends MockMessage implements StreamMessage
         {
             throw new MessageNotReadableException("Message is in write mode");
         }
-        if(data.empty())
+        if(isEndOfData())
         {
             throw new MessageEOFException("No more data");
         }
@@ -181,7 +185,7 @@ public class MockStreamMessage extends MockMessage implements StreamMessage
         {
             throw new MessageNotReadableException("Message is in write mode");
         }
-        if(data.empty())
+        if(isEndOfData())
         {
             throw new MessageEOFException("No more data");
         }
@@ -206,7 +210,7 @@ public class MockStreamMessage extends MockMessage implements StreamMessage
         {
             throw new MessageNotReadableException("Message is in write mode");
         }
-        if(data.empty())
+        if(isEndOfData())
         {
             throw new MessageEOFException("No more data");
         }
@@ -231,7 +235,7 @@ public class MockStreamMessage extends MockMessage implements StreamMessage
         {
             throw new MessageNotReadableException("Message is in write mode");
         }
-        if(data.empty())
+        if(isEndOfData())
         {
             throw new MessageEOFException("No more data");
         }
@@ -250,7 +254,7 @@ public class MockStreamMessage extends MockMessage implements StreamMessage
         {
             throw new MessageNotReadableException("Message is in write mode");
         }
-        if(data.empty())
+        if(isEndOfData())
         {
             throw new MessageEOFException("No more data");
         }
@@ -258,43 +262,37 @@ public class MockStreamMessage extends MockMessage implements StreamMessage
         {
             throw new NullPointerException();
         }
-        Object value = readObject();
+        boolean continued = partiallyReadBytes;
+        int offset = bytesOffset;
+        partiallyReadBytes = false;
+        bytesOffset = 0;
+        Object value = data.get(readIndex++);
         if(null == value)
         {
-            remainingBytesPushed = false;
             return -1;
         }
         if(!(value instanceof byte[]))
         {
-            remainingBytesPushed = false;
             throw new MessageFormatException(value.getClass().getName() + " cannot be converted to byte[]");
         }
-        int fieldLength = ((byte[])value).length;
+        int fieldLength = ((byte[])value).length - offset;
         if(0 == fieldLength)
         {
-            if(remainingBytesPushed)
-            {
-                remainingBytesPushed = false;
-                return -1;
-            }
-            return 0;
+            return continued ? -1 : 0;
         }
-        if(0 == byteData.length && remainingBytesPushed)
+        if(0 == byteData.length && continued)
         {
-            remainingBytesPushed = false;
             return -1;
         }
-        remainingBytesPushed = false;
         if(fieldLength < byteData.length)
         {
-            System.arraycopy(value, 0, byteData, 0, fieldLength);
+            System.arraycopy(value, offset, byteData, 0, fieldLength);
             return fieldLength;
         }
-        System.arraycopy(value, 0, byteData, 0, byteData.length);
-        byte[] remaining = new byte[fieldLength - byteData.length];
-        System.arraycopy(value, byteData.length, remaining, 0, remaining.length);
-        data.push(remaining);
-        remainingBytesPushed = true;
+        System.arraycopy(value, offset, byteData, 0, byteData.length);
+        readIndex--;
+        bytesOffset = offset + byteData.length;
+        partiallyReadBytes = true;
         return byteData.length;
     }
 
@@ -304,11 +302,14 @@ public class MockStreamMessage extends MockMessage implements StreamMessage
         {
             throw new MessageNotReadableException("Message is in write mode");
         }
-        if(data.empty())
+        if(isEndOfData())
         {
             throw new MessageEOFException("No more data");
         }
-        return data.pop();
+        Object value = getRemainingValue(readIndex++);
+        partiallyReadBytes = false;
+        bytesOffset = 0;
+        return value;
     }
 
     public void writeBoolean(boolean value) throws JMSException
@@ -423,18 +424,18 @@ public class MockStreamMessage extends MockMessage implements StreamMessage
         }
         if(null == object)
         {
-            data.push(object);
+            getWritableData().push(object);
             return;
         }
         if((object instanceof String) || (object instanceof Number) || (object instanceof Character) || (object instanceof Boolean))
         {
-            data.push(object);
+            getWritableData().push(object);
             return;
         }
         if(object instanceof byte[])
         {
             byte[] arrayData = ((byte[])object).clone();
-            data.push(arrayData);
+            getWritableData().push(arrayData);
             return;
         }
         throw new MessageFormatException(object.getClass() + " not a valid type");
@@ -443,36 +444,35 @@ public class MockStreamMessage extends MockMessage implements StreamMessage
     public void reset() throws JMSException
     {
         setReadOnly(true);
-        Collections.reverse(data);
-        remainingBytesPushed = false;
+        readIndex = 0;
+        bytesOffset = 0;
+        partiallyReadBytes = false;
     }
 
     public void clearBody() throws JMSException
     {
         super.clearBody();
         data = new Stack();
-        remainingBytesPushed = false;
+        dataShared = false;
+        readIndex = 0;
+        bytesOffset = 0;
+        partiallyReadBytes = false;
     }
     
     /**
-     * Compares the underlying stream data.
+     * Compares the underlying stream data. In read mode
+     * only the data that was not read yet is compared.
      */
     public boolean equals(Object otherObject)
     {
         if(null == otherObject) return false;
         if(!(otherObject instanceof MockStreamMessage)) return false;
         MockStreamMessage otherMessage = (MockStreamMessage)otherObject;
-        if(data.size() != otherMessage.data.size()) return false;
-        Vector otherData = otherMessage.data;
-        if(isInWriteMode() != otherMessage.isInWriteMode())
+        if(getRemainingSize() != otherMessage.getRemainingSize()) return false;
+        for(int ii = 0; ii < getRemainingSize(); ii++)
         {
-            otherData = new Vector(otherData);
-            Collections.reverse(otherData);
-        }
-        for(int ii = 0; ii < data.size(); ii++)
-        {
-            Object nextValue = data.get(ii);
-            Object otherValue = otherData.get(ii);
+            Object nextValue = getRemainingValue(getStartIndex() + ii);
+            Object otherValue = otherMessage.getRemainingValue(otherMessage.getStartIndex() + ii);
             if(null == nextValue)
             {
                 if(null != otherValue) return false;
@@ -494,12 +494,9 @@ public class MockStreamMessage extends MockMessage implements StreamMessage
     public int hashCode()
     {
         int value = 17;
-        Vector theData = new Vector(data);
-        if(isInWriteMode())
+        for(int ii = data.size() - 1; ii >= getStartIndex(); ii--)
         {
-            Collections.reverse(theData);
-        }
-        for (Object nextValue : theData) {
+            Object nextValue = getRemainingValue(ii);
             if (nextValue instanceof byte[]) {
                 for (int yy = 0; yy < ((byte[]) nextValue).length; yy++) {
                     value = (31 * value) + ((byte[]) nextValue)[yy];
@@ -515,9 +512,9 @@ public class MockStreamMessage extends MockMessage implements StreamMessage
     {
         MockStreamMessage message = (MockStreamMessage)super.clone();
         message.data = new Stack();
-        for(int ii = 0; ii < data.size(); ii++)
+        for(int ii = getStartIndex(); ii < data.size(); ii++)
         {
-            Object nextValue = data.get(ii);
+            Object nextValue = getRemainingValue(ii);
             if(nextValue instanceof byte[])
             {
                 message.data.add(((byte[])nextValue).clone());
@@ -527,12 +524,70 @@ public class MockStreamMessage extends MockMessage implements StreamMessage
                 message.data.add(nextValue);
             }
         }
+        message.dataShared = false;
+        message.readIndex = 0;
+        message.bytesOffset = 0;
         return message;
     }
+    
+    /**
+     * Clones this message and shares the stream data with the clone.
+     * The data is copied by the message that writes to it first.
+     * Reading the message does not change the data.
+     */
+    public MockMessage copyOnWriteClone()
+    {
+        MockStreamMessage message = (MockStreamMessage)super.copyOnWriteClone();
+        dataShared = true;
+        message.dataShared = true;
+        return message;
+    }
+    
+    private Stack getWritableData()
+    {
+        if(dataShared)
+        {
+            Stack copy = new Stack();
+            copy.addAll(data);
+            data = copy;
+            dataShared = false;
+        }
+        return data;
+    }
+    
+    private boolean isEndOfData()
+    {
+        return readIndex >= data.size();
+    }
+    
+    private int getStartIndex()
+    {
+        return isInWriteMode() ? 0 : readIndex;
+    }
+    
+    private int getRemainingSize()
+    {
+        return data.size() - getStartIndex();
+    }
+    
+    /**
+     * Returns the value at the specified index. If the bytes
+     * of the current value were partially read, the remaining
+     * bytes are returned.
+     * @param index the index
+     * @return the value
+     */
+    private Object getRemainingValue(int index)
+    {
+        Object value = data.get(index);
+        if(index != readIndex || 0 == bytesOffset || isInWriteMode()) return value;
+        byte[] bytes = (byte[])value;
+        return Arrays.copyOfRange(bytes, bytesOffset, bytes.length);
+    }
 
     public String toString()
     {
-        return this.getClass().getName() + ": " + data.toString();
+        return this.getClass().getName() + ": " + data.subList(getStartIndex(), data.size()).toString();
     }
 
     private String getNullDatumMessage(String typename) {
@@ -5,15 +5,18 @@ import javax.jms.TemporaryQueue;
 
 /**
  * Mock implementation of JMS <code>TemporaryQueue</code>.
+ * A deleted temporary queue is freed when all its consumers
+ * are closed. Temporary queues are deleted when their
+ * connection is closed.
  */
 public class MockTemporaryQueue extends MockQueue implements TemporaryQueue
 {
-    private boolean deleted;
+    private TemporaryDestinationState state;
     
     public MockTemporaryQueue()
     {
         super("TemporaryQueue");
-        deleted = false;
+        state = new TemporaryDestinationState(this);
     }
     
     /**
@@ -22,11 +25,45 @@ public class MockTemporaryQueue extends MockQueue implements TemporaryQueue
      */
     public boolean isDeleted()
     {
-        return deleted;
+        return state.isDeleted();
+    }
+    
+    /**
+     * Returns if this temporary queue is freed, i.e. it is
+     * deleted and there are no open consumers anymore.
+     * @return <code>true</code> if this queue is freed 
+     */
+    public boolean isFreed()
+    {
+        return state.isFreed();
+    }
+    
+    /**
+     * Returns the number of open consumers of this queue.
+     * @return the number of open consumers
+     */
+    public int getReferenceCount()
+    {
+        return state.getReferenceCount();
     }
 
     public void delete() throws JMSException
     {
-        deleted = true;
+        state.delete();
+    }
+    
+    void setOwner(MockSession owner)
+    {
+        state.setOwner(owner);
+    }
+    
+    void retain()
+    {
+        state.retain();
+    }
+    
+    void release()
+    {
+        state.release();
     }
 }
@@ -5,15 +5,18 @@ import javax.jms.TemporaryTopic;
 
 /**
  * Mock implementation of JMS <code>TemporaryTopic</code>.
+ * A deleted temporary topic is freed when all its consumers
+ * are closed. Temporary topics are deleted when their
+ * connection is closed.
  */
 public class MockTemporaryTopic extends MockTopic implements TemporaryTopic
 {
-    private boolean deleted;
+    private TemporaryDestinationState state;
     
     public MockTemporaryTopic()
     {
         super("TemporaryTopic");
-        deleted = false;
+        state = new TemporaryDestinationState(this);
     }
     
     /**
@@ -22,11 +25,45 @@ public class MockTemporaryTopic extends MockTopic implements TemporaryTopic
      */
     public boolean isDeleted()
     {
-        return deleted;
+        return state.isDeleted();
+    }
+    
+    /**
+     * Returns if this temporary topic is freed, i.e. it is
+     * deleted and there are no open consumers anymore.
+     * @return <code>true</code> if this topic is freed 
+     */
+    public boolean isFreed()
+    {
+        return state.isFreed();
+    }
+    
+    /**
+     * Returns the number of open consumers of this topic.
+     * @return the number of open consumers
+     */
+    public int getReferenceCount()
+    {
+        return state.getReferenceCount();
     }
 
     public void delete() throws JMSException
     {
-        deleted = true;
-    }  
+        state.delete();
+    }
+    
+    void setOwner(MockSession owner)
+    {
+        state.setOwner(owner);
+    }
+    
+    void retain()
+    {
+        state.retain();
+    }
+    
+    void release()
+    {
+        state.release();
+    }
 }
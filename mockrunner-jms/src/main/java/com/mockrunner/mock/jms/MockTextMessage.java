@@ -1,15 +1,23 @@
 package com.mockrunner.mock.jms;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 import javax.jms.JMSException;
 import javax.jms.MessageNotWriteableException;
 import javax.jms.TextMessage;
 
 /**
  * Mock implementation of JMS <code>TextMessage</code>.
+ * Messages read from a {@link MessageJournal} decode
+ * their text when it is requested the first time.
  */
 public class MockTextMessage extends MockMessage implements TextMessage
 {
     private String text;
+    private transient ByteBuffer encodedText;
     
     public MockTextMessage()
     {
@@ -28,22 +36,52 @@ public class MockTextMessage extends MockMessage implements TextMessage
             throw new MessageNotWriteableException("Message is in read mode");
         }
         this.text = text;
+        encodedText = null;
     }
 
     public String getText() throws JMSException
     {
+        return decodeText();
+    }
+    
+    /**
+     * Sets the UTF-8 encoded text, which is decoded by the first
+     * call of {@link #getText}. The buffer is not copied.
+     * @param encodedText the encoded text
+     */
+    void setEncodedText(ByteBuffer encodedText)
+    {
+        text = null;
+        this.encodedText = encodedText;
+    }
+    
+    private String decodeText()
+    {
+        ByteBuffer buffer = encodedText;
+        if(null != buffer)
+        {
+            text = StandardCharsets.UTF_8.decode(buffer.duplicate()).toString();
+            encodedText = null;
+        }
         return text;
     }
     
+    private void writeObject(ObjectOutputStream stream) throws IOException
+    {
+        decodeText();
+        stream.defaultWriteObject();
+    }
+    
     public String toString()
     {
-        return this.getClass().getName() + ": " + text; 
+        return this.getClass().getName() + ": " + decodeText(); 
     }
 
     public void clearBody() throws JMSException
     {
         super.clearBody();
         text = null;
+        encodedText = null;
     }
     
     /**
@@ -56,12 +94,15 @@ public class MockTextMessage extends MockMessage implements TextMessage
         if(null == otherObject) return false;
         if(!(otherObject instanceof MockTextMessage)) return false;
         MockTextMessage otherMessage = (MockTextMessage)otherObject;
-        if(null == text && null == otherMessage.text) return true;
-        return text.equals(otherMessage.text);
+        String text = decodeText();
+        String otherText = otherMessage.decodeText();
+        if(null == text && null == otherText) return true;
+        return text.equals(otherText);
     }
 
     public int hashCode()
     {
+        String text = decodeText();
         if(null == text) return 0;
         return text.hashCode();
     }
@@ -1,6 +1,8 @@
 package com.mockrunner.mock.jms;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -9,12 +11,26 @@ import javax.jms.Message;
 import javax.jms.MessageListener;
 import javax.jms.Topic;
 
+import com.mockrunner.base.NestedApplicationException;
+import com.mockrunner.jms.SharedSelectorEvaluator;
+import com.mockrunner.jms.TopicTransmissionManager;
+
 /**
  * Mock implementation of JMS <code>Topic</code>.
  */
 public class MockTopic extends MockDestination implements Topic
 {
+    private static final ThreadLocal SELECTOR_RESULTS = new ThreadLocal()
+    {
+        protected Object initialValue()
+        {
+            return new SelectorResults();
+        }
+    };
+    
     private String name;
+    private transient volatile SharedSelectorEvaluator selectorEvaluator;
+    private transient volatile Routes routes;
     
     public MockTopic(String name)
     {
@@ -26,46 +42,259 @@ public class MockTopic extends MockDestination implements Topic
         return name;
     }
     
+    /**
+     * Returns the evaluator for the selectors of the subscribers
+     * of this topic.
+     * @return the evaluator
+     */
+    public SharedSelectorEvaluator getSelectorEvaluator()
+    {
+        SharedSelectorEvaluator currentEvaluator = selectorEvaluator;
+        if(null != currentEvaluator) return currentEvaluator;
+        synchronized(this)
+        {
+            if(null == selectorEvaluator)
+            {
+                selectorEvaluator = new SharedSelectorEvaluator();
+            }
+            return selectorEvaluator;
+        }
+    }
+    
     /**
      * Adds a message to this <code>Topic</code> that will
      * be propagated to the corresponding receivers.
+     * The selectors of the subscribers are evaluated together,
+     * each distinct selector only once. The subscribers and their
+     * selectors are looked up when they change, not for every message.
      * @param message the message
      */
     public void addMessage(Message message) throws JMSException
     {
-        addReceivedMessage(message);    
+        addReceivedMessage(message);
+        if(hasSessions() && deliverMessage(getRoutes(), message)) return;
+        addCurrentMessage(message);
+    }
+    
+    /**
+     * Adds messages to this <code>Topic</code> that will
+     * be propagated to the corresponding receivers.
+     * The subscribers are looked up once for all messages.
+     * The messages that are not consumed are added to the
+     * current messages together.
+     * @param messages the messages
+     */
+    public void addMessages(List messages) throws JMSException
+    {
+        if(!hasSessions())
+        {
+            for(Object message : messages)
+            {
+                addReceivedMessage((Message)message);
+            }
+            addCurrentMessages(messages);
+            return;
+        }
+        Routes currentRoutes = getRoutes();
+        List unconsumed = null;
+        for (Object currentMessage : messages) {
+            Message message = (Message) currentMessage;
+            addReceivedMessage(message);
+            if (!deliverMessage(currentRoutes, message)) {
+                if (null == unconsumed) unconsumed = new ArrayList();
+                unconsumed.add(message);
+            }
+        }
+        if(null != unconsumed)
+        {
+            addCurrentMessages(unconsumed);
+        }
+    }
+    
+    private Routes getRoutes() throws JMSException
+    {
+        Routes currentRoutes = routes;
+        if(null != currentRoutes && currentRoutes.isValid(getSessionVersion(), name)) return currentRoutes;
+        currentRoutes = new Routes(getSessionVersion(), sessionSet().toArray(), name);
+        routes = currentRoutes;
+        return currentRoutes;
+    }
+    
+    private boolean deliverMessage(Routes currentRoutes, Message message) throws JMSException
+    {
+        if(0 == currentRoutes.consumers.length) return false;
+        if(0 == currentRoutes.selectors.length)
+        {
+            deliverToAll(currentRoutes, message, null);
+            return true;
+        }
+        SelectorResults selectorResults = (SelectorResults)SELECTOR_RESULTS.get();
+        Object[] results = selectorResults.acquire(currentRoutes.selectors.length);
+        try
+        {
+            getSelectorEvaluator().evaluate(currentRoutes.selectors, message, results);
+            return deliverToAll(currentRoutes, message, results);
+        }
+        finally
+        {
+            selectorResults.release(currentRoutes.selectors.length);
+        }
+    }
+    
+    private boolean deliverToAll(Routes currentRoutes, Message message, Object[] results) throws JMSException
+    {
         boolean isConsumed = false;
-        for (Object o1 : sessionSet()) {
-            MockSession session = (MockSession) o1;
-            MessageListener globalListener = session.getMessageListener();
-            if (null != globalListener) {
-                globalListener.onMessage(message);
+        for (int ii = 0; ii < currentRoutes.consumers.length; ii++) {
+            int selectorIndex = currentRoutes.selectorIndexes[ii];
+            if (selectorIndex < 0 || matches(results[selectorIndex])) {
+                deliverMessage(currentRoutes.consumers[ii], message, currentRoutes.consumerSessions[ii]);
                 isConsumed = true;
-                acknowledgeMessage(message, session);
-            } else {
-                List subscribers = session.getTopicTransmissionManager().getTopicSubscriberList(name);
-                for (Object subscriber1 : subscribers) {
-                    MockTopicSubscriber subscriber = (MockTopicSubscriber) subscriber1;
-                    if (subscriber.canConsume(message)) {
-                        subscriber.receiveMessage(message);
-                        isConsumed = true;
-                        acknowledgeMessage(message, session);
-                    }
+            }
+        }
+        return isConsumed;
+    }
+    
+    private boolean matches(Object result)
+    {
+        if(result instanceof RuntimeException) throw (RuntimeException)result;
+        if(result instanceof Error) throw (Error)result;
+        if(result instanceof Throwable) throw new NestedApplicationException((Throwable)result);
+        return Boolean.TRUE.equals(result);
+    }
+    
+    /**
+     * The consumers of a topic, built from its sessions and their
+     * open subscribers, and the distinct selectors of the consumers.
+     * The routes are reused until a session is added or removed,
+     * a session listener is set, a subscriber is created or closed,
+     * or the listener of a subscriber is set. Checking this compares
+     * references only.
+     */
+    private static class Routes
+    {
+        private long sessionVersion;
+        private MockSession[] sessions;
+        private MessageListener[] sessionListeners;
+        private MockTopicSubscriber[][] openSubscribers;
+        private MockTopicSubscriber[][] durableSubscribers;
+        private MockTopicSubscriber[] subscribers;
+        private boolean[] listening;
+        private String[] subscriberSelectors;
+        private Object[] consumers;
+        private MockSession[] consumerSessions;
+        private int[] selectorIndexes;
+        private String[] selectors;
+        
+        public Routes(long sessionVersion, Object[] sessionArray, String name) throws JMSException
+        {
+            this.sessionVersion = sessionVersion;
+            sessions = new MockSession[sessionArray.length];
+            sessionListeners = new MessageListener[sessionArray.length];
+            openSubscribers = new MockTopicSubscriber[sessionArray.length][];
+            durableSubscribers = new MockTopicSubscriber[sessionArray.length][];
+            List subscriberList = new ArrayList();
+            List consumerList = new ArrayList();
+            List sessionList = new ArrayList();
+            List selectorIndexList = new ArrayList();
+            Map selectorMap = new LinkedHashMap();
+            for (int ii = 0; ii < sessionArray.length; ii++) {
+                MockSession session = (MockSession) sessionArray[ii];
+                sessions[ii] = session;
+                sessionListeners[ii] = session.getMessageListener();
+                if (null != sessionListeners[ii]) {
+                    consumerList.add(sessionListeners[ii]);
+                    sessionList.add(session);
+                    selectorIndexList.add(Integer.valueOf(-1));
+                    continue;
                 }
-                Map durableSubscribers = session.getTopicTransmissionManager().getDurableTopicSubscriberMap(name);
-                for (Object o : durableSubscribers.keySet()) {
-                    MockTopicSubscriber subscriber = (MockTopicSubscriber) durableSubscribers.get(o);
-                    if (subscriber.canConsume(message)) {
-                        subscriber.receiveMessage(message);
-                        isConsumed = true;
-                        acknowledgeMessage(message, session);
+                openSubscribers[ii] = session.getTopicTransmissionManager().getOpenTopicSubscribers(name);
+                durableSubscribers[ii] = session.getTopicTransmissionManager().getOpenDurableTopicSubscribers(name);
+                MockTopicSubscriber[][] sessionSubscribers = new MockTopicSubscriber[][] {openSubscribers[ii], durableSubscribers[ii]};
+                for (MockTopicSubscriber[] currentSubscribers : sessionSubscribers) {
+                    for (MockTopicSubscriber subscriber : currentSubscribers) {
+                        subscriberList.add(subscriber);
+                        if (!subscriber.isListening()) continue;
+                        String selector = subscriber.getEffectiveMessageSelector();
+                        Integer selectorIndex = Integer.valueOf(-1);
+                        if (null != selector) {
+                            selectorIndex = (Integer) selectorMap.get(selector);
+                            if (null == selectorIndex) {
+                                selectorIndex = Integer.valueOf(selectorMap.size());
+                                selectorMap.put(selector, selectorIndex);
+                            }
+                        }
+                        consumerList.add(subscriber);
+                        sessionList.add(session);
+                        selectorIndexList.add(selectorIndex);
                     }
                 }
             }
+            subscribers = (MockTopicSubscriber[]) subscriberList.toArray(new MockTopicSubscriber[subscriberList.size()]);
+            listening = new boolean[subscribers.length];
+            subscriberSelectors = new String[subscribers.length];
+            for (int ii = 0; ii < subscribers.length; ii++) {
+                listening[ii] = subscribers[ii].isListening();
+                subscriberSelectors[ii] = subscribers[ii].getEffectiveMessageSelector();
+            }
+            consumers = consumerList.toArray();
+            consumerSessions = (MockSession[]) sessionList.toArray(new MockSession[sessionList.size()]);
+            selectorIndexes = new int[selectorIndexList.size()];
+            for (int ii = 0; ii < selectorIndexes.length; ii++) {
+                selectorIndexes[ii] = ((Integer) selectorIndexList.get(ii)).intValue();
+            }
+            selectors = (String[]) selectorMap.keySet().toArray(new String[selectorMap.size()]);
+        }
+        
+        public boolean isValid(long currentSessionVersion, String name) throws JMSException
+        {
+            if (currentSessionVersion != sessionVersion) return false;
+            for (int ii = 0; ii < sessions.length; ii++) {
+                MessageListener listener = sessions[ii].getMessageListener();
+                if (listener != sessionListeners[ii]) return false;
+                if (null != listener) continue;
+                TopicTransmissionManager manager = sessions[ii].getTopicTransmissionManager();
+                if (manager.getOpenTopicSubscribers(name) != openSubscribers[ii]) return false;
+                if (manager.getOpenDurableTopicSubscribers(name) != durableSubscribers[ii]) return false;
+            }
+            for (int ii = 0; ii < subscribers.length; ii++) {
+                if (subscribers[ii].isListening() != listening[ii]) return false;
+                if (subscribers[ii].getEffectiveMessageSelector() != subscriberSelectors[ii]) return false;
+            }
+            return true;
+        }
+    }
+    
+    /**
+     * The selector results of the messages the current thread is
+     * delivering. A listener may send a message to a topic while
+     * the results of the current message are still used, so each
+     * nested delivery gets its own array. The arrays are reused.
+     */
+    private static class SelectorResults
+    {
+        private Object[][] arrays = new Object[4][];
+        private int depth = 0;
+        
+        public Object[] acquire(int size)
+        {
+            if (depth == arrays.length) {
+                Object[][] newArrays = new Object[arrays.length * 2][];
+                System.arraycopy(arrays, 0, newArrays, 0, arrays.length);
+                arrays = newArrays;
+            }
+            Object[] results = arrays[depth];
+            if (null == results || results.length < size) {
+                results = new Object[Math.max(size, 8)];
+                arrays[depth] = results;
+            }
+            depth++;
+            return results;
         }
-        if(!isConsumed)
+        
+        public void release(int size)
         {
-            addCurrentMessage(message);
+            depth--;
+            Arrays.fill(arrays[depth], 0, size, null);
         }
     }
 }
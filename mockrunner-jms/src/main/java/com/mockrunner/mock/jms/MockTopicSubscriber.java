@@ -26,6 +26,7 @@ public class MockTopicSubscriber extends MockMessageConsumer implements TopicSub
         super(connection, messageSelector);
         this.session = session;
         this.topic = topic;
+        if(null != topic) topic.retain();
         this.noLocal = noLocal;
         name = null;
         isDurable = false;
@@ -99,19 +100,18 @@ public class MockTopicSubscriber extends MockMessageConsumer implements TopicSub
             message = topic.getMatchingMessage(getMessageFilter());
         }
         if(null == message) return null;
-        if(session.isAutoAcknowledge()) message.acknowledge();
+        if(!session.stageConsumedMessage(topic, this, message) && session.isAutoAcknowledge()) message.acknowledge();
         return message;
     }
     
-    protected void waitOnMessage(long timeout)
+    public void close() throws JMSException
     {
-    	try {
-    		synchronized(topic) {
-        		//TODO: notify on topic, wait on timeout
-    			// this behavior causes a 10 ms poll, as opposed to a wait. 
-    			topic.wait(10);
-    		}
-		} catch (InterruptedException ignored) {
-		}
+        super.close();
+        if(null != session) session.getTopicTransmissionManager().topicSubscriberClosed(this);
+    }
+    
+    protected MockDestination getMockDestination()
+    {
+        return topic;
     }
 }
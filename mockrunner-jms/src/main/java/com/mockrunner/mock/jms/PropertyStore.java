@@ -0,0 +1,419 @@
+package com.mockrunner.mock.jms;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Stores the properties of a {@link MockMessage} and the data of a
+ * {@link MockMapMessage}. Messages usually have a handful of
+ * entries, so the store keeps them in small arrays and searches
+ * them linearly. Stores with more entries build a hash index of
+ * the names on the first lookup. Primitive values are stored unboxed
+ * in a <code>long</code> slot together with a type code.
+ * <br>
+ * Copying a store only copies the arrays. The messages use
+ * {@link #copy} to implement copy on write.
+ */
+final class PropertyStore implements Serializable
+{
+    static final byte NULL = 0;
+    static final byte BOOLEAN = 1;
+    static final byte BYTE = 2;
+    static final byte SHORT = 3;
+    static final byte CHAR = 4;
+    static final byte INT = 5;
+    static final byte LONG = 6;
+    static final byte FLOAT = 7;
+    static final byte DOUBLE = 8;
+    static final byte STRING = 9;
+    static final byte BYTES = 10;
+    static final byte NUMBER = 11;
+
+    private static final int INITIAL_CAPACITY = 4;
+    private static final int INDEX_THRESHOLD = 8;
+    private static final String[] TYPE_NAMES = new String[] {"null", Boolean.class.getName(), Byte.class.getName(), Short.class.getName(), Character.class.getName(), Integer.class.getName(), Long.class.getName(), Float.class.getName(), Double.class.getName(), String.class.getName(), byte[].class.getName()};
+
+    private String[] names;
+    private byte[] types;
+    private long[] primitives;
+    private Object[] objects;
+    private int size;
+    private transient Map nameIndex;
+
+    public PropertyStore()
+    {
+        size = 0;
+    }
+
+    /**
+     * Returns the index of the entry with the specified name.
+     * @param name the name
+     * @return the index or -1 if there is no such entry
+     */
+    public int indexOf(String name)
+    {
+        if(size > INDEX_THRESHOLD)
+        {
+            Integer index = (Integer)getNameIndex().get(name);
+            return (null == index) ? -1 : index;
+        }
+        for(int ii = 0; ii < size; ii++)
+        {
+            if(names[ii].equals(name)) return ii;
+        }
+        return -1;
+    }
+
+    public boolean contains(String name)
+    {
+        return indexOf(name) >= 0;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public String getName(int index)
+    {
+        return names[index];
+    }
+
+    public byte getType(int index)
+    {
+        return types[index];
+    }
+
+    /**
+     * Returns the class name of the value at the specified index,
+     * i.e. the name of the wrapper type for primitives.
+     * @param index the index
+     * @return the class name
+     */
+    public String getTypeName(int index)
+    {
+        if(NUMBER == types[index]) return objects[index].getClass().getName();
+        return TYPE_NAMES[types[index]];
+    }
+
+    public boolean getBoolean(int index)
+    {
+        return primitives[index] != 0;
+    }
+
+    /**
+     * Returns the primitive value at the specified index as <code>long</code>.
+     * Only valid for <code>BYTE</code>, <code>SHORT</code>, <code>CHAR</code>,
+     * <code>INT</code> and <code>LONG</code> entries.
+     * @param index the index
+     * @return the value
+     */
+    public long getLong(int index)
+    {
+        return primitives[index];
+    }
+
+    /**
+     * Returns the primitive value at the specified index as <code>double</code>.
+     * Only valid for <code>FLOAT</code> and <code>DOUBLE</code> entries.
+     * @param index the index
+     * @return the value
+     */
+    public double getDouble(int index)
+    {
+        if(FLOAT == types[index])
+        {
+            return Float.intBitsToFloat((int)primitives[index]);
+        }
+        return Double.longBitsToDouble(primitives[index]);
+    }
+
+    /**
+     * Returns the value at the specified index. Primitives
+     * are wrapped into their corresponding type.
+     * @param index the index
+     * @return the value
+     */
+    public Object getObject(int index)
+    {
+        switch(types[index])
+        {
+            case BOOLEAN: return getBoolean(index);
+            case BYTE: return (byte)primitives[index];
+            case SHORT: return (short)primitives[index];
+            case CHAR: return (char)primitives[index];
+            case INT: return (int)primitives[index];
+            case LONG: return primitives[index];
+            case FLOAT: return Float.intBitsToFloat((int)primitives[index]);
+            case DOUBLE: return Double.longBitsToDouble(primitives[index]);
+            default: return objects[index];
+        }
+    }
+
+    /**
+     * Returns the value with the specified name. Primitives
+     * are wrapped into their corresponding type.
+     * @param name the name
+     * @return the value or <code>null</code> if there is no such entry
+     */
+    public Object get(String name)
+    {
+        int index = indexOf(name);
+        if(index < 0) return null;
+        return getObject(index);
+    }
+
+    public void putBoolean(String name, boolean value)
+    {
+        putPrimitive(name, BOOLEAN, value ? 1 : 0);
+    }
+
+    public void putByte(String name, byte value)
+    {
+        putPrimitive(name, BYTE, value);
+    }
+
+    public void putShort(String name, short value)
+    {
+        putPrimitive(name, SHORT, value);
+    }
+
+    public void putChar(String name, char value)
+    {
+        putPrimitive(name, CHAR, value);
+    }
+
+    public void putInt(String name, int value)
+    {
+        putPrimitive(name, INT, value);
+    }
+
+    public void putLong(String name, long value)
+    {
+        putPrimitive(name, LONG, value);
+    }
+
+    public void putFloat(String name, float value)
+    {
+        putPrimitive(name, FLOAT, Float.floatToRawIntBits(value));
+    }
+
+    public void putDouble(String name, double value)
+    {
+        putPrimitive(name, DOUBLE, Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Stores the specified value. Wrapper types are unwrapped.
+     * Other <code>Number</code> types, e.g. <code>BigDecimal</code>,
+     * are stored as they are.
+     * The caller is responsible for checking the type. Values
+     * that are not <code>String</code>, <code>byte[]</code>,
+     * <code>null</code>, wrappers of primitives or
+     * <code>Number</code> are ignored.
+     * @param name the name
+     * @param value the value
+     */
+    public void put(String name, Object value)
+    {
+        if(null == value) putReference(name, NULL, null);
+        else if(value instanceof String) putReference(name, STRING, value);
+        else if(value instanceof Integer) putInt(name, (Integer)value);
+        else if(value instanceof Long) putLong(name, (Long)value);
+        else if(value instanceof Boolean) putBoolean(name, (Boolean)value);
+        else if(value instanceof Double) putDouble(name, (Double)value);
+        else if(value instanceof Float) putFloat(name, (Float)value);
+        else if(value instanceof Short) putShort(name, (Short)value);
+        else if(value instanceof Byte) putByte(name, (Byte)value);
+        else if(value instanceof Character) putChar(name, (Character)value);
+        else if(value instanceof byte[]) putReference(name, BYTES, value);
+        else if(value instanceof Number) putReference(name, NUMBER, value);
+    }
+
+    /**
+     * Returns a copy of this store. The values are not copied.
+     * @return the copy
+     */
+    public PropertyStore copy()
+    {
+        PropertyStore copy = new PropertyStore();
+        copy.size = size;
+        if(size > 0)
+        {
+            copy.names = names.clone();
+            copy.types = types.clone();
+            copy.primitives = primitives.clone();
+            copy.objects = objects.clone();
+        }
+        return copy;
+    }
+
+    /**
+     * Replaces the byte arrays of this store with copies.
+     */
+    public void cloneBytes()
+    {
+        for(int ii = 0; ii < size; ii++)
+        {
+            if(BYTES == types[ii])
+            {
+                objects[ii] = ((byte[])objects[ii]).clone();
+            }
+        }
+    }
+
+    public Enumeration names()
+    {
+        Vector vector = new Vector(size);
+        for(int ii = 0; ii < size; ii++)
+        {
+            vector.add(names[ii]);
+        }
+        return vector.elements();
+    }
+
+    /**
+     * Copies the entries to the specified <code>Map</code>.
+     * Byte arrays are cloned if <code>cloneBytes</code> is <code>true</code>.
+     * @param target the target <code>Map</code>
+     * @param cloneBytes clone the byte arrays
+     */
+    public void copyTo(Map target, boolean cloneBytes)
+    {
+        for(int ii = 0; ii < size; ii++)
+        {
+            Object value = getObject(ii);
+            if(cloneBytes && (value instanceof byte[]))
+            {
+                value = ((byte[])value).clone();
+            }
+            target.put(names[ii], value);
+        }
+    }
+
+    /**
+     * Returns if the other store has the same entries.
+     * The order of the entries is not relevant.
+     * @param other the other store
+     * @return <code>true</code> if the entries are equal
+     */
+    public boolean equalEntries(PropertyStore other)
+    {
+        if(size != other.size) return false;
+        for(int ii = 0; ii < size; ii++)
+        {
+            int otherIndex = other.indexOf(names[ii]);
+            if(otherIndex < 0) return false;
+            if(types[ii] != other.types[otherIndex]) return false;
+            if(types[ii] >= STRING || NULL == types[ii])
+            {
+                if(!equalReferences(objects[ii], other.objects[otherIndex])) return false;
+            }
+            else if(primitives[ii] != other.primitives[otherIndex])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a hash code of the values that does not depend
+     * on the order of the entries.
+     * @return the hash code
+     */
+    public int valueHashCode()
+    {
+        int value = 17;
+        for(int ii = 0; ii < size; ii++)
+        {
+            if(BYTES == types[ii])
+            {
+                value += Arrays.hashCode((byte[])objects[ii]);
+            }
+            else if(NULL != types[ii])
+            {
+                value += getObject(ii).hashCode();
+            }
+        }
+        return value;
+    }
+
+    private boolean equalReferences(Object value, Object otherValue)
+    {
+        if(null == value) return null == otherValue;
+        if(value instanceof byte[])
+        {
+            return (otherValue instanceof byte[]) && Arrays.equals((byte[])value, (byte[])otherValue);
+        }
+        return value.equals(otherValue);
+    }
+
+    private void putPrimitive(String name, byte type, long value)
+    {
+        int index = getOrAddIndex(name);
+        types[index] = type;
+        primitives[index] = value;
+        objects[index] = null;
+    }
+
+    private void putReference(String name, byte type, Object value)
+    {
+        int index = getOrAddIndex(name);
+        types[index] = type;
+        primitives[index] = 0;
+        objects[index] = value;
+    }
+
+    private int getOrAddIndex(String name)
+    {
+        int index = indexOf(name);
+        if(index >= 0) return index;
+        if(null == names)
+        {
+            names = new String[INITIAL_CAPACITY];
+            types = new byte[INITIAL_CAPACITY];
+            primitives = new long[INITIAL_CAPACITY];
+            objects = new Object[INITIAL_CAPACITY];
+        }
+        else if(size == names.length)
+        {
+            int capacity = size * 2;
+            names = Arrays.copyOf(names, capacity);
+            types = Arrays.copyOf(types, capacity);
+            primitives = Arrays.copyOf(primitives, capacity);
+            objects = Arrays.copyOf(objects, capacity);
+        }
+        names[size] = name;
+        if(null != nameIndex) nameIndex.put(name, size);
+        return size++;
+    }
+
+    /**
+     * The index is not copied or serialized,
+     * it's built again when it's needed.
+     */
+    private Map getNameIndex()
+    {
+        if(null == nameIndex)
+        {
+            nameIndex = new HashMap(size * 2);
+            for(int ii = 0; ii < size; ii++)
+            {
+                nameIndex.put(names[ii], ii);
+            }
+        }
+        return nameIndex;
+    }
+
+    public String toString()
+    {
+        Map map = new HashMap();
+        copyTo(map, false);
+        return map.toString();
+    }
+}
@@ -0,0 +1,83 @@
+package com.mockrunner.mock.jms;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The lifecycle of a {@link MockTemporaryQueue} or a
+ * {@link MockTemporaryTopic}. The open consumers of the
+ * destination are counted. A deleted destination is freed
+ * when there are no open consumers anymore. Freed destinations
+ * are reported to the session that created them.
+ */
+final class TemporaryDestinationState implements Serializable
+{
+    private MockDestination destination;
+    private transient MockSession owner;
+    private volatile boolean deleted;
+    private boolean freed;
+    private AtomicInteger references;
+
+    public TemporaryDestinationState(MockDestination destination)
+    {
+        this.destination = destination;
+        deleted = false;
+        freed = false;
+        references = new AtomicInteger();
+    }
+
+    public void setOwner(MockSession owner)
+    {
+        this.owner = owner;
+    }
+
+    public boolean isDeleted()
+    {
+        return deleted;
+    }
+
+    public synchronized boolean isFreed()
+    {
+        return freed;
+    }
+
+    public int getReferenceCount()
+    {
+        return references.get();
+    }
+
+    public void retain()
+    {
+        references.incrementAndGet();
+    }
+
+    public void release()
+    {
+        if(0 == references.decrementAndGet() && deleted)
+        {
+            free();
+        }
+    }
+
+    public void delete()
+    {
+        deleted = true;
+        if(0 == references.get())
+        {
+            free();
+        }
+    }
+
+    private void free()
+    {
+        synchronized(this)
+        {
+            if(freed) return;
+            freed = true;
+        }
+        if(null != owner)
+        {
+            owner.temporaryDestinationFreed(destination);
+        }
+    }
+}
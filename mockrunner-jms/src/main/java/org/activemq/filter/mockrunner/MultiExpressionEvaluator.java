@@ -20,9 +20,10 @@ package org.activemq.filter.mockrunner;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 /**
  * A MultiExpressionEvaluator is used to evaluate multiple expressions in
@@ -71,6 +72,12 @@ import java.util.Iterator;
  *
  * Alwin Ibba: Changed package
  *
+ * Mockrunner: The cached values are kept per evaluation instead of using a view
+ * counter, so several threads can evaluate concurrently, as long as no expressions
+ * are added or removed. The map of cached values is reused by the next evaluation
+ * of the same thread. Exceptions are passed to the listeners and removing an
+ * expression releases all of its sub expressions.
+ *
  * @version $Revision: 1.3 $ $Date: 2005/10/27 16:38:12 $
  */
 public class MultiExpressionEvaluator {
@@ -78,17 +85,20 @@ public class MultiExpressionEvaluator {
     HashMap rootExpressions = new HashMap();
     HashMap cachedExpressions = new HashMap();
 
-    int view = 0;
+    final ThreadLocal cachedValues = new ThreadLocal();
+    final ThreadLocal reusableValues = new ThreadLocal() {
+        protected Object initialValue() {
+            return new IdentityHashMap();
+        }
+    };
 
     /**
      * A UnaryExpression that caches the result of the
      * nested expression.  The cached value is valid
-     * if the CacheExpression.cview==MultiExpressionEvaluator.view
+     * during the current evaluation of the calling thread.
      */
     public class CacheExpression extends UnaryExpression {
         short refCount = 0;
-        int cview = view - 1;
-        Object cachedValue;
         int cachedHashCode;
 
         public CacheExpression(Expression realExpression) {
@@ -103,12 +113,16 @@ public class MultiExpressionEvaluator {
          * 
          */
         public Object evaluate(Message message) throws JMSException {
-            if (view == cview) {
-                return cachedValue;
+            Map values = (Map) cachedValues.get();
+            if (values == null) {
+                return right.evaluate(message);
+            }
+            if (values.containsKey(this)) {
+                return values.get(this);
             }
-            cachedValue = right.evaluate(message);
-            cview = view;
-            return cachedValue;
+            Object value = right.evaluate(message);
+            values.put(this, value);
+            return value;
         }
 
         public int hashCode() {
@@ -141,8 +155,10 @@ public class MultiExpressionEvaluator {
     /**
      * Objects that are interested in the results of an expression
      * should implement this interface.
+     * <p>
+     * Mockrunner: Public, the result is the exception, if the evaluation failed.
      */
-    interface ExpressionListener {
+    public interface ExpressionListener {
         void evaluateResultEvent(Expression selector, Message message, Object result);
     }
 
@@ -240,9 +256,10 @@ public class MultiExpressionEvaluator {
     private void removeFromCache(CacheExpression cn) {
         cn.refCount--;
         Expression realExpr = cn.getRight();
-        if (cn.refCount == 0) {
-            cachedExpressions.remove(realExpr);
+        if (cn.refCount != 0) {
+            return;
         }
+        cachedExpressions.remove(realExpr);
         if (realExpr instanceof UnaryExpression) {
             UnaryExpression un = (UnaryExpression) realExpr;
             removeFromCache((CacheExpression) un.getRight());
@@ -250,6 +267,7 @@ public class MultiExpressionEvaluator {
         if (realExpr instanceof BinaryExpression) {
             BinaryExpression bn = (BinaryExpression) realExpr;
             removeFromCache((CacheExpression) bn.getRight());
+            removeFromCache((CacheExpression) bn.getLeft());
         }
     }
 
@@ -257,22 +275,82 @@ public class MultiExpressionEvaluator {
      * Evaluates the message against all the Expressions added to
      * this object.  The added ExpressionListeners are notified
      * of the result of the evaluation.
+     * <p>
+     * Mockrunner: The results are returned, too.
      *
      * @param message the message
+     * @return the results keyed by the string representation of the expressions
      */
-    public void evaluate(Message message) {
-        Collection expressionListeners = rootExpressions.values();
-        for (Object expressionListener : expressionListeners) {
-            ExpressionListenerSet els = (ExpressionListenerSet) expressionListener;
-            try {
-                Object result = els.expression.evaluate(message);
+    public Map evaluate(Message message) {
+        Map results = new HashMap();
+        Map values = beginEvaluation();
+        try {
+            for (Object currentEntry : rootExpressions.entrySet()) {
+                Map.Entry entry = (Map.Entry) currentEntry;
+                ExpressionListenerSet els = (ExpressionListenerSet) entry.getValue();
+                Object result;
+                try {
+                    result = els.expression.evaluate(message);
+                } catch (Throwable e) {
+                    result = e;
+                }
+                results.put(entry.getKey(), result);
                 for (Object listener : els.listeners) {
                     ExpressionListener l = (ExpressionListener) listener;
                     l.evaluateResultEvent(els.expression, message, result);
                 }
-            } catch (Throwable e) {
-                e.printStackTrace();
             }
+        } finally {
+            endEvaluation(values);
+        }
+        return results;
+    }
+
+    /**
+     * Mockrunner: Returns the root expression that was added for the specified
+     * expression string, e.g. to pass it to {@link #evaluate(Message, Expression[], Object[])}.
+     *
+     * @param expression the string representation of the expression
+     * @return the root expression or <code>null</code>, if no such expression was added
+     */
+    public Expression getRootExpression(String expression) {
+        ExpressionListenerSet els = (ExpressionListenerSet) rootExpressions.get(expression);
+        return (els == null) ? null : els.expression;
+    }
+
+    /**
+     * Mockrunner: Evaluates the specified root expressions and stores the results
+     * in the array at the same index. The result is the exception, if the evaluation
+     * failed. The listeners are not notified and nothing is allocated by this
+     * method, so it can be used for every message sent to a destination.
+     *
+     * @param message the message
+     * @param expressions the root expressions obtained with {@link #getRootExpression}
+     * @param results the array of results, at least as long as the expressions
+     */
+    public void evaluate(Message message, Expression[] expressions, Object[] results) {
+        Map values = beginEvaluation();
+        try {
+            for (int i = 0; i < expressions.length; i++) {
+                try {
+                    results[i] = expressions[i].evaluate(message);
+                } catch (Throwable e) {
+                    results[i] = e;
+                }
+            }
+        } finally {
+            endEvaluation(values);
         }
     }
+
+    private Map beginEvaluation() {
+        Map values = (Map) reusableValues.get();
+        cachedValues.set(values);
+        return values;
+    }
+
+    private void endEvaluation(Map values) {
+        values.clear();
+        cachedValues.set(null);
+    }
 }
\ No newline at end of file
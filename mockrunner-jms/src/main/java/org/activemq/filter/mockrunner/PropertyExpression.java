@@ -31,35 +31,19 @@ import javax.jms.Message;
 public class PropertyExpression implements Expression {
 
     private String name;
+    private SelectorCompiler.PropertyNode node;
 
     public PropertyExpression(String name) {
         this.name = name;
+        node = new SelectorCompiler.PropertyNode(name);
     }
 
+    /**
+     * Mockrunner: Uses the property node of the compiled selectors,
+     * which determines the header when it's created.
+     */
     public Object evaluate(Message message) throws JMSException {
-        Object result = null;
-        if (name != null) {
-            result = message.getObjectProperty(name);
-        }
-        if (result == null) {
-            //see if a defined header property
-            if (name.equals("JMSType")) {
-                result = message.getJMSType();
-            }
-            else if (name.equals("JMSMessageID")) {
-                result = message.getJMSMessageID();
-            }
-            else if (name.equals("JMSCorrelationID")) {
-                result = message.getJMSCorrelationID();
-            }
-            else if (name.equals("JMSPriority")) {
-                result = message.getJMSPriority();
-            }
-            else if (name.equals("JMSTimestamp")) {
-                result = message.getJMSTimestamp();
-            }
-        }
-        return result;
+        return node.evaluate(message);
     }
 
     public String getName() {
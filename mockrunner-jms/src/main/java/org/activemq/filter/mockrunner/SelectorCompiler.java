@@ -0,0 +1,617 @@
+package org.activemq.filter.mockrunner;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.jms.InvalidSelectorException;
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import org.activemq.selector.mockrunner.SelectorParser;
+import org.apache.oro.text.regex.Pattern;
+import org.apache.oro.text.regex.Perl5Matcher;
+
+/**
+ * Mockrunner: Compiles the expression tree created by the {@link SelectorParser}
+ * into an evaluator, that produces the same results as the expression tree.
+ * <br>
+ * The evaluator resolves the JMS header accessors when the selector is compiled,
+ * compares numbers without boxing them and evaluates boolean operators without
+ * creating <code>Boolean</code> objects. Expressions it does not know are
+ * evaluated by the expression tree.
+ * <br>
+ * The compiled filters are immutable and can be shared between consumers and threads.
+ * {@link #compile(String)} keeps them in a cache keyed by the selector string.
+ * The cache holds the 1024 most recently used selectors.
+ */
+public class SelectorCompiler {
+
+    private static final int MAX_CACHE_SIZE = 1024;
+
+    private static final int FALSE = 0;
+    private static final int TRUE = 1;
+    private static final int UNKNOWN = 2;
+
+    private static final int EQUAL = 0;
+    private static final int GREATER_THAN = 1;
+    private static final int GREATER_THAN_EQUAL = 2;
+    private static final int LESS_THAN = 3;
+    private static final int LESS_THAN_EQUAL = 4;
+
+    private static final Map<String, Filter> CACHE = new LinkedHashMap<String, Filter>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, Filter> eldest) {
+            return size() > MAX_CACHE_SIZE;
+        }
+    };
+
+    private SelectorCompiler() {
+    }
+
+    /**
+     * Parses and compiles a selector. The compiled filter is cached, so
+     * consumers with the same selector share it. If the cache is full,
+     * the least recently used selector is removed.
+     *
+     * @param selector the selector
+     * @return the compiled filter
+     * @throws InvalidSelectorException if the selector cannot be parsed
+     */
+    public static Filter compile(String selector) throws InvalidSelectorException {
+        Filter filter;
+        synchronized (CACHE) {
+            filter = CACHE.get(selector);
+        }
+        if (filter != null) {
+            return filter;
+        }
+        filter = compile(new SelectorParser().parse(selector));
+        synchronized (CACHE) {
+            Filter cachedFilter = CACHE.get(selector);
+            if (cachedFilter != null) {
+                return cachedFilter;
+            }
+            CACHE.put(selector, filter);
+        }
+        return filter;
+    }
+
+    /**
+     * Compiles a filter created by the {@link SelectorParser}. Other filters
+     * are returned unchanged.
+     *
+     * @param filter the filter
+     * @return the compiled filter
+     */
+    public static Filter compile(Filter filter) {
+        if (filter instanceof CompiledFilter || !(filter instanceof ExpressionFilter)) {
+            return filter;
+        }
+        Expression expression = ((ExpressionFilter) filter).getExpression();
+        return new CompiledFilter(expression, compileBoolean(expression));
+    }
+
+    /**
+     * Removes all selectors from the cache.
+     */
+    public static void clearCache() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+
+    private static BooleanNode compileBoolean(Expression expression) {
+        if (expression instanceof LogicExpression) {
+            LogicExpression logic = (LogicExpression) expression;
+            String symbol = logic.getExpressionSymbol();
+            if ("AND".equals(symbol)) {
+                return new AndNode(compileBoolean(logic.getLeft()), compileBoolean(logic.getRight()));
+            }
+            if ("OR".equals(symbol)) {
+                return new OrNode(compileBoolean(logic.getLeft()), compileBoolean(logic.getRight()));
+            }
+        }
+        else if (expression instanceof UnaryExpression.BooleanCastExpression) {
+            return new BooleanCastNode(compileValue(((UnaryExpression) expression).getRight()));
+        }
+        else if (expression instanceof UnaryExpression.InExpression) {
+            UnaryExpression.InExpression in = (UnaryExpression.InExpression) expression;
+            return new InNode(compileValue(in.getRight()), in.inList, in.not);
+        }
+        else if (expression instanceof ComparisonExpression.LikeExpression) {
+            ComparisonExpression.LikeExpression like = (ComparisonExpression.LikeExpression) expression;
+            return new LikeNode(compileValue(like.getRight()), like.likePattern);
+        }
+        else if (expression instanceof UnaryExpression.BooleanUnaryExpression
+                && "NOT".equals(((UnaryExpression) expression).getExpressionSymbol())
+                && ((UnaryExpression) expression).getRight() instanceof BooleanExpression) {
+            return new NotNode(compileBoolean(((UnaryExpression) expression).getRight()));
+        }
+        else if (expression instanceof ComparisonExpression) {
+            ComparisonExpression comparison = (ComparisonExpression) expression;
+            int operator = getOperator(comparison.getExpressionSymbol());
+            if (operator >= 0) {
+                return createComparison(comparison, operator);
+            }
+        }
+        else if (expression instanceof ConstantExpression) {
+            Object value = ((ConstantExpression) expression).getValue();
+            if (value == null) {
+                return new ConstantBooleanNode(UNKNOWN);
+            }
+            if (value instanceof Boolean) {
+                return new ConstantBooleanNode(((Boolean) value) ? TRUE : FALSE);
+            }
+        }
+        return new InterpretedBooleanNode(expression);
+    }
+
+    private static ValueNode compileValue(Expression expression) {
+        if (expression instanceof PropertyExpression) {
+            return new PropertyNode(((PropertyExpression) expression).getName());
+        }
+        if (expression instanceof ConstantExpression) {
+            return new ConstantNode(((ConstantExpression) expression).getValue());
+        }
+        if (expression instanceof ArithmeticExpression) {
+            ArithmeticExpression arithmetic = (ArithmeticExpression) expression;
+            return new ArithmeticNode(arithmetic, compileValue(arithmetic.getLeft()), compileValue(arithmetic.getRight()));
+        }
+        return new InterpretedValueNode(expression);
+    }
+
+    private static int getOperator(String symbol) {
+        if ("=".equals(symbol)) return EQUAL;
+        if (">".equals(symbol)) return GREATER_THAN;
+        if (">=".equals(symbol)) return GREATER_THAN_EQUAL;
+        if ("<".equals(symbol)) return LESS_THAN;
+        if ("<=".equals(symbol)) return LESS_THAN_EQUAL;
+        return -1;
+    }
+
+    private static BooleanNode createComparison(ComparisonExpression comparison, int operator) {
+        ValueNode left = compileValue(comparison.getLeft());
+        Expression right = comparison.getRight();
+        if (operator != EQUAL && right instanceof ConstantExpression) {
+            Object value = ((ConstantExpression) right).getValue();
+            if (value instanceof Integer || value instanceof Long) {
+                return new LongConstantComparisonNode(comparison, operator, left, value);
+            }
+            if (value instanceof Double) {
+                return new DoubleConstantComparisonNode(comparison, operator, left, value);
+            }
+        }
+        return new ComparisonNode(comparison, operator, left, compileValue(right));
+    }
+
+    private static int toTriState(Object value) {
+        if (value == null) return UNKNOWN;
+        return ((Boolean) value) ? TRUE : FALSE;
+    }
+
+    private static int toTriState(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    private static boolean asBoolean(int operator, int answer) {
+        switch (operator) {
+            case EQUAL:
+                return answer == 0;
+            case GREATER_THAN:
+                return answer > 0;
+            case GREATER_THAN_EQUAL:
+                return answer >= 0;
+            case LESS_THAN:
+                return answer < 0;
+            default:
+                return answer <= 0;
+        }
+    }
+
+    /**
+     * Compares two values like {@link ComparisonExpression#compare} does. Integer,
+     * Long and Double values and values of the same class are compared here,
+     * all other combinations are passed to the expression tree.
+     */
+    private static int compare(ComparisonExpression comparison, int operator, Object lv, Object rv) {
+        Class lc = lv.getClass();
+        Class rc = rv.getClass();
+        if (lc == Integer.class || lc == Long.class) {
+            if (rc == Integer.class || rc == Long.class) {
+                return toTriState(asBoolean(operator, Long.compare(((Number) lv).longValue(), ((Number) rv).longValue())));
+            }
+            if (rc == Double.class) {
+                return toTriState(asBoolean(operator, Double.compare(((Number) lv).doubleValue(), (Double) rv)));
+            }
+        }
+        else if (lc == Double.class) {
+            if (rc == Integer.class || rc == Long.class || rc == Double.class) {
+                return toTriState(asBoolean(operator, Double.compare((Double) lv, ((Number) rv).doubleValue())));
+            }
+        }
+        else if (lc == String.class && rc == String.class) {
+            return toTriState(asBoolean(operator, ((String) lv).compareTo((String) rv)));
+        }
+        if (!(lv instanceof Comparable) || !(rv instanceof Comparable)) {
+            return FALSE;
+        }
+        return toTriState(comparison.compare((Comparable) lv, (Comparable) rv));
+    }
+
+    static class CompiledFilter extends ExpressionFilter {
+
+        private final BooleanNode root;
+
+        CompiledFilter(Expression expression, BooleanNode root) {
+            super(expression);
+            this.root = root;
+        }
+
+        public boolean matches(Message message) throws JMSException {
+            return root.evaluate(message) == TRUE;
+        }
+    }
+
+    abstract static class BooleanNode {
+        abstract int evaluate(Message message) throws JMSException;
+    }
+
+    abstract static class ValueNode {
+        abstract Object evaluate(Message message) throws JMSException;
+    }
+
+    static class AndNode extends BooleanNode {
+
+        private final BooleanNode left;
+        private final BooleanNode right;
+
+        AndNode(BooleanNode left, BooleanNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        int evaluate(Message message) throws JMSException {
+            int lv = left.evaluate(message);
+            if (lv != TRUE) {
+                return lv;
+            }
+            return right.evaluate(message);
+        }
+    }
+
+    static class OrNode extends BooleanNode {
+
+        private final BooleanNode left;
+        private final BooleanNode right;
+
+        OrNode(BooleanNode left, BooleanNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        int evaluate(Message message) throws JMSException {
+            if (left.evaluate(message) == TRUE) {
+                return TRUE;
+            }
+            return right.evaluate(message);
+        }
+    }
+
+    static class NotNode extends BooleanNode {
+
+        private final BooleanNode node;
+
+        NotNode(BooleanNode node) {
+            this.node = node;
+        }
+
+        int evaluate(Message message) throws JMSException {
+            int value = node.evaluate(message);
+            if (value == UNKNOWN) {
+                return UNKNOWN;
+            }
+            return value == TRUE ? FALSE : TRUE;
+        }
+    }
+
+    static class ConstantBooleanNode extends BooleanNode {
+
+        private final int value;
+
+        ConstantBooleanNode(int value) {
+            this.value = value;
+        }
+
+        int evaluate(Message message) {
+            return value;
+        }
+    }
+
+    static class BooleanCastNode extends BooleanNode {
+
+        private final ValueNode node;
+
+        BooleanCastNode(ValueNode node) {
+            this.node = node;
+        }
+
+        int evaluate(Message message) throws JMSException {
+            Object value = node.evaluate(message);
+            if (value == null) {
+                return UNKNOWN;
+            }
+            if (value.getClass() != Boolean.class) {
+                return FALSE;
+            }
+            return ((Boolean) value) ? TRUE : FALSE;
+        }
+    }
+
+    static class InNode extends BooleanNode {
+
+        private final ValueNode node;
+        private final Collection inList;
+        private final boolean not;
+
+        InNode(ValueNode node, Collection inList, boolean not) {
+            this.node = node;
+            this.inList = (inList == null) ? null : new HashSet(inList);
+            this.not = not;
+        }
+
+        int evaluate(Message message) throws JMSException {
+            Object value = node.evaluate(message);
+            if (value == null || value.getClass() != String.class) {
+                return UNKNOWN;
+            }
+            return toTriState((inList != null && inList.contains(value)) ^ not);
+        }
+    }
+
+    static class LikeNode extends BooleanNode {
+
+        private static final ThreadLocal<Perl5Matcher> MATCHER = new ThreadLocal<Perl5Matcher>() {
+            protected Perl5Matcher initialValue() {
+                return new Perl5Matcher();
+            }
+        };
+
+        private final ValueNode node;
+        private final Pattern pattern;
+
+        LikeNode(ValueNode node, Pattern pattern) {
+            this.node = node;
+            this.pattern = pattern;
+        }
+
+        int evaluate(Message message) throws JMSException {
+            Object value = node.evaluate(message);
+            if (value == null) {
+                return UNKNOWN;
+            }
+            if (!(value instanceof String)) {
+                return FALSE;
+            }
+            return toTriState(MATCHER.get().matches((String) value, pattern));
+        }
+    }
+
+    static class ComparisonNode extends BooleanNode {
+
+        private final ComparisonExpression comparison;
+        private final int operator;
+        private final ValueNode left;
+        private final ValueNode right;
+
+        ComparisonNode(ComparisonExpression comparison, int operator, ValueNode left, ValueNode right) {
+            this.comparison = comparison;
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        int evaluate(Message message) throws JMSException {
+            Object lv = left.evaluate(message);
+            if (operator == EQUAL) {
+                Object rv = right.evaluate(message);
+                if (lv == null ^ rv == null) {
+                    return FALSE;
+                }
+                if (lv == rv || lv.equals(rv)) {
+                    return TRUE;
+                }
+                return compare(comparison, operator, lv, rv);
+            }
+            if (lv == null) {
+                return UNKNOWN;
+            }
+            Object rv = right.evaluate(message);
+            if (rv == null) {
+                return UNKNOWN;
+            }
+            return compare(comparison, operator, lv, rv);
+        }
+    }
+
+    /**
+     * Compares a value with an <code>Integer</code> or <code>Long</code> constant.
+     */
+    static class LongConstantComparisonNode extends BooleanNode {
+
+        private final ComparisonExpression comparison;
+        private final int operator;
+        private final ValueNode left;
+        private final Object constant;
+        private final long longConstant;
+
+        LongConstantComparisonNode(ComparisonExpression comparison, int operator, ValueNode left, Object constant) {
+            this.comparison = comparison;
+            this.operator = operator;
+            this.left = left;
+            this.constant = constant;
+            this.longConstant = ((Number) constant).longValue();
+        }
+
+        int evaluate(Message message) throws JMSException {
+            Object lv = left.evaluate(message);
+            if (lv == null) {
+                return UNKNOWN;
+            }
+            Class lc = lv.getClass();
+            if (lc == Integer.class || lc == Long.class) {
+                return toTriState(asBoolean(operator, Long.compare(((Number) lv).longValue(), longConstant)));
+            }
+            return compare(comparison, operator, lv, constant);
+        }
+    }
+
+    /**
+     * Compares a value with a <code>Double</code> constant.
+     */
+    static class DoubleConstantComparisonNode extends BooleanNode {
+
+        private final ComparisonExpression comparison;
+        private final int operator;
+        private final ValueNode left;
+        private final Object constant;
+        private final double doubleConstant;
+
+        DoubleConstantComparisonNode(ComparisonExpression comparison, int operator, ValueNode left, Object constant) {
+            this.comparison = comparison;
+            this.operator = operator;
+            this.left = left;
+            this.constant = constant;
+            this.doubleConstant = (Double) constant;
+        }
+
+        int evaluate(Message message) throws JMSException {
+            Object lv = left.evaluate(message);
+            if (lv == null) {
+                return UNKNOWN;
+            }
+            Class lc = lv.getClass();
+            if (lc == Integer.class || lc == Long.class || lc == Double.class) {
+                return toTriState(asBoolean(operator, Double.compare(((Number) lv).doubleValue(), doubleConstant)));
+            }
+            return compare(comparison, operator, lv, constant);
+        }
+    }
+
+    static class InterpretedBooleanNode extends BooleanNode {
+
+        private final Expression expression;
+
+        InterpretedBooleanNode(Expression expression) {
+            this.expression = expression;
+        }
+
+        int evaluate(Message message) throws JMSException {
+            Object value = expression.evaluate(message);
+            if (value == null) {
+                return UNKNOWN;
+            }
+            return (value instanceof Boolean && (Boolean) value) ? TRUE : FALSE;
+        }
+    }
+
+    /**
+     * Reads a property. Like {@link PropertyExpression}, a header is only
+     * used if there's no property with the same name, but the header is
+     * determined when the selector is compiled.
+     */
+    static class PropertyNode extends ValueNode {
+
+        private static final int NO_HEADER = 0;
+        private static final int TYPE = 1;
+        private static final int MESSAGE_ID = 2;
+        private static final int CORRELATION_ID = 3;
+        private static final int PRIORITY = 4;
+        private static final int TIMESTAMP = 5;
+
+        private final String name;
+        private final int header;
+
+        PropertyNode(String name) {
+            this.name = name;
+            if ("JMSType".equals(name)) header = TYPE;
+            else if ("JMSMessageID".equals(name)) header = MESSAGE_ID;
+            else if ("JMSCorrelationID".equals(name)) header = CORRELATION_ID;
+            else if ("JMSPriority".equals(name)) header = PRIORITY;
+            else if ("JMSTimestamp".equals(name)) header = TIMESTAMP;
+            else header = NO_HEADER;
+        }
+
+        Object evaluate(Message message) throws JMSException {
+            Object value = (name != null) ? message.getObjectProperty(name) : null;
+            if (value != null) {
+                return value;
+            }
+            switch (header) {
+                case TYPE:
+                    return message.getJMSType();
+                case MESSAGE_ID:
+                    return message.getJMSMessageID();
+                case CORRELATION_ID:
+                    return message.getJMSCorrelationID();
+                case PRIORITY:
+                    return message.getJMSPriority();
+                case TIMESTAMP:
+                    return message.getJMSTimestamp();
+                default:
+                    return null;
+            }
+        }
+    }
+
+    static class ConstantNode extends ValueNode {
+
+        private final Object value;
+
+        ConstantNode(Object value) {
+            this.value = value;
+        }
+
+        Object evaluate(Message message) {
+            return value;
+        }
+    }
+
+    static class ArithmeticNode extends ValueNode {
+
+        private final ArithmeticExpression arithmetic;
+        private final ValueNode left;
+        private final ValueNode right;
+
+        ArithmeticNode(ArithmeticExpression arithmetic, ValueNode left, ValueNode right) {
+            this.arithmetic = arithmetic;
+            this.left = left;
+            this.right = right;
+        }
+
+        Object evaluate(Message message) throws JMSException {
+            Object lv = left.evaluate(message);
+            if (lv == null) {
+                return null;
+            }
+            Object rv = right.evaluate(message);
+            if (rv == null) {
+                return null;
+            }
+            return arithmetic.evaluate(lv, rv);
+        }
+    }
+
+    static class InterpretedValueNode extends ValueNode {
+
+        private final Expression expression;
+
+        InterpretedValueNode(Expression expression) {
+            this.expression = expression;
+        }
+
+        Object evaluate(Message message) throws JMSException {
+            return expression.evaluate(message);
+        }
+    }
+}
@@ -69,53 +69,66 @@ public abstract class UnaryExpression implements Expression {
     	else {
     		t = new HashSet(elements);
     	}
-    	final Collection inList = t;
+    	return new InExpression(right, t, not);
+    }
+
+    /**
+     * Mockrunner: Named class, so the selector compiler can access the list.
+     */
+    static class InExpression extends BooleanUnaryExpression {
     	
-        return new BooleanUnaryExpression(right) {
-            public Object evaluate(Message message) throws JMSException {
-            	
-                Object rvalue = this.right.evaluate(message);
-                if (rvalue == null) {
-                    return null;
-                }
-                if( rvalue.getClass()!=String.class )
-                	return null;
-                
-                if( (inList!=null && inList.contains(rvalue)) ^ not ) {
-                	return Boolean.TRUE;
-                } else {
-                	return Boolean.FALSE;                	
-                }
-                
+    	final Collection inList;
+    	final boolean not;
+    	
+    	InExpression(PropertyExpression right, Collection inList, boolean not) {
+    		super(right);
+    		this.inList = inList;
+    		this.not = not;
+    	}
+    	
+        public Object evaluate(Message message) throws JMSException {
+        	
+            Object rvalue = this.right.evaluate(message);
+            if (rvalue == null) {
+                return null;
             }
+            if( rvalue.getClass()!=String.class )
+            	return null;
+            
+            if( (inList!=null && inList.contains(rvalue)) ^ not ) {
+            	return Boolean.TRUE;
+            } else {
+            	return Boolean.FALSE;                	
+            }
+            
+        }
 
-            public String toString() {
-            	StringBuilder answer = new StringBuilder();
-            	answer.append(this.right);
-            	answer.append(" ");
-            	answer.append(getExpressionSymbol());
-            	answer.append(" ( ");
-
-            	int count=0;
-                for (Object o : inList) {
-                    if (count != 0) {
-                        answer.append(", ");
-                    }
-                    answer.append(o);
-                    count++;
+        public String toString() {
+        	StringBuilder answer = new StringBuilder();
+        	answer.append(this.right);
+        	answer.append(" ");
+        	answer.append(getExpressionSymbol());
+        	answer.append(" ( ");
+
+        	int count=0;
+            for (Object o : inList) {
+                if (count != 0) {
+                    answer.append(", ");
                 }
-            	
-            	answer.append(" )");				
-                return answer.toString();
+                answer.append(o);
+                count++;
+            }
+        	
+        	answer.append(" )");				
+            return answer.toString();
 			}
 			
-            public String getExpressionSymbol() {
-            	if( not )
-            		return "NOT IN";
-            	else 
-            		return "IN";
-            }
-        };
+        public String getExpressionSymbol() {
+        	if( not )
+        		return "NOT IN";
+        	else 
+        		return "IN";
+        }
     }
 
     abstract static class BooleanUnaryExpression extends UnaryExpression implements BooleanExpression {
@@ -142,21 +155,31 @@ public abstract class UnaryExpression implements Expression {
     }
 
     public static BooleanExpression createBooleanCast(Expression left) {
-        return new BooleanUnaryExpression(left) {
-            public Object evaluate(Message message) throws JMSException {
-                Object lvalue = right.evaluate(message);
-                if (lvalue == null) 
-                    return null;
-                if (!lvalue.getClass().equals(Boolean.class)) 
-                    return Boolean.FALSE;
-                               
-                return lvalue;
-            }
+        return new BooleanCastExpression(left);
+    }
 
-            public String getExpressionSymbol() {
-                return "NOT";
-            }
-        };
+    /**
+     * Mockrunner: Named class, so the selector compiler can recognize it.
+     */
+    static class BooleanCastExpression extends BooleanUnaryExpression {
+    	
+    	BooleanCastExpression(Expression left) {
+    		super(left);
+    	}
+    	
+        public Object evaluate(Message message) throws JMSException {
+            Object lvalue = right.evaluate(message);
+            if (lvalue == null) 
+                return null;
+            if (!lvalue.getClass().equals(Boolean.class)) 
+                return Boolean.FALSE;
+                           
+            return lvalue;
+        }
+
+        public String getExpressionSymbol() {
+            return "NOT";
+        }
     }
 
     private static Number negate(Number left) {
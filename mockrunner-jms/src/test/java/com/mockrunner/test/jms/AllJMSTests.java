@@ -13,7 +13,8 @@ import org.junit.runners.Suite;
 	MockQueueTest.class, MockTopicTest.class, TransmissionManagerTest.class,
 	JMSTestModuleTest.class, MessageSelectorTest.class, MockMessageConsumerTest.class,
 	MockDestinationTest.class, BasicJMSTestCaseAdapterTest.class,
-	JMSMockObjectFactoryTest.class, MockQueueBrowserTest.class, ConcurrencyTest.class
+	JMSMockObjectFactoryTest.class, MockQueueBrowserTest.class, ConcurrencyTest.class,
+	MessageClonerTest.class
 })
 public class AllJMSTests
 {
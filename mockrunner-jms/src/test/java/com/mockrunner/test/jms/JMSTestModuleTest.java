@@ -1,5 +1,12 @@
 package com.mockrunner.test.jms;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.jms.BytesMessage;
 import javax.jms.JMSException;
 import javax.jms.MapMessage;
@@ -30,6 +37,9 @@ import com.mockrunner.base.VerifyFailedException;
 import com.mockrunner.jms.DestinationManager;
 import com.mockrunner.jms.GenericTransmissionManager;
 import com.mockrunner.jms.JMSTestModule;
+import com.mockrunner.jms.MessageDispatchMode;
+import com.mockrunner.jms.MessageDispatcher;
+import com.mockrunner.jms.MessageRetentionPolicy;
 import com.mockrunner.jms.QueueTransmissionManager;
 import com.mockrunner.jms.TopicTransmissionManager;
 import com.mockrunner.jms.TransmissionManagerWrapper;
@@ -442,6 +452,76 @@ public class JMSTestModuleTest
         module.verifyAllTemporaryTopicsDeleted(0);
     }
     
+    @Test
+    public void testTemporaryDestinationLifecycleAndGauges() throws Exception
+    {
+        mockFactory.getConfigurationManager().setDiscardFreedTemporaryDestinations(true);
+        MockQueueSession session = (MockQueueSession)queueConnection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+        for(int ii = 0; ii < 100; ii++)
+        {
+            TemporaryQueue replyQueue = session.createTemporaryQueue();
+            session.createSender(replyQueue).send(new MockTextMessage("reply"));
+            replyQueue.delete();
+        }
+        assertEquals(0, session.getTemporaryQueueList().size());
+        assertEquals(0, module.getNumberTemporaryDestinations());
+        MockTemporaryQueue queue = (MockTemporaryQueue)session.createTemporaryQueue();
+        QueueReceiver receiver = session.createReceiver(queue);
+        assertEquals(1, queue.getReferenceCount());
+        queue.delete();
+        assertTrue(queue.isDeleted());
+        assertFalse(queue.isFreed());
+        assertEquals(1, module.getNumberTemporaryDestinations());
+        receiver.close();
+        assertTrue(queue.isFreed());
+        assertEquals(0, module.getNumberTemporaryDestinations());
+        MockTemporaryTopic topic = (MockTemporaryTopic)topicConnection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE).createTemporaryTopic();
+        assertEquals(1, module.getNumberTemporaryDestinations());
+        topicConnection.close();
+        assertTrue(topic.isDeleted());
+        assertTrue(topic.isFreed());
+        assertEquals(0, module.getNumberTemporaryDestinations());
+        DestinationManager manager = mockFactory.getDestinationManager();
+        MockQueue queue1 = manager.createQueue("Queue1");
+        assertSame(queue1, manager.getQueue("Queue1"));
+        queue1.loadMessage(new MockTextMessage("text"));
+        manager.createTopic("Topic1");
+        assertEquals(1, module.getNumberQueues());
+        assertEquals(1, module.getNumberTopics());
+        assertEquals(Integer.valueOf(1), module.getQueueDepths().get("Queue1"));
+        assertEquals(Integer.valueOf(0), module.getTopicDepths().get("Topic1"));
+        assertEquals(0, manager.evictIdleDestinations());
+        mockFactory.getConfigurationManager().setDestinationIdleTimeout(1);
+        Thread.sleep(10);
+        assertEquals(1, manager.evictIdleDestinations());
+        assertTrue(manager.existsQueue("Queue1"));
+        assertFalse(manager.existsTopic("Topic1"));
+    }
+    
+    @Test
+    public void testDiscardDeletedTemporaryDestinations() throws Exception
+    {
+        mockFactory.getConfigurationManager().setDiscardFreedTemporaryDestinations(true);
+        MockSession session = (MockSession)connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        MockTemporaryQueue queue1 = (MockTemporaryQueue)session.createTemporaryQueue();
+        MockTemporaryQueue queue2 = (MockTemporaryQueue)session.createTemporaryQueue();
+        MockTemporaryTopic topic1 = (MockTemporaryTopic)session.createTemporaryTopic();
+        MockTemporaryTopic topic2 = (MockTemporaryTopic)session.createTemporaryTopic();
+        queue1.delete();
+        topic2.delete();
+        assertEquals(1, session.getTemporaryQueueList().size());
+        assertSame(queue2, session.getTemporaryQueue(0));
+        assertEquals(1, session.getTemporaryTopicList().size());
+        assertSame(topic1, session.getTemporaryTopic(0));
+        session.createConsumer(queue2);
+        queue2.delete();
+        assertSame(queue2, session.getTemporaryQueue(0));
+        session.close();
+        assertTrue(session.getTemporaryQueueList().isEmpty());
+        topic1.delete();
+        assertTrue(session.getTemporaryTopicList().isEmpty());
+    }
+    
     @Test
     public void testTemporaryQueueAndTopicDifferentSessions() throws Exception
     {
@@ -2657,4 +2737,228 @@ public class JMSTestModuleTest
             }
         }
     }
+    
+    @Test
+    public void testVerifyReceivedMessagesWithRetentionPolicy() throws Exception
+    {
+        mockFactory.getConfigurationManager().setMessageRetentionPolicy(MessageRetentionPolicy.lastMessages(2));
+        DestinationManager manager = mockFactory.getDestinationManager();
+        MockQueue queue = manager.createQueue("queue");
+        assertEquals(MessageRetentionPolicy.lastMessages(2).toString(), queue.getMessageRetentionPolicy().toString());
+        queue.addMessage(new MockTextMessage("1"));
+        queue.addMessage(new MockTextMessage("2"));
+        module.verifyReceivedQueueMessageEquals("queue", 1, new MockTextMessage("2"));
+        queue.addMessage(new MockTextMessage("3"));
+        module.verifyNumberOfReceivedQueueMessages("queue", 3);
+        assertEquals(2, module.getReceivedMessageListFromQueue("queue").size());
+        try
+        {
+            module.verifyReceivedQueueMessageEquals("queue", 1, new MockTextMessage("3"));
+            fail();
+        }
+        catch(VerifyFailedException exc)
+        {
+            assertTrue(exc.getMessage().contains("received 3 messages"));
+            assertTrue(exc.getMessage().contains("last 2 messages"));
+        }
+    }
+    
+    @Test
+    public void testAsynchronousMessageDispatch() throws Exception
+    {
+        mockFactory.getConfigurationManager().setMessageDispatchMode(MessageDispatchMode.threadPool(3, 100));
+        MockTopic topic = mockFactory.getDestinationManager().createTopic("topic");
+        final Thread producerThread = Thread.currentThread();
+        final List[] receivedTexts = new List[3];
+        final AtomicInteger callsOnProducerThread = new AtomicInteger();
+        for(int ii = 0; ii < receivedTexts.length; ii++)
+        {
+            final List texts = Collections.synchronizedList(new ArrayList());
+            receivedTexts[ii] = texts;
+            module.registerTestMessageListenerForTopic(topicConnection, "topic", new MessageListener()
+            {
+                public void onMessage(Message message)
+                {
+                    if(Thread.currentThread() == producerThread) callsOnProducerThread.incrementAndGet();
+                    try
+                    {
+                        texts.add(((TextMessage)message).getText());
+                    }
+                    catch(JMSException exc)
+                    {
+                        throw new RuntimeException(exc);
+                    }
+                }
+            });
+        }
+        TopicSession session = topicConnection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+        TopicPublisher publisher = session.createPublisher(topic);
+        for(int ii = 0; ii < 50; ii++)
+        {
+            publisher.publish(session.createTextMessage(String.valueOf(ii)));
+        }
+        assertTrue(module.awaitMessageDispatch(10000));
+        assertEquals(0, callsOnProducerThread.get());
+        for(int ii = 0; ii < receivedTexts.length; ii++)
+        {
+            assertEquals(50, receivedTexts[ii].size());
+            for(int kk = 0; kk < 50; kk++)
+            {
+                assertEquals(String.valueOf(kk), receivedTexts[ii].get(kk));
+            }
+        }
+        module.verifyNumberOfReceivedTopicMessages("topic", 50);
+        assertTrue(topic.getMessageDispatcher().getExceptionList().isEmpty());
+    }
+    
+    @Test
+    public void testAsynchronousMessageDispatchBackPressure() throws Exception
+    {
+        mockFactory.getConfigurationManager().setMessageDispatchMode(MessageDispatchMode.forkJoin(2, 2));
+        final MockQueue queue = mockFactory.getDestinationManager().createQueue("queue");
+        final CountDownLatch latch = new CountDownLatch(1);
+        module.registerTestMessageListenerForQueue(queueConnection, "queue", new MessageListener()
+        {
+            public void onMessage(Message message)
+            {
+                try
+                {
+                    latch.await();
+                }
+                catch(InterruptedException exc)
+                {
+                    throw new RuntimeException(exc);
+                }
+                if(message instanceof MapMessage) throw new IllegalStateException("MapMessage");
+            }
+        });
+        final QueueSession session = queueConnection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+        final QueueSender sender = session.createSender(queue);
+        final AtomicInteger sentMessages = new AtomicInteger();
+        Thread producer = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    for(int ii = 0; ii < 5; ii++)
+                    {
+                        sender.send((ii == 4) ? session.createMapMessage() : session.createTextMessage());
+                        sentMessages.incrementAndGet();
+                    }
+                }
+                catch(JMSException exc)
+                {
+                    throw new RuntimeException(exc);
+                }
+            }
+        };
+        producer.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while(producer.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(2, sentMessages.get());
+        assertFalse(module.awaitMessageDispatch(50));
+        latch.countDown();
+        producer.join(10000);
+        assertEquals(5, sentMessages.get());
+        assertTrue(module.awaitMessageDispatch(10000));
+        module.verifyNumberOfReceivedQueueMessages("queue", 5);
+        module.verifyReceivedQueueMessageAcknowledged("queue", 3);
+        module.verifyReceivedQueueMessageNotAcknowledged("queue", 4);
+        List exceptions = queue.getMessageDispatcher().getExceptionList();
+        assertEquals(1, exceptions.size());
+        assertTrue(exceptions.get(0) instanceof IllegalStateException);
+    }
+    
+    @Test
+    public void testAsynchronousMessageDispatchReentrantSend() throws Exception
+    {
+        mockFactory.getConfigurationManager().setMessageDispatchMode(MessageDispatchMode.threadPool(1, 1));
+        MockQueue queue = mockFactory.getDestinationManager().createQueue("queue");
+        final QueueSession session = queueConnection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+        final QueueSender sender = session.createSender(queue);
+        final List texts = Collections.synchronizedList(new ArrayList());
+        QueueReceiver receiver = session.createReceiver(queue);
+        receiver.setMessageListener(new MessageListener()
+        {
+            public void onMessage(Message message)
+            {
+                try
+                {
+                    int number = Integer.parseInt(((TextMessage)message).getText());
+                    texts.add(String.valueOf(number));
+                    if(number < 10)
+                    {
+                        sender.send(session.createTextMessage(String.valueOf(number + 1)));
+                        sender.send(session.createTextMessage(String.valueOf(number + 100)));
+                    }
+                }
+                catch(JMSException exc)
+                {
+                    throw new RuntimeException(exc);
+                }
+            }
+        });
+        sender.send(session.createTextMessage("0"));
+        assertTrue(module.awaitMessageDispatch(10000));
+        assertEquals(21, texts.size());
+        assertEquals("0", texts.get(0));
+        assertEquals("1", texts.get(1));
+        assertEquals("100", texts.get(2));
+        assertTrue(queue.getMessageDispatcher().getExceptionList().isEmpty());
+    }
+    
+    @Test
+    public void testMessageDispatcherShutdown() throws Exception
+    {
+        mockFactory.getConfigurationManager().setMessageDispatchMode(MessageDispatchMode.forkJoin(1, 10));
+        MockQueue queue = mockFactory.getDestinationManager().createQueue("queue");
+        QueueSession session = queueConnection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+        QueueSender sender = session.createSender(queue);
+        QueueReceiver receiver = session.createReceiver(queue);
+        final AtomicInteger received = new AtomicInteger();
+        receiver.setMessageListener(new MessageListener()
+        {
+            public void onMessage(Message message)
+            {
+                received.incrementAndGet();
+            }
+        });
+        sender.send(session.createTextMessage("1"));
+        assertTrue(module.awaitMessageDispatch(10000));
+        MessageDispatcher dispatcher = queue.getMessageDispatcher();
+        assertEquals(1, dispatcher.getNumberOfConsumers());
+        receiver.close();
+        assertEquals(0, dispatcher.getNumberOfConsumers());
+        queue.clear();
+        assertTrue(dispatcher.isShutdown());
+        assertNull(queue.getMessageDispatcher());
+        receiver = session.createReceiver(queue);
+        receiver.setMessageListener(new MessageListener()
+        {
+            public void onMessage(Message message)
+            {
+                received.incrementAndGet();
+            }
+        });
+        sender.send(session.createTextMessage("2"));
+        assertTrue(module.awaitMessageDispatch(10000));
+        assertEquals(2, received.get());
+        dispatcher = queue.getMessageDispatcher();
+        assertFalse(dispatcher.isShutdown());
+        queue.setMessageDispatchMode(MessageDispatchMode.synchronous());
+        assertTrue(dispatcher.isShutdown());
+        sender.send(session.createTextMessage("3"));
+        assertEquals(3, received.get());
+        MessageDispatchMode threadPool = MessageDispatchMode.threadPool(1, 10);
+        queue.setMessageDispatchMode(threadPool);
+        sender.send(session.createTextMessage("4"));
+        assertTrue(threadPool.awaitQuiescence(10000));
+        dispatcher = queue.getMessageDispatcher();
+        mockFactory.getDestinationManager().removeQueue("queue");
+        assertTrue(dispatcher.isShutdown());
+    }
 }
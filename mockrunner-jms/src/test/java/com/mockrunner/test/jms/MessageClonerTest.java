@@ -0,0 +1,273 @@
+package com.mockrunner.test.jms;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Session;
+
+import org.junit.Test;
+
+import com.mockrunner.jms.ConfigurationManager;
+import com.mockrunner.jms.DestinationManager;
+import com.mockrunner.jms.MessageCloner;
+import com.mockrunner.mock.jms.MockBytesMessage;
+import com.mockrunner.mock.jms.MockMapMessage;
+import com.mockrunner.mock.jms.MockMessage;
+import com.mockrunner.mock.jms.MockObjectMessage;
+import com.mockrunner.mock.jms.MockQueue;
+import com.mockrunner.mock.jms.MockQueueConnection;
+import com.mockrunner.mock.jms.MockQueueSender;
+import com.mockrunner.mock.jms.MockSession;
+import com.mockrunner.mock.jms.MockStreamMessage;
+import com.mockrunner.mock.jms.MockTextMessage;
+
+public class MessageClonerTest
+{
+    private static final MessageCloner[] CLONERS = new MessageCloner[] {MessageCloner.standard(), MessageCloner.reflective(), MessageCloner.copyOnWrite(), MessageCloner.pooledSerialization()};
+
+    @Test
+    public void testCloneTextMessage() throws Exception
+    {
+        for(MessageCloner cloner : CLONERS)
+        {
+            MockTextMessage message = new MockTextMessage("text");
+            message.setStringProperty("name", "value");
+            MockTextMessage clone = (MockTextMessage)cloner.cloneMessage(message);
+            assertNotSame(message, clone);
+            assertEquals("text", clone.getText());
+            message.setText("other");
+            message.setStringProperty("name", "other");
+            clone.setIntProperty("number", 1);
+            assertEquals(cloner.toString(), "text", clone.getText());
+            assertEquals(cloner.toString(), "value", clone.getStringProperty("name"));
+            assertFalse(cloner.toString(), message.propertyExists("number"));
+            message.clearProperties();
+            assertEquals(cloner.toString(), "value", clone.getStringProperty("name"));
+        }
+    }
+
+    @Test
+    public void testCloneBytesMessage() throws Exception
+    {
+        for(MessageCloner cloner : CLONERS)
+        {
+            MockBytesMessage message = new MockBytesMessage();
+            message.writeInt(1);
+            message.writeInt(2);
+            MockBytesMessage clone = (MockBytesMessage)cloner.cloneMessage(message);
+            assertEquals(cloner.toString(), message, clone);
+            message.writeInt(3);
+            clone.writeInt(4);
+            message.reset();
+            clone.reset();
+            assertEquals(cloner.toString(), 12, message.getBodyLength());
+            assertEquals(cloner.toString(), 12, clone.getBodyLength());
+            assertEquals(1, clone.readInt());
+            assertEquals(2, clone.readInt());
+            assertEquals(cloner.toString(), 4, clone.readInt());
+            assertEquals(1, message.readInt());
+            assertEquals(2, message.readInt());
+            assertEquals(cloner.toString(), 3, message.readInt());
+            MockBytesMessage secondClone = (MockBytesMessage)cloner.cloneMessage(clone);
+            clone.clearBody();
+            clone.writeByte((byte)5);
+            assertArrayEquals(cloner.toString(), new byte[] {0, 0, 0, 1, 0, 0, 0, 2, 0, 0, 0, 4}, secondClone.getBytes());
+        }
+    }
+
+    @Test
+    public void testCloneMapMessage() throws Exception
+    {
+        for(MessageCloner cloner : CLONERS)
+        {
+            MockMapMessage message = new MockMapMessage();
+            message.setString("name", "value");
+            message.setBytes("bytes", new byte[] {1, 2});
+            MockMapMessage clone = (MockMapMessage)cloner.cloneMessage(message);
+            assertEquals(cloner.toString(), message, clone);
+            message.setString("name", "other");
+            clone.setInt("number", 1);
+            assertEquals(cloner.toString(), "value", clone.getString("name"));
+            assertFalse(cloner.toString(), message.itemExists("number"));
+            assertArrayEquals(new byte[] {1, 2}, clone.getBytes("bytes"));
+            message.clearBody();
+            assertEquals(cloner.toString(), "value", clone.getString("name"));
+        }
+    }
+
+    @Test
+    public void testCloneStreamMessage() throws Exception
+    {
+        for(MessageCloner cloner : CLONERS)
+        {
+            MockStreamMessage message = new MockStreamMessage();
+            message.writeString("first");
+            message.writeLong(2);
+            MockStreamMessage clone = (MockStreamMessage)cloner.cloneMessage(message);
+            assertEquals(cloner.toString(), message, clone);
+            message.writeString("third");
+            clone.reset();
+            assertEquals(cloner.toString(), "first", clone.readString());
+            assertEquals(cloner.toString(), 2, clone.readLong());
+            message.reset();
+            assertEquals(cloner.toString(), "first", message.readString());
+            assertEquals(cloner.toString(), 2, message.readLong());
+            assertEquals(cloner.toString(), "third", message.readString());
+        }
+    }
+
+    @Test
+    public void testCloneObjectMessage() throws Exception
+    {
+        for(MessageCloner cloner : CLONERS)
+        {
+            TestBean bean = new TestBean("bean");
+            bean.getChildren().add(new TestBean("child"));
+            MockObjectMessage message = new MockObjectMessage(bean);
+            MockObjectMessage clone = (MockObjectMessage)cloner.cloneMessage(message);
+            assertEquals(cloner.toString(), message, clone);
+            TestBean clonedBean = (TestBean)clone.getObject();
+            assertNotSame(cloner.toString(), bean, clonedBean);
+            bean.setName("changed");
+            bean.getChildren().clear();
+            assertEquals(cloner.toString(), "bean", clonedBean.getName());
+            assertEquals(cloner.toString(), 1, clonedBean.getChildren().size());
+            assertSame(clonedBean, clone.getObject());
+            assertNull(((MockObjectMessage)cloner.cloneMessage(new MockObjectMessage())).getObject());
+        }
+    }
+
+    @Test
+    public void testReflectiveClonePreservesObjectGraph() throws Exception
+    {
+        TestBean bean = new TestBean("bean");
+        TestBean child = new TestBean("child");
+        child.setParent(bean);
+        bean.setParent(bean);
+        bean.getChildren().add(child);
+        bean.setNames(new String[] {"a", "b"});
+        MockObjectMessage clone = (MockObjectMessage)MessageCloner.reflective().cloneMessage(new MockObjectMessage(bean));
+        TestBean clonedBean = (TestBean)clone.getObject();
+        assertNotSame(bean, clonedBean);
+        assertSame(clonedBean, clonedBean.getParent());
+        assertNotSame(bean.getNames(), clonedBean.getNames());
+        assertArrayEquals(new String[] {"a", "b"}, clonedBean.getNames());
+        assertEquals("child", ((TestBean)clonedBean.getChildren().get(0)).getName());
+        assertNull(clonedBean.getCache());
+    }
+
+    @Test
+    public void testReflectiveCloneOfInaccessibleClass() throws Exception
+    {
+        AtomicInteger counter = new AtomicInteger(5);
+        MockObjectMessage clone = (MockObjectMessage)MessageCloner.reflective().cloneMessage(new MockObjectMessage(counter));
+        AtomicInteger clonedCounter = (AtomicInteger)clone.getObject();
+        assertNotSame(counter, clonedCounter);
+        assertEquals(5, clonedCounter.get());
+    }
+
+    @Test
+    public void testCloneOnSendUsesCloner() throws Exception
+    {
+        ConfigurationManager confManager = new ConfigurationManager();
+        assertSame(MessageCloner.standard(), confManager.getMessageCloner());
+        confManager.setDoCloneOnSend(true);
+        confManager.setMessageCloner(MessageCloner.copyOnWrite());
+        MockQueue queue = new MockQueue("Queue");
+        MockQueueConnection connection = new MockQueueConnection(new DestinationManager(), confManager);
+        MockQueueSender sender = new MockQueueSender(connection, new MockSession(connection, false, Session.CLIENT_ACKNOWLEDGE), queue);
+        MockObjectMessage message = new MockObjectMessage(new TestBean("bean"));
+        for(int ii = 0; ii < 1000; ii++)
+        {
+            sender.send(message);
+        }
+        assertEquals(1000, queue.getCurrentMessageList().size());
+        MockMessage received = (MockMessage)queue.getMessage();
+        assertNotSame(message, received);
+        assertEquals(message, received);
+        assertTrue(((MockObjectMessage)queue.getMessage()).getObject() instanceof TestBean);
+    }
+
+    public static class TestBean implements Serializable
+    {
+        private String name;
+        private TestBean parent;
+        private List children;
+        private String[] names;
+        private transient Object cache;
+
+        public TestBean()
+        {
+
+        }
+
+        public TestBean(String name)
+        {
+            this.name = name;
+            children = new ArrayList();
+            cache = new Object();
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public void setName(String name)
+        {
+            this.name = name;
+        }
+
+        public TestBean getParent()
+        {
+            return parent;
+        }
+
+        public void setParent(TestBean parent)
+        {
+            this.parent = parent;
+        }
+
+        public List getChildren()
+        {
+            return children;
+        }
+
+        public String[] getNames()
+        {
+            return names;
+        }
+
+        public void setNames(String[] names)
+        {
+            this.names = names;
+        }
+
+        public Object getCache()
+        {
+            return cache;
+        }
+
+        public boolean equals(Object object)
+        {
+            if(!(object instanceof TestBean)) return false;
+            TestBean other = (TestBean)object;
+            return name.equals(other.name) && children.size() == other.children.size();
+        }
+
+        public int hashCode()
+        {
+            return name.hashCode();
+        }
+    }
+}
@@ -1,9 +1,14 @@
 package com.mockrunner.test.jms;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import org.activemq.filter.mockrunner.ExpressionFilter;
 import org.activemq.filter.mockrunner.Filter;
+import org.activemq.filter.mockrunner.SelectorCompiler;
 import org.activemq.selector.mockrunner.SelectorParser;
 import org.junit.Before;
 import org.junit.Test;
@@ -90,4 +95,105 @@ public class MessageSelectorTest
         message.setStringProperty("stringProperty", "\nbxyz");
         assertTrue(wildcardFilter.matches(message));
     }
+    
+    @Test
+    public void testCompiledSelectorsMatchInterpretedSelectors() throws Exception
+    {
+        String[] selectors = new String[] {
+            "intProperty > 1", "intProperty <= 2.5", "intProperty = longProperty", "longProperty >= 3",
+            "doubleProperty < 2", "doubleProperty = 1", "floatProperty > 1", "floatProperty = doubleProperty",
+            "intProperty BETWEEN 1 AND 3", "intProperty NOT BETWEEN 1 AND 3", "intProperty + 1 > 2",
+            "intProperty * 2 = longProperty", "-intProperty < 0", "stringProperty = 'b'", "stringProperty <> 'b'",
+            "stringProperty IN ('a', 'b')", "stringProperty NOT IN ('a', 'b', 'c', 'd', 'e', 'f')",
+            "intProperty IN ('1', '2')", "stringProperty LIKE '_%'", "stringProperty NOT LIKE 'a%'",
+            "intProperty LIKE '1'", "stringProperty IS NULL", "stringProperty IS NOT NULL", "booleanProperty",
+            "NOT booleanProperty", "booleanProperty = TRUE", "stringProperty", "missing > 1 OR intProperty > 1",
+            "missing > 1 AND intProperty > 1", "intProperty > 1 AND missing > 1", "NOT (missing > 1)",
+            "JMSType = 'order' AND JMSPriority > 4", "JMSCorrelationID LIKE 'c%' OR JMSMessageID = 'id'",
+            "JMSTimestamp > 100", "TRUE", "FALSE", "intProperty = 'a'", "stringProperty > longProperty"
+        };
+        MockTextMessage[] messages = new MockTextMessage[6];
+        for(int ii = 0; ii < messages.length; ii++)
+        {
+            messages[ii] = new MockTextMessage();
+        }
+        messages[1].setIntProperty("intProperty", 2);
+        messages[1].setLongProperty("longProperty", 2);
+        messages[1].setStringProperty("stringProperty", "b");
+        messages[1].setBooleanProperty("booleanProperty", true);
+        messages[1].setJMSType("order");
+        messages[1].setJMSPriority(7);
+        messages[2].setIntProperty("intProperty", 5);
+        messages[2].setLongProperty("longProperty", 10);
+        messages[2].setDoubleProperty("doubleProperty", 1.0);
+        messages[2].setStringProperty("stringProperty", "x");
+        messages[2].setBooleanProperty("booleanProperty", false);
+        messages[2].setJMSCorrelationID("cid");
+        messages[2].setJMSTimestamp(1000);
+        messages[3].setDoubleProperty("doubleProperty", 1.5);
+        messages[3].setFloatProperty("floatProperty", 1.5f);
+        messages[3].setStringProperty("stringProperty", "");
+        messages[3].setJMSMessageID("id");
+        messages[4].setStringProperty("intProperty", "1");
+        messages[4].setIntProperty("stringProperty", 3);
+        messages[4].setStringProperty("JMSType", "order");
+        messages[4].setJMSPriority(2);
+        messages[5].setLongProperty("intProperty", 1);
+        messages[5].setFloatProperty("doubleProperty", 1.0f);
+        messages[5].setStringProperty("booleanProperty", "true");
+        for(String selector : selectors)
+        {
+            Filter interpreted = parser.parse(selector);
+            Filter compiled = SelectorCompiler.compile(parser.parse(selector));
+            assertNotSame(interpreted.getClass(), compiled.getClass());
+            for(int ii = 0; ii < messages.length; ii++)
+            {
+                assertEquals(selector + ", message " + ii, evaluate(interpreted, messages[ii]), evaluate(compiled, messages[ii]));
+            }
+        }
+    }
+    
+    private Object evaluate(Filter filter, MockTextMessage message) throws Exception
+    {
+        try
+        {
+            return filter.matches(message);
+        }
+        catch(RuntimeException exc)
+        {
+            return exc.getClass();
+        }
+    }
+    
+    @Test
+    public void testCompiledSelectorCache() throws Exception
+    {
+        SelectorCompiler.clearCache();
+        Filter filter = SelectorCompiler.compile("number = 1 AND text = 'a'");
+        assertSame(filter, SelectorCompiler.compile("number = 1 AND text = 'a'"));
+        assertTrue(filter instanceof ExpressionFilter);
+        assertEquals(parser.parse("number = 1 AND text = 'a'").toString(), filter.toString());
+        message.setIntProperty("number", 1);
+        message.setStringProperty("text", "a");
+        assertTrue(filter.matches(message));
+        SelectorCompiler.clearCache();
+        assertNotSame(filter, SelectorCompiler.compile("number = 1 AND text = 'a'"));
+    }
+    
+    @Test
+    public void testCompiledSelectorCacheEvictsLeastRecentlyUsed() throws Exception
+    {
+        SelectorCompiler.clearCache();
+        Filter usedFilter = SelectorCompiler.compile("number = 0");
+        Filter unusedFilter = SelectorCompiler.compile("number = -1");
+        for(int ii = 1; ii <= 2000; ii++)
+        {
+            SelectorCompiler.compile("number = " + ii);
+            assertSame(usedFilter, SelectorCompiler.compile("number = 0"));
+        }
+        Filter lastFilter = SelectorCompiler.compile("number = 2000");
+        assertSame(lastFilter, SelectorCompiler.compile("number = 2000"));
+        assertNotSame(unusedFilter, SelectorCompiler.compile("number = -1"));
+        SelectorCompiler.clearCache();
+    }
 }
@@ -6,6 +6,9 @@ import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import javax.jms.JMSException;
@@ -254,4 +257,66 @@ public class MockBytesMessageTest
         message.writeBytes(new byte[] {1 , 2, 3});
         assertEquals(MockBytesMessage.class.getName() + ": [1, 1, 2, 3]", message.toString());
     }
+    
+	@Test
+    public void testBodyBuffer() throws Exception
+    {
+        ByteBuffer body = ByteBuffer.allocate(16);
+        body.putInt(1).putInt(2).putInt(3);
+        body.flip();
+        body.getInt();
+        MockBytesMessage message = new MockBytesMessage(body);
+        assertEquals(8, message.getBodyLength());
+        assertEquals(2, message.readInt());
+        body.putInt(8, 4);
+        assertEquals(4, message.readInt());
+        ByteBuffer view = message.getBodyBuffer();
+        assertTrue(view.isReadOnly());
+        assertEquals(8, view.remaining());
+        message.reset();
+        assertEquals(2, message.readInt());
+        message.clearBody();
+        message.writeInt(5);
+        message.reset();
+        assertEquals(5, message.readInt());
+        assertEquals(4, body.getInt(8));
+        MockBytesMessage otherMessage = new MockBytesMessage();
+        otherMessage.writeInt(5);
+        assertEquals(otherMessage, message);
+        assertEquals(otherMessage.hashCode(), message.hashCode());
+    }
+    
+	@Test
+    public void testFileRegion() throws Exception
+    {
+        File file = File.createTempFile("mockrunner", ".bin");
+        file.deleteOnExit();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try
+        {
+            randomAccessFile.writeInt(1);
+            randomAccessFile.writeUTF("text");
+            randomAccessFile.writeLong(2);
+            MockBytesMessage message = new MockBytesMessage(randomAccessFile.getChannel(), 4, randomAccessFile.length() - 4);
+            assertEquals(14, message.getBodyLength());
+            assertEquals("text", message.readUTF());
+            assertEquals(2, message.readLong());
+            try
+            {
+                message.readByte();
+                fail();
+            }
+            catch(MessageEOFException exc)
+            {
+                //should throw exception
+            }
+            MockBytesMessage clone = (MockBytesMessage)message.clone();
+            assertEquals(message, clone);
+            assertFalse(clone.getBodyBuffer().isDirect());
+        }
+        finally
+        {
+            randomAccessFile.close();
+        }
+    }
 }
@@ -9,11 +9,19 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import javax.jms.Connection;
 import javax.jms.ConnectionConsumer;
 import javax.jms.Destination;
 import javax.jms.ExceptionListener;
 import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
 import javax.jms.QueueConnection;
 import javax.jms.QueueSession;
 import javax.jms.Session;
@@ -27,6 +35,7 @@ import com.mockrunner.jms.ConfigurationManager;
 import com.mockrunner.jms.DestinationManager;
 import com.mockrunner.mock.jms.JMSMockObjectFactory;
 import com.mockrunner.mock.jms.MockConnection;
+import com.mockrunner.mock.jms.MockConnectionConsumer;
 import com.mockrunner.mock.jms.MockConnectionFactory;
 import com.mockrunner.mock.jms.MockMessageConsumer;
 import com.mockrunner.mock.jms.MockMessageProducer;
@@ -36,7 +45,10 @@ import com.mockrunner.mock.jms.MockQueueConnectionFactory;
 import com.mockrunner.mock.jms.MockQueueReceiver;
 import com.mockrunner.mock.jms.MockQueueSender;
 import com.mockrunner.mock.jms.MockQueueSession;
+import com.mockrunner.mock.jms.MockServerSession;
+import com.mockrunner.mock.jms.MockServerSessionPool;
 import com.mockrunner.mock.jms.MockSession;
+import com.mockrunner.mock.jms.MockTextMessage;
 import com.mockrunner.mock.jms.MockTopic;
 import com.mockrunner.mock.jms.MockTopicConnection;
 import com.mockrunner.mock.jms.MockTopicConnectionFactory;
@@ -404,6 +416,100 @@ public class MockConnectionTest
         consumer.getServerSessionPool();
     }
     
+    @Test
+    public void testConnectionConsumerWithServerSessionPool() throws Exception
+    {
+        final Set threads = Collections.synchronizedSet(new HashSet());
+        final CountDownLatch latch = new CountDownLatch(150);
+        MessageListener listener = new MessageListener()
+        {
+            public void onMessage(Message message)
+            {
+                threads.add(Thread.currentThread());
+                latch.countDown();
+            }
+        };
+        MockQueue queue = new MockQueue("Queue");
+        for(int ii = 0; ii < 100; ii++)
+        {
+            MockTextMessage message = new MockTextMessage("text" + ii);
+            message.setIntProperty("number", ii % 2);
+            queue.addMessage(message);
+        }
+        MockServerSessionPool pool = new MockServerSessionPool(connection, listener, 4);
+        MockConnectionConsumer consumer = (MockConnectionConsumer)connection.createConnectionConsumer(queue, "number = 0", pool, 5);
+        assertEquals(5, consumer.getMaxMessages());
+        for(int ii = 0; ii < 100; ii++)
+        {
+            MockTextMessage message = new MockTextMessage("text" + ii);
+            message.setIntProperty("number", 0);
+            queue.addMessage(message);
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertTrue(pool.awaitQuiescence(10000));
+        assertEquals(150, pool.getNumberProcessedMessages());
+        assertEquals(50, queue.getCurrentMessageList().size());
+        assertEquals(4, pool.getServerSessionList().size());
+        assertTrue(threads.size() >= 1 && threads.size() <= 4);
+        long runs = 0;
+        for(Object serverSession : pool.getServerSessionList())
+        {
+            runs += ((MockServerSession)serverSession).getStatistics().getNumberOfRuns();
+        }
+        assertTrue(runs >= 30);
+        assertTrue(pool.getExceptionList().isEmpty());
+        connection.close();
+        assertTrue(consumer.isClosed());
+        pool.close();
+    }
+    
+    @Test
+    public void testConnectionConsumerWithoutMatchingMessages() throws Exception
+    {
+        MessageListener listener = new MessageListener()
+        {
+            public void onMessage(Message message)
+            {
+                
+            }
+        };
+        MockQueue queue = new MockQueue("Queue");
+        MockTextMessage message = new MockTextMessage("text");
+        message.setIntProperty("number", 1);
+        queue.addMessage(message);
+        MockServerSessionPool pool = new MockServerSessionPool(connection, listener, 2);
+        MockConnectionConsumer consumer = (MockConnectionConsumer)connection.createConnectionConsumer(queue, "number = 0", pool, 1);
+        MockQueue idleQueue = new MockQueue("IdleQueue");
+        MockConnectionConsumer idleConsumer = (MockConnectionConsumer)connection.createConnectionConsumer(idleQueue, null, pool, 1);
+        Thread.sleep(350);
+        assertEquals(2, pool.getNumberIdleServerSessions());
+        for(Object serverSession : pool.getServerSessionList())
+        {
+            assertFalse(((MockServerSession)serverSession).isStarted());
+            assertEquals(0, ((MockServerSession)serverSession).getStatistics().getNumberOfRuns());
+        }
+        assertEquals(0, pool.getNumberProcessedMessages());
+        assertEquals(1, queue.getCurrentMessageList().size());
+        consumer.close();
+        idleConsumer.close();
+        pool.close();
+    }
+    
+    @Test
+    public void testConnectionConsumerWithoutListener() throws Exception
+    {
+        MockQueue queue = new MockQueue("Queue");
+        queue.addMessage(new MockTextMessage("text"));
+        MockServerSessionPool pool = new MockServerSessionPool(connection);
+        MockConnectionConsumer consumer = (MockConnectionConsumer)connection.createConnectionConsumer(queue, null, pool, 1);
+        Thread.sleep(350);
+        MockServerSession serverSession = (MockServerSession)pool.getServerSession();
+        assertFalse(serverSession.isStarted());
+        assertEquals(0, serverSession.getStatistics().getNumberOfRuns());
+        assertEquals(1, queue.getCurrentMessageList().size());
+        consumer.close();
+    }
+    
     @Test
     public void testCallExceptionListener() throws Exception
     {
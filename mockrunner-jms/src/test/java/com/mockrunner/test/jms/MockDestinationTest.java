@@ -1,10 +1,17 @@
 package com.mockrunner.test.jms;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.Message;
 
@@ -13,8 +20,16 @@ import org.activemq.selector.mockrunner.SelectorParser;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.mockrunner.jms.ConfigurationManager;
+import com.mockrunner.jms.DestinationManager;
+import com.mockrunner.jms.MessageRetentionPolicy;
+import com.mockrunner.jms.ReceivedMessageSink;
+import com.mockrunner.mock.jms.MessageJournal;
+import com.mockrunner.mock.jms.MockBytesMessage;
 import com.mockrunner.mock.jms.MockDestination;
 import com.mockrunner.mock.jms.MockQueue;
+import com.mockrunner.mock.jms.MockTemporaryQueue;
+import com.mockrunner.mock.jms.MockTemporaryTopic;
 import com.mockrunner.mock.jms.MockTextMessage;
 import com.mockrunner.mock.jms.MockTopic;
 
@@ -43,6 +58,161 @@ public class MockDestinationTest
         doTestGetMatchingMessage(topic);
     }
 
+    @Test
+    public void testDrainLargeQueue() throws Exception
+    {
+        MockQueue queue = new MockQueue("Queue");
+        int count = 100000;
+        for(int ii = 0; ii < count; ii++)
+        {
+            MockTextMessage message = new MockTextMessage(String.valueOf(ii));
+            queue.loadMessage(message);
+        }
+        assertEquals(count, queue.getCurrentMessageList().size());
+        for(int ii = 0; ii < count; ii++)
+        {
+            assertEquals(String.valueOf(ii), ((MockTextMessage)queue.getMessage()).getText());
+        }
+        assertTrue(queue.isEmpty());
+        assertNull(queue.getMessage());
+    }
+    
+    @Test
+    public void testDrainIndexedQueue() throws Exception
+    {
+        MockQueue queue = new MockQueue("Queue");
+        Filter orderFilter = new SelectorParser().parse("JMSType = 'order'");
+        for(int ii = 0; ii < 1000; ii++)
+        {
+            MockTextMessage message = new MockTextMessage(String.valueOf(ii));
+            message.setJMSType(ii % 2 == 0 ? "order" : "invoice");
+            queue.loadMessage(message);
+        }
+        assertEquals("0", ((MockTextMessage)queue.getMatchingMessage(orderFilter)).getText());
+        for(int ii = 0; ii < 500; ii++)
+        {
+            assertNotNull(queue.getMessage());
+        }
+        assertEquals(499, queue.getNumberCurrentMessages());
+        assertEquals("502", ((MockTextMessage)queue.getMatchingMessage(orderFilter)).getText());
+        while(null != queue.getMessage());
+        assertTrue(queue.isEmpty());
+        assertNull(queue.getMatchingMessage(orderFilter));
+    }
+    
+    @Test
+    public void testIterateCurrentMessagesWhileDraining() throws Exception
+    {
+        final MockQueue queue = new MockQueue("Queue");
+        for(int ii = 0; ii < 10000; ii++)
+        {
+            queue.loadMessage(new MockTextMessage(String.valueOf(ii)));
+        }
+        List messages = queue.getCurrentMessageList();
+        Thread consumer = new Thread()
+        {
+            public void run()
+            {
+                while(null != queue.getMessage());
+            }
+        };
+        consumer.start();
+        while(consumer.isAlive())
+        {
+            int previous = -1;
+            for(Object message : messages)
+            {
+                int number = Integer.parseInt(((MockTextMessage)message).getText());
+                if(previous >= 0) assertEquals(previous + 1, number);
+                previous = number;
+            }
+        }
+        consumer.join();
+        assertTrue(messages.isEmpty());
+        assertFalse(messages.iterator().hasNext());
+    }
+    
+    @Test
+    public void testCreateIndexWhileAdding() throws Exception
+    {
+        final MockQueue queue = new MockQueue("Queue");
+        Filter orderFilter = new SelectorParser().parse("JMSType = 'order'");
+        Thread producer = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    for(int ii = 0; ii < 10000; ii++)
+                    {
+                        MockTextMessage message = new MockTextMessage(String.valueOf(ii));
+                        message.setJMSType("order");
+                        queue.loadMessage(message);
+                    }
+                }
+                catch(JMSException exc)
+                {
+                    throw new RuntimeException(exc);
+                }
+            }
+        };
+        producer.start();
+        int received = 0;
+        while(producer.isAlive() || !queue.isEmpty())
+        {
+            MockTextMessage message = (MockTextMessage)queue.getMatchingMessage(orderFilter);
+            if(null == message) continue;
+            assertEquals(String.valueOf(received), message.getText());
+            received++;
+        }
+        producer.join();
+        assertEquals(10000, received);
+        assertNull(queue.getMatchingMessage(orderFilter));
+    }
+    
+    @Test
+    public void testGetMatchingMessageWithStringEquality() throws Exception
+    {
+        MockQueue queue = new MockQueue("Queue");
+        Filter typeFilter = new SelectorParser().parse("JMSType = 'order' AND amount > 5");
+        Filter colorFilter = new SelectorParser().parse("'red' = color");
+        for(int ii = 0; ii < 200; ii++)
+        {
+            MockTextMessage message = new MockTextMessage(String.valueOf(ii));
+            message.setJMSType(ii % 2 == 0 ? "order" : "invoice");
+            message.setIntProperty("amount", ii % 10);
+            message.setStringProperty("color", ii % 3 == 0 ? "red" : "blue");
+            queue.loadMessage(message);
+        }
+        assertEquals("6", ((MockTextMessage)queue.getMatchingMessage(typeFilter)).getText());
+        assertEquals("8", ((MockTextMessage)queue.getMatchingMessage(typeFilter)).getText());
+        assertEquals("0", ((MockTextMessage)queue.getMatchingMessage(colorFilter)).getText());
+        assertEquals("1", ((MockTextMessage)queue.getMessage()).getText());
+        MockTextMessage message = new MockTextMessage("new");
+        message.setJMSType("order");
+        message.setIntProperty("amount", 9);
+        queue.loadMessage(message);
+        int received = 0;
+        while(null != queue.getMatchingMessage(typeFilter))
+        {
+            received++;
+        }
+        assertEquals(39, received);
+        List messages = queue.getCurrentMessageList();
+        assertEquals(200 - 2 - 1 - 1 + 1 - 39, messages.size());
+        assertFalse(messages.contains(message));
+        while(null != queue.getMatchingMessage(colorFilter))
+        {
+            received++;
+        }
+        assertEquals(39 + 52, received);
+        assertEquals(200 - 2 - 1 - 1 + 1 - 39 - 52, messages.size());
+        queue.clear();
+        assertTrue(queue.isEmpty());
+        assertEquals(0, messages.size());
+        assertNull(queue.getMatchingMessage(colorFilter));
+    }
+    
     private void doTestGetMatchingMessage(MockDestination destination) throws Exception
     {
         MockTextMessage message1 = new MockTextMessage();
@@ -77,6 +247,181 @@ public class MockDestinationTest
         assertNull(message);
     }
     
+    @Test
+    public void testRetainLastMessages() throws Exception
+    {
+        MockQueue queue = new MockQueue("Queue");
+        queue.setMessageRetentionPolicy(MessageRetentionPolicy.lastMessages(3));
+        for(int ii = 0; ii < 100; ii++)
+        {
+            queue.addMessage(new MockTextMessage(String.valueOf(ii)));
+        }
+        List received = queue.getReceivedMessageList();
+        assertEquals(3, received.size());
+        assertEquals("97", ((MockTextMessage)received.get(0)).getText());
+        assertEquals("99", ((MockTextMessage)received.get(2)).getText());
+        assertEquals(100, queue.getReceivedMessageCount());
+        assertEquals(97, queue.getEvictedMessageCount());
+        List snapshot = queue.getReceivedMessageSnapshot();
+        queue.addMessage(new MockTextMessage("100"));
+        assertEquals("98", ((MockTextMessage)received.get(0)).getText());
+        assertEquals(3, snapshot.size());
+        assertEquals("97", ((MockTextMessage)snapshot.get(0)).getText());
+        assertEquals("99", ((MockTextMessage)snapshot.get(2)).getText());
+        queue.reset();
+        assertEquals(0, queue.getReceivedMessageList().size());
+        assertEquals(0, queue.getReceivedMessageCount());
+        assertEquals(0, queue.getEvictedMessageCount());
+    }
+    
+    @Test
+    public void testCountOnly() throws Exception
+    {
+        MockTopic topic = new MockTopic("Topic");
+        topic.setMessageRetentionPolicy(MessageRetentionPolicy.countOnly());
+        topic.addMessage(new MockTextMessage("1"));
+        topic.addMessage(new MockTextMessage("2"));
+        assertTrue(topic.getReceivedMessageList().isEmpty());
+        assertEquals(2, topic.getReceivedMessageCount());
+        assertEquals(2, topic.getEvictedMessageCount());
+        assertSame(MessageRetentionPolicy.countOnly(), topic.getMessageRetentionPolicy());
+    }
+    
+    @Test
+    public void testStreaming() throws Exception
+    {
+        final List streamedMessages = new ArrayList();
+        MockQueue queue = new MockQueue("Queue");
+        queue.setMessageRetentionPolicy(MessageRetentionPolicy.streaming(new ReceivedMessageSink()
+        {
+            public void messageReceived(MockDestination destination, Message message)
+            {
+                streamedMessages.add(destination);
+                streamedMessages.add(message);
+            }
+        }));
+        MockTextMessage message = new MockTextMessage("1");
+        queue.addMessage(message);
+        assertEquals(2, streamedMessages.size());
+        assertSame(queue, streamedMessages.get(0));
+        assertSame(message, streamedMessages.get(1));
+        assertTrue(queue.getReceivedMessageList().isEmpty());
+        assertEquals(1, queue.getReceivedMessageCount());
+    }
+    
+    @Test
+    public void testTimeWindow() throws Exception
+    {
+        MockQueue queue = new MockQueue("Queue");
+        queue.setMessageRetentionPolicy(MessageRetentionPolicy.timeWindow(60000));
+        queue.addMessage(new MockTextMessage("1"));
+        assertEquals(1, queue.getReceivedMessageList().size());
+        queue.setMessageRetentionPolicy(MessageRetentionPolicy.timeWindow(0));
+        queue.addMessage(new MockTextMessage("1"));
+        Thread.sleep(10);
+        assertEquals(0, queue.getReceivedMessageList().size());
+        assertEquals(1, queue.getReceivedMessageCount());
+        assertEquals(1, queue.getEvictedMessageCount());
+    }
+    
+    @Test
+    public void testJournal() throws Exception
+    {
+        File directory = File.createTempFile("mockrunner", "journal");
+        directory.delete();
+        ConfigurationManager configurationManager = new ConfigurationManager();
+        configurationManager.setJournalDirectory(directory);
+        configurationManager.setJournalSegmentSize(256);
+        DestinationManager manager = new DestinationManager(configurationManager);
+        MockQueue queue = manager.createQueue("my/Queue");
+        MessageJournal journal = queue.getJournal();
+        for(int ii = 0; ii < 10; ii++)
+        {
+            MockTextMessage message = new MockTextMessage("text" + ii);
+            message.setIntProperty("number", ii % 2);
+            message.setJMSReplyTo(manager.createTopic("replyTo"));
+            queue.loadMessage(message);
+        }
+        MockBytesMessage bytesMessage = new MockBytesMessage();
+        bytesMessage.writeInt(12345);
+        queue.loadMessage(bytesMessage);
+        assertEquals(11, queue.getNumberCurrentMessages());
+        assertTrue(journal.getNumberSegments() > 1);
+        MockTextMessage message = (MockTextMessage)queue.getMessage();
+        assertEquals("text0", message.getText());
+        assertSame(queue, message.getJMSDestination());
+        assertSame(manager.getTopic("replyTo"), message.getJMSReplyTo());
+        message = (MockTextMessage)queue.getMatchingMessage(filter);
+        assertEquals("text1", message.getText());
+        assertEquals(1, message.getIntProperty("number"));
+        int numberSegments = journal.getNumberSegments();
+        for(int ii = 2; ii < 6; ii++)
+        {
+            assertEquals("text" + ii, ((MockTextMessage)queue.getMessage()).getText());
+        }
+        assertTrue(journal.getNumberSegments() < numberSegments);
+        assertEquals(5, queue.getCurrentMessageList().size());
+        manager.closeJournals();
+        DestinationManager newManager = new DestinationManager(configurationManager);
+        assertTrue(newManager.existsQueue("my/Queue"));
+        MockQueue newQueue = newManager.getQueue("my/Queue");
+        assertEquals(5, newQueue.getNumberCurrentMessages());
+        message = (MockTextMessage)newQueue.getMessage();
+        assertEquals("text6", message.getText());
+        assertEquals(0, message.getIntProperty("number"));
+        assertSame(newManager.getTopic("replyTo"), message.getJMSReplyTo());
+        newQueue.getMessage();
+        newQueue.getMessage();
+        newQueue.getMessage();
+        MockBytesMessage newBytesMessage = (MockBytesMessage)newQueue.getMessage();
+        newBytesMessage.reset();
+        assertEquals(12345, newBytesMessage.readInt());
+        assertTrue(newQueue.isEmpty());
+        newQueue.getJournal().delete();
+        newManager.getTopic("replyTo").getJournal().delete();
+        directory.delete();
+        assertFalse(directory.exists());
+    }
+    
+    @Test
+    public void testJournalTemporaryReplyTo() throws Exception
+    {
+        File directory = File.createTempFile("mockrunner", "journal");
+        directory.delete();
+        ConfigurationManager configurationManager = new ConfigurationManager();
+        configurationManager.setJournalDirectory(directory);
+        DestinationManager manager = new DestinationManager(configurationManager);
+        MockQueue queue = manager.createQueue("Queue");
+        MockTemporaryQueue replyQueue1 = new MockTemporaryQueue();
+        MockTemporaryQueue replyQueue2 = new MockTemporaryQueue();
+        MockTemporaryTopic replyTopic = new MockTemporaryTopic();
+        Destination[] replyTos = new Destination[] {replyQueue1, replyQueue2, replyQueue1, replyTopic};
+        for(int ii = 0; ii < replyTos.length; ii++)
+        {
+            MockTextMessage message = new MockTextMessage("text" + ii);
+            message.setJMSReplyTo(replyTos[ii]);
+            queue.loadMessage(message);
+        }
+        assertSame(replyQueue1, queue.getMessage().getJMSReplyTo());
+        assertSame(replyQueue2, queue.getMessage().getJMSReplyTo());
+        manager.closeJournals();
+        DestinationManager newManager = new DestinationManager(configurationManager);
+        MockQueue newQueue = newManager.getQueue("Queue");
+        MockTemporaryQueue newReplyQueue = new MockTemporaryQueue();
+        MockTextMessage message = new MockTextMessage("text4");
+        message.setJMSReplyTo(newReplyQueue);
+        newQueue.loadMessage(message);
+        assertEquals(3, newQueue.getNumberCurrentMessages());
+        message = (MockTextMessage)newQueue.getMessage();
+        assertEquals("text2", message.getText());
+        assertNull(message.getJMSReplyTo());
+        assertNull(newQueue.getMessage().getJMSReplyTo());
+        assertSame(newReplyQueue, newQueue.getMessage().getJMSReplyTo());
+        newQueue.getJournal().delete();
+        directory.delete();
+        assertFalse(directory.exists());
+    }
+    
     private static class TestTrueFilter implements Filter
     {
         public boolean matches(Message message) throws JMSException
@@ -247,6 +247,66 @@ public class MockMapMessageTest
         assertTrue(Arrays.equals(myArray, message.getBytes("bytes")));
     }
     
+	@Test
+    public void testTypedStorage() throws Exception
+    {
+        MockMapMessage message1 = new MockMapMessage();
+        message1.setLong("long", Long.MAX_VALUE);
+        message1.setDouble("double", -0.5);
+        message1.setChar("char", 'x');
+        message1.setObject("null", null);
+        for(int ii = 0; ii < 10; ii++)
+        {
+            message1.setInt("int" + ii, ii);
+        }
+        MockMapMessage message2 = new MockMapMessage();
+        for(int ii = 9; ii >= 0; ii--)
+        {
+            message2.setInt("int" + ii, ii);
+        }
+        message2.setObject("null", null);
+        message2.setChar("char", 'x');
+        message2.setObject("double", -0.5);
+        message2.setObject("long", Long.MAX_VALUE);
+        assertEquals(message1, message2);
+        assertEquals(message1.hashCode(), message2.hashCode());
+        assertEquals(Long.MAX_VALUE, message1.getLong("long"));
+        assertEquals(Long.valueOf(Long.MAX_VALUE), message1.getObject("long"));
+        assertEquals(-0.5, message1.getDouble("double"), 0);
+        assertEquals('x', message1.getChar("char"));
+        assertEquals(7, message1.getLong("int7"));
+        assertTrue(message1.itemExists("null"));
+        assertNull(message1.getString("null"));
+        assertEquals(14, message1.getMap().size());
+        MockMapMessage copy = (MockMapMessage)message1.copyOnWriteClone();
+        copy.setInt("int7", 8);
+        assertEquals(7, message1.getInt("int7"));
+        assertEquals(8, copy.getInt("int7"));
+        try
+        {
+            message1.getInt("double");
+            fail();
+        }
+        catch(MessageFormatException exc)
+        {
+            //should throw exception
+        }
+        message1.setObject("object", new java.math.BigDecimal(1));
+        assertEquals(new java.math.BigDecimal(1), message1.getObject("object"));
+        assertEquals("1", message1.getString("object"));
+        try
+        {
+            message1.getInt("object");
+            fail();
+        }
+        catch(MessageFormatException exc)
+        {
+            //should throw exception
+        }
+        message1.setObjectProperty("property", new java.math.BigInteger("2"));
+        assertEquals("2", message1.getStringProperty("property"));
+    }
+    
 	@Test
     public void testToString() throws Exception
     {
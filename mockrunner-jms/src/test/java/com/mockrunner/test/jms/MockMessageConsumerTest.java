@@ -7,6 +7,13 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
@@ -27,6 +34,7 @@ import com.mockrunner.mock.jms.MockQueueSession;
 import com.mockrunner.mock.jms.MockTopic;
 import com.mockrunner.mock.jms.MockTopicConnection;
 import com.mockrunner.mock.jms.MockTopicSession;
+import com.mockrunner.mock.jms.MockTextMessage;
 import com.mockrunner.mock.jms.MockTopicSubscriber;
 
 public class MockMessageConsumerTest
@@ -208,4 +216,247 @@ public class MockMessageConsumerTest
         {
         }
     }
+    
+    @Test
+    public void testBlockingReceiveOnTopic() throws Exception
+    {
+        final MockTopicSubscriber subscriber = new MockTopicSubscriber(topicConnection, topicSession, topic);
+        final Message[] received = new Message[1];
+        Thread thread = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    received[0] = subscriber.receive(10000);
+                }
+                catch(JMSException exc)
+                {
+                    throw new RuntimeException(exc);
+                }
+            }
+        };
+        thread.start();
+        waitUntilWaiting(thread);
+        MockTextMessage message = new MockTextMessage("test");
+        topic.addMessage(message);
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+        assertEquals(message, received[0]);
+    }
+    
+    @Test
+    public void testConcurrentBlockingReceivers() throws Exception
+    {
+        int numberOfReceivers = 8;
+        int messagesPerReceiver = 500;
+        final Set receivedTexts = Collections.synchronizedSet(new HashSet());
+        final CountDownLatch done = new CountDownLatch(numberOfReceivers);
+        for(int ii = 0; ii < numberOfReceivers; ii++)
+        {
+            final MockQueueReceiver receiver = new MockQueueReceiver(queueConnection, queueSession, queue);
+            final int count = messagesPerReceiver;
+            new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for(int kk = 0; kk < count; kk++)
+                        {
+                            MockTextMessage message = (MockTextMessage)receiver.receive(10000);
+                            if(null != message) receivedTexts.add(message.getText());
+                        }
+                    }
+                    catch(JMSException exc)
+                    {
+                        throw new RuntimeException(exc);
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        for(int ii = 0; ii < numberOfReceivers * messagesPerReceiver; ii++)
+        {
+            queue.addMessage(new MockTextMessage(String.valueOf(ii)));
+        }
+        done.await();
+        assertEquals(numberOfReceivers * messagesPerReceiver, receivedTexts.size());
+        assertTrue(queue.isEmpty());
+    }
+    
+    @Test
+    public void testBlockingReceiversWithSelectors() throws Exception
+    {
+        final Message[] received = new Message[2];
+        Thread[] threads = new Thread[2];
+        for(int ii = 0; ii < 2; ii++)
+        {
+            final int index = ii;
+            final MockQueueReceiver receiver = new MockQueueReceiver(queueConnection, queueSession, queue, "number = " + ii);
+            threads[ii] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        received[index] = receiver.receive(10000);
+                    }
+                    catch(JMSException exc)
+                    {
+                        throw new RuntimeException(exc);
+                    }
+                }
+            };
+            threads[ii].start();
+            waitUntilWaiting(threads[ii]);
+        }
+        MockTextMessage message1 = new MockTextMessage("1");
+        message1.setIntProperty("number", 1);
+        queue.addMessage(message1);
+        threads[1].join(5000);
+        assertFalse(threads[1].isAlive());
+        assertEquals(message1, received[1]);
+        MockTextMessage message0 = new MockTextMessage("0");
+        message0.setIntProperty("number", 0);
+        queue.addMessage(message0);
+        threads[0].join(5000);
+        assertFalse(threads[0].isAlive());
+        assertEquals(message0, received[0]);
+        assertTrue(queue.isEmpty());
+    }
+    
+    @Test
+    public void testWaitOnMessage() throws Exception
+    {
+        TestQueueReceiver receiver = new TestQueueReceiver();
+        long start = System.nanoTime();
+        receiver.waitOnMessage(50);
+        assertTrue(System.nanoTime() - start >= 50000000L);
+    }
+    
+    @Test
+    public void testBlockingReceiveReturnsOnClose() throws Exception
+    {
+        final MockQueueReceiver receiver = new MockQueueReceiver(queueConnection, queueSession, queue);
+        final Message[] received = new Message[] {new MockTextMessage()};
+        Thread thread = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    received[0] = receiver.receive();
+                }
+                catch(JMSException exc)
+                {
+                    throw new RuntimeException(exc);
+                }
+            }
+        };
+        thread.start();
+        waitUntilWaiting(thread);
+        receiver.close();
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+        assertNull(received[0]);
+    }
+    
+    @Test
+    public void testReceiveTimeout() throws Exception
+    {
+        MockQueueReceiver receiver = new MockQueueReceiver(queueConnection, queueSession, queue);
+        long start = System.nanoTime();
+        assertNull(receiver.receive(50));
+        assertTrue(System.nanoTime() - start >= 50000000L);
+    }
+    
+    @Test
+    public void testReceiveWithoutDestination() throws Exception
+    {
+        final ConsumerWithoutDestination consumer = new ConsumerWithoutDestination();
+        long start = System.nanoTime();
+        assertNull(consumer.receive(50));
+        assertTrue(System.nanoTime() - start >= 50000000L);
+        assertTrue(consumer.getWaitCount() > 0);
+        final Message[] received = new Message[1];
+        Thread thread = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    received[0] = consumer.receive();
+                }
+                catch(JMSException exc)
+                {
+                    throw new RuntimeException(exc);
+                }
+            }
+        };
+        thread.start();
+        waitUntilWaiting(thread);
+        MockTextMessage message = new MockTextMessage("test");
+        consumer.addMessage(message);
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+        assertEquals(message, received[0]);
+    }
+    
+    private class ConsumerWithoutDestination extends MockMessageConsumer
+    {
+        private Queue messages = new ConcurrentLinkedQueue();
+        private volatile int waitCount;
+        
+        public ConsumerWithoutDestination()
+        {
+            super(queueConnection, null);
+        }
+        
+        public void addMessage(Message message)
+        {
+            messages.add(message);
+        }
+        
+        public int getWaitCount()
+        {
+            return waitCount;
+        }
+        
+        public Message receiveNoWait() throws JMSException
+        {
+            return (Message)messages.poll();
+        }
+        
+        protected void waitOnMessage(long timeout)
+        {
+            waitCount++;
+            super.waitOnMessage(timeout);
+        }
+    }
+    
+    private class TestQueueReceiver extends MockQueueReceiver
+    {
+        public TestQueueReceiver()
+        {
+            super(queueConnection, queueSession, queue);
+        }
+        
+        public void waitOnMessage(long timeout)
+        {
+            super.waitOnMessage(timeout);
+        }
+    }
+    
+    private void waitUntilWaiting(Thread thread) throws Exception
+    {
+        long deadline = System.currentTimeMillis() + 10000;
+        while(thread.getState() != Thread.State.TIMED_WAITING && thread.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(5);
+        }
+    }
 }
@@ -6,6 +6,8 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Set;
 
 import javax.jms.DeliveryMode;
@@ -22,6 +24,7 @@ import org.junit.Test;
 
 import com.mockrunner.jms.ConfigurationManager;
 import com.mockrunner.jms.DestinationManager;
+import com.mockrunner.jms.MessageIdGenerator;
 import com.mockrunner.mock.jms.MockBytesMessage;
 import com.mockrunner.mock.jms.MockConnection;
 import com.mockrunner.mock.jms.MockMapMessage;
@@ -367,6 +370,65 @@ public class MockMessageProducerTest
         assertTrue(testQueue.getSessions().contains(session2));
     }
     
+    @Test
+    public void testMessageIdGenerator() throws Exception
+    {
+        ConfigurationManager confManager = new ConfigurationManager();
+        MockQueueConnection connection = new MockQueueConnection(new DestinationManager(), confManager);
+        final MockQueueSender sender = new MockQueueSender(connection, new MockSession(connection, false, Session.AUTO_ACKNOWLEDGE), queue);
+        MessageIdGenerator[] generators = new MessageIdGenerator[] {MessageIdGenerator.counter(), MessageIdGenerator.threadLocal()};
+        for(MessageIdGenerator generator : generators)
+        {
+            confManager.setMessageIdGenerator(generator);
+            final Set ids = Collections.synchronizedSet(new HashSet());
+            Thread[] threads = new Thread[4];
+            for(int ii = 0; ii < threads.length; ii++)
+            {
+                threads[ii] = new Thread()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            for(int yy = 0; yy < 3000; yy++)
+                            {
+                                MockTextMessage message = new MockTextMessage();
+                                sender.send(message);
+                                ids.add(message.getJMSMessageID());
+                            }
+                        }
+                        catch(JMSException exc)
+                        {
+                            throw new RuntimeException(exc);
+                        }
+                    }
+                };
+                threads[ii].start();
+            }
+            for(Thread thread : threads)
+            {
+                thread.join();
+            }
+            assertEquals(generator.toString(), 12000, ids.size());
+        }
+        assertTrue(!MessageIdGenerator.counter().nextId().equals(MessageIdGenerator.counter().nextId()));
+        MockTextMessage message = new MockTextMessage();
+        confManager.setMessageIdGenerator(MessageIdGenerator.random());
+        sender.send(message);
+        assertTrue(message.getJMSMessageID().startsWith("ID:0."));
+        message.setJMSMessageID("xyz");
+        assertEquals("xyz", message.getJMSMessageID());
+        try
+        {
+            confManager.setMessageIdGenerator(null);
+            fail();
+        }
+        catch(IllegalArgumentException exc)
+        {
+            //should throw exception
+        }
+    }
+
     private class TestQueue extends MockQueue
     { 
         public TestQueue()
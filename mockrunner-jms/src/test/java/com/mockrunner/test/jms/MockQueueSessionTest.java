@@ -13,6 +13,7 @@ import java.util.List;
 
 import javax.jms.BytesMessage;
 import javax.jms.JMSException;
+import javax.jms.MapMessage;
 import javax.jms.Message;
 import javax.jms.MessageListener;
 import javax.jms.ObjectMessage;
@@ -32,6 +33,7 @@ import org.junit.Test;
 import com.mockrunner.jms.ConfigurationManager;
 import com.mockrunner.jms.DestinationManager;
 import com.mockrunner.jms.MessageManager;
+import com.mockrunner.jms.MessageTrackingPolicy;
 import com.mockrunner.jms.QueueTransmissionManager;
 import com.mockrunner.jms.TransmissionManagerWrapper;
 import com.mockrunner.mock.jms.MockBytesMessage;
@@ -88,6 +90,78 @@ public class MockQueueSessionTest
         assertNull(manager.getStreamMessage(1));
     }
     
+    @Test
+    public void testMessageTrackingAndPool() throws Exception
+    {
+        ConfigurationManager confManager = connection.getConfigurationManager();
+        confManager.setMessageTrackingPolicy(MessageTrackingPolicy.lastMessages(2));
+        confManager.setMessagePoolSize(1);
+        MockQueueSession boundedSession = (MockQueueSession)connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+        MessageManager manager = boundedSession.getMessageManager();
+        for(int ii = 0; ii < 5; ii++)
+        {
+            boundedSession.createTextMessage("Text" + ii);
+        }
+        assertEquals(5, manager.getNumberCreatedTextMessages());
+        assertEquals(2, manager.getTextMessageList().size());
+        assertEquals("Text3", manager.getTextMessage(0).getText());
+        assertEquals("Text4", manager.getTextMessage(1).getText());
+        assertNull(manager.getTextMessage(2));
+        MockTextMessage released = manager.getTextMessage(1);
+        released.setStringProperty("name", "value");
+        released.setJMSCorrelationID("correlation");
+        manager.releaseMessage(released);
+        manager.releaseMessage(manager.getTextMessage(0));
+        assertEquals(1, manager.getNumberPooledTextMessages());
+        TextMessage recycled = boundedSession.createTextMessage("Text5");
+        assertSame(released, recycled);
+        assertEquals("Text5", recycled.getText());
+        assertFalse(recycled.propertyExists("name"));
+        assertNull(recycled.getJMSCorrelationID());
+        assertEquals(0, manager.getNumberPooledTextMessages());
+        assertEquals(0, session.getMessageManager().getMessagePoolSize());
+        confManager.setMessageTrackingPolicy(MessageTrackingPolicy.countOnly());
+        boundedSession = (MockQueueSession)connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+        boundedSession.createBytesMessage();
+        assertEquals(1, boundedSession.getMessageManager().getNumberCreatedBytesMessages());
+        assertTrue(boundedSession.getMessageManager().getBytesMessageList().isEmpty());
+        confManager.setMessageTrackingPolicy(MessageTrackingPolicy.weakReferences());
+        boundedSession = (MockQueueSession)connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+        MapMessage mapMessage = boundedSession.createMapMessage();
+        assertSame(mapMessage, boundedSession.getMessageManager().getMapMessage(0));
+    }
+
+    @Test
+    public void testReleasedMessagesAreNotTracked() throws Exception
+    {
+        ConfigurationManager confManager = connection.getConfigurationManager();
+        confManager.setMessagePoolSize(2);
+        confManager.setMessageTrackingPolicy(MessageTrackingPolicy.all());
+        doTestReleasedMessagesAreNotTracked();
+        confManager.setMessageTrackingPolicy(MessageTrackingPolicy.weakReferences());
+        doTestReleasedMessagesAreNotTracked();
+    }
+
+    private void doTestReleasedMessagesAreNotTracked() throws Exception
+    {
+        MockQueueSession pooledSession = (MockQueueSession)connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
+        MessageManager manager = pooledSession.getMessageManager();
+        MockTextMessage text0 = (MockTextMessage)pooledSession.createTextMessage("Text0");
+        MockTextMessage text1 = (MockTextMessage)pooledSession.createTextMessage("Text1");
+        MockBytesMessage bytes = (MockBytesMessage)pooledSession.createBytesMessage();
+        manager.releaseMessage(text0);
+        manager.releaseMessage(bytes);
+        assertEquals(1, manager.getTextMessageList().size());
+        assertSame(text1, manager.getTextMessage(0));
+        assertTrue(manager.getBytesMessageList().isEmpty());
+        TextMessage recycled = pooledSession.createTextMessage("Text2");
+        assertSame(text0, recycled);
+        assertEquals(2, manager.getTextMessageList().size());
+        assertSame(text1, manager.getTextMessage(0));
+        assertSame(recycled, manager.getTextMessage(1));
+        assertEquals(3, manager.getNumberCreatedTextMessages());
+    }
+    
     @Test
     public void testCreateQueues() throws Exception
     {
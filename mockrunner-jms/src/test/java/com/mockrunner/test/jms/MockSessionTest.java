@@ -3,14 +3,17 @@ package com.mockrunner.test.jms;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.jms.DeliveryMode;
 import javax.jms.Destination;
 import javax.jms.InvalidDestinationException;
+import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageConsumer;
 import javax.jms.MessageListener;
@@ -292,6 +295,204 @@ public class MockSessionTest
         }
     }
 
+    @Test
+    public void testTransactionalBatching() throws Exception
+    {
+        DestinationManager destManager = new DestinationManager();
+        ConfigurationManager confManager = new ConfigurationManager();
+        confManager.setUseTransactionalBatching(true);
+        MockConnection connection = new MockConnection(destManager, confManager);
+        MockSession session = (MockSession)connection.createSession(true, Session.AUTO_ACKNOWLEDGE);
+        assertTrue(session.isTransactionalBatching());
+        MockQueue queue = destManager.createQueue("Queue");
+        MessageProducer producer = session.createProducer(queue);
+        producer.send(new MockTextMessage("text1"));
+        producer.send(new MockTextMessage("text2"));
+        assertTrue(queue.isEmpty());
+        assertEquals(2, session.getNumberPendingSentMessages());
+        session.commit();
+        assertEquals(0, session.getNumberPendingSentMessages());
+        assertEquals(2, queue.getCurrentMessageList().size());
+        assertEquals(1, session.getCommitStatistics().getNumberOfBatches());
+        assertEquals(2, session.getCommitStatistics().getLastBatchSize());
+        producer.send(new MockTextMessage("text3"));
+        session.rollback();
+        assertEquals(2, queue.getCurrentMessageList().size());
+        MessageConsumer consumer = session.createConsumer(queue);
+        MockMessage message = (MockMessage)consumer.receiveNoWait();
+        assertFalse(message.isAcknowledged());
+        assertEquals(1, session.getNumberPendingReceivedMessages());
+        session.rollback();
+        assertTrue(message.getJMSRedelivered());
+        assertEquals(2, queue.getCurrentMessageList().size());
+        TestMessageListener listener = new TestMessageListener();
+        consumer.setMessageListener(listener);
+        producer.send(new MockTextMessage("text4"));
+        session.commit();
+        assertEquals(new MockTextMessage("text4"), listener.getMessage());
+        assertFalse(((MockMessage)listener.getMessage()).isAcknowledged());
+        session.rollback();
+        assertTrue(listener.getMessage().getJMSRedelivered());
+        session.commit();
+        assertTrue(((MockMessage)listener.getMessage()).isAcknowledged());
+        assertEquals(3, session.getCommitStatistics().getNumberOfBatches());
+        assertEquals(3, session.getCommitStatistics().getNumberOfMessages());
+        assertEquals(2, session.getCommitStatistics().getMaxBatchSize());
+        MockSession nonTransactedSession = (MockSession)connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        assertFalse(nonTransactedSession.isTransactionalBatching());
+        nonTransactedSession.createProducer(queue).send(new MockTextMessage("text5"));
+        assertEquals(new MockTextMessage("text5"), listener.getMessage());
+        assertEquals(1, session.getNumberPendingReceivedMessages());
+    }
+
+    @Test
+    public void testTransactionalBatchingListenerCommits() throws Exception
+    {
+        DestinationManager destManager = new DestinationManager();
+        ConfigurationManager confManager = new ConfigurationManager();
+        confManager.setUseTransactionalBatching(true);
+        MockConnection connection = new MockConnection(destManager, confManager);
+        final MockSession session = (MockSession)connection.createSession(true, Session.AUTO_ACKNOWLEDGE);
+        MockQueue queue = destManager.createQueue("Queue");
+        final List received = new ArrayList();
+        session.createConsumer(queue).setMessageListener(new MessageListener()
+        {
+            public void onMessage(Message message)
+            {
+                received.add(message);
+                try
+                {
+                    session.commit();
+                }
+                catch(JMSException exc)
+                {
+                    throw new RuntimeException(exc);
+                }
+            }
+        });
+        queue.addMessage(new MockTextMessage("text1"));
+        assertEquals(1, received.size());
+        assertTrue(((MockMessage)received.get(0)).isAcknowledged());
+        assertEquals(0, session.getNumberPendingReceivedMessages());
+        assertEquals(1, session.getCommitStatistics().getNumberOfAcknowledgedMessages());
+        session.rollback();
+        assertEquals(1, received.size());
+        assertTrue(queue.isEmpty());
+    }
+    
+    @Test
+    public void testTransactionalBatchingListenerRollsBack() throws Exception
+    {
+        DestinationManager destManager = new DestinationManager();
+        ConfigurationManager confManager = new ConfigurationManager();
+        confManager.setUseTransactionalBatching(true);
+        MockConnection connection = new MockConnection(destManager, confManager);
+        final MockSession session = (MockSession)connection.createSession(true, Session.AUTO_ACKNOWLEDGE);
+        MockQueue queue = destManager.createQueue("Queue");
+        final List received = new ArrayList();
+        final int[] depth = new int[2];
+        session.createConsumer(queue).setMessageListener(new MessageListener()
+        {
+            public void onMessage(Message message)
+            {
+                received.add(message);
+                depth[0]++;
+                depth[1] = Math.max(depth[0], depth[1]);
+                try
+                {
+                    if(!message.getJMSRedelivered()) session.rollback();
+                }
+                catch(JMSException exc)
+                {
+                    throw new RuntimeException(exc);
+                }
+                depth[0]--;
+            }
+        });
+        MockTextMessage message = new MockTextMessage("text1");
+        queue.addMessage(message);
+        assertEquals(2, received.size());
+        assertEquals(1, depth[1]);
+        assertSame(message, received.get(1));
+        assertTrue(message.getJMSRedelivered());
+        assertFalse(message.isAcknowledged());
+        assertTrue(queue.isEmpty());
+        assertEquals(1, session.getNumberPendingReceivedMessages());
+        session.commit();
+        assertTrue(message.isAcknowledged());
+        assertEquals(2, received.size());
+    }
+    
+    @Test
+    public void testTransactionalBatchingMaximumRedeliveries() throws Exception
+    {
+        DestinationManager destManager = new DestinationManager();
+        ConfigurationManager confManager = new ConfigurationManager();
+        confManager.setUseTransactionalBatching(true);
+        assertEquals(6, confManager.getMaximumRedeliveries());
+        MockConnection connection = new MockConnection(destManager, confManager);
+        final MockSession session = (MockSession)connection.createSession(true, Session.AUTO_ACKNOWLEDGE);
+        MockQueue queue = destManager.createQueue("Queue");
+        final List received = new ArrayList();
+        session.createConsumer(queue).setMessageListener(new MessageListener()
+        {
+            public void onMessage(Message message)
+            {
+                received.add(message);
+                try
+                {
+                    session.rollback();
+                }
+                catch(JMSException exc)
+                {
+                    throw new RuntimeException(exc);
+                }
+            }
+        });
+        MockTextMessage message = new MockTextMessage("text1");
+        queue.addMessage(message);
+        assertEquals(7, received.size());
+        assertEquals(7, message.getRedeliveryCount());
+        assertTrue(message.getJMSRedelivered());
+        assertFalse(message.isAcknowledged());
+        assertEquals(1, queue.getCurrentMessageList().size());
+        assertSame(message, queue.getCurrentMessageList().get(0));
+        assertEquals(0, session.getNumberPendingReceivedMessages());
+        confManager.setMaximumRedeliveries(0);
+        received.clear();
+        message = new MockTextMessage("text2");
+        queue.addMessage(message);
+        assertEquals(1, received.size());
+        assertEquals(1, message.getRedeliveryCount());
+        assertEquals(2, queue.getCurrentMessageList().size());
+    }
+    
+    @Test
+    public void testTransactionalBatchingRollbackRequeuesAtHead() throws Exception
+    {
+        DestinationManager destManager = new DestinationManager();
+        ConfigurationManager confManager = new ConfigurationManager();
+        confManager.setUseTransactionalBatching(true);
+        MockConnection connection = new MockConnection(destManager, confManager);
+        MockSession session = (MockSession)connection.createSession(true, Session.AUTO_ACKNOWLEDGE);
+        MockQueue queue = destManager.createQueue("Queue");
+        queue.addMessage(new MockTextMessage("text1"));
+        queue.addMessage(new MockTextMessage("text2"));
+        queue.addMessage(new MockTextMessage("text3"));
+        MessageConsumer consumer = session.createConsumer(queue);
+        assertEquals(new MockTextMessage("text1"), consumer.receiveNoWait());
+        assertEquals(new MockTextMessage("text2"), consumer.receiveNoWait());
+        session.rollback();
+        List messages = queue.getCurrentMessageList();
+        assertEquals(3, messages.size());
+        assertEquals(new MockTextMessage("text1"), messages.get(0));
+        assertEquals(new MockTextMessage("text2"), messages.get(1));
+        assertEquals(new MockTextMessage("text3"), messages.get(2));
+        assertTrue(((Message)messages.get(0)).getJMSRedelivered());
+        assertTrue(((Message)messages.get(1)).getJMSRedelivered());
+        assertFalse(((Message)messages.get(2)).getJMSRedelivered());
+    }
+
     public static class TestMessageListener implements MessageListener
     {
         private Message message;
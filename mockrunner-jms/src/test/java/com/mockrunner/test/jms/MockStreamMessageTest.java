@@ -444,4 +444,32 @@ public class MockStreamMessageTest
         message.writeString("abc");
         assertEquals(MockStreamMessage.class.getName() + ": [12, abc]", message.toString());
     }
+    
+	@Test
+    public void testResetRewinds() throws Exception
+    {
+        MockStreamMessage message = new MockStreamMessage();
+        message.writeString("first");
+        message.writeBytes(new byte[] {1, 2, 3, 4, 5});
+        message.writeInt(3);
+        message.reset();
+        MockStreamMessage clone = (MockStreamMessage)message.copyOnWriteClone();
+        assertEquals("first", message.readString());
+        byte[] buffer = new byte[2];
+        assertEquals(2, message.readBytes(buffer));
+        MockStreamMessage expected = new MockStreamMessage();
+        expected.writeBytes(new byte[] {3, 4, 5});
+        expected.writeInt(3);
+        assertEquals(expected, message);
+        assertEquals(expected.hashCode(), message.hashCode());
+        assertEquals(2, message.readBytes(buffer));
+        assertTrue(Arrays.equals(new byte[] {3, 4}, buffer));
+        assertEquals(1, message.readBytes(buffer));
+        assertEquals(3, message.readInt());
+        assertEquals("first", clone.readString());
+        message.reset();
+        assertEquals("first", message.readString());
+        assertTrue(Arrays.equals(new byte[] {1, 2, 3, 4, 5}, (byte[])message.readObject()));
+        assertEquals(3, message.readInt());
+    }
 }
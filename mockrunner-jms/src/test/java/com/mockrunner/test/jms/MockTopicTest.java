@@ -5,6 +5,16 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
 import javax.jms.Session;
@@ -14,6 +24,8 @@ import org.junit.Test;
 
 import com.mockrunner.jms.ConfigurationManager;
 import com.mockrunner.jms.DestinationManager;
+import com.mockrunner.jms.MessageRetentionPolicy;
+import com.mockrunner.jms.SharedSelectorEvaluator;
 import com.mockrunner.mock.jms.MockMessage;
 import com.mockrunner.mock.jms.MockTextMessage;
 import com.mockrunner.mock.jms.MockTopic;
@@ -167,6 +179,202 @@ public class MockTopicTest
         doTestAcknowledge(session);    
     }
     
+    @Test
+    public void testAddMessageEvaluatesSharedSelectorsOnce() throws Exception
+    {
+        MockTopicSession session = new MockTopicSession(connection, false, Session.AUTO_ACKNOWLEDGE);
+        topic.addSession(session);
+        CountingMessageListener listener = new CountingMessageListener();
+        List subscribers = new ArrayList();
+        for(int ii = 0; ii < 50; ii++)
+        {
+            MockTopicSubscriber subscriber1 = (MockTopicSubscriber)session.createSubscriber(topic, "number = 1", false);
+            MockTopicSubscriber subscriber2 = (MockTopicSubscriber)session.createSubscriber(topic, "number > 0 AND type = 'a'", false);
+            subscriber1.setMessageListener(listener);
+            subscriber2.setMessageListener(listener);
+            subscribers.add(subscriber2);
+        }
+        PropertyCountingMessage message = new PropertyCountingMessage();
+        message.setIntProperty("number", 1);
+        message.setStringProperty("type", "a");
+        topic.addMessage(message);
+        assertEquals(100, listener.getCount());
+        assertEquals(1, message.getCount("number"));
+        assertEquals(1, message.getCount("type"));
+        assertEquals(2, topic.getSelectorEvaluator().getNumberOfSelectors());
+        message = new PropertyCountingMessage();
+        message.setIntProperty("number", 2);
+        message.setStringProperty("type", "a");
+        topic.addMessage(message);
+        assertEquals(150, listener.getCount());
+        assertEquals(1, message.getCount("number"));
+        for(Object subscriber : subscribers)
+        {
+            ((MockTopicSubscriber)subscriber).close();
+        }
+        topic.addMessage(message);
+        assertEquals(150, listener.getCount());
+        assertEquals(1, topic.getSelectorEvaluator().getNumberOfSelectors());
+        assertEquals(1, topic.getCurrentMessageList().size());
+    }
+    
+    @Test
+    public void testAddMessageFollowsSubscriberChanges() throws Exception
+    {
+        MockTopicSession session = new MockTopicSession(connection, false, Session.AUTO_ACKNOWLEDGE);
+        topic.addSession(session);
+        CountingMessageListener listener1 = new CountingMessageListener();
+        CountingMessageListener listener2 = new CountingMessageListener();
+        MockTopicSubscriber subscriber1 = (MockTopicSubscriber)session.createSubscriber(topic, "number = 1", false);
+        subscriber1.setMessageListener(listener1);
+        MockTextMessage message = new MockTextMessage();
+        message.setIntProperty("number", 1);
+        topic.addMessage(message);
+        assertEquals(1, listener1.getCount());
+        MockTopicSubscriber subscriber2 = (MockTopicSubscriber)session.createSubscriber(topic, "number > 0", false);
+        topic.addMessage(message);
+        assertEquals(2, listener1.getCount());
+        assertEquals(0, listener2.getCount());
+        subscriber2.setMessageListener(listener2);
+        topic.addMessage(message);
+        assertEquals(3, listener1.getCount());
+        assertEquals(1, listener2.getCount());
+        subscriber1.setMessageListener(null);
+        topic.addMessage(message);
+        assertEquals(3, listener1.getCount());
+        assertEquals(2, listener2.getCount());
+        session.setMessageListener(listener1);
+        topic.addMessage(message);
+        assertEquals(4, listener1.getCount());
+        assertEquals(2, listener2.getCount());
+        session.setMessageListener(null);
+        subscriber2.close();
+        topic.reset();
+        topic.addMessage(message);
+        assertEquals(4, listener1.getCount());
+        assertEquals(2, listener2.getCount());
+        assertEquals(1, topic.getCurrentMessageList().size());
+    }
+    
+    @Test
+    public void testAddMessageFromListener() throws Exception
+    {
+        MockTopicSession session = new MockTopicSession(connection, false, Session.AUTO_ACKNOWLEDGE);
+        topic.addSession(session);
+        final MockTopic otherTopic = new MockTopic("OtherTopic");
+        otherTopic.addSession(session);
+        final CountingMessageListener otherListener = new CountingMessageListener();
+        ((MockTopicSubscriber)session.createSubscriber(otherTopic, "number = 2", false)).setMessageListener(otherListener);
+        ((MockTopicSubscriber)session.createSubscriber(otherTopic, "number > 1", false)).setMessageListener(otherListener);
+        final CountingMessageListener listener = new CountingMessageListener();
+        MessageListener forwardingListener = new MessageListener()
+        {
+            public void onMessage(Message message)
+            {
+                listener.onMessage(message);
+                try
+                {
+                    MockTextMessage forward = new MockTextMessage();
+                    forward.setIntProperty("number", message.getIntProperty("number") + 1);
+                    otherTopic.addMessage(forward);
+                }
+                catch(JMSException exc)
+                {
+                    throw new RuntimeException(exc);
+                }
+            }
+        };
+        ((MockTopicSubscriber)session.createSubscriber(topic, "number = 1", false)).setMessageListener(forwardingListener);
+        ((MockTopicSubscriber)session.createSubscriber(topic, "number = 2", false)).setMessageListener(listener);
+        ((MockTopicSubscriber)session.createSubscriber(topic, "number > 0", false)).setMessageListener(listener);
+        MockTextMessage message = new MockTextMessage();
+        message.setIntProperty("number", 1);
+        topic.addMessage(message);
+        assertEquals(2, listener.getCount());
+        assertEquals(2, otherListener.getCount());
+    }
+    
+    @Test
+    public void testAddMessageAllocation() throws Exception
+    {
+        MockTopicSession session = new MockTopicSession(connection, false, Session.AUTO_ACKNOWLEDGE);
+        topic.addSession(session);
+        topic.setMessageRetentionPolicy(MessageRetentionPolicy.countOnly());
+        CountingMessageListener listener = new CountingMessageListener();
+        for(int ii = 0; ii < 10; ii++)
+        {
+            ((MockTopicSubscriber)session.createSubscriber(topic, "number = 1", false)).setMessageListener(listener);
+            ((MockTopicSubscriber)session.createSubscriber(topic, "number > 0 AND type = 'a'", false)).setMessageListener(listener);
+        }
+        MockTextMessage message = new MockTextMessage();
+        message.setIntProperty("number", 1);
+        message.setStringProperty("type", "a");
+        int iterations = 1000;
+        for(int ii = 0; ii < iterations; ii++)
+        {
+            topic.addMessage(message);
+        }
+        assertEquals(20 * iterations, listener.getCount());
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if(!(threadBean instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean)threadBean;
+        if(!allocationBean.isThreadAllocatedMemorySupported() || !allocationBean.isThreadAllocatedMemoryEnabled()) return;
+        long threadId = Thread.currentThread().getId();
+        long start = allocationBean.getThreadAllocatedBytes(threadId);
+        for(int ii = 0; ii < iterations; ii++)
+        {
+            topic.addMessage(message);
+        }
+        long bytesPerMessage = (allocationBean.getThreadAllocatedBytes(threadId) - start) / iterations;
+        assertTrue("allocated " + bytesPerMessage + " bytes per message", bytesPerMessage < 64);
+    }
+    
+    @Test
+    public void testConcurrentSelectorEvaluation() throws Exception
+    {
+        final SharedSelectorEvaluator evaluator = topic.getSelectorEvaluator();
+        final Set selectors = new HashSet();
+        selectors.add("number = 1");
+        selectors.add("number > 0 AND type = 'a'");
+        final List failures = Collections.synchronizedList(new ArrayList());
+        Thread[] threads = new Thread[4];
+        for(int ii = 0; ii < threads.length; ii++)
+        {
+            final int number = ii;
+            threads[ii] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for(int kk = 0; kk < 1000; kk++)
+                        {
+                            MockTextMessage message = new MockTextMessage();
+                            message.setIntProperty("number", number);
+                            message.setStringProperty("type", "a");
+                            Map results = evaluator.evaluate(selectors, message);
+                            if(!Boolean.valueOf(number == 1).equals(results.get("number = 1")) || !Boolean.valueOf(number > 0).equals(results.get("number > 0 AND type = 'a'")))
+                            {
+                                failures.add(results);
+                            }
+                        }
+                    }
+                    catch(JMSException exc)
+                    {
+                        failures.add(exc);
+                    }
+                }
+            };
+            threads[ii].start();
+        }
+        for(int ii = 0; ii < threads.length; ii++)
+        {
+            threads[ii].join();
+        }
+        assertTrue(failures.isEmpty());
+        assertEquals(2, evaluator.getNumberOfSelectors());
+    }
+    
     private void doTestAcknowledge(MockTopicSession session) throws Exception
     {
         topic.addSession(session);
@@ -195,6 +403,38 @@ public class MockTopicTest
         assertTrue(message.isAcknowledged());
     }
     
+    public static class CountingMessageListener implements MessageListener
+    {
+        private int count;
+
+        public synchronized int getCount()
+        {
+            return count;
+        }
+
+        public synchronized void onMessage(Message message)
+        {
+            count++;
+        }
+    }
+    
+    public static class PropertyCountingMessage extends MockTextMessage
+    {
+        private Map counts = new HashMap();
+
+        public int getCount(String name)
+        {
+            Integer count = (Integer)counts.get(name);
+            return (null == count) ? 0 : count;
+        }
+
+        public Object getObjectProperty(String name) throws JMSException
+        {
+            counts.put(name, getCount(name) + 1);
+            return super.getObjectProperty(name);
+        }
+    }
+    
     public static class TestMessageListener implements MessageListener
     {
         private Message message;
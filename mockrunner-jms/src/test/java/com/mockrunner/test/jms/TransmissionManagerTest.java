@@ -176,6 +176,37 @@ public class TransmissionManagerTest
         assertTrue(durableSubscriber3.isClosed());
     }
 
+    @Test
+    public void testOpenConsumerIndex() throws Exception
+    {
+        QueueTransmissionManager queueManager = session.getQueueTransmissionManager();
+        MockQueueReceiver receiver1 = queueManager.createQueueReceiver(new MockQueue("Queue1"), null);
+        MockQueueReceiver receiver2 = queueManager.createQueueReceiver(new MockQueue("Queue1"), null);
+        MockQueueReceiver receiver3 = queueManager.createQueueReceiver(new MockQueue("Queue2"), null);
+        assertEquals(2, queueManager.getOpenQueueReceivers("Queue1").length);
+        assertSame(receiver3, queueManager.getOpenQueueReceivers("Queue2")[0]);
+        assertEquals(0, queueManager.getOpenQueueReceivers("Queue3").length);
+        assertSame(queueManager.getOpenQueueReceivers("Queue1"), queueManager.getOpenQueueReceivers("Queue1"));
+        receiver1.close();
+        assertEquals(1, queueManager.getOpenQueueReceivers("Queue1").length);
+        assertSame(receiver2, queueManager.getOpenQueueReceivers("Queue1")[0]);
+        assertEquals(3, queueManager.getQueueReceiverList().size());
+        TopicTransmissionManager topicManager = session.getTopicTransmissionManager();
+        MockTopicSubscriber subscriber = topicManager.createTopicSubscriber(new MockTopic("Topic"), null, false);
+        MockTopicSubscriber durableSubscriber1 = topicManager.createDurableTopicSubscriber(new MockTopic("Topic"), "subscription", null, false);
+        assertSame(subscriber, topicManager.getOpenTopicSubscribers("Topic")[0]);
+        assertSame(durableSubscriber1, topicManager.getOpenDurableTopicSubscribers("Topic")[0]);
+        MockTopicSubscriber durableSubscriber2 = topicManager.createDurableTopicSubscriber(new MockTopic("Topic"), "subscription", null, false);
+        assertEquals(1, topicManager.getOpenDurableTopicSubscribers("Topic").length);
+        assertSame(durableSubscriber2, topicManager.getOpenDurableTopicSubscribers("Topic")[0]);
+        topicManager.closeAll();
+        assertEquals(0, topicManager.getOpenTopicSubscribers("Topic").length);
+        assertEquals(0, topicManager.getOpenDurableTopicSubscribers("Topic").length);
+        durableSubscriber2 = topicManager.createDurableTopicSubscriber(new MockTopic("Topic"), "subscription", null, false);
+        topicManager.removeTopicDurableSubscriber("subscription");
+        assertEquals(0, topicManager.getOpenDurableTopicSubscribers("Topic").length);
+    }
+
     @Test
     public void testGenericTransmissionManager()
     {
@@ -1,5 +1,7 @@
 package com.mockrunner.base;
 
+import java.io.Reader;
+
 import com.mockrunner.mock.web.WebMockObjectFactory;
 
 /**
@@ -18,6 +20,24 @@ public class GenericHTMLOutputModule extends HTMLOutputModule
     }
     
     public String getOutput()
+    {
+        flushOutput();
+        return factory.getMockResponse().getOutputStreamContent();
+    }
+    
+    protected long getOutputVersion()
+    {
+        flushOutput();
+        return factory.getMockResponse().getOutputStreamContentVersion();
+    }
+    
+    protected Reader createOutputReader()
+    {
+        flushOutput();
+        return factory.getMockResponse().getOutputStreamContentAsReader();
+    }
+    
+    private void flushOutput()
     {
         try
         {
@@ -27,6 +47,5 @@ public class GenericHTMLOutputModule extends HTMLOutputModule
         {
         
         }
-        return factory.getMockResponse().getOutputStreamContent();
     }
 }
@@ -1,10 +1,13 @@
 package com.mockrunner.base;
 
 import java.io.BufferedReader;
+import java.io.Reader;
 import java.io.StringReader;
+import java.util.List;
 
 import com.mockrunner.mock.web.WebMockObjectFactory;
 import com.mockrunner.util.common.StringUtil;
+import com.mockrunner.util.web.HTMLQuery;
 import com.mockrunner.util.web.XmlUtil;
 
 /**
@@ -12,16 +15,24 @@ import com.mockrunner.util.web.XmlUtil;
  * code as output. These modules have to implement
  * {@link #getOutput}. The HTML code is provided
  * in different formats, e.g. as parsed XML
- * documents.
+ * documents. If a module implements {@link #getOutputVersion},
+ * the parsed output is cached until the output changes. The
+ * documents are copied from the cache, so each call returns
+ * a document that may be modified.
  */
 public abstract class HTMLOutputModule extends WebTestModule
 {
     private boolean caseSensitive;
+    private long cachedVersion;
+    private org.w3c.dom.Document cachedW3CDocument;
+    private org.jdom.Document cachedJDOMDocument;
+    private String cachedWellformedXML;
     
     public HTMLOutputModule(WebMockObjectFactory mockFactory)
     {
         super(mockFactory);
         caseSensitive = true;
+        cachedVersion = -1;
     }
     
     /**
@@ -31,6 +42,32 @@ public abstract class HTMLOutputModule extends WebTestModule
      */
     public abstract String getOutput();
     
+    /**
+     * Returns a number that changes whenever the output changes.
+     * The parsed documents returned by {@link #getOutputAsW3CDocument},
+     * {@link #getOutputAsJDOMDocument} and {@link #getOutputAsWellformedXML}
+     * are cached as long as this number does not change. This
+     * implementation returns -1, i.e. nothing is cached.
+     * Modules that can track changes of the output override this method.
+     * @return the output version or -1, if the version is unknown
+     */
+    protected long getOutputVersion()
+    {
+        return -1;
+    }
+    
+    /**
+     * Returns the output as a <code>Reader</code> for the streaming
+     * parser used by {@link #queryOutput}. This implementation
+     * reads the string returned by {@link #getOutput}. Modules
+     * that buffer large output override this method.
+     * @return the output
+     */
+    protected Reader createOutputReader()
+    {
+        return new StringReader(getOutput());
+    }
+    
     /**
      * Returns the output as a <code>BufferedReader</code>. 
      * @return the output
@@ -48,13 +85,18 @@ public abstract class HTMLOutputModule extends WebTestModule
      * you can use the method {@link com.mockrunner.util.web.XmlUtil#parse} 
      * to parse the string output yourself. Please note that
      * HTML parsing is not very fast and may slow down
-     * your test suite.
+     * your test suite. If the module supports it, the parsed output
+     * is cached until the output changes. Each call returns a copy.
      * @return the output as <code>org.w3c.dom.Document</code>
      * @throws RuntimeException if a parsing error occurs
      */
     public org.w3c.dom.Document getOutputAsW3CDocument()
     {
-        return XmlUtil.parseHTML(getOutput());
+        if(!isCacheValid())
+        {
+            return XmlUtil.parseHTML(getOutput());
+        }
+        return (org.w3c.dom.Document)getCachedW3CDocument().cloneNode(true);
     }
     
     /**
@@ -65,13 +107,18 @@ public abstract class HTMLOutputModule extends WebTestModule
      * you can use the method {@link com.mockrunner.util.web.XmlUtil#parse} 
      * to parse the string output yourself. Please note that
      * HTML parsing is not very fast and may slow down
-     * your test suite.
+     * your test suite. If the module supports it, the parsed output
+     * is cached until the output changes. Each call returns a copy.
      * @return the output as <code>org.jdom.Document</code>
      * @throws RuntimeException if a parsing error occurs
      */
     public org.jdom.Document getOutputAsJDOMDocument()
     {
-        return XmlUtil.createJDOMDocument(getOutputAsW3CDocument());
+        if(!isCacheValid())
+        {
+            return XmlUtil.createJDOMDocument(getOutputAsW3CDocument());
+        }
+        return (org.jdom.Document)getCachedJDOMDocument().clone();
     }
     
     /**
@@ -88,7 +135,46 @@ public abstract class HTMLOutputModule extends WebTestModule
      */
     public String getOutputAsWellformedXML()
     {
-        return XmlUtil.createStringFromJDOMDocument(getOutputAsJDOMDocument());
+        if(!isCacheValid())
+        {
+            return XmlUtil.createStringFromJDOMDocument(getOutputAsJDOMDocument());
+        }
+        if(null == cachedWellformedXML)
+        {
+            cachedWellformedXML = XmlUtil.createStringFromJDOMDocument(getCachedJDOMDocument());
+        }
+        return cachedWellformedXML;
+    }
+    
+    private org.w3c.dom.Document getCachedW3CDocument()
+    {
+        if(null == cachedW3CDocument)
+        {
+            cachedW3CDocument = XmlUtil.parseHTML(getOutput());
+        }
+        return cachedW3CDocument;
+    }
+    
+    private org.jdom.Document getCachedJDOMDocument()
+    {
+        if(null == cachedJDOMDocument)
+        {
+            cachedJDOMDocument = XmlUtil.createJDOMDocument(getCachedW3CDocument());
+        }
+        return cachedJDOMDocument;
+    }
+    
+    /**
+     * Parses the output with the NekoHTML SAX parser and checks
+     * the matchers of the specified {@link HTMLQuery}. No document
+     * is built, so this method is suitable for large output.
+     * The match counts can be read from the matchers afterwards.
+     * @param query the query
+     * @throws RuntimeException if a parsing error occurs
+     */
+    public void queryOutput(HTMLQuery query)
+    {
+        XmlUtil.parseHTML(createOutputReader(), query);
     }
     
     /**
@@ -102,6 +188,15 @@ public abstract class HTMLOutputModule extends WebTestModule
         this.caseSensitive = caseSensitive;
     }
     
+    /**
+     * Returns if the output verifications compare case sensitive.
+     * @return <code>true</code> if the comparison is case sensitive
+     */
+    public boolean isCaseSensitive()
+    {
+        return caseSensitive;
+    }
+    
     /**
      * Verifies the tag output.
      * @param expectedOutput the expected output.
@@ -143,4 +238,34 @@ public abstract class HTMLOutputModule extends WebTestModule
             throw new VerifyFailedException("actual output: " + actualOutput + " does not match expected output");
         }
     }
+    
+    /**
+     * Verifies that every matcher of the specified {@link HTMLQuery}
+     * matches the output at least once, see {@link #queryOutput}.
+     * @param query the query
+     * @throws VerifyFailedException if verification fails
+     */
+    public void verifyOutputMatches(HTMLQuery query)
+    {
+        queryOutput(query);
+        List unmatched = query.getUnmatchedMatchers();
+        if(!unmatched.isEmpty())
+        {
+            throw new VerifyFailedException("output does not contain " + unmatched);
+        }
+    }
+    
+    private boolean isCacheValid()
+    {
+        long version = getOutputVersion();
+        if(version < 0) return false;
+        if(version != cachedVersion)
+        {
+            cachedVersion = version;
+            cachedW3CDocument = null;
+            cachedJDOMDocument = null;
+            cachedWellformedXML = null;
+        }
+        return true;
+    }
 }
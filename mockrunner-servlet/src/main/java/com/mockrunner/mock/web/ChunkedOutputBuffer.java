@@ -0,0 +1,426 @@
+package com.mockrunner.mock.web;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Output buffer of {@link MockServletOutputStream}. The data is kept
+ * in a list of fixed size chunks, so growing the buffer never copies
+ * the data written so far. The first chunk starts small and grows
+ * up to the chunk size, which keeps small responses cheap.
+ * Depending on the {@link OutputCapturePolicy}, full chunks are
+ * written to a temporary file once the data in memory exceeds the
+ * threshold, or the data is discarded and only counted.
+ * Temporary files that are not deleted when the buffer is cleared
+ * are deleted by a shutdown hook. Unlike <code>File.deleteOnExit()</code>,
+ * the hook forgets a file once it is deleted.
+ */
+class ChunkedOutputBuffer extends OutputStream
+{
+    private static final int INITIAL_CHUNK_SIZE = 64;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    
+    private static Set openSpillFiles;
+
+    private OutputCapturePolicy policy;
+    private List chunks;
+    private byte[] current;
+    private int position;
+    private long size;
+    private File spillFile;
+    private OutputStream spillStream;
+    private long spilledBytes;
+
+    public ChunkedOutputBuffer(OutputCapturePolicy policy)
+    {
+        this.policy = policy;
+        chunks = new ArrayList();
+        current = new byte[policy.isDiscard() ? 0 : INITIAL_CHUNK_SIZE];
+    }
+
+    public OutputCapturePolicy getPolicy()
+    {
+        return policy;
+    }
+
+    public void write(int value) throws IOException
+    {
+        if(policy.isDiscard())
+        {
+            size++;
+            return;
+        }
+        if(position == current.length)
+        {
+            nextChunk();
+        }
+        current[position++] = (byte)value;
+        size++;
+    }
+
+    public void write(byte[] data, int offset, int length) throws IOException
+    {
+        if(offset < 0 || length < 0 || offset + length > data.length)
+        {
+            throw new IndexOutOfBoundsException();
+        }
+        if(policy.isDiscard())
+        {
+            size += length;
+            return;
+        }
+        while(length > 0)
+        {
+            if(position == current.length)
+            {
+                nextChunk();
+            }
+            int count = Math.min(length, current.length - position);
+            System.arraycopy(data, offset, current, position, count);
+            position += count;
+            offset += count;
+            length -= count;
+            size += count;
+        }
+    }
+
+    /**
+     * Returns the number of bytes written since the last {@link #clear}.
+     * In discard mode, this is the number of discarded bytes.
+     */
+    public long size()
+    {
+        return size;
+    }
+
+    public boolean isSpilled()
+    {
+        return null != spillFile;
+    }
+
+    public File getSpillFile()
+    {
+        return spillFile;
+    }
+
+    /**
+     * Removes the content and deletes the temporary file, if any.
+     * The current chunk is kept for reuse.
+     */
+    public void clear()
+    {
+        chunks.clear();
+        position = 0;
+        size = 0;
+        spilledBytes = 0;
+        deleteSpillFile();
+    }
+
+    /**
+     * Returns a stream that reads the content from the beginning.
+     * The stream must not be used after the next write.
+     */
+    public InputStream openInputStream() throws IOException
+    {
+        return new ContentInputStream();
+    }
+
+    public void writeTo(OutputStream stream) throws IOException
+    {
+        if(isSpilled())
+        {
+            InputStream fileStream = new FileInputStream(spillFile);
+            try
+            {
+                copy(fileStream, stream);
+            }
+            finally
+            {
+                fileStream.close();
+            }
+        }
+        for(int ii = 0; ii < chunks.size(); ii++)
+        {
+            byte[] chunk = (byte[])chunks.get(ii);
+            stream.write(chunk, 0, chunk.length);
+        }
+        stream.write(current, 0, position);
+    }
+
+    public byte[] toByteArray() throws IOException
+    {
+        if(policy.isDiscard()) return new byte[0];
+        if(size > Integer.MAX_VALUE - 8)
+        {
+            throw new IllegalStateException("Content of " + size + " bytes is too large for an array");
+        }
+        byte[] data = new byte[(int)size];
+        InputStream stream = openInputStream();
+        try
+        {
+            int offset = 0;
+            while(offset < data.length)
+            {
+                int count = stream.read(data, offset, data.length - offset);
+                if(count < 0) break;
+                offset += count;
+            }
+        }
+        finally
+        {
+            stream.close();
+        }
+        return data;
+    }
+
+    public String toString(String encoding) throws IOException
+    {
+        if(!isSpilled() && chunks.isEmpty())
+        {
+            return new String(current, 0, position, encoding);
+        }
+        return new String(toByteArray(), encoding);
+    }
+
+    /**
+     * Returns if the content contains the specified bytes. The content
+     * is scanned chunk by chunk (Knuth-Morris-Pratt), so no copy of
+     * the complete content is created.
+     */
+    public boolean contains(byte[] pattern) throws IOException
+    {
+        if(0 == pattern.length) return true;
+        if(policy.isDiscard() || pattern.length > size) return false;
+        int[] failure = createFailureTable(pattern);
+        int matched = 0;
+        if(isSpilled())
+        {
+            byte[] block = new byte[8192];
+            InputStream fileStream = new FileInputStream(spillFile);
+            try
+            {
+                int count;
+                while((count = fileStream.read(block)) >= 0)
+                {
+                    matched = match(block, count, pattern, failure, matched);
+                    if(matched == pattern.length) return true;
+                }
+            }
+            finally
+            {
+                fileStream.close();
+            }
+        }
+        for(int ii = 0; ii < chunks.size(); ii++)
+        {
+            byte[] chunk = (byte[])chunks.get(ii);
+            matched = match(chunk, chunk.length, pattern, failure, matched);
+            if(matched == pattern.length) return true;
+        }
+        matched = match(current, position, pattern, failure, matched);
+        return matched == pattern.length;
+    }
+
+    private int match(byte[] data, int length, byte[] pattern, int[] failure, int matched)
+    {
+        for(int ii = 0; ii < length; ii++)
+        {
+            while(matched > 0 && pattern[matched] != data[ii])
+            {
+                matched = failure[matched - 1];
+            }
+            if(pattern[matched] == data[ii])
+            {
+                matched++;
+                if(matched == pattern.length) return matched;
+            }
+        }
+        return matched;
+    }
+
+    private int[] createFailureTable(byte[] pattern)
+    {
+        int[] failure = new int[pattern.length];
+        int matched = 0;
+        for(int ii = 1; ii < pattern.length; ii++)
+        {
+            while(matched > 0 && pattern[matched] != pattern[ii])
+            {
+                matched = failure[matched - 1];
+            }
+            if(pattern[matched] == pattern[ii])
+            {
+                matched++;
+            }
+            failure[ii] = matched;
+        }
+        return failure;
+    }
+
+    private void nextChunk() throws IOException
+    {
+        if(current.length < CHUNK_SIZE)
+        {
+            byte[] grown = new byte[Math.min(current.length * 2, CHUNK_SIZE)];
+            System.arraycopy(current, 0, grown, 0, position);
+            current = grown;
+            return;
+        }
+        long threshold = policy.getSpillThreshold();
+        if(threshold >= 0 && size - spilledBytes > threshold)
+        {
+            spill();
+        }
+        else
+        {
+            chunks.add(current);
+            current = new byte[CHUNK_SIZE];
+        }
+        position = 0;
+    }
+
+    private void spill() throws IOException
+    {
+        if(null == spillStream)
+        {
+            spillFile = File.createTempFile("mockrunner", ".out", policy.getSpillDirectory());
+            registerSpillFile(spillFile);
+            spillStream = new FileOutputStream(spillFile);
+        }
+        for(int ii = 0; ii < chunks.size(); ii++)
+        {
+            byte[] chunk = (byte[])chunks.get(ii);
+            spillStream.write(chunk, 0, chunk.length);
+            spilledBytes += chunk.length;
+        }
+        chunks.clear();
+        spillStream.write(current, 0, position);
+        spilledBytes += position;
+    }
+
+    private void deleteSpillFile()
+    {
+        if(null == spillFile) return;
+        try
+        {
+            spillStream.close();
+        }
+        catch(IOException ignored)
+        {
+
+        }
+        spillFile.delete();
+        unregisterSpillFile(spillFile);
+        spillFile = null;
+        spillStream = null;
+    }
+
+    private static synchronized void registerSpillFile(File file)
+    {
+        if(null == openSpillFiles)
+        {
+            openSpillFiles = new HashSet();
+            Runtime.getRuntime().addShutdownHook(new Thread("Mockrunner spill file cleanup")
+            {
+                public void run()
+                {
+                    deleteOpenSpillFiles();
+                }
+            });
+        }
+        openSpillFiles.add(file);
+    }
+
+    private static synchronized void unregisterSpillFile(File file)
+    {
+        if(null != openSpillFiles) openSpillFiles.remove(file);
+    }
+
+    private static synchronized void deleteOpenSpillFiles()
+    {
+        Iterator iterator = openSpillFiles.iterator();
+        while(iterator.hasNext())
+        {
+            ((File)iterator.next()).delete();
+        }
+        openSpillFiles.clear();
+    }
+
+    private void copy(InputStream source, OutputStream target) throws IOException
+    {
+        byte[] block = new byte[8192];
+        int count;
+        while((count = source.read(block)) >= 0)
+        {
+            target.write(block, 0, count);
+        }
+    }
+
+    private class ContentInputStream extends InputStream
+    {
+        private InputStream fileStream;
+        private int chunkIndex;
+        private int chunkPosition;
+
+        public ContentInputStream() throws IOException
+        {
+            if(isSpilled())
+            {
+                fileStream = new FileInputStream(spillFile);
+            }
+        }
+
+        public int read() throws IOException
+        {
+            byte[] data = new byte[1];
+            int count = read(data, 0, 1);
+            if(count <= 0) return -1;
+            return data[0] & 0xFF;
+        }
+
+        public int read(byte[] data, int offset, int length) throws IOException
+        {
+            if(0 == length) return 0;
+            if(null != fileStream)
+            {
+                int count = fileStream.read(data, offset, length);
+                if(count > 0) return count;
+                fileStream.close();
+                fileStream = null;
+            }
+            while(chunkIndex <= chunks.size())
+            {
+                byte[] chunk = (chunkIndex < chunks.size()) ? (byte[])chunks.get(chunkIndex) : current;
+                int limit = (chunkIndex < chunks.size()) ? chunk.length : position;
+                if(chunkPosition < limit)
+                {
+                    int count = Math.min(length, limit - chunkPosition);
+                    System.arraycopy(chunk, chunkPosition, data, offset, count);
+                    chunkPosition += count;
+                    return count;
+                }
+                chunkIndex++;
+                chunkPosition = 0;
+            }
+            return -1;
+        }
+
+        public void close() throws IOException
+        {
+            if(null != fileStream)
+            {
+                fileStream.close();
+                fileStream = null;
+            }
+        }
+    }
+}
@@ -55,6 +55,18 @@ public class MockFilterChain implements FilterChain
         iterator = null;
     }
 
+    /**
+     * Resets the internal iterator of this chain and clears the
+     * list of requests and responses. The filters and the servlet
+     * are kept.
+     */
+    public void recycle()
+    {
+        reset();
+        requestList.clear();
+        responseList.clear();
+    }
+
     /**
      * Adds a filter to the chain.
      * @param filter the filter
@@ -106,6 +118,15 @@ public class MockFilterChain implements FilterChain
         reset();
     }
     
+    /**
+     * Returns the filters of this chain.
+     * @return the filters
+     */
+    public List getFilters()
+    {
+        return Collections.unmodifiableList(filters);
+    }
+    
     /**
      * Returns the list of all request objects used to call
      * {@link #doFilter} when iterating through the chain.
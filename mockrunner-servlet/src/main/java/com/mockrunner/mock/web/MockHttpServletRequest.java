@@ -177,6 +177,52 @@ public class MockHttpServletRequest implements HttpServletRequest
         isAsyncSupported = false;
     }
 
+    /**
+     * Resets the state of this object like {@link #resetAll}, but
+     * also resets the URL, path, user and content information.
+     * The collections are cleared and reused. The session is kept.
+     * Used by {@link WebMockObjectFactory#recycle}.
+     */
+    public void recycle()
+    {
+        attributes.clear();
+        parameters.clear();
+        locales.clear();
+        requestDispatchers.clear();
+        headers.clear();
+        roles.clear();
+        attributeListener.clear();
+        method = "GET";
+        authType = null;
+        contextPath = null;
+        pathInfo = null;
+        pathTranslated = null;
+        queryString = null;
+        requestUrl = null;
+        requestUri = null;
+        servletPath = null;
+        principal = null;
+        remoteUser = null;
+        requestedSessionIdIsFromCookie = true;
+        protocol = "HTTP/1.1";
+        serverName = "localhost";
+        serverPort = 8080;
+        scheme = "http";
+        remoteHost = "localhost";
+        remoteAddr = "127.0.0.1";
+        characterEncoding = null;
+        contentLength = -1;
+        contentType = null;
+        cookies = null;
+        localAddr = "127.0.0.1";
+        localName = "localhost";
+        localPort = 8080;
+        remotePort = 5000;
+        sessionCreated = false;
+        bodyContent = new MockServletInputStream(new byte[0]);
+        isAsyncSupported = false;
+    }
+
     public MockHttpServletRequest addAttributeListener(ServletRequestAttributeListener listener)
     {
         attributeListener.add(listener);
@@ -1,8 +1,10 @@
 package com.mockrunner.mock.web;
 
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.text.SimpleDateFormat;
@@ -26,8 +28,9 @@ import com.mockrunner.util.common.CaseAwareMap;
  */
 public class MockHttpServletResponse implements HttpServletResponse
 {
-    private PrintWriter writer;
+    private ResponseWriter writer;
     private MockServletOutputStream outputStream;
+    private long outputStreamVersionBase;
     private Map headers;
     private Locale locale;
     private String characterEncoding;
@@ -56,10 +59,15 @@ public class MockHttpServletResponse implements HttpServletResponse
         errorCode = SC_OK;
         statusCode = SC_OK;
         cookies = new ArrayList();
+        if(null != outputStream)
+        {
+            outputStream.clearContent();
+            outputStreamVersionBase += outputStream.getContentVersion() + 1;
+        }
         outputStream = new MockServletOutputStream(characterEncoding);
         try
         {
-            writer = new PrintWriter(new OutputStreamWriter(outputStream, characterEncoding), true);
+            writer = new ResponseWriter(new OutputStreamWriter(outputStream, characterEncoding));
         } 
         catch(UnsupportedEncodingException exc)
         {
@@ -67,6 +75,34 @@ public class MockHttpServletResponse implements HttpServletResponse
         }
     }
 
+    /**
+     * Resets the state of this object like {@link #resetAll}, but
+     * reuses the collections, the output stream and the writer.
+     * The writer is recreated, if the character encoding was
+     * changed or the previous user closed the writer.
+     * Used by {@link WebMockObjectFactory#recycle}.
+     */
+    public void recycle()
+    {
+        writer.flush();
+        boolean recreateWriter = !"ISO-8859-1".equals(characterEncoding) || writer.isClosed();
+        headers.clear();
+        cookies.clear();
+        locale = null;
+        bufferSize = 8192;
+        wasErrorSent = false;
+        wasRedirectSent = false;
+        errorCode = SC_OK;
+        statusCode = SC_OK;
+        outputStream.clearContent();
+        outputStream.resetStatistics();
+        outputStream.setCapturePolicy(OutputCapturePolicy.inMemory());
+        if(recreateWriter)
+        {
+            setCharacterEncoding("ISO-8859-1");
+        }
+    }
+
     public String encodeURL(String url)
     {
         return url;
@@ -106,6 +142,78 @@ public class MockHttpServletResponse implements HttpServletResponse
     {
         return outputStream.getBinaryContent();
     }
+    
+    /**
+     * Returns if the output stream content contains the specified
+     * text. Does not create a <code>String</code> of the complete
+     * content for UTF-8 and single byte encodings, see
+     * {@link MockServletOutputStream#contains(String)}.
+     * @param text the text
+     * @return <code>true</code> if the content contains the text
+     */
+    public boolean outputStreamContains(String text)
+    {
+        return outputStream.contains(text);
+    }
+    
+    /**
+     * Returns a <code>Reader</code> for the output stream content.
+     * The content is decoded with the character encoding of this
+     * response. The reader must not be used after the next write.
+     * @return the content as <code>Reader</code>
+     */
+    public Reader getOutputStreamContentAsReader()
+    {
+        try
+        {
+            return new InputStreamReader(outputStream.getContentAsInputStream(), characterEncoding);
+        }
+        catch(UnsupportedEncodingException exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+    }
+    
+    /**
+     * Returns a number that changes whenever the output stream
+     * content changes. The number also changes when the output
+     * stream is replaced by {@link #resetAll}.
+     * @return the content version
+     */
+    public long getOutputStreamContentVersion()
+    {
+        return outputStreamVersionBase + outputStream.getContentVersion();
+    }
+    
+    /**
+     * Returns the number of bytes written to the output stream.
+     * @return the number of bytes
+     */
+    public long getOutputStreamContentLength()
+    {
+        return outputStream.getContentLength();
+    }
+    
+    /**
+     * Sets how the output stream keeps the written data,
+     * see {@link OutputCapturePolicy}. The data written
+     * so far is kept according to the new policy.
+     * @param policy the policy
+     */
+    public void setOutputCapturePolicy(OutputCapturePolicy policy)
+    {
+        writer.flush();
+        outputStream.setCapturePolicy(policy);
+    }
+    
+    /**
+     * Returns the {@link OutputCapturePolicy} of the output stream.
+     * @return the policy
+     */
+    public OutputCapturePolicy getOutputCapturePolicy()
+    {
+        return outputStream.getCapturePolicy();
+    }
 
     public void addCookie(Cookie cookie)
     {
@@ -208,7 +316,7 @@ public class MockHttpServletResponse implements HttpServletResponse
         outputStream.setEncoding(encoding);
         try
         {
-            writer = new PrintWriter(new OutputStreamWriter(outputStream, characterEncoding), true);
+            writer = new ResponseWriter(new OutputStreamWriter(outputStream, characterEncoding));
         } 
         catch(UnsupportedEncodingException exc)
         {
@@ -330,4 +438,25 @@ public class MockHttpServletResponse implements HttpServletResponse
         dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
         return dateFormat.format(dateValue);
     }
+    
+    private static class ResponseWriter extends PrintWriter
+    {
+        private boolean closed;
+        
+        public ResponseWriter(OutputStreamWriter writer)
+        {
+            super(writer, true);
+        }
+        
+        public void close()
+        {
+            closed = true;
+            super.close();
+        }
+        
+        public boolean isClosed()
+        {
+            return closed;
+        }
+    }
 }
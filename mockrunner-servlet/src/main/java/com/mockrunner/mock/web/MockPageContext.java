@@ -437,6 +437,24 @@ public class MockPageContext extends PageContext
         outStack = new Stack();
     }
     
+    /**
+     * Resets the attributes, the page, the exception and the
+     * writer stack, so that this object can be used for the next
+     * request. The configuration, the request and the response are
+     * kept. Used by {@link WebMockObjectFactory#recycle}.
+     */
+    public void recycle()
+    {
+        attributes.clear();
+        exception = null;
+        page = null;
+        if(!outStack.isEmpty())
+        {
+            jspWriter = (JspWriter)outStack.get(0);
+            outStack.clear();
+        }
+    }
+    
     /**
      * Sets the expression evaluator. The default expression evaluator
      * is {@link MockExpressionEvaluator}.
@@ -1,7 +1,10 @@
 package com.mockrunner.mock.web;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
 
 import javax.servlet.ServletOutputStream;
 
@@ -9,61 +12,306 @@ import com.mockrunner.base.NestedApplicationException;
 
 /**
  * Mock implementation of <code>ServletOutputStream</code>.
+ * The written data is kept according to the {@link OutputCapturePolicy}.
+ * By default, all data is kept in memory. Large output can be
+ * written to a temporary file with {@link OutputCapturePolicy#spillToFile}.
+ * Use {@link #contains(String)}, {@link #getContentAsInputStream} or
+ * {@link #writeContentTo} to check large output without creating
+ * a <code>String</code> of the complete content.
+ * <br>
+ * Independent of the policy, the stream counts the written bytes
+ * and records the flush calls, see {@link #getFlushCount}.
  */
 public class MockServletOutputStream extends ServletOutputStream
 {
-    private ByteArrayOutputStream buffer;
+    private ChunkedOutputBuffer buffer;
     private String encoding;
-    
+    private long contentVersion;
+    private String cachedContent;
+    private String cachedEncoding;
+    private long cachedVersion;
+    private long flushCount;
+    private long firstWriteTime;
+    private long firstFlushTime;
+    private long lastFlushTime;
+
     public MockServletOutputStream()
     {
         this("ISO-8859-1");
     }
-    
+
     public MockServletOutputStream(String encoding)
     {
-        buffer = new ByteArrayOutputStream();
+        buffer = new ChunkedOutputBuffer(OutputCapturePolicy.inMemory());
         this.encoding = encoding;
+        cachedVersion = -1;
+        resetStatistics();
     }
-    
+
     public void setEncoding(String encoding)
     {
+        if(!encoding.equals(this.encoding))
+        {
+            contentVersion++;
+        }
         this.encoding = encoding;
     }
-    
+
+    /**
+     * Sets the {@link OutputCapturePolicy}. The current content
+     * is kept according to the new policy.
+     * @param policy the policy
+     */
+    public void setCapturePolicy(OutputCapturePolicy policy)
+    {
+        if(buffer.getPolicy() == policy) return;
+        ChunkedOutputBuffer newBuffer = new ChunkedOutputBuffer(policy);
+        try
+        {
+            buffer.writeTo(newBuffer);
+        }
+        catch(IOException exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+        buffer.clear();
+        buffer = newBuffer;
+        contentVersion++;
+    }
+
+    /**
+     * Returns the {@link OutputCapturePolicy}.
+     * @return the policy
+     */
+    public OutputCapturePolicy getCapturePolicy()
+    {
+        return buffer.getPolicy();
+    }
+
     public void write(int value) throws IOException
     {
+        if(firstWriteTime < 0) firstWriteTime = System.nanoTime();
         buffer.write(value);
+        contentVersion++;
+    }
+
+    public void write(byte[] data, int offset, int length) throws IOException
+    {
+        if(firstWriteTime < 0) firstWriteTime = System.nanoTime();
+        buffer.write(data, offset, length);
+        contentVersion++;
     }
-    
+
+    public void flush() throws IOException
+    {
+        long time = System.nanoTime();
+        if(firstFlushTime < 0) firstFlushTime = time;
+        lastFlushTime = time;
+        flushCount++;
+    }
+
+    /**
+     * Returns the content as a string. The string is cached
+     * until the next write.
+     * @return the content
+     */
     public String getContent()
     {
+        if(cachedVersion == contentVersion && encoding.equals(cachedEncoding))
+        {
+            return cachedContent;
+        }
         try
         {
-            buffer.flush();
-            return buffer.toString(encoding);
-        } 
+            cachedContent = buffer.toString(encoding);
+            cachedEncoding = encoding;
+            cachedVersion = contentVersion;
+            return cachedContent;
+        }
         catch(IOException exc)
         {
             throw new NestedApplicationException(exc);
         }
     }
-    
+
     public byte[] getBinaryContent()
     {
         try
         {
-            buffer.flush();
             return buffer.toByteArray();
-        } 
+        }
+        catch(IOException exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+    }
+
+    /**
+     * Returns a stream that reads the content from the beginning.
+     * The stream must not be used after the next write.
+     * @return the content as stream
+     */
+    public InputStream getContentAsInputStream()
+    {
+        try
+        {
+            return buffer.openInputStream();
+        }
         catch(IOException exc)
         {
             throw new NestedApplicationException(exc);
         }
     }
-    
+
+    /**
+     * Writes the content to the specified stream.
+     * @param stream the stream
+     */
+    public void writeContentTo(OutputStream stream) throws IOException
+    {
+        buffer.writeTo(stream);
+    }
+
+    /**
+     * Returns if the content contains the specified bytes.
+     * The content is scanned chunk by chunk, no copy is created.
+     * @param data the bytes
+     * @return <code>true</code> if the content contains the bytes
+     */
+    public boolean contains(byte[] data)
+    {
+        try
+        {
+            return buffer.contains(data);
+        }
+        catch(IOException exc)
+        {
+            throw new NestedApplicationException(exc);
+        }
+    }
+
+    /**
+     * Returns if the content contains the specified text. For UTF-8
+     * and single byte encodings, the encoded text is searched in the
+     * content without decoding it. For other encodings, a match of
+     * the encoded bytes does not imply a match of the characters, so
+     * the content is decoded with {@link #getContent}.
+     * @param text the text
+     * @return <code>true</code> if the content contains the text
+     */
+    public boolean contains(String text)
+    {
+        Charset charset = Charset.forName(encoding);
+        if("UTF-8".equals(charset.name()) || 1.0f == charset.newEncoder().maxBytesPerChar())
+        {
+            return contains(text.getBytes(charset));
+        }
+        return getContent().contains(text);
+    }
+
+    /**
+     * Returns the number of bytes written since the content was
+     * cleared the last time. If the output is discarded, this is
+     * the number of discarded bytes.
+     * @return the number of bytes
+     */
+    public long getContentLength()
+    {
+        return buffer.size();
+    }
+
+    /**
+     * Returns a number that is changed whenever the content or
+     * the encoding changes. Can be used to cache data derived
+     * from the content.
+     * @return the content version
+     */
+    public long getContentVersion()
+    {
+        return contentVersion;
+    }
+
+    /**
+     * Returns if the content was written to a temporary file,
+     * see {@link OutputCapturePolicy#spillToFile}.
+     * @return <code>true</code> if the content was written to a file
+     */
+    public boolean isSpilled()
+    {
+        return buffer.isSpilled();
+    }
+
+    /**
+     * Returns the temporary file of the content. The file
+     * contains the beginning of the content, the rest is
+     * kept in memory. The file is deleted by {@link #clearContent}.
+     * @return the file or <code>null</code>, if the content was
+     *         not written to a file
+     */
+    public File getSpillFile()
+    {
+        return buffer.getSpillFile();
+    }
+
+    /**
+     * Returns the number of {@link #flush} calls.
+     * Please note that the <code>PrintWriter</code> of
+     * {@link MockHttpServletResponse} flushes the stream on
+     * every <code>println</code>.
+     * @return the number of flush calls
+     */
+    public long getFlushCount()
+    {
+        return flushCount;
+    }
+
+    /**
+     * Returns the time of the first write call as returned by
+     * <code>System.nanoTime</code>.
+     * @return the time or -1, if nothing was written
+     */
+    public long getFirstWriteTime()
+    {
+        return firstWriteTime;
+    }
+
+    /**
+     * Returns the time of the first {@link #flush} call as
+     * returned by <code>System.nanoTime</code>.
+     * @return the time or -1, if the stream was not flushed
+     */
+    public long getFirstFlushTime()
+    {
+        return firstFlushTime;
+    }
+
+    /**
+     * Returns the time of the last {@link #flush} call as
+     * returned by <code>System.nanoTime</code>.
+     * @return the time or -1, if the stream was not flushed
+     */
+    public long getLastFlushTime()
+    {
+        return lastFlushTime;
+    }
+
+    /**
+     * Resets the flush count and the recorded times.
+     * The content is not changed.
+     */
+    public void resetStatistics()
+    {
+        flushCount = 0;
+        firstWriteTime = -1;
+        firstFlushTime = -1;
+        lastFlushTime = -1;
+    }
+
     public void clearContent()
     {
-        buffer = new ByteArrayOutputStream();
+        buffer.clear();
+        contentVersion++;
+        cachedContent = null;
+        cachedVersion = -1;
     }
 }
@@ -0,0 +1,114 @@
+package com.mockrunner.mock.web;
+
+import java.io.File;
+
+/**
+ * Determines how a {@link MockServletOutputStream} keeps the
+ * data written to it. The default is {@link #inMemory}.
+ * Servlets that write very large responses can use
+ * {@link #spillToFile} to keep only the last part of the output
+ * on the heap. Throughput tests that are only interested in the
+ * number of written bytes and the flush timing can use
+ * {@link #discard}.
+ * <br>
+ * The policy is set with
+ * {@link MockHttpServletResponse#setOutputCapturePolicy}.
+ */
+public class OutputCapturePolicy
+{
+    private static final OutputCapturePolicy IN_MEMORY = new OutputCapturePolicy(-1, null, false);
+    private static final OutputCapturePolicy DISCARD = new OutputCapturePolicy(-1, null, true);
+
+    private long spillThreshold;
+    private File spillDirectory;
+    private boolean discard;
+
+    private OutputCapturePolicy(long spillThreshold, File spillDirectory, boolean discard)
+    {
+        this.spillThreshold = spillThreshold;
+        this.spillDirectory = spillDirectory;
+        this.discard = discard;
+    }
+
+    /**
+     * Keeps the complete output in memory. This is the default.
+     * @return the policy
+     */
+    public static OutputCapturePolicy inMemory()
+    {
+        return IN_MEMORY;
+    }
+
+    /**
+     * Keeps the output in memory until it exceeds the specified
+     * number of bytes. The output is then written to a temporary file
+     * in the default temporary directory.
+     * @param thresholdBytes the maximum number of bytes kept in memory
+     * @return the policy
+     */
+    public static OutputCapturePolicy spillToFile(long thresholdBytes)
+    {
+        return spillToFile(thresholdBytes, null);
+    }
+
+    /**
+     * Keeps the output in memory until it exceeds the specified
+     * number of bytes. The output is then written to a temporary file
+     * in the specified directory. The file is deleted when the
+     * content of the stream is cleared, e.g. by
+     * {@link MockHttpServletResponse#resetAll} or
+     * {@link MockHttpServletResponse#recycle}. Files of abandoned
+     * streams are deleted when the JVM exits.
+     * @param thresholdBytes the maximum number of bytes kept in memory
+     * @param directory the directory of the temporary file,
+     *        <code>null</code> for the default temporary directory
+     * @return the policy
+     */
+    public static OutputCapturePolicy spillToFile(long thresholdBytes, File directory)
+    {
+        if(thresholdBytes < 0)
+        {
+            throw new IllegalArgumentException("thresholdBytes must be greater or equals 0");
+        }
+        return new OutputCapturePolicy(thresholdBytes, directory, false);
+    }
+
+    /**
+     * Keeps no output at all. Only the number of written bytes
+     * and the flush statistics are recorded. The content of the
+     * stream is always empty.
+     * @return the policy
+     */
+    public static OutputCapturePolicy discard()
+    {
+        return DISCARD;
+    }
+
+    /**
+     * Returns the maximum number of bytes kept in memory before
+     * the output is written to a file.
+     * @return the threshold, -1 if the output is never written to a file
+     */
+    public long getSpillThreshold()
+    {
+        return spillThreshold;
+    }
+
+    /**
+     * Returns the directory of the temporary file.
+     * @return the directory, <code>null</code> for the default temporary directory
+     */
+    public File getSpillDirectory()
+    {
+        return spillDirectory;
+    }
+
+    /**
+     * Returns if the output is discarded.
+     * @return <code>true</code> if the output is discarded
+     */
+    public boolean isDiscard()
+    {
+        return discard;
+    }
+}
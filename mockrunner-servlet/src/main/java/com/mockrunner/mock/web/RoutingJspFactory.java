@@ -0,0 +1,135 @@
+package com.mockrunner.mock.web;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.jsp.JspApplicationContext;
+import javax.servlet.jsp.JspEngineInfo;
+import javax.servlet.jsp.JspFactory;
+import javax.servlet.jsp.PageContext;
+
+/**
+ * <code>JspFactory</code> that delegates to a factory bound to
+ * the current thread. <code>JspFactory.setDefaultFactory()</code>
+ * sets a global factory, so tests that run in parallel on different
+ * threads overwrite each others factory and page context. If this
+ * factory is installed with {@link #install}, the
+ * {@link WebMockObjectFactory} binds its <code>JspFactory</code> to the
+ * current thread instead of setting the default factory, and
+ * <code>JspFactory.getDefaultFactory().getPageContext()</code>
+ * returns the page context of the test running on the current thread.
+ * <br>
+ * Threads without a bound factory use the default factory that
+ * was set when this factory was installed.
+ */
+public class RoutingJspFactory extends JspFactory
+{
+    private final ThreadLocal<JspFactory> currentFactory = new ThreadLocal<JspFactory>();
+    private final JspFactory fallbackFactory;
+
+    private RoutingJspFactory(JspFactory fallbackFactory)
+    {
+        this.fallbackFactory = fallbackFactory;
+    }
+
+    /**
+     * Sets a <code>RoutingJspFactory</code> as default factory,
+     * if it's not already installed. Can be called once before
+     * parallel tests are started.
+     * @return the installed factory
+     */
+    public static synchronized RoutingJspFactory install()
+    {
+        JspFactory defaultFactory = JspFactory.getDefaultFactory();
+        if(defaultFactory instanceof RoutingJspFactory) return (RoutingJspFactory)defaultFactory;
+        RoutingJspFactory routingFactory = new RoutingJspFactory(defaultFactory);
+        JspFactory.setDefaultFactory(routingFactory);
+        return routingFactory;
+    }
+
+    /**
+     * Restores the default factory that was set when the
+     * <code>RoutingJspFactory</code> was installed.
+     */
+    public static synchronized void uninstall()
+    {
+        JspFactory defaultFactory = JspFactory.getDefaultFactory();
+        if(!(defaultFactory instanceof RoutingJspFactory)) return;
+        JspFactory.setDefaultFactory(((RoutingJspFactory)defaultFactory).fallbackFactory);
+    }
+
+    /**
+     * Returns if a <code>RoutingJspFactory</code> is the default factory.
+     * @return <code>true</code> if a <code>RoutingJspFactory</code> is installed
+     */
+    public static boolean isInstalled()
+    {
+        return JspFactory.getDefaultFactory() instanceof RoutingJspFactory;
+    }
+
+    /**
+     * Binds the specified factory to the current thread.
+     * @param factory the factory, <code>null</code> removes
+     *        the factory of the current thread
+     */
+    public void bind(JspFactory factory)
+    {
+        if(null == factory)
+        {
+            currentFactory.remove();
+        }
+        else
+        {
+            currentFactory.set(factory);
+        }
+    }
+
+    /**
+     * Removes the specified factory from the current thread,
+     * if it is bound to the current thread.
+     * @param factory the factory
+     */
+    public void unbind(JspFactory factory)
+    {
+        if(currentFactory.get() == factory)
+        {
+            currentFactory.remove();
+        }
+    }
+
+    /**
+     * Returns the factory of the current thread or the fallback
+     * factory, if no factory is bound to the current thread.
+     * @return the factory, may be <code>null</code>
+     */
+    public JspFactory getCurrentFactory()
+    {
+        JspFactory factory = currentFactory.get();
+        return (null != factory) ? factory : fallbackFactory;
+    }
+
+    public JspEngineInfo getEngineInfo()
+    {
+        JspFactory factory = getCurrentFactory();
+        return (null != factory) ? factory.getEngineInfo() : null;
+    }
+
+    public JspApplicationContext getJspApplicationContext(ServletContext context)
+    {
+        JspFactory factory = getCurrentFactory();
+        return (null != factory) ? factory.getJspApplicationContext(context) : null;
+    }
+
+    public PageContext getPageContext(Servlet servlet, ServletRequest request, ServletResponse response, String errorPageURL, boolean needsSession, int buffer, boolean autoflush)
+    {
+        JspFactory factory = getCurrentFactory();
+        return (null != factory) ? factory.getPageContext(servlet, request, response, errorPageURL, needsSession, buffer, autoflush) : null;
+    }
+
+    public void releasePageContext(PageContext pageContext)
+    {
+        JspFactory factory = getCurrentFactory();
+        if(null != factory) factory.releasePageContext(pageContext);
+    }
+}
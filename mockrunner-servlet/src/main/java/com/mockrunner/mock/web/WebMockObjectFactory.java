@@ -68,7 +68,7 @@ public class WebMockObjectFactory
         createNewMockObjects(true);
         context = createMockServletContext();
         setUpDependencies();
-        JspFactory.setDefaultFactory(jspFactory);
+        activateJspFactory();
     }
 
     private void createMockObjectsBasedOn(WebMockObjectFactory factory)
@@ -82,7 +82,7 @@ public class WebMockObjectFactory
         if(!createNewSession) session = factory.getMockSession();
         context = factory.getMockServletContext();
         setUpDependencies();
-        JspFactory.setDefaultFactory(jspFactory);
+        activateJspFactory();
     }
 
     private void createNewMockObjects(boolean createNewSession)
@@ -111,6 +111,41 @@ public class WebMockObjectFactory
         setUpJspFactory();
     }
 
+    /**
+     * Sets the <code>JspFactory</code> of this factory as default factory.
+     * If a {@link RoutingJspFactory} is installed, the <code>JspFactory</code>
+     * is bound to the current thread instead.
+     */
+    void activateJspFactory()
+    {
+        JspFactory defaultFactory = JspFactory.getDefaultFactory();
+        if((defaultFactory instanceof RoutingJspFactory) && !(jspFactory instanceof RoutingJspFactory))
+        {
+            ((RoutingJspFactory)defaultFactory).bind(jspFactory);
+        }
+        else if(defaultFactory != jspFactory)
+        {
+            JspFactory.setDefaultFactory(jspFactory);
+        }
+    }
+
+    /**
+     * Removes the <code>JspFactory</code> of this factory from the
+     * current thread, if a {@link RoutingJspFactory} is installed.
+     * The test adapters call this method in <code>tearDown()</code>,
+     * so a thread that runs other tests afterwards does not keep
+     * the mock objects of this factory. A default factory that was
+     * set without a {@link RoutingJspFactory} is not changed.
+     */
+    public void deactivateJspFactory()
+    {
+        JspFactory defaultFactory = JspFactory.getDefaultFactory();
+        if(defaultFactory instanceof RoutingJspFactory)
+        {
+            ((RoutingJspFactory)defaultFactory).unbind(jspFactory);
+        }
+    }
+
     private void setUpJspFactory()
     {
         if(jspFactory instanceof MockJspFactory)
@@ -121,16 +156,48 @@ public class WebMockObjectFactory
     
     /**
      * Sets the default <code>JspFactory</code> by calling
-     * <code>JspFactory.setDefaultFactory()</code>.
+     * <code>JspFactory.setDefaultFactory()</code>. If a
+     * {@link RoutingJspFactory} is installed, the <code>JspFactory</code>
+     * is bound to the current thread instead.
      * @param jspFactory the <code>JspFactory</code>
      */
     public void setDefaultJspFactory(JspFactory jspFactory)
     {
-        JspFactory.setDefaultFactory(jspFactory);
         this.jspFactory = jspFactory;
+        activateJspFactory();
         setUpJspFactory();
     }
     
+    /**
+     * Resets the request, the response, the session, the page context
+     * and the filter chain in place, so that this factory can be used for
+     * the next test iteration without creating a new set of mock objects.
+     * Request and response wrappers are removed. The <code>ServletContext</code>,
+     * the configurations, the filters and the <code>JspFactory</code> are kept.
+     * Unlike the constructors, this method does not activate the
+     * <code>JspFactory</code> and does not set the page context of
+     * a <code>MockJspFactory</code>, so a page context that was
+     * set on the <code>MockJspFactory</code> is kept.
+     * See {@link WebMockObjectFactoryPool}.
+     */
+    public void recycle()
+    {
+        request.recycle();
+        response.recycle();
+        session.resetAll();
+        request.setSession(session);
+        wrappedRequest = request;
+        wrappedResponse = response;
+        pageContext.setServletConfig(config);
+        pageContext.setServletRequest(request);
+        if(pageContext.getResponse() != response)
+        {
+            pageContext.setServletResponse(response);
+        }
+        pageContext.recycle();
+        filterChain.recycle();
+    }
+    
     /**
      * Refreshes the mock objects dependencies. May be called after setting request
      * and response wrappers.
@@ -0,0 +1,129 @@
+package com.mockrunner.mock.web;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of {@link WebMockObjectFactory} instances for tests that
+ * create many factories, e.g. parameterized tests with many iterations.
+ * Creating a factory builds the complete graph of mock objects, while
+ * {@link WebMockObjectFactory#recycle} only resets the request related
+ * state. Released factories are recycled and kept per thread, so a
+ * factory is only used by one thread at a time.
+ * <br>
+ * If a base factory is specified, the created factories share its
+ * <code>ServletContext</code>, see
+ * {@link WebMockObjectFactory#WebMockObjectFactory(WebMockObjectFactory)}.
+ */
+public class WebMockObjectFactoryPool
+{
+    private WebMockObjectFactory baseFactory;
+    private int maxIdlePerThread;
+    private ThreadLocal idleFactories;
+    private AtomicLong numberCreated;
+    private AtomicLong numberReused;
+    
+    /**
+     * Creates a pool that keeps up to four idle factories per thread.
+     */
+    public WebMockObjectFactoryPool()
+    {
+        this(null, 4);
+    }
+    
+    /**
+     * Creates a pool.
+     * @param baseFactory the factory whose <code>ServletContext</code>
+     *        is shared, may be <code>null</code>
+     * @param maxIdlePerThread the maximum number of idle factories per thread
+     */
+    public WebMockObjectFactoryPool(WebMockObjectFactory baseFactory, int maxIdlePerThread)
+    {
+        if(maxIdlePerThread < 0)
+        {
+            throw new IllegalArgumentException("maxIdlePerThread must be greater or equals 0");
+        }
+        this.baseFactory = baseFactory;
+        this.maxIdlePerThread = maxIdlePerThread;
+        idleFactories = new ThreadLocal()
+        {
+            protected Object initialValue()
+            {
+                return new ArrayDeque();
+            }
+        };
+        numberCreated = new AtomicLong();
+        numberReused = new AtomicLong();
+    }
+    
+    /**
+     * Returns an idle factory of the current thread or creates a new one.
+     * The <code>JspFactory</code> of the returned factory is set as the
+     * default <code>JspFactory</code> or bound to the current thread, if a
+     * {@link RoutingJspFactory} is installed.
+     * @return the factory
+     */
+    public WebMockObjectFactory acquire()
+    {
+        WebMockObjectFactory factory = (WebMockObjectFactory)getIdleFactories().pollLast();
+        if(null == factory)
+        {
+            numberCreated.incrementAndGet();
+            return createFactory();
+        }
+        numberReused.incrementAndGet();
+        factory.activateJspFactory();
+        return factory;
+    }
+    
+    /**
+     * Recycles the factory and keeps it for the next {@link #acquire}
+     * call of the current thread. The factory must not be used
+     * after it was released. Its <code>JspFactory</code> is removed
+     * from the current thread, if a {@link RoutingJspFactory} is installed.
+     * @param factory the factory
+     */
+    public void release(WebMockObjectFactory factory)
+    {
+        factory.deactivateJspFactory();
+        ArrayDeque idle = getIdleFactories();
+        if(idle.size() >= maxIdlePerThread) return;
+        factory.recycle();
+        idle.addLast(factory);
+    }
+    
+    /**
+     * Returns the number of factories created by this pool.
+     * @return the number of created factories
+     */
+    public long getNumberCreatedFactories()
+    {
+        return numberCreated.get();
+    }
+    
+    /**
+     * Returns the number of {@link #acquire} calls that returned
+     * a recycled factory.
+     * @return the number of reused factories
+     */
+    public long getNumberReusedFactories()
+    {
+        return numberReused.get();
+    }
+    
+    /**
+     * Creates a new factory. Can be overridden to create a
+     * subclass of {@link WebMockObjectFactory}.
+     * @return the factory
+     */
+    protected WebMockObjectFactory createFactory()
+    {
+        if(null == baseFactory) return new WebMockObjectFactory();
+        return new WebMockObjectFactory(baseFactory);
+    }
+    
+    private ArrayDeque getIdleFactories()
+    {
+        return (ArrayDeque)idleFactories.get();
+    }
+}
@@ -41,6 +41,10 @@ public abstract class BasicServletTestCaseAdapter extends BasicHTMLOutputTestCas
     @After
     public void tearDown() throws Exception
     {
+        if(null != webMockObjectFactory)
+        {
+            webMockObjectFactory.deactivateJspFactory();
+        }
         servletTestModule = null;
         webMockObjectFactory = null;
     }
@@ -302,6 +306,14 @@ public abstract class BasicServletTestCaseAdapter extends BasicHTMLOutputTestCas
         servletTestModule.doFilter();
     }
 
+    /**
+     * Delegates to {@link com.mockrunner.servlet.ServletTestModule#createLoadDriver}
+     */
+    protected ServletLoadDriver createLoadDriver()
+    {
+        return servletTestModule.createLoadDriver();
+    }
+
     /**
      * Delegates to {@link com.mockrunner.servlet.ServletTestModule#getFilteredRequest}
      */
@@ -318,6 +330,14 @@ public abstract class BasicServletTestCaseAdapter extends BasicHTMLOutputTestCas
         return servletTestModule.getFilteredResponse();
     }
 
+    /**
+     * Delegates to {@link com.mockrunner.servlet.ServletTestModule#getOutputLength}
+     */
+    protected long getOutputLength()
+    {
+        return servletTestModule.getOutputLength();
+    }
+
     /**
      * Delegates to {@link com.mockrunner.servlet.ServletTestModule#clearOutput}
      */
@@ -0,0 +1,163 @@
+package com.mockrunner.servlet;
+
+/**
+ * Histogram of latencies in nanoseconds, used by the
+ * {@link ServletLoadDriver}. Values are counted in buckets
+ * with a relative precision of about 3%, so recording a value
+ * is cheap and the memory does not depend on the number of
+ * recorded values. Values below 64 nanoseconds are exact.
+ * <br>
+ * This class is not thread safe. Each thread records its values
+ * in its own histogram, the histograms are merged with {@link #add}.
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BUCKETS = 64;
+    private static final int LINEAR_BITS = 6;
+    private static final int NUMBER_BUCKETS = LINEAR_BUCKETS + (64 - LINEAR_BITS) * SUB_BUCKETS;
+
+    private long[] counts;
+    private long count;
+    private long min;
+    private long max;
+    private double sum;
+
+    public LatencyHistogram()
+    {
+        counts = new long[NUMBER_BUCKETS];
+        reset();
+    }
+
+    /**
+     * Records a latency.
+     * @param nanos the latency in nanoseconds, negative values are recorded as 0
+     */
+    public void record(long nanos)
+    {
+        if(nanos < 0) nanos = 0;
+        counts[getBucket(nanos)]++;
+        count++;
+        sum += nanos;
+        if(nanos < min) min = nanos;
+        if(nanos > max) max = nanos;
+    }
+
+    /**
+     * Adds the values of the specified histogram to this histogram.
+     * @param other the other histogram
+     */
+    public void add(LatencyHistogram other)
+    {
+        for(int ii = 0; ii < NUMBER_BUCKETS; ii++)
+        {
+            counts[ii] += other.counts[ii];
+        }
+        count += other.count;
+        sum += other.sum;
+        if(other.min < min) min = other.min;
+        if(other.max > max) max = other.max;
+    }
+
+    /**
+     * Removes all values.
+     */
+    public void reset()
+    {
+        for(int ii = 0; ii < NUMBER_BUCKETS; ii++)
+        {
+            counts[ii] = 0;
+        }
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    /**
+     * Returns the number of recorded values.
+     * @return the number of values
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Returns the smallest recorded value.
+     * @return the smallest value or 0, if no value was recorded
+     */
+    public long getMin()
+    {
+        return (0 == count) ? 0 : min;
+    }
+
+    /**
+     * Returns the largest recorded value.
+     * @return the largest value
+     */
+    public long getMax()
+    {
+        return max;
+    }
+
+    /**
+     * Returns the mean of the recorded values.
+     * @return the mean or 0, if no value was recorded
+     */
+    public double getMean()
+    {
+        return (0 == count) ? 0 : sum / count;
+    }
+
+    /**
+     * Returns the value below or at which the specified percentage
+     * of the recorded values lie, e.g. <code>getPercentile(99.9)</code>.
+     * The result is the upper bound of the bucket of the value, but
+     * never larger than {@link #getMax}.
+     * @param percentile the percentile between 0 and 100
+     * @return the value or 0, if no value was recorded
+     */
+    public long getPercentile(double percentile)
+    {
+        if(percentile < 0 || percentile > 100)
+        {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        if(0 == count) return 0;
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for(int ii = 0; ii < NUMBER_BUCKETS; ii++)
+        {
+            seen += counts[ii];
+            if(seen >= rank)
+            {
+                return Math.max(getMin(), Math.min(max, getUpperBound(ii)));
+            }
+        }
+        return max;
+    }
+
+    private static int getBucket(long value)
+    {
+        if(value < LINEAR_BUCKETS) return (int)value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - LINEAR_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long getUpperBound(int bucket)
+    {
+        if(bucket < LINEAR_BUCKETS) return bucket;
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + LINEAR_BITS;
+        long subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        long upperBound = ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+        return (upperBound < 0) ? Long.MAX_VALUE : upperBound;
+    }
+
+    public String toString()
+    {
+        return "count=" + count + ", min=" + getMin() + ", mean=" + (long)getMean() + ", p50=" + getPercentile(50) + ", p99=" + getPercentile(99) + ", p99.9=" + getPercentile(99.9) + ", max=" + max + " (ns)";
+    }
+}
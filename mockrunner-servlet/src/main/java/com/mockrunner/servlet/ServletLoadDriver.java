@@ -0,0 +1,308 @@
+package com.mockrunner.servlet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.Servlet;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import com.mockrunner.base.NestedApplicationException;
+import com.mockrunner.mock.web.MockHttpServletRequest;
+import com.mockrunner.mock.web.MockHttpServletResponse;
+import com.mockrunner.mock.web.MockHttpSession;
+
+/**
+ * Calls a servlet and its filters concurrently, e.g. for
+ * performance regression tests without a servlet container.
+ * Each request gets its own {@link MockHttpServletRequest},
+ * {@link MockHttpServletResponse}, session and filter chain, the
+ * servlet and the filters are shared like in a real container.
+ * The requests are prepared by a {@link RequestGenerator}.
+ * The driver measures the throughput and the latency of the
+ * requests, see {@link ServletLoadResult}.
+ * <br>
+ * The worker threads are created with a <code>ThreadFactory</code>.
+ * On Java 21 or later, virtual threads can be used with
+ * <code>setThreadFactory(Thread.ofVirtual().factory())</code>.
+ * <br>
+ * Use {@link ServletTestModule#createLoadDriver} to create a driver
+ * for the servlet and the filters of a <code>ServletTestModule</code>.
+ */
+public class ServletLoadDriver
+{
+    private Servlet servlet;
+    private List<Filter> filters;
+    private ServletContext servletContext;
+    private int numberThreads;
+    private int numberWarmupRequests;
+    private ThreadFactory threadFactory;
+
+    /**
+     * Prepares the requests of a {@link ServletLoadDriver}.
+     * Called concurrently by the worker threads.
+     */
+    public interface RequestGenerator
+    {
+        /**
+         * Prepares a request, e.g. sets the method, the URI and the parameters.
+         * The method of the request is <code>GET</code> by default.
+         * @param request the new request
+         * @param requestNumber the number of the request, starting with 0
+         *        for the first request of a run
+         * @throws Exception if the request cannot be prepared
+         */
+        public void prepare(MockHttpServletRequest request, int requestNumber) throws Exception;
+    }
+
+    /**
+     * Creates a driver for the specified servlet.
+     * The servlet must be initialized.
+     * @param servlet the servlet
+     */
+    public ServletLoadDriver(Servlet servlet)
+    {
+        this.servlet = servlet;
+        filters = new ArrayList<Filter>();
+        numberThreads = Runtime.getRuntime().availableProcessors();
+        numberWarmupRequests = 0;
+        threadFactory = new WorkerThreadFactory();
+    }
+
+    /**
+     * Adds a filter. The filters are called in the order they
+     * were added before the servlet is called. The filter must
+     * be initialized.
+     * @param filter the filter
+     */
+    public void addFilter(Filter filter)
+    {
+        filters.add(filter);
+    }
+
+    /**
+     * Sets the <code>ServletContext</code> of the sessions
+     * of the requests.
+     * @param servletContext the <code>ServletContext</code>
+     */
+    public void setServletContext(ServletContext servletContext)
+    {
+        this.servletContext = servletContext;
+    }
+
+    /**
+     * Sets the number of worker threads. Default is the
+     * number of available processors.
+     * @param numberThreads the number of threads
+     */
+    public void setNumberThreads(int numberThreads)
+    {
+        if(numberThreads <= 0)
+        {
+            throw new IllegalArgumentException("numberThreads must be greater than 0");
+        }
+        this.numberThreads = numberThreads;
+    }
+
+    /**
+     * Sets the number of requests that are executed before the
+     * measured requests of a run, e.g. to let the JIT compile the
+     * servlet. Default is 0.
+     * @param numberWarmupRequests the number of warmup requests
+     */
+    public void setNumberWarmupRequests(int numberWarmupRequests)
+    {
+        if(numberWarmupRequests < 0)
+        {
+            throw new IllegalArgumentException("numberWarmupRequests must be greater or equals 0");
+        }
+        this.numberWarmupRequests = numberWarmupRequests;
+    }
+
+    /**
+     * Sets the factory of the worker threads. Default is a factory
+     * for daemon threads.
+     * @param threadFactory the factory
+     */
+    public void setThreadFactory(ThreadFactory threadFactory)
+    {
+        if(null == threadFactory)
+        {
+            throw new IllegalArgumentException("threadFactory must not be null");
+        }
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * Executes the specified number of requests with the worker threads
+     * and returns the measured throughput and latencies. The warmup
+     * requests are executed before and are not measured.
+     * @param numberRequests the number of requests
+     * @param generator the generator of the requests
+     * @return the result
+     */
+    public ServletLoadResult run(int numberRequests, RequestGenerator generator)
+    {
+        if(numberWarmupRequests > 0)
+        {
+            execute(numberWarmupRequests, generator);
+        }
+        return execute(numberRequests, generator);
+    }
+
+    private ServletLoadResult execute(int numberRequests, RequestGenerator generator)
+    {
+        Filter[] filterArray = filters.toArray(new Filter[filters.size()]);
+        AtomicInteger nextRequest = new AtomicInteger();
+        AtomicReference<Throwable> firstError = new AtomicReference<Throwable>();
+        CountDownLatch startSignal = new CountDownLatch(1);
+        Worker[] workers = new Worker[numberThreads];
+        Thread[] threads = new Thread[numberThreads];
+        for(int ii = 0; ii < numberThreads; ii++)
+        {
+            workers[ii] = new Worker(filterArray, generator, numberRequests, nextRequest, firstError, startSignal);
+            threads[ii] = threadFactory.newThread(workers[ii]);
+            threads[ii].start();
+        }
+        long start = System.nanoTime();
+        startSignal.countDown();
+        try
+        {
+            for(int ii = 0; ii < numberThreads; ii++)
+            {
+                threads[ii].join();
+            }
+        }
+        catch(InterruptedException exc)
+        {
+            Thread.currentThread().interrupt();
+            throw new NestedApplicationException(exc);
+        }
+        long elapsed = System.nanoTime() - start;
+        LatencyHistogram histogram = new LatencyHistogram();
+        long numberErrors = 0;
+        for(int ii = 0; ii < numberThreads; ii++)
+        {
+            histogram.add(workers[ii].histogram);
+            numberErrors += workers[ii].numberErrors;
+        }
+        return new ServletLoadResult(numberThreads, histogram.getCount(), numberErrors, elapsed, histogram, firstError.get());
+    }
+
+    private class Worker implements Runnable
+    {
+        private final Filter[] filters;
+        private final RequestGenerator generator;
+        private final int numberRequests;
+        private final AtomicInteger nextRequest;
+        private final AtomicReference<Throwable> firstError;
+        private final CountDownLatch startSignal;
+        private final LatencyHistogram histogram;
+        private long numberErrors;
+
+        public Worker(Filter[] filters, RequestGenerator generator, int numberRequests, AtomicInteger nextRequest, AtomicReference<Throwable> firstError, CountDownLatch startSignal)
+        {
+            this.filters = filters;
+            this.generator = generator;
+            this.numberRequests = numberRequests;
+            this.nextRequest = nextRequest;
+            this.firstError = firstError;
+            this.startSignal = startSignal;
+            histogram = new LatencyHistogram();
+            numberErrors = 0;
+        }
+
+        public void run()
+        {
+            try
+            {
+                startSignal.await();
+            }
+            catch(InterruptedException exc)
+            {
+                return;
+            }
+            int requestNumber;
+            while((requestNumber = nextRequest.getAndIncrement()) < numberRequests)
+            {
+                MockHttpServletRequest request = new MockHttpServletRequest();
+                MockHttpServletResponse response = new MockHttpServletResponse();
+                MockHttpSession session = new MockHttpSession();
+                if(null != servletContext) session.setupServletContext(servletContext);
+                request.setSession(session);
+                request.setMethod("GET");
+                long start = System.nanoTime();
+                try
+                {
+                    generator.prepare(request, requestNumber);
+                    start = System.nanoTime();
+                    new Invocation(filters, servlet).doFilter(request, response);
+                    histogram.record(System.nanoTime() - start);
+                    if(isError(response)) numberErrors++;
+                }
+                catch(Throwable exc)
+                {
+                    histogram.record(System.nanoTime() - start);
+                    numberErrors++;
+                    firstError.compareAndSet(null, exc);
+                }
+            }
+        }
+    }
+
+    private static boolean isError(MockHttpServletResponse response)
+    {
+        if(response.wasErrorSent() && response.getErrorCode() >= MockHttpServletResponse.SC_INTERNAL_SERVER_ERROR) return true;
+        return response.getStatusCode() >= MockHttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+    }
+
+    /**
+     * The filter chain of a single request.
+     */
+    private static class Invocation implements FilterChain
+    {
+        private final Filter[] filters;
+        private final Servlet servlet;
+        private int position;
+
+        public Invocation(Filter[] filters, Servlet servlet)
+        {
+            this.filters = filters;
+            this.servlet = servlet;
+            position = 0;
+        }
+
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException
+        {
+            if(position < filters.length)
+            {
+                filters[position++].doFilter(request, response, this);
+            }
+            else if(null != servlet)
+            {
+                servlet.service(request, response);
+            }
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "ServletLoadDriver-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
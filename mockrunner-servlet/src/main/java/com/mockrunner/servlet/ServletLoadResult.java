@@ -0,0 +1,107 @@
+package com.mockrunner.servlet;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The result of a {@link ServletLoadDriver} run.
+ */
+public class ServletLoadResult
+{
+    private int numberThreads;
+    private long numberRequests;
+    private long numberErrors;
+    private long elapsedNanos;
+    private LatencyHistogram histogram;
+    private Throwable firstError;
+
+    public ServletLoadResult(int numberThreads, long numberRequests, long numberErrors, long elapsedNanos, LatencyHistogram histogram, Throwable firstError)
+    {
+        this.numberThreads = numberThreads;
+        this.numberRequests = numberRequests;
+        this.numberErrors = numberErrors;
+        this.elapsedNanos = elapsedNanos;
+        this.histogram = histogram;
+        this.firstError = firstError;
+    }
+
+    /**
+     * Returns the number of worker threads.
+     * @return the number of threads
+     */
+    public int getNumberThreads()
+    {
+        return numberThreads;
+    }
+
+    /**
+     * Returns the number of measured requests.
+     * @return the number of requests
+     */
+    public long getNumberRequests()
+    {
+        return numberRequests;
+    }
+
+    /**
+     * Returns the number of requests that threw an exception or
+     * set a status or error code of 500 or above.
+     * @return the number of failed requests
+     */
+    public long getNumberErrors()
+    {
+        return numberErrors;
+    }
+
+    /**
+     * Returns the first exception thrown by a request.
+     * @return the exception or <code>null</code>
+     */
+    public Throwable getFirstError()
+    {
+        return firstError;
+    }
+
+    /**
+     * Returns the time of the run in nanoseconds.
+     * @return the elapsed time
+     */
+    public long getElapsedNanos()
+    {
+        return elapsedNanos;
+    }
+
+    /**
+     * Returns the number of requests per second.
+     * @return the throughput
+     */
+    public double getThroughput()
+    {
+        if(elapsedNanos <= 0) return 0;
+        return numberRequests * (double)TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    /**
+     * Returns the histogram of the request latencies.
+     * @return the histogram
+     */
+    public LatencyHistogram getLatencyHistogram()
+    {
+        return histogram;
+    }
+
+    /**
+     * Returns the latency percentile in nanoseconds,
+     * see {@link LatencyHistogram#getPercentile}.
+     * @param percentile the percentile between 0 and 100
+     * @return the latency in nanoseconds
+     */
+    public long getLatency(double percentile)
+    {
+        return histogram.getPercentile(percentile);
+    }
+
+    public String toString()
+    {
+        return "threads=" + numberThreads + ", requests=" + numberRequests + ", errors=" + numberErrors + ", throughput=" + (long)getThroughput() + "/s, latency: " + histogram;
+    }
+}
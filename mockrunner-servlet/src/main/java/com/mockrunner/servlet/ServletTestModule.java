@@ -1,5 +1,7 @@
 package com.mockrunner.servlet;
 
+import java.io.Reader;
+
 import javax.servlet.Filter;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
@@ -8,6 +10,8 @@ import javax.servlet.http.HttpServlet;
 
 import com.mockrunner.base.HTMLOutputModule;
 import com.mockrunner.base.NestedApplicationException;
+import com.mockrunner.base.VerifyFailedException;
+import com.mockrunner.mock.web.MockHttpServletResponse;
 import com.mockrunner.mock.web.WebMockObjectFactory;
 
 /**
@@ -17,6 +21,8 @@ import com.mockrunner.mock.web.WebMockObjectFactory;
  */
 public class ServletTestModule extends HTMLOutputModule
 {
+    private static final long MAX_OUTPUT_IN_MESSAGE = 64 * 1024;
+    
     private WebMockObjectFactory mockFactory;
     private HttpServlet servlet;
     private boolean doChain;
@@ -213,6 +219,29 @@ public class ServletTestModule extends HTMLOutputModule
         }
     }
     
+    /**
+     * Creates a {@link ServletLoadDriver} for the current servlet that
+     * calls the servlet concurrently. If <i>doChain</i> is set to
+     * <code>true</code> (use {@link #setDoChain}), the filters of the
+     * filter chain are called before the servlet. Each request of the
+     * driver gets its own request, response and filter chain, i.e. the
+     * mock objects of this module are not used.
+     * @return the load driver
+     */
+    public ServletLoadDriver createLoadDriver()
+    {
+        ServletLoadDriver driver = new ServletLoadDriver(servlet);
+        driver.setServletContext(mockFactory.getMockServletContext());
+        if(doChain)
+        {
+            for(Object filter : mockFactory.getMockFilterChain().getFilters())
+            {
+                driver.addFilter((Filter)filter);
+            }
+        }
+        return driver;
+    }
+    
     /**
      * Calls the current servlets <code>init</code> method. Is automatically
      * done when calling {@link #createServlet}.
@@ -351,15 +380,75 @@ public class ServletTestModule extends HTMLOutputModule
      */
     public String getOutput()
     {
-        try
+        flushOutput();
+        return mockFactory.getMockResponse().getOutputStreamContent();
+    }
+    
+    /**
+     * Returns the version of the response content, see
+     * {@link MockHttpServletResponse#getOutputStreamContentVersion}.
+     * Flushes the output before returning the version.
+     * @return the output version
+     */
+    protected long getOutputVersion()
+    {
+        flushOutput();
+        return mockFactory.getMockResponse().getOutputStreamContentVersion();
+    }
+    
+    /**
+     * Returns a <code>Reader</code> that reads the response
+     * content from the buffer of the response, without creating
+     * a <code>String</code> of the complete output.
+     * Flushes the output before returning the reader.
+     * @return the output
+     */
+    protected Reader createOutputReader()
+    {
+        flushOutput();
+        return mockFactory.getMockResponse().getOutputStreamContentAsReader();
+    }
+    
+    /**
+     * Verifies if the output contains the specified data. If the
+     * comparison is case sensitive, the output is scanned in the
+     * buffer of the response without creating a <code>String</code>
+     * of the complete output, which is also possible for output
+     * that was written to a file, see
+     * {@link com.mockrunner.mock.web.OutputCapturePolicy}.
+     * @param expectedOutput the data
+     * @throws VerifyFailedException if verification fails
+     */
+    public void verifyOutputContains(String expectedOutput)
+    {
+        if(!isCaseSensitive())
         {
-            mockFactory.getMockResponse().getWriter().flush();    
+            super.verifyOutputContains(expectedOutput);
+            return;
         }
-        catch(Exception ignored)
+        flushOutput();
+        MockHttpServletResponse response = mockFactory.getMockResponse();
+        if(!response.outputStreamContains(expectedOutput))
         {
-            
+            long length = response.getOutputStreamContentLength();
+            if(length > MAX_OUTPUT_IN_MESSAGE)
+            {
+                throw new VerifyFailedException("actual output of " + length + " bytes does not contain expected output");
+            }
+            throw new VerifyFailedException("actual output: " + getOutput() + " does not match expected output");
         }
-        return mockFactory.getMockResponse().getOutputStreamContent();
+    }
+    
+    /**
+     * Returns the number of bytes written to the response.
+     * Flushes the output before returning the number.
+     * @return the number of bytes
+     */
+    public long getOutputLength()
+    {
+        flushOutput();
+        MockHttpServletResponse response = mockFactory.getMockResponse();
+        return response.getOutputStreamContentLength();
     }
     
     /**
@@ -370,6 +459,18 @@ public class ServletTestModule extends HTMLOutputModule
         mockFactory.getMockResponse().resetBuffer();
     }
     
+    private void flushOutput()
+    {
+        try
+        {
+            mockFactory.getMockResponse().getWriter().flush();    
+        }
+        catch(Exception ignored)
+        {
+            
+        }
+    }
+    
     private void callService()
     {
         try
@@ -1,5 +1,7 @@
 package com.mockrunner.test.web;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Collection;
@@ -10,6 +12,7 @@ import junit.framework.TestCase;
 
 import com.mockrunner.mock.web.MockHttpServletResponse;
 import com.mockrunner.mock.web.MockServletOutputStream;
+import com.mockrunner.mock.web.OutputCapturePolicy;
 
 public class MockHttpServletResponseTest extends TestCase
 {
@@ -171,4 +174,104 @@ public class MockHttpServletResponseTest extends TestCase
         final String encoded2 = response.encodeRedirectUrl("page");
         assertEquals("page", encoded2);
     }
+
+    public void testOutputStreamChunksAndContains() throws IOException
+    {
+        MockServletOutputStream stream = (MockServletOutputStream)response.getOutputStream();
+        StringBuffer expected = new StringBuffer();
+        for(int ii = 0; ii < 20000; ii++)
+        {
+            String line = "line" + ii + "\n";
+            stream.write(line.getBytes("ISO-8859-1"));
+            expected.append(line);
+        }
+        assertEquals(expected.length(), response.getOutputStreamContentLength());
+        assertEquals(expected.toString(), response.getOutputStreamContent());
+        assertSame(response.getOutputStreamContent(), response.getOutputStreamContent());
+        assertTrue(response.outputStreamContains("line19999\n"));
+        assertTrue(response.outputStreamContains("line12345\nline12346"));
+        assertFalse(response.outputStreamContains("line20000"));
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        stream.writeContentTo(copy);
+        assertEquals(expected.toString(), copy.toString("ISO-8859-1"));
+        stream.write('x');
+        assertEquals(expected.toString() + "x", response.getOutputStreamContent());
+    }
+    
+    public void testOutputStreamSpillToFile() throws IOException
+    {
+        response.setOutputCapturePolicy(OutputCapturePolicy.spillToFile(1024));
+        MockServletOutputStream stream = (MockServletOutputStream)response.getOutputStream();
+        byte[] block = new byte[1000];
+        for(int ii = 0; ii < 500; ii++)
+        {
+            block[0] = (byte)ii;
+            stream.write(block);
+        }
+        stream.write("end".getBytes("ISO-8859-1"));
+        assertTrue(stream.isSpilled());
+        File file = stream.getSpillFile();
+        assertTrue(file.exists());
+        assertEquals(500003, stream.getContentLength());
+        byte[] content = response.getOutputStreamBinaryContent();
+        assertEquals(500003, content.length);
+        assertEquals((byte)250, content[250000]);
+        assertTrue(stream.contains(new byte[] {(byte)499, 0, 0}));
+        assertTrue(response.outputStreamContains("end"));
+        response.resetBuffer();
+        assertFalse(stream.isSpilled());
+        assertFalse(file.exists());
+        assertEquals("", response.getOutputStreamContent());
+    }
+    
+    public void testRecycleAfterWriterClosed() throws IOException
+    {
+        PrintWriter writer = response.getWriter();
+        writer.print("first");
+        writer.close();
+        response.recycle();
+        response.getWriter().print("second");
+        response.flushBuffer();
+        assertEquals("second", response.getOutputStreamContent());
+    }
+    
+    public void testSpillFileDeletedOnRecycleAndResetAll() throws IOException
+    {
+        response.setOutputCapturePolicy(OutputCapturePolicy.spillToFile(0));
+        MockServletOutputStream stream = (MockServletOutputStream)response.getOutputStream();
+        stream.write(new byte[200000]);
+        File file = stream.getSpillFile();
+        assertTrue(file.exists());
+        response.recycle();
+        assertFalse(file.exists());
+        response.setOutputCapturePolicy(OutputCapturePolicy.spillToFile(0));
+        stream.write(new byte[200000]);
+        file = stream.getSpillFile();
+        assertTrue(file.exists());
+        response.resetAll();
+        assertFalse(file.exists());
+    }
+    
+    public void testOutputStreamDiscard() throws IOException
+    {
+        PrintWriter writer = response.getWriter();
+        writer.print("abc");
+        response.setOutputCapturePolicy(OutputCapturePolicy.discard());
+        writer.println("def");
+        writer.print("ghi");
+        MockServletOutputStream stream = (MockServletOutputStream)response.getOutputStream();
+        assertEquals("", response.getOutputStreamContent());
+        assertEquals(0, response.getOutputStreamBinaryContent().length);
+        int lineLength = 6 + System.getProperty("line.separator").length();
+        assertEquals(lineLength, response.getOutputStreamContentLength());
+        response.flushBuffer();
+        assertEquals(lineLength + 3, response.getOutputStreamContentLength());
+        assertTrue(stream.getFlushCount() >= 2);
+        assertTrue(stream.getFirstWriteTime() > -1);
+        assertTrue(stream.getLastFlushTime() >= stream.getFirstFlushTime());
+        response.recycle();
+        assertSame(OutputCapturePolicy.inMemory(), response.getOutputCapturePolicy());
+        assertEquals(0, stream.getFlushCount());
+        assertEquals(-1, stream.getFirstWriteTime());
+    }
 }
@@ -1,5 +1,7 @@
 package com.mockrunner.test.web;
 
+import java.lang.management.ManagementFactory;
+
 import javax.servlet.Servlet;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletRequest;
@@ -22,7 +24,10 @@ import com.mockrunner.mock.web.MockJspFactory;
 import com.mockrunner.mock.web.MockPageContext;
 import com.mockrunner.mock.web.MockServletConfig;
 import com.mockrunner.mock.web.MockServletContext;
+import com.mockrunner.mock.web.RoutingJspFactory;
 import com.mockrunner.mock.web.WebMockObjectFactory;
+import com.mockrunner.mock.web.WebMockObjectFactoryPool;
+import com.mockrunner.servlet.BasicServletTestCaseAdapter;
 
 import junit.framework.TestCase;
 
@@ -154,6 +159,146 @@ public class WebMockObjectFactoryTest extends TestCase
         assertNotSame(factory.getMockServletContext().getClass(), MockServletContext.class);
         assertNotSame(factory.getMockSession().getClass(), MockHttpSession.class);
     }
+    public void testRoutingJspFactory() throws Exception
+    {
+        final WebMockObjectFactory factory = new WebMockObjectFactory();
+        RoutingJspFactory routingFactory = RoutingJspFactory.install();
+        try
+        {
+            assertTrue(RoutingJspFactory.isInstalled());
+            assertSame(routingFactory, JspFactory.getDefaultFactory());
+            assertSame(routingFactory, RoutingJspFactory.install());
+            assertSame(factory.getMockPageContext(), JspFactory.getDefaultFactory().getPageContext(null, null, null, null, true, 0, true));
+            final PageContext[] otherPageContexts = new PageContext[2];
+            Thread thread = new Thread()
+            {
+                public void run()
+                {
+                    otherPageContexts[0] = JspFactory.getDefaultFactory().getPageContext(null, null, null, null, true, 0, true);
+                    WebMockObjectFactory otherFactory = new WebMockObjectFactory();
+                    otherPageContexts[1] = JspFactory.getDefaultFactory().getPageContext(null, null, null, null, true, 0, true);
+                    assertSame(otherFactory.getMockPageContext(), otherPageContexts[1]);
+                }
+            };
+            WebMockObjectFactory currentFactory = new WebMockObjectFactory();
+            thread.start();
+            thread.join();
+            assertSame(factory.getMockPageContext(), otherPageContexts[0]);
+            assertNotNull(otherPageContexts[1]);
+            assertNotSame(otherPageContexts[1], currentFactory.getMockPageContext());
+            assertSame(routingFactory, JspFactory.getDefaultFactory());
+            assertSame(currentFactory.getMockPageContext(), JspFactory.getDefaultFactory().getPageContext(null, null, null, null, true, 0, true));
+            assertSame(currentFactory.getJspFactory(), routingFactory.getCurrentFactory());
+        }
+        finally
+        {
+            RoutingJspFactory.uninstall();
+        }
+        assertFalse(RoutingJspFactory.isInstalled());
+        assertSame(factory.getJspFactory(), JspFactory.getDefaultFactory());
+    }
+    
+    public void testRecycleKeepsJspFactoryPageContext() throws Exception
+    {
+        WebMockObjectFactory factory = new WebMockObjectFactory();
+        MockPageContext pageContext = new MockPageContext();
+        factory.getMockJspFactory().setPageContext(pageContext);
+        factory.recycle();
+        assertSame(pageContext, factory.getMockJspFactory().getPageContext());
+        assertNotSame(pageContext, factory.getMockPageContext());
+    }
+    
+    public void testDeactivateJspFactory() throws Exception
+    {
+        JspFactory previousFactory = JspFactory.getDefaultFactory();
+        RoutingJspFactory routingFactory = RoutingJspFactory.install();
+        try
+        {
+            WebMockObjectFactory factory = new WebMockObjectFactory();
+            assertSame(factory.getJspFactory(), routingFactory.getCurrentFactory());
+            WebMockObjectFactory otherFactory = new WebMockObjectFactory();
+            factory.deactivateJspFactory();
+            assertSame(otherFactory.getJspFactory(), routingFactory.getCurrentFactory());
+            otherFactory.deactivateJspFactory();
+            assertSame(previousFactory, routingFactory.getCurrentFactory());
+            WebMockObjectFactoryPool pool = new WebMockObjectFactoryPool();
+            WebMockObjectFactory pooledFactory = pool.acquire();
+            assertSame(pooledFactory.getJspFactory(), routingFactory.getCurrentFactory());
+            pool.release(pooledFactory);
+            assertSame(previousFactory, routingFactory.getCurrentFactory());
+            TestServletAdapter adapter = new TestServletAdapter();
+            adapter.setUp();
+            assertSame(adapter.getFactory().getJspFactory(), routingFactory.getCurrentFactory());
+            adapter.tearDown();
+            assertSame(previousFactory, routingFactory.getCurrentFactory());
+        }
+        finally
+        {
+            RoutingJspFactory.uninstall();
+        }
+    }
+    
+    public void testRecycleAndPool() throws Exception
+    {
+        WebMockObjectFactoryPool pool = new WebMockObjectFactoryPool();
+        WebMockObjectFactory factory = pool.acquire();
+        MockServletContext context = factory.getMockServletContext();
+        MockHttpServletRequest request = factory.getMockRequest();
+        request.setupAddParameter("param", "value");
+        request.setAttribute("attribute", "value");
+        request.setRequestURI("/test");
+        factory.getMockResponse().setStatus(404);
+        factory.getMockResponse().getWriter().print("output");
+        factory.getMockSession().setAttribute("attribute", "value");
+        factory.getMockPageContext().setAttribute("attribute", "value");
+        factory.addRequestWrapper(new HttpServletRequestWrapper(request));
+        pool.release(factory);
+        assertSame(factory, pool.acquire());
+        assertEquals(1, pool.getNumberCreatedFactories());
+        assertEquals(1, pool.getNumberReusedFactories());
+        assertSame(context, factory.getMockServletContext());
+        assertSame(request, factory.getMockRequest());
+        assertSame(request, factory.getWrappedRequest());
+        assertNull(request.getParameter("param"));
+        assertNull(request.getAttribute("attribute"));
+        assertNull(request.getRequestURI());
+        assertEquals(200, factory.getMockResponse().getStatusCode());
+        assertEquals("", factory.getMockResponse().getOutputStreamContent());
+        assertNull(factory.getMockSession().getAttribute("attribute"));
+        assertNull(factory.getMockPageContext().getAttribute("attribute"));
+        assertSame(factory.getMockSession(), request.getSession());
+        assertSame(factory.getJspFactory(), JspFactory.getDefaultFactory());
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if(!(threadBean instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean)threadBean;
+        if(!allocationBean.isThreadAllocatedMemorySupported() || !allocationBean.isThreadAllocatedMemoryEnabled()) return;
+        long threadId = Thread.currentThread().getId();
+        int iterations = 1000;
+        long start = allocationBean.getThreadAllocatedBytes(threadId);
+        for(int ii = 0; ii < iterations; ii++)
+        {
+            new WebMockObjectFactory().getMockRequest().setupAddParameter("param", "value");
+        }
+        long newFactoryBytes = (allocationBean.getThreadAllocatedBytes(threadId) - start) / iterations;
+        start = allocationBean.getThreadAllocatedBytes(threadId);
+        for(int ii = 0; ii < iterations; ii++)
+        {
+            WebMockObjectFactory pooledFactory = pool.acquire();
+            pooledFactory.getMockRequest().setupAddParameter("param", "value");
+            pool.release(pooledFactory);
+        }
+        long pooledFactoryBytes = (allocationBean.getThreadAllocatedBytes(threadId) - start) / iterations;
+        assertTrue("new: " + newFactoryBytes + " bytes, pooled: " + pooledFactoryBytes + " bytes", pooledFactoryBytes * 4 < newFactoryBytes);
+    }
+    
+    
+    public static class TestServletAdapter extends BasicServletTestCaseAdapter
+    {
+        public WebMockObjectFactory getFactory()
+        {
+            return getWebMockObjectFactory();
+        }
+    }
     
     public static class TestRequestWrapper extends MockHttpServletRequest
     {
@@ -54,6 +54,10 @@ public abstract class BasicActionTestCaseAdapter extends BasicHTMLOutputTestCase
     @After
     public void tearDown() throws Exception
     {
+        if(null != actionMockObjectFactory)
+        {
+            actionMockObjectFactory.deactivateJspFactory();
+        }
         actionTestModule = null;
         actionMockObjectFactory = null;
     }